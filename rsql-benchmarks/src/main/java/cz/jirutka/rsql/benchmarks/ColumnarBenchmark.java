@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.evaluator.ColumnTable;
+import cz.jirutka.rsql.evaluator.ColumnarEvaluator;
+import cz.jirutka.rsql.evaluator.RowSet;
+import cz.jirutka.rsql.parser.RSQLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluation of numeric comparisons on a {@link ColumnTable} by the scalar loops and
+ * by the Vector API. The vectorized variant needs JDK 16+ and the incubator module, run it with
+ * <tt>-jvmArgsAppend --add-modules=jdk.incubator.vector</tt>; the throughput in values per
+ * second is the number of rows divided by the average time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarBenchmark {
+
+    private static final int ROWS = 10000000;
+
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    @Param({"year=gt=2000", "year=in=(1995,2000,2005)", "views=le=100000", "rating=ge=7.5"})
+    public String query;
+
+    private ColumnTable table;
+
+    private ColumnarEvaluator evaluator;
+
+    private Node node;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int[] years = new int[ROWS];
+        long[] views = new long[ROWS];
+        double[] ratings = new double[ROWS];
+
+        for (int i = 0; i < ROWS; i++) {
+            years[i] = 1950 + random.nextInt(70);
+            views[i] = random.nextInt(10000000);
+            ratings[i] = random.nextInt(100) / 10.0;
+        }
+        table = new ColumnTable(ROWS)
+                .withIntColumn("year", years)
+                .withLongColumn("views", views)
+                .withDoubleColumn("rating", ratings);
+
+        evaluator = new ColumnarEvaluator().withVectorization(vectorized);
+        if (vectorized && !evaluator.isVectorized()) {
+            throw new IllegalStateException("Vector API is not available, add the module jdk.incubator.vector");
+        }
+        node = new RSQLParser().parse(query);
+    }
+
+    @Benchmark
+    public RowSet evaluate() {
+        return evaluator.evaluate(node, table);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.benchmarks.persistence.Movie;
+import cz.jirutka.rsql.benchmarks.persistence.Person;
+import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.visitor.hibernate.HibernateCriterionVisitor;
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.criterion.Criterion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures translation of the AST into a Hibernate {@link Criteria} by the
+ * {@link HibernateCriterionVisitor}, against an in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HibernateVisitorBenchmark {
+
+    private static final int MOVIES_COUNT = 1000;
+
+    @Param({
+        "title==Alien",
+        "genre=in=(sci-fi,action);year=ge=2000;rating>7.5",
+        "director.name==*Nolan,(genre==drama;year=lt=1990)"
+    })
+    public String query;
+
+    private SessionFactory sessionFactory;
+
+    private Session session;
+
+    private Node node;
+
+
+    @Setup
+    public void setup() {
+        sessionFactory = new Configuration()
+                .addAnnotatedClass(Movie.class)
+                .addAnnotatedClass(Person.class)
+                .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+                .setProperty("hibernate.connection.url", "jdbc:h2:mem:movies;DB_CLOSE_DELAY=-1")
+                .setProperty("hibernate.connection.username", "sa")
+                .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .buildSessionFactory();
+        session = sessionFactory.openSession();
+        populate(session);
+
+        node = new RSQLParser().parse(query);
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        sessionFactory.close();
+    }
+
+    /**
+     * Only builds the criteria, so this measures the visitor itself.
+     */
+    @Benchmark
+    public Criteria createCriteria() {
+        HibernateCriterionVisitor visitor = new HibernateCriterionVisitor(session, Movie.class);
+        Criterion criterion = node.accept(visitor);
+        return visitor.createCriteria(criterion, null);
+    }
+
+    /**
+     * Builds the criteria and executes it, for comparison with the overhead of the visitor.
+     */
+    @Benchmark
+    public List<?> list() {
+        List<?> result = createCriteria().list();
+        session.clear();
+        return result;
+    }
+
+
+    private static void populate(Session session) {
+        String[] genres = { "sci-fi", "action", "drama", "comedy", "horror" };
+        String[] directors = { "Christopher Nolan", "Ridley Scott", "Quentin Tarantino", "Jonathan Nolan" };
+
+        session.beginTransaction();
+        for (int i = 0; i < directors.length; i++) {
+            Person person = new Person();
+            person.setId(i);
+            person.setName(directors[i]);
+            session.save(person);
+        }
+        for (int i = 0; i < MOVIES_COUNT; i++) {
+            Movie movie = new Movie();
+            movie.setId(i);
+            movie.setTitle(i == 0 ? "Alien" : "Movie " + i);
+            movie.setGenre(genres[i % genres.length]);
+            movie.setYear(1960 + i % 60);
+            movie.setRating((i % 100) / 10.0);
+            movie.setDirector((Person) session.load(Person.class, i % directors.length));
+            session.save(movie);
+        }
+        session.getTransaction().commit();
+        session.clear();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+import cz.jirutka.rsql.evaluator.PredicateCompiler;
+import cz.jirutka.rsql.parser.RSQLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures testing of objects by a compiled <tt>=in=</tt> with a large list of ids, compared
+ * with a lookup of the boxed value in a {@link HashSet} (the former implementation). About 10%
+ * of the tested objects match; the score is the average time to test all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LargeInBenchmark {
+
+    private static final int OBJECTS = 1000000;
+
+    @Param({"100", "5000", "50000"})
+    public int arguments;
+
+    @Param({"id", "code"})
+    public String selector;
+
+    @Param({"0", "1000"})
+    public int bloomFilterThreshold;
+
+    private Item[] items;
+
+    private Predicate<Item> predicate;
+
+    private Set<Object> hashSet;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int universe = arguments * 10;
+        StringJoiner query = new StringJoiner(",", selector + "=in=(", ")");
+        hashSet = new HashSet<>();
+
+        for (int i = 0; i < arguments; i++) {
+            long id = random.nextInt(universe);
+            query.add(Long.toString(id));
+            hashSet.add(selector.equals("id") ? (Object) id : (Object) Long.toString(id));
+        }
+        items = new Item[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            items[i] = new Item(random.nextInt(universe));
+        }
+        predicate = new PredicateCompiler()
+                .withBloomFilterThreshold(bloomFilterThreshold)
+                .compile(new RSQLParser().parse(query.toString()), Item.class);
+    }
+
+    @Benchmark
+    public int compiled() {
+        int count = 0;
+        for (Item item : items) {
+            if (predicate.test(item)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int hashSet() {
+        boolean byId = selector.equals("id");
+        int count = 0;
+        for (Item item : items) {
+            if (hashSet.contains(byId ? (Object) item.id : (Object) item.code)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    public static class Item {
+
+        public final long id;
+        public final String code;
+
+        Item(long id) {
+            this.id = id;
+            this.code = Long.toString(id);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.parser.RSQLHandler;
+import cz.jirutka.rsql.parser.RSQLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link RSQLParser#parse(String)} and {@link RSQLParser#parse(ByteBuffer)} with both
+ * engines, and {@link RSQLParser#parse(CharSequence, RSQLHandler)} (that doesn't depend on the
+ * engine).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "DEEP", "LARGE_IN"})
+    public Queries query;
+
+    @Param({"JAVACC", "DIRECT"})
+    public RSQLParser.Engine engine;
+
+    private RSQLParser parser;
+
+    private String input;
+
+    private ByteBuffer bytes;
+
+
+    @Setup
+    public void setup() {
+        parser = new RSQLParser().withEngine(engine);
+        input = query.query();
+        bytes = ByteBuffer.wrap(input.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Benchmark
+    public Node parse() {
+        return parser.parse(input);
+    }
+
+    @Benchmark
+    public Node parseBytes() {
+        return parser.parse(bytes);
+    }
+
+    @Benchmark
+    public void parseEvents(final Blackhole blackhole) {
+        parser.parse(input, new RSQLHandler() {
+            public void startAnd() { }
+            public void startOr() { }
+            public void end() { }
+
+            public void comparison(String selector, ComparisonOperator operator, List<String> arguments) {
+                blackhole.consume(selector);
+                blackhole.consume(arguments);
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+/**
+ * Queries of various shapes used by the benchmarks.
+ */
+public enum Queries {
+
+    /**
+     * A single comparison.
+     */
+    SMALL ("name==RSQL"),
+
+    /**
+     * A typical query of a REST API.
+     */
+    MEDIUM ("genres=in=(sci-fi,action);(director=='Christopher Nolan',actor==*Bale);year=ge=2000"
+            + " and title!=\"The Dark Knight\";rating>7.5"),
+
+    /**
+     * A query with 1000 nested groups of alternating AND and OR.
+     */
+    DEEP (deeplyNested(1000)),
+
+    /**
+     * A comparison with 10 000 arguments.
+     */
+    LARGE_IN (largeIn(10000));
+
+
+    private final String query;
+
+    private Queries(String query) {
+        this.query = query;
+    }
+
+    public String query() {
+        return query;
+    }
+
+
+    private static String deeplyNested(int depth) {
+        StringBuilder sb = new StringBuilder("s0==v");
+        for (int i = 1; i <= depth; i++) {
+            sb.insert(0, '(');
+            sb.append(i % 2 == 0 ? ';' : ',').append('s').append(i).append("==v)");
+        }
+        return sb.toString();
+    }
+
+    private static String largeIn(int size) {
+        StringBuilder sb = new StringBuilder("id=in=(");
+        for (int i = 0; i < size; i++) {
+            sb.append(i > 0 ? "," : "").append(i);
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.benchmarks;
+
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.evaluator.PredicateCompiler;
+import cz.jirutka.rsql.evaluator.SubscriptionIndex;
+import cz.jirutka.rsql.parser.RSQLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures matching of an event against a number of standing queries by a
+ * {@link SubscriptionIndex}, compared with evaluating the compiled predicate of each query.
+ * The queries are typical alerts: an equality or two, a range and sometimes a pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionIndexBenchmark {
+
+    private static final String[] TYPES = { "order", "payment", "refund", "shipment", "login" };
+
+    private static final int EVENTS = 1024;
+
+    @Param({"1000", "20000"})
+    public int subscriptions;
+
+    private SubscriptionIndex<Event, Integer> index;
+
+    private List<Predicate<Event>> predicates;
+
+    private Event[] events;
+
+    private int next;
+
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        RSQLParser parser = new RSQLParser();
+        PredicateCompiler compiler = new PredicateCompiler();
+
+        index = new SubscriptionIndex<>(Event.class, compiler);
+        predicates = new ArrayList<>(subscriptions);
+
+        for (int i = 0; i < subscriptions; i++) {
+            Node query = parser.parse(randomQuery(random));
+            index.register(i, query);
+            predicates.add(compiler.compile(query, Event.class));
+        }
+        events = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new Event(TYPES[random.nextInt(TYPES.length)], random.nextInt(100000),
+                    random.nextInt(10000) / 10.0, "region" + random.nextInt(20));
+        }
+    }
+
+    @Benchmark
+    public int index() {
+        return index.match(nextEvent()).size();
+    }
+
+    @Benchmark
+    public int scan() {
+        Event event = nextEvent();
+        int count = 0;
+        for (Predicate<Event> predicate : predicates) {
+            if (predicate.test(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Event nextEvent() {
+        return events[next++ & (EVENTS - 1)];
+    }
+
+    private static String randomQuery(Random random) {
+        String query = "type==" + TYPES[random.nextInt(TYPES.length)];
+        switch (random.nextInt(4)) {
+            case 0:
+                query += ";account==" + random.nextInt(100000);
+                break;
+            case 1:
+                query += ";account=in=(" + random.nextInt(100000) + ',' + random.nextInt(100000) + ')';
+                break;
+            default:
+                int low = random.nextInt(1000);
+                query += ";amount>=" + low + ";amount<" + (low + random.nextInt(50));
+        }
+        if (random.nextInt(4) == 0) {
+            query += ";region==" + (random.nextBoolean() ? "region1*" : "region" + random.nextInt(20));
+        }
+        return query;
+    }
+
+
+    public static class Event {
+
+        public final String type;
+        public final int account;
+        public final double amount;
+        public final String region;
+
+        Event(String type, int account, double amount, String region) {
+            this.type = type;
+            this.account = account;
+            this.amount = amount;
+            this.region = region;
+        }
+    }
+}
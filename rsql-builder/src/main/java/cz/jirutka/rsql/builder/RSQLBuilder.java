@@ -200,7 +200,8 @@ public class RSQLBuilder {
 
     private static Node append(LogicalNode logicalNode, Node node) {
         if (logicalNode != null) {
-            List<Node> children = logicalNode.getChildren();
+            List<Node> children = new ArrayList<Node>(logicalNode.childCount() + 1);
+            children.addAll(logicalNode.children());
             children.add(node);
             return logicalNode.withChildren(children);
         }
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.AND;
+import static jdk.incubator.vector.VectorOperators.ASHR;
+import static jdk.incubator.vector.VectorOperators.IS_NAN;
+import static jdk.incubator.vector.VectorOperators.OR;
+import static jdk.incubator.vector.VectorOperators.UNSIGNED_LE;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/**
+ * Scanner that uses the Vector API (JDK 16+) to compare as many values at once as fit into the
+ * widest vector register of the CPU. Each comparison mask is converted to bits by blending a
+ * vector of the lane bits (<tt>1 &lt;&lt; lane</tt>) and OR-ing its lanes, which is much faster
+ * than {@code VectorMask.toLong()} before JDK 19. The last words that don't fill a whole vector
+ * are scanned by the {@link ScalarScanner}.
+ *
+ * <p>This class is compiled only on JDK 16+ and loaded reflectively by
+ * {@link ColumnScanner#vectorized()}.</p>
+ */
+final class VectorScanner implements ColumnScanner {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Sets larger than this are scanned by binary search in the scalar loop.
+     */
+    static final int MAX_SET_SIZE = 16;
+
+    private static final IntVector INT_LANE_BITS = IntVector.fromArray(INTS, laneBits(INTS.length()), 0);
+    private static final LongVector LONG_LANE_BITS = LongVector.fromArray(LONGS, longLaneBits(LONGS.length()), 0);
+
+    private static final long NAN_KEY = ColumnScanner.orderKey(Double.NaN);
+
+    private final ScalarScanner scalar = ScalarScanner.INSTANCE;
+
+
+    VectorScanner() {
+        if (INTS.length() > 32 || 64 % INTS.length() != 0
+                || 64 % LONGS.length() != 0 || DOUBLES.length() != LONGS.length()) {
+            throw new IllegalStateException("Unsupported vector shape: " + INTS);
+        }
+    }
+
+
+    public void scanRange(int[] values, int min, int max, long[] words) {
+        if (min > max) {
+            scalar.scanRange(values, min, max, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+        int span = max - min;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += INTS.length()) {
+                // Unsigned comparison of the distance from min checks both bounds at once.
+                IntVector vector = IntVector.fromArray(INTS, values, base + i);
+                word |= bits(vector.sub(min).compare(UNSIGNED_LE, span)) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanRange(values, min, max, words, fullWords);
+    }
+
+    public void scanRange(long[] values, long min, long max, long[] words) {
+        if (min > max) {
+            scalar.scanRange(values, min, max, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+        long span = max - min;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += LONGS.length()) {
+                LongVector vector = LongVector.fromArray(LONGS, values, base + i);
+                word |= longBits(vector.sub(min).compare(UNSIGNED_LE, span)) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanRange(values, min, max, words, fullWords);
+    }
+
+    public void scanRange(double[] values, long min, long max, long[] words) {
+        if (min > max) {
+            scalar.scanRange(values, min, max, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+        long span = max - min;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += DOUBLES.length()) {
+                DoubleVector vector = DoubleVector.fromArray(DOUBLES, values, base + i);
+                // The same as ColumnScanner#orderKey, the raw bits of NaN are replaced by the canonical key.
+                LongVector bits = vector.reinterpretAsLongs();
+                LongVector keys = bits.lanewise(XOR, bits.lanewise(ASHR, 63).lanewise(AND, Long.MAX_VALUE))
+                        .blend(NAN_KEY, vector.test(IS_NAN).cast(LONGS));
+                word |= longBits(keys.sub(min).compare(UNSIGNED_LE, span)) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanRange(values, min, max, words, fullWords);
+    }
+
+    public void scanIn(int[] values, int[] sorted, long[] words) {
+        if (sorted.length == 0 || sorted.length > MAX_SET_SIZE) {
+            scalar.scanIn(values, sorted, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += INTS.length()) {
+                IntVector vector = IntVector.fromArray(INTS, values, base + i);
+                VectorMask<Integer> mask = vector.eq(sorted[0]);
+                for (int k = 1; k < sorted.length; k++) {
+                    mask = mask.or(vector.eq(sorted[k]));
+                }
+                word |= bits(mask) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanIn(values, sorted, words, fullWords);
+    }
+
+    public void scanIn(long[] values, long[] sorted, long[] words) {
+        if (sorted.length == 0 || sorted.length > MAX_SET_SIZE) {
+            scalar.scanIn(values, sorted, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += LONGS.length()) {
+                LongVector vector = LongVector.fromArray(LONGS, values, base + i);
+                VectorMask<Long> mask = vector.eq(sorted[0]);
+                for (int k = 1; k < sorted.length; k++) {
+                    mask = mask.or(vector.eq(sorted[k]));
+                }
+                word |= longBits(mask) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanIn(values, sorted, words, fullWords);
+    }
+
+    public void scanIn(double[] values, double[] sorted, long[] words) {
+        // The vector comparison differs from Double#equals in NaN and the sign of zero.
+        if (sorted.length == 0 || sorted.length > MAX_SET_SIZE
+                || Double.isNaN(sorted[sorted.length - 1]) || containsZero(sorted)) {
+            scalar.scanIn(values, sorted, words);
+            return;
+        }
+        int fullWords = values.length >>> 6;
+
+        for (int w = 0; w < fullWords; w++) {
+            long word = 0;
+            for (int i = 0, base = w << 6; i < 64; i += DOUBLES.length()) {
+                DoubleVector vector = DoubleVector.fromArray(DOUBLES, values, base + i);
+                VectorMask<Double> mask = vector.eq(sorted[0]);
+                for (int k = 1; k < sorted.length; k++) {
+                    mask = mask.or(vector.eq(sorted[k]));
+                }
+                word |= longBits(mask.cast(LONGS)) << i;
+            }
+            words[w] = word;
+        }
+        scalar.scanIn(values, sorted, words, fullWords);
+    }
+
+
+    /**
+     * Returns the bits of the lanes set in the mask, i.e. the same as {@code mask.toLong()}.
+     */
+    private static long bits(VectorMask<Integer> mask) {
+        return IntVector.zero(INTS).blend(INT_LANE_BITS, mask).reduceLanes(OR) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @see #bits(VectorMask)
+     */
+    private static long longBits(VectorMask<Long> mask) {
+        return LongVector.zero(LONGS).blend(LONG_LANE_BITS, mask).reduceLanes(OR);
+    }
+
+    private static int[] laneBits(int length) {
+        int[] bits = new int[length];
+        for (int i = 0; i < length; i++) {
+            bits[i] = 1 << i;
+        }
+        return bits;
+    }
+
+    private static long[] longLaneBits(int length) {
+        long[] bits = new long[length];
+        for (int i = 0; i < length; i++) {
+            bits[i] = 1L << i;
+        }
+        return bits;
+    }
+
+    private static boolean containsZero(double[] values) {
+        for (double value : values) {
+            if (value == 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import cz.jirutka.rsql.Assert;
+
+/**
+ * Converts the textual arguments of the comparisons to the type of the compared property.
+ *
+ * <p>The default instance supports strings, primitives and their wrappers, {@link BigDecimal},
+ * {@link BigInteger}, {@link UUID}, enums (by the constant name, case-insensitive), the
+ * <tt>java.time</tt> types and {@link Date} in ISO-8601 format (local date or date-time in the
+ * default time zone, or an instant). Any other type is converted using its static
+ * <tt>valueOf(String)</tt> method or a constructor with a single <tt>String</tt> parameter, if it
+ * has one. Converters for other types may be registered by {@link #withConverter(Class, Function)}.</p>
+ */
+@Immutable
+public final class ArgumentConverter {
+
+    public static final ArgumentConverter DEFAULT = new ArgumentConverter(defaultConverters());
+
+    private final Map<Class<?>, Function<String, ?>> converters;
+
+
+    private ArgumentConverter(Map<Class<?>, Function<String, ?>> converters) {
+        this.converters = converters;
+    }
+
+
+    /**
+     * Returns a copy of this converter that uses the specified function for the specified type
+     * (not its subtypes). If the function throws a {@link RuntimeException}, then the argument is
+     * considered invalid.
+     *
+     * @param type Must not be <tt>null</tt>.
+     * @param converter Must not be <tt>null</tt>.
+     */
+    public <T> ArgumentConverter withConverter(Class<T> type, Function<String, ? extends T> converter) {
+        Assert.notNull(type, "type must not be null");
+        Assert.notNull(converter, "converter must not be null");
+
+        Map<Class<?>, Function<String, ?>> copy = new HashMap<>(converters);
+        copy.put(wrap(type), converter);
+        return new ArgumentConverter(copy);
+    }
+
+    /**
+     * Converts the argument to the specified type.
+     *
+     * @param argument The argument to convert.
+     * @param type The target type; primitive types are converted to their wrappers.
+     * @return An instance of the {@code type} (or its wrapper), never <tt>null</tt>.
+     *
+     * @throws IllegalArgumentException If the argument can't be converted to the type.
+     */
+    public Object convert(String argument, Class<?> type) {
+        Function<String, ?> converter = converterFor(type);
+        Object result;
+        try {
+            result = converter.apply(argument);
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot convert argument '%s' to %s", argument, type.getName()), ex);
+        }
+        if (result == null) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot convert argument '%s' to %s", argument, type.getName()));
+        }
+        return result;
+    }
+
+    /**
+     * Whether the arguments can be converted to the specified type.
+     */
+    public boolean supports(Class<?> type) {
+        try {
+            converterFor(type);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+
+    private Function<String, ?> converterFor(Class<?> type) {
+        Class<?> wrapped = wrap(type);
+
+        Function<String, ?> converter = converters.get(wrapped);
+        if (converter != null) {
+            return converter;
+        }
+        if (wrapped.isEnum()) {
+            return enumConverter(wrapped);
+        }
+        converter = reflectiveConverter(wrapped);
+        if (converter != null) {
+            return converter;
+        }
+        throw new IllegalArgumentException("No converter for type: " + type.getName());
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    private static Map<Class<?>, Function<String, ?>> defaultConverters() {
+        Map<Class<?>, Function<String, ?>> map = new HashMap<>();
+
+        map.put(String.class, Function.identity());
+        map.put(Object.class, Function.identity());
+        map.put(CharSequence.class, Function.identity());
+        map.put(Integer.class, Integer::valueOf);
+        map.put(Long.class, Long::valueOf);
+        map.put(Short.class, Short::valueOf);
+        map.put(Byte.class, Byte::valueOf);
+        map.put(Double.class, Double::valueOf);
+        map.put(Float.class, Float::valueOf);
+        map.put(BigDecimal.class, BigDecimal::new);
+        map.put(BigInteger.class, BigInteger::new);
+        map.put(UUID.class, UUID::fromString);
+        map.put(LocalDate.class, LocalDate::parse);
+        map.put(LocalDateTime.class, LocalDateTime::parse);
+        map.put(LocalTime.class, LocalTime::parse);
+        map.put(Instant.class, Instant::parse);
+        map.put(OffsetDateTime.class, OffsetDateTime::parse);
+        map.put(ZonedDateTime.class, ZonedDateTime::parse);
+        map.put(Date.class, ArgumentConverter::parseDate);
+        map.put(Boolean.class, arg -> {
+            if (arg.equalsIgnoreCase("true")) return Boolean.TRUE;
+            if (arg.equalsIgnoreCase("false")) return Boolean.FALSE;
+            throw new IllegalArgumentException("Not a boolean: " + arg);
+        });
+        map.put(Character.class, arg -> {
+            Assert.isTrue(arg.length() == 1, "Not a single character: %s", arg);
+            return arg.charAt(0);
+        });
+        return map;
+    }
+
+    private static Date parseDate(String arg) {
+        if (arg.endsWith("Z") || arg.matches(".*[+-]\\d\\d:\\d\\d$")) {
+            return Date.from(OffsetDateTime.parse(arg).toInstant());
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        if (arg.indexOf('T') >= 0) {
+            return Date.from(LocalDateTime.parse(arg).atZone(zone).toInstant());
+        }
+        return Date.from(LocalDate.parse(arg).atStartOfDay(zone).toInstant());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, ?> enumConverter(Class<?> type) {
+        final Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+        return arg -> {
+            for (Enum constant : enumType.getEnumConstants()) {
+                if (constant.name().equalsIgnoreCase(arg)) {
+                    return constant;
+                }
+            }
+            throw new IllegalArgumentException("No enum constant " + enumType.getName() + "." + arg);
+        };
+    }
+
+    private static Function<String, ?> reflectiveConverter(final Class<?> type) {
+        try {
+            final Method valueOf = type.getMethod("valueOf", String.class);
+            if (Modifier.isStatic(valueOf.getModifiers()) && type.isAssignableFrom(valueOf.getReturnType())) {
+                return arg -> invoke(() -> valueOf.invoke(null, arg));
+            }
+        } catch (NoSuchMethodException ex) {
+            // try constructor
+        }
+        try {
+            final Constructor<?> constructor = type.getConstructor(String.class);
+            if (!Modifier.isAbstract(type.getModifiers())) {
+                return arg -> invoke(() -> constructor.newInstance(arg));
+            }
+        } catch (NoSuchMethodException ex) {
+            // no way to convert
+        }
+        return null;
+    }
+
+    private static Object invoke(ReflectiveCall call) {
+        try {
+            return call.call();
+        } catch (InvocationTargetException ex) {
+            throw new IllegalArgumentException(ex.getCause());
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    private interface ReflectiveCall {
+        Object call() throws ReflectiveOperationException;
+    }
+}
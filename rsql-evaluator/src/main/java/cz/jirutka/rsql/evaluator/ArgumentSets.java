@@ -0,0 +1,331 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Compact sets of the arguments of <tt>=in=</tt> and <tt>=out=</tt>, used instead of a
+ * {@link java.util.HashSet} of boxed values for the types where it pays off.
+ *
+ * <p>The arguments of an integral property (<tt>byte</tt> to <tt>long</tt>) are stored as
+ * <tt>long</tt>s, of a floating-point property as the bits of the <tt>double</tt>, in an
+ * open-addressing table with linear probing. The arguments of a textual property are
+ * concatenated into a single string with an array of offsets and hashes, so a large list
+ * doesn't keep thousands of small {@code String} objects. A lookup costs a hash and
+ * (typically) one probe, without allocation.</p>
+ *
+ * <p>A set with a lot of arguments may be prefixed by a {@link BloomFilter}. It's much smaller
+ * than the table, so it stays in the CPU cache and rejects most of the values that are not
+ * in the set without touching the table.</p>
+ */
+final class ArgumentSets {
+
+    private ArgumentSets() {
+    }
+
+
+    /**
+     * Returns a set of the arguments converted to the type of the property, or <tt>null</tt> if
+     * there's no specialized set for the type.
+     *
+     * @param bloomFilterThreshold The minimum number of arguments to build a Bloom filter, or
+     *                             <tt>0</tt> to never build it.
+     */
+    static Predicate<Object> of(List<String> arguments, Class<?> propertyType,
+                                ArgumentConverter converter, int bloomFilterThreshold) {
+
+        boolean bloom = bloomFilterThreshold > 0 && arguments.size() >= bloomFilterThreshold;
+        Class<?> wrapped = MethodType.methodType(propertyType).wrap().returnType();
+
+        if (PredicateCompiler.isText(propertyType)) {
+            if (propertyType != String.class) {
+                return new StringSet(arguments, true, bloom);
+            }
+            String[] values = new String[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (String) converter.convert(arguments.get(i), String.class);
+            }
+            return new StringSet(Arrays.asList(values), false, bloom);
+        }
+        boolean integral = wrapped == Long.class || wrapped == Integer.class
+                || wrapped == Short.class || wrapped == Byte.class;
+        boolean floating = wrapped == Double.class || wrapped == Float.class;
+        if (!integral && !floating) {
+            return null;
+        }
+        long[] keys = new long[arguments.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Number value = (Number) converter.convert(arguments.get(i), propertyType);
+            keys[i] = floating ? Double.doubleToLongBits(value.doubleValue()) : value.longValue();
+        }
+        return new LongSet(keys, floating, bloom);
+    }
+
+    /**
+     * Returns the capacity of a table with load factor at most 0.5.
+     */
+    static int tableSize(int size) {
+        return Math.max(2, Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1);
+    }
+
+    /**
+     * Finalization mix of the MurmurHash3, spreads the bits of the key over the whole hash.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+
+    /**
+     * Set of numbers of an integral or floating-point property. A number equals to an argument
+     * iff its <tt>long</tt> value, or the bits of its <tt>double</tt> value, are the same; that's
+     * the same as {@link Long#equals(Object)} and {@link Double#equals(Object)}.
+     */
+    static final class LongSet implements Predicate<Object> {
+
+        private final long[] table;  // 0 marks an empty slot
+        private final int mask;
+        private final boolean containsZero;
+        private final boolean floating;
+        private final BloomFilter bloom;
+        private final int size;
+
+        LongSet(long[] keys, boolean floating, boolean withBloomFilter) {
+            this.table = new long[tableSize(keys.length)];
+            this.mask = table.length - 1;
+            this.floating = floating;
+            this.bloom = withBloomFilter ? new BloomFilter(keys.length) : null;
+
+            boolean zero = false;
+            int count = 0;
+            for (long key : keys) {
+                if (key == 0) {
+                    count += zero ? 0 : 1;
+                    zero = true;
+                } else if (insert(key)) {
+                    count++;
+                }
+            }
+            this.containsZero = zero;
+            this.size = count;
+        }
+
+        public boolean test(Object value) {
+            Number number = (Number) value;
+            return contains(floating ? Double.doubleToLongBits(number.doubleValue()) : number.longValue());
+        }
+
+        boolean contains(long key) {
+            if (key == 0) {
+                return containsZero;
+            }
+            long hash = mix(key);
+            if (bloom != null && !bloom.mightContain(hash)) {
+                return false;
+            }
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long current = table[i];
+                if (current == key) {
+                    return true;
+                }
+                if (current == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of distinct arguments.
+         */
+        int size() {
+            return size;
+        }
+
+        boolean hasBloomFilter() {
+            return bloom != null;
+        }
+
+        private boolean insert(long key) {
+            long hash = mix(key);
+            int i = (int) hash & mask;
+            while (table[i] != 0) {
+                if (table[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+            if (bloom != null) {
+                bloom.add(hash);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Set of strings, compared with the value of a {@code String} property, or with the
+     * {@code toString()} of the value of another textual property.
+     */
+    static final class StringSet implements Predicate<Object> {
+
+        private final String chars;    // all the entries concatenated
+        private final int[] offsets;   // entry i is chars[offsets[i], offsets[i + 1])
+        private final int[] hashes;    // String#hashCode() of the entry
+        private final int[] table;     // index of the entry + 1, 0 marks an empty slot
+        private final int mask;
+        private final boolean text;
+        private final BloomFilter bloom;
+
+        StringSet(Collection<String> values, boolean text, boolean withBloomFilter) {
+            this.table = new int[tableSize(values.size())];
+            this.mask = table.length - 1;
+            this.text = text;
+            this.bloom = withBloomFilter ? new BloomFilter(values.size()) : null;
+
+            StringBuilder sb = new StringBuilder();
+            int[] offsets = new int[values.size() + 1];
+            int[] hashes = new int[values.size()];
+            int count = 0;
+
+            for (String value : values) {
+                int hash = value.hashCode();
+                long mixed = mix(hash);
+                int i = (int) mixed & mask;
+                boolean duplicate = false;
+
+                for (; table[i] != 0; i = (i + 1) & mask) {
+                    int entry = table[i] - 1;
+                    if (hashes[entry] == hash && matches(sb, offsets, entry, value)) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) {
+                    sb.append(value);
+                    hashes[count] = hash;
+                    offsets[++count] = sb.length();
+                    table[i] = count;
+                    if (bloom != null) {
+                        bloom.add(mixed);
+                    }
+                }
+            }
+            this.chars = sb.toString();
+            this.offsets = Arrays.copyOf(offsets, count + 1);
+            this.hashes = Arrays.copyOf(hashes, count);
+        }
+
+        public boolean test(Object value) {
+            return contains(text ? value.toString() : (String) value);
+        }
+
+        boolean contains(String string) {
+            int hash = string.hashCode();
+            long mixed = mix(hash);
+            if (bloom != null && !bloom.mightContain(mixed)) {
+                return false;
+            }
+            for (int i = (int) mixed & mask; ; i = (i + 1) & mask) {
+                int entry = table[i] - 1;
+                if (entry < 0) {
+                    return false;
+                }
+                if (hashes[entry] == hash && matches(chars, offsets, entry, string)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of distinct arguments.
+         */
+        int size() {
+            return hashes.length;
+        }
+
+        boolean hasBloomFilter() {
+            return bloom != null;
+        }
+
+        private static boolean matches(CharSequence chars, int[] offsets, int entry, String string) {
+            int start = offsets[entry];
+            int length = offsets[entry + 1] - start;
+            if (length != string.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars.charAt(start + i) != string.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Bloom filter with all the bits of an element in a single 64-bit word, so a test costs just
+     * one memory access. With 8 bits per element and 3 bits set it gives about 5% of false
+     * positives, a bit more than a standard Bloom filter of the same size.
+     *
+     * <p>The hashes must be already mixed; the word is selected by the upper bits, so it's
+     * independent of the slot selected by the lower bits in the table.</p>
+     */
+    static final class BloomFilter {
+
+        private final long[] words;
+        private final int mask;
+
+        BloomFilter(int expectedSize) {
+            this.words = new long[Integer.highestOneBit(Math.max(1, (expectedSize + 7) / 8 * 2 - 1))];
+            this.mask = words.length - 1;
+        }
+
+        void add(long hash) {
+            words[index(hash)] |= bits(hash);
+        }
+
+        boolean mightContain(long hash) {
+            long bits = bits(hash);
+            return (words[index(hash)] & bits) == bits;
+        }
+
+        private int index(long hash) {
+            return (int) (hash >>> 40) & mask;
+        }
+
+        private static long bits(long hash) {
+            return 1L << (hash >>> 20) | 1L << (hash >>> 26) | 1L << (hash >>> 32);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+/**
+ * Loops that scan a numeric column and set the bits of the matching rows in the words of a
+ * {@link RowSet}. Each method overwrites all the words, which cover exactly the values.
+ *
+ * <p>The default implementation is {@link ScalarScanner}. When running on JDK 16+ with the
+ * module <tt>jdk.incubator.vector</tt>, {@link #vectorized()} provides an implementation that
+ * compares multiple values by a single SIMD instruction.</p>
+ */
+interface ColumnScanner {
+
+    /**
+     * Selects the rows with a value in the inclusive range <tt>[min, max]</tt>.
+     */
+    void scanRange(int[] values, int min, int max, long[] words);
+
+    /**
+     * @see #scanRange(int[], int, int, long[])
+     */
+    void scanRange(long[] values, long min, long max, long[] words);
+
+    /**
+     * Selects the rows with a value whose {@linkplain #orderKey(double) order key} is in the
+     * inclusive range <tt>[min, max]</tt>, i.e. the values are ordered as by
+     * {@link Double#compare}.
+     */
+    void scanRange(double[] values, long min, long max, long[] words);
+
+    /**
+     * Selects the rows with a value in the sorted array.
+     */
+    void scanIn(int[] values, int[] sorted, long[] words);
+
+    /**
+     * @see #scanIn(int[], int[], long[])
+     */
+    void scanIn(long[] values, long[] sorted, long[] words);
+
+    /**
+     * Selects the rows with a value in the sorted array, compared as by {@link Double#equals}.
+     */
+    void scanIn(double[] values, double[] sorted, long[] words);
+
+
+    /**
+     * Returns a <tt>long</tt> that compares to the keys of other values the same as the value
+     * by {@link Double#compare}: <tt>-0.0</tt> is less than <tt>0.0</tt> and <tt>NaN</tt> is
+     * greater than <tt>Infinity</tt> and equal to itself. The sign bit of a negative value is
+     * extended over the other bits to reverse their order.
+     */
+    static long orderKey(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the SIMD implementation, or <tt>null</tt> if the Vector API is not available.
+     */
+    static ColumnScanner vectorized() {
+        return VectorizedHolder.INSTANCE;
+    }
+
+
+    final class VectorizedHolder {
+
+        static final ColumnScanner INSTANCE = load();
+
+        private VectorizedHolder() {
+        }
+
+        private static ColumnScanner load() {
+            try {
+                // Compiled from src/main/java-vector only on JDK 16+.
+                Class<?> type = Class.forName(ColumnScanner.class.getPackage().getName() + ".VectorScanner");
+                return (ColumnScanner) type.getDeclaredConstructor().newInstance();
+
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                return null;  // the class or module jdk.incubator.vector is missing
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import cz.jirutka.rsql.Assert;
+
+/**
+ * Table of rows stored column-wise in primitive arrays, to be queried by the
+ * {@link ColumnarEvaluator}. Each column is named by the selector used in the queries.
+ *
+ * <p>Numeric columns are <tt>int[]</tt>, <tt>long[]</tt> or <tt>double[]</tt> and have no nulls.
+ * Textual columns are dictionary-encoded: an <tt>int[]</tt> of codes that index an array of the
+ * distinct values, where a negative code means <tt>null</tt>.</p>
+ *
+ * <p>The arrays are not copied, so they must not be modified after they're added to the
+ * table.</p>
+ */
+@Immutable
+public final class ColumnTable {
+
+    private final int rowCount;
+
+    private final Map<String, Column> columns;
+
+
+    /**
+     * Creates a new table with the specified number of rows and no columns.
+     */
+    public ColumnTable(int rowCount) {
+        this(rowCount, Collections.<String, Column>emptyMap());
+    }
+
+    private ColumnTable(int rowCount, Map<String, Column> columns) {
+        Assert.isTrue(rowCount >= 0, "rowCount must not be negative");
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+
+    public ColumnTable withIntColumn(String name, int[] values) {
+        Assert.notNull(values, "values must not be null");
+        return withColumn(name, new IntColumn(values), values.length);
+    }
+
+    public ColumnTable withLongColumn(String name, long[] values) {
+        Assert.notNull(values, "values must not be null");
+        return withColumn(name, new LongColumn(values), values.length);
+    }
+
+    public ColumnTable withDoubleColumn(String name, double[] values) {
+        Assert.notNull(values, "values must not be null");
+        return withColumn(name, new DoubleColumn(values), values.length);
+    }
+
+    /**
+     * Returns a copy of this table with a dictionary-encoded textual column.
+     *
+     * @param name The name of the column.
+     * @param codes The indexes into the {@code dictionary} per row, negative for <tt>null</tt>.
+     * @param dictionary The distinct values of the column.
+     */
+    public ColumnTable withStringColumn(String name, int[] codes, String[] dictionary) {
+        Assert.notNull(codes, "codes must not be null");
+        Assert.notNull(dictionary, "dictionary must not be null");
+        for (int code : codes) {
+            Assert.isTrue(code < dictionary.length, "code %s is out of the dictionary", code);
+        }
+        return withColumn(name, new StringColumn(codes, dictionary), codes.length);
+    }
+
+    /**
+     * Returns a copy of this table with a textual column that is dictionary-encoded from
+     * the specified values.
+     */
+    public ColumnTable withStringColumn(String name, String[] values) {
+        Assert.notNull(values, "values must not be null");
+
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] codes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                codes[i] = -1;
+                continue;
+            }
+            Integer code = dictionary.get(values[i]);
+            if (code == null) {
+                dictionary.put(values[i], code = dictionary.size());
+            }
+            codes[i] = code;
+        }
+        return withColumn(name, new StringColumn(codes, dictionary.keySet().toArray(new String[0])), codes.length);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public Set<String> getColumnNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+
+    /**
+     * Returns the column of the specified name.
+     *
+     * @throws IllegalArgumentException If there's no such column.
+     */
+    Column column(String name) {
+        Column column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+        return column;
+    }
+
+    private ColumnTable withColumn(String name, Column column, int length) {
+        Assert.notBlank(name, "name must not be blank");
+        Assert.isTrue(length == rowCount, "column %s has %s rows, expected %s", name, length, rowCount);
+
+        Map<String, Column> copy = new HashMap<>(columns);
+        copy.put(name, column);
+        return new ColumnTable(rowCount, copy);
+    }
+
+
+    /**
+     * Column of the table. The numeric columns are scanned by a {@link ColumnScanner}, the
+     * textual one scans its codes by itself.
+     */
+    abstract static class Column {
+    }
+
+    static final class IntColumn extends Column {
+
+        final int[] values;
+
+        IntColumn(int[] values) {
+            this.values = values;
+        }
+    }
+
+    static final class LongColumn extends Column {
+
+        final long[] values;
+
+        LongColumn(long[] values) {
+            this.values = values;
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+
+        final double[] values;
+
+        DoubleColumn(double[] values) {
+            this.values = values;
+        }
+    }
+
+    static final class StringColumn extends Column {
+
+        final int[] codes;
+        final String[] dictionary;
+
+        StringColumn(int[] codes, String[] dictionary) {
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * Selects the rows with a non-null value whose code is marked in the array.
+         */
+        void scanCodes(boolean[] matching, long[] words) {
+            int[] codes = this.codes;
+
+            for (int w = 0, base = 0; w < words.length; w++, base += 64) {
+                int end = Math.min(64, codes.length - base);
+                long word = 0;
+                for (int b = 0; b < end; b++) {
+                    int code = codes[base + b];
+                    word |= (code >= 0 && matching[code] ? 1L : 0L) << b;
+                }
+                words[w] = word;
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.OperatorRegistry;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.evaluator.ColumnTable.Column;
+import cz.jirutka.rsql.evaluator.ColumnTable.DoubleColumn;
+import cz.jirutka.rsql.evaluator.ColumnTable.IntColumn;
+import cz.jirutka.rsql.evaluator.ColumnTable.LongColumn;
+import cz.jirutka.rsql.evaluator.ColumnTable.StringColumn;
+
+/**
+ * Evaluates the query on a {@link ColumnTable} into a {@link RowSet} of the matching rows.
+ *
+ * <p>Each comparison is evaluated by a single loop over the primitive array of its column that
+ * fills the bitmap 64 rows at a time, without accessing any objects or boxing the values. AND and
+ * OR then combine the bitmaps word by word. A comparison on a textual column is evaluated on
+ * its dictionary first, so the loop just looks up the codes.</p>
+ *
+ * <p>The numeric comparisons may be {@linkplain #withVectorization(boolean) vectorized} using the
+ * Vector API of JDK 16+, which compares multiple values by a single SIMD instruction. It's
+ * available only when the module <tt>jdk.incubator.vector</tt> is added to the JVM, i.e.
+ * <tt>--add-modules jdk.incubator.vector</tt>; otherwise the scalar loops are used.</p>
+ *
+ * <p>The semantics are the same as of the {@link PredicateCompiler}, including wildcards in the
+ * textual columns. The values of a <tt>double</tt> column are compared as by
+ * {@link Double#compare}, so <tt>NaN</tt> equals itself and is greater than <tt>Infinity</tt>, and
+ * <tt>-0.0</tt> is less than <tt>0.0</tt>. A <tt>null</tt> in a textual column doesn't match any
+ * comparison.</p>
+ */
+@Immutable
+public final class ColumnarEvaluator {
+
+    private final PredicateCompiler compiler;
+
+    private final ColumnScanner scanner;
+
+
+    /**
+     * Creates a new evaluator with the {@linkplain ArgumentConverter#DEFAULT default} converter
+     * and the scalar loops.
+     */
+    public ColumnarEvaluator() {
+        this(new PredicateCompiler(), ScalarScanner.INSTANCE);
+    }
+
+    private ColumnarEvaluator(PredicateCompiler compiler, ColumnScanner scanner) {
+        this.compiler = compiler;
+        this.scanner = scanner;
+    }
+
+
+    /**
+     * Whether the Vector API is available, so the evaluators may be vectorized.
+     */
+    public static boolean isVectorizationAvailable() {
+        return ColumnScanner.vectorized() != null;
+    }
+
+
+    /**
+     * Returns a copy of this evaluator that uses the specified argument converter.
+     *
+     * @param converter Must not be <tt>null</tt>.
+     */
+    public ColumnarEvaluator withConverter(ArgumentConverter converter) {
+        return new ColumnarEvaluator(compiler.withConverter(converter), scanner);
+    }
+
+    /**
+     * Returns a copy of this evaluator that scans the numeric columns using the Vector API, if
+     * it's {@linkplain #isVectorizationAvailable() available}, or the scalar loops.
+     */
+    public ColumnarEvaluator withVectorization(boolean enabled) {
+        ColumnScanner vectorized = ColumnScanner.vectorized();
+        return new ColumnarEvaluator(compiler,
+                enabled && vectorized != null ? vectorized : ScalarScanner.INSTANCE);
+    }
+
+    /**
+     * Whether this evaluator actually uses the Vector API.
+     */
+    public boolean isVectorized() {
+        return scanner != ScalarScanner.INSTANCE;
+    }
+
+    public ArgumentConverter getConverter() {
+        return compiler.getConverter();
+    }
+
+    /**
+     * Evaluates the query on the table.
+     *
+     * @param node The root of the AST. Must not be <tt>null</tt>.
+     * @param table The table to query. Must not be <tt>null</tt>.
+     * @return A new set of the matching rows.
+     *
+     * @throws IllegalArgumentException If some selector is not a column of the table, or some
+     *          argument can't be converted to the type of the column.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public RowSet evaluate(Node node, final ColumnTable table) {
+        Assert.notNull(node, "node must not be null");
+        Assert.notNull(table, "table must not be null");
+
+        return RSQLTraversal.fold(node, new RSQLFoldVisitor<RowSet, Void>() {
+            public RowSet visitLeaf(ComparisonNode node, Void param) {
+                return select(node, table);
+            }
+            public RowSet combine(LogicalNode node, List<RowSet> results, Void param) {
+                return node.getOperator() == LogicalOperator.AND
+                        ? intersect(results, table.getRowCount())
+                        : union(results, table.getRowCount());
+            }
+        }, null);
+    }
+
+
+    private RowSet select(ComparisonNode node, ColumnTable table) {
+        Column column = table.column(node.getSelector());
+        RowSet rows = new RowSet(table.getRowCount());
+
+        if (column instanceof StringColumn) {
+            StringColumn strings = (StringColumn) column;
+            Predicate<Object> test = compiler.compileValueTest(node, String.class);
+
+            boolean[] matching = new boolean[strings.dictionary.length];
+            for (int code = 0; code < matching.length; code++) {
+                matching[code] = strings.dictionary[code] != null && test.test(strings.dictionary[code]);
+            }
+            strings.scanCodes(matching, rows.words);
+            return rows;
+        }
+
+        ComparisonOperator op = node.getOperator();
+        boolean negate = op.getId() == OperatorRegistry.NOT_EQUAL || op.getId() == OperatorRegistry.NOT_IN;
+
+        if (column instanceof DoubleColumn) {
+            selectDouble(node, (DoubleColumn) column, rows);
+        } else if (column instanceof LongColumn) {
+            long[] values = ((LongColumn) column).values;
+            long[] range = longRange(node, long.class);
+            if (range == null) {
+                scanner.scanIn(values, sortedLongs(node, long.class), rows.words);
+            } else if (range[0] <= range[1]) {
+                scanner.scanRange(values, range[0], range[1], rows.words);
+            }
+        } else {
+            int[] values = ((IntColumn) column).values;
+            long[] range = longRange(node, int.class);
+            if (range == null) {
+                long[] sorted = sortedLongs(node, int.class);
+                int[] ints = new int[sorted.length];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = (int) sorted[i];
+                }
+                scanner.scanIn(values, ints, rows.words);
+            } else if (range[0] <= range[1]) {
+                scanner.scanRange(values, (int) range[0], (int) range[1], rows.words);
+            }
+        }
+        if (negate) {
+            rows.flip();
+        }
+        return rows;
+    }
+
+    private void selectDouble(ComparisonNode node, DoubleColumn column, RowSet rows) {
+        ComparisonOperator op = node.getOperator();
+
+        if (op.getId() == OperatorRegistry.IN || op.getId() == OperatorRegistry.NOT_IN) {
+            double[] sorted = new double[node.argumentCount()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = (Double) convert(node.argument(i), double.class);
+            }
+            Arrays.sort(sorted);
+            scanner.scanIn(column.values, sorted, rows.words);
+            return;
+        }
+        // The keys of NaN and -Infinity are far from the limits of long, so they can't overflow.
+        long value = ColumnScanner.orderKey((Double) convert(node.argument(0), double.class));
+        long min = Long.MIN_VALUE, max = Long.MAX_VALUE;
+
+        switch (op.getId()) {
+            case OperatorRegistry.EQUAL:
+            case OperatorRegistry.NOT_EQUAL:
+                min = max = value;
+                break;
+            case OperatorRegistry.GREATER_THAN:
+                min = value + 1;
+                break;
+            case OperatorRegistry.GREATER_THAN_OR_EQUAL:
+                min = value;
+                break;
+            case OperatorRegistry.LESS_THAN:
+                max = value - 1;
+                break;
+            case OperatorRegistry.LESS_THAN_OR_EQUAL:
+                max = value;
+                break;
+            default:
+                throw unsupported(op);
+        }
+        scanner.scanRange(column.values, min, max, rows.words);
+    }
+
+    /**
+     * Returns the inclusive range <tt>[min, max]</tt> of the values that match the comparison
+     * (empty if min &gt; max), or <tt>null</tt> for <tt>=in=</tt> and <tt>=out=</tt>. The range
+     * of <tt>!=</tt> is the one of <tt>==</tt>.
+     *
+     * @param type <tt>int</tt> or <tt>long</tt>, the type of the column.
+     */
+    private long[] longRange(ComparisonNode node, Class<?> type) {
+        ComparisonOperator op = node.getOperator();
+        if (op.getId() == OperatorRegistry.IN || op.getId() == OperatorRegistry.NOT_IN) {
+            return null;
+        }
+        long value = ((Number) convert(node.argument(0), type)).longValue();
+        long min = type == int.class ? Integer.MIN_VALUE : Long.MIN_VALUE;
+        long max = type == int.class ? Integer.MAX_VALUE : Long.MAX_VALUE;
+
+        switch (op.getId()) {
+            case OperatorRegistry.EQUAL:
+            case OperatorRegistry.NOT_EQUAL:
+                min = max = value;
+                break;
+            case OperatorRegistry.GREATER_THAN:
+                if (value == max) {
+                    return new long[]{ 1, 0 };
+                }
+                min = value + 1;
+                break;
+            case OperatorRegistry.GREATER_THAN_OR_EQUAL:
+                min = value;
+                break;
+            case OperatorRegistry.LESS_THAN:
+                if (value == min) {
+                    return new long[]{ 1, 0 };
+                }
+                max = value - 1;
+                break;
+            case OperatorRegistry.LESS_THAN_OR_EQUAL:
+                max = value;
+                break;
+            default:
+                throw unsupported(op);
+        }
+        return new long[]{ min, max };
+    }
+
+    private long[] sortedLongs(ComparisonNode node, Class<?> type) {
+        long[] sorted = new long[node.argumentCount()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ((Number) convert(node.argument(i), type)).longValue();
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private Object convert(String argument, Class<?> type) {
+        return compiler.getConverter().convert(argument, type);
+    }
+
+    private static RowSet intersect(List<RowSet> results, int rowCount) {
+        if (results.isEmpty()) {
+            return RowSet.all(rowCount);
+        }
+        RowSet rows = results.get(0);
+        for (int i = 1; i < results.size(); i++) {
+            rows.and(results.get(i));
+        }
+        return rows;
+    }
+
+    private static RowSet union(List<RowSet> results, int rowCount) {
+        if (results.isEmpty()) {
+            return new RowSet(rowCount);
+        }
+        RowSet rows = results.get(0);
+        for (int i = 1; i < results.size(); i++) {
+            rows.or(results.get(i));
+        }
+        return rows;
+    }
+
+    private static UnknownOperatorException unsupported(ComparisonOperator op) {
+        return new UnknownOperatorException(op.getSymbol(), "Unsupported operator: " + op);
+    }
+}
@@ -0,0 +1,705 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.OperatorRegistry;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+
+/**
+ * In-memory collection of objects that answers queries using secondary indexes, instead of
+ * testing each object.
+ *
+ * <p>The indexes are declared per selector by {@link #addIndex(String, IndexType)}. A comparison
+ * on an indexed selector is answered by the index as a set of matching elements, AND and OR are
+ * answered as intersections and unions of these sets. Comparisons that can't be answered by any
+ * index are evaluated by a predicate {@linkplain PredicateCompiler compiled} from them, only on
+ * the candidates selected by the indexes of the sibling comparisons, if any. The results are
+ * exactly the same as of the compiled predicate.</p>
+ *
+ * <p>The elements are identified by identity. When an element is modified, it must be
+ * {@linkplain #update(Object) updated} in the collection to reindex it. Queries may run
+ * concurrently, while adding, updating and removing the elements is exclusive.</p>
+ *
+ * @param <T> The type of the elements.
+ */
+@ThreadSafe
+public final class IndexedCollection<T> {
+
+    private final Class<T> type;
+
+    private final PredicateCompiler compiler;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @GuardedBy("lock")
+    private final Map<String, List<Index>> indexes = new HashMap<>();
+
+    @GuardedBy("lock")
+    private final List<T> elements = new ArrayList<>();
+
+    @GuardedBy("lock")
+    private final Map<T, Integer> slots = new IdentityHashMap<>();
+
+    @GuardedBy("lock")
+    private final BitSet live = new BitSet();
+
+    /**
+     * The slots of the removed elements to be reused, the most recently freed last.
+     */
+    @GuardedBy("lock")
+    private int[] freeSlots = new int[16];
+
+    @GuardedBy("lock")
+    private int freeCount;
+
+
+    /**
+     * Creates a new empty collection that uses the default {@link PredicateCompiler}.
+     *
+     * @param type The type of the elements. Must not be <tt>null</tt>.
+     */
+    public IndexedCollection(Class<T> type) {
+        this(type, new PredicateCompiler());
+    }
+
+    /**
+     * @param type The type of the elements. Must not be <tt>null</tt>.
+     * @param compiler The compiler of the comparisons that can't be answered by an index; its
+     *                 converter is used also to convert the arguments for the index lookups.
+     *                 Must not be <tt>null</tt>.
+     */
+    public IndexedCollection(Class<T> type, PredicateCompiler compiler) {
+        Assert.notNull(type, "type must not be null");
+        Assert.notNull(compiler, "compiler must not be null");
+        this.type = type;
+        this.compiler = compiler;
+    }
+
+
+    /**
+     * Adds an index of the specified type on the selector and builds it from the current elements.
+     * The indexes should be declared up front, before adding a large number of elements.
+     *
+     * @param selector Dot-separated names of the properties, as in the queries.
+     * @param indexType The type of the index.
+     * @return This collection.
+     *
+     * @throws IllegalArgumentException If the selector can't be resolved on the element type, or
+     *          the property type is not suitable for the index type.
+     */
+    public IndexedCollection<T> addIndex(String selector, IndexType indexType) {
+        Assert.notNull(indexType, "indexType must not be null");
+        PropertyPath path = PropertyPath.resolve(type, selector);
+        Index index = new Index(path, indexType, compiler.getConverter());
+
+        lock.writeLock().lock();
+        try {
+            for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                index.insert(slot, elements.get(slot));
+            }
+            List<Index> list = indexes.get(selector);
+            if (list == null) {
+                indexes.put(selector, list = new ArrayList<>(IndexType.values().length));
+            }
+            list.add(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Adds the element, unless the same instance is already present.
+     *
+     * @return Whether the element has been added.
+     */
+    public boolean add(T element) {
+        Assert.notNull(element, "element must not be null");
+
+        lock.writeLock().lock();
+        try {
+            if (slots.containsKey(element)) {
+                return false;
+            }
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+                elements.set(slot, element);
+            } else {
+                slot = elements.size();
+                elements.add(element);
+            }
+            slots.put(element, slot);
+            live.set(slot);
+
+            for (List<Index> list : indexes.values()) {
+                for (Index index : list) {
+                    index.insert(slot, element);
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds all the elements.
+     *
+     * @see #add(Object)
+     */
+    public void addAll(Collection<? extends T> elements) {
+        Assert.notNull(elements, "elements must not be null");
+
+        lock.writeLock().lock();
+        try {
+            for (T element : elements) {
+                add(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the element (the same instance).
+     *
+     * @return Whether the element has been removed.
+     */
+    public boolean remove(T element) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.remove(element);
+            if (slot == null) {
+                return false;
+            }
+            for (List<Index> list : indexes.values()) {
+                for (Index index : list) {
+                    index.delete(slot);
+                }
+            }
+            elements.set(slot, null);
+            live.clear(slot);
+
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reindexes the element after its indexed properties have been modified.
+     *
+     * @return Whether the element is present in this collection.
+     */
+    public boolean update(T element) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(element);
+            if (slot == null) {
+                return false;
+            }
+            for (List<Index> list : indexes.values()) {
+                for (Index index : list) {
+                    index.delete(slot);
+                    index.insert(slot, element);
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the elements that match the query, in no particular order.
+     *
+     * @param node The root of the AST. Must not be <tt>null</tt>.
+     *
+     * @throws IllegalArgumentException If some selector can't be resolved on the element type, or
+     *          some argument can't be converted to the type of the property.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public List<T> query(Node node) {
+        Assert.notNull(node, "node must not be null");
+
+        lock.readLock().lock();
+        try {
+            Plan plan = plan(node);
+            BitSet candidates = plan.candidates != null ? plan.candidates : live;
+            List<T> result = new ArrayList<>(plan.residual == null ? candidates.cardinality() : 16);
+
+            for (int slot = candidates.nextSetBit(0); slot >= 0; slot = candidates.nextSetBit(slot + 1)) {
+                if (plan.residual == null || plan.residual.test(slot)) {
+                    result.add(elements.get(slot));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Plans the query: each comparison is looked up in the indexes of its selector, or compiled
+     * into a residual predicate, and the logical nodes combine the plans of their children.
+     */
+    @GuardedBy("lock")
+    Plan plan(Node node) {
+        return RSQLTraversal.fold(node, new RSQLFoldVisitor<Plan, Void>() {
+            public Plan visitLeaf(ComparisonNode node, Void param) {
+                List<Index> list = indexes.get(node.getSelector());
+                if (list != null) {
+                    for (Index index : list) {
+                        BitSet matches = index.lookup(node);
+                        if (matches != null) {
+                            return new Plan(matches, null);
+                        }
+                    }
+                }
+                final Predicate<T> predicate = compiler.compile(node, type);
+                return new Plan(null, slot -> predicate.test(elements.get(slot)));
+            }
+            public Plan combine(LogicalNode node, List<Plan> results, Void param) {
+                return node.getOperator() == LogicalOperator.AND ? intersect(results) : union(results);
+            }
+        }, null);
+    }
+
+    private static Plan intersect(List<Plan> plans) {
+        BitSet candidates = null;
+        List<IntPredicate> residuals = new ArrayList<>(plans.size());
+
+        for (Plan plan : plans) {
+            if (plan.candidates != null) {
+                if (candidates == null) {
+                    candidates = (BitSet) plan.candidates.clone();
+                } else {
+                    candidates.and(plan.candidates);
+                }
+            }
+            if (plan.residual != null) {
+                residuals.add(plan.residual);
+            }
+        }
+        if (residuals.isEmpty()) {
+            return new Plan(candidates, null);
+        }
+        final IntPredicate[] operands = residuals.toArray(new IntPredicate[residuals.size()]);
+        return new Plan(candidates, slot -> {
+            for (IntPredicate operand : operands) {
+                if (!operand.test(slot)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private static Plan union(List<Plan> plans) {
+        BitSet candidates = new BitSet();
+        boolean exact = true;
+
+        for (Plan plan : plans) {
+            if (plan.candidates == null) {
+                candidates = null;
+            } else if (candidates != null) {
+                candidates.or(plan.candidates);
+            }
+            exact &= plan.residual == null;
+        }
+        if (exact) {
+            return new Plan(candidates, null);
+        }
+        final Plan[] operands = plans.toArray(new Plan[plans.size()]);
+        return new Plan(candidates, slot -> {
+            for (Plan operand : operands) {
+                if (operand.matches(slot)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+
+    /**
+     * The type of an index.
+     */
+    public enum IndexType {
+
+        /**
+         * Hash index that answers <tt>==</tt>, <tt>!=</tt> (without wildcards), <tt>=in=</tt>
+         * and <tt>=out=</tt>.
+         */
+        HASH,
+
+        /**
+         * Sorted index that answers <tt>=lt=</tt>, <tt>=le=</tt>, <tt>=gt=</tt> and
+         * <tt>=ge=</tt>. The property must be comparable.
+         */
+        SORTED,
+
+        /**
+         * Index of a textual property that answers <tt>==</tt> and <tt>!=</tt> with a prefix
+         * pattern like <tt>value*</tt>. The values are kept lower-cased in a sorted map, so all
+         * the values with the prefix are adjacent.
+         */
+        PREFIX
+    }
+
+    /**
+     * A plan of a query, or of its subtree: the matching elements are those among the
+     * {@code candidates} (all if <tt>null</tt>) that satisfy the {@code residual} predicate (no
+     * need to test if <tt>null</tt>). The candidates must not be modified.
+     */
+    static final class Plan {
+
+        final BitSet candidates;
+        final IntPredicate residual;
+
+        Plan(BitSet candidates, IntPredicate residual) {
+            this.candidates = candidates;
+            this.residual = residual;
+        }
+
+        boolean matches(int slot) {
+            return (candidates == null || candidates.get(slot))
+                    && (residual == null || residual.test(slot));
+        }
+    }
+
+    /**
+     * Index of a single property. It maps the values (keys) to the {@linkplain Postings sets of
+     * slots} of the elements with that value; <tt>null</tt> values are not indexed.
+     */
+    private static final class Index {
+
+        private final PropertyPath path;
+        private final IndexType indexType;
+        private final ArgumentConverter converter;
+        private final boolean text;
+
+        private final Map<Object, Postings> postings;
+        private final BitSet nonNull = new BitSet();
+        private Object[] keys = new Object[16];
+
+        Index(PropertyPath path, IndexType indexType, ArgumentConverter converter) {
+            this.path = path;
+            this.indexType = indexType;
+            this.converter = converter;
+            this.text = PredicateCompiler.isText(path.getType());
+
+            Class<?> wrapped = MethodType.methodType(path.getType()).wrap().returnType();
+            if (indexType == IndexType.SORTED && !Comparable.class.isAssignableFrom(wrapped)) {
+                throw new IllegalArgumentException(String.format(
+                        "Property '%s' of type %s is not comparable", path, wrapped.getName()));
+            }
+            if (indexType == IndexType.PREFIX && !text) {
+                throw new IllegalArgumentException(String.format(
+                        "Property '%s' of type %s is not textual", path, wrapped.getName()));
+            }
+            this.postings = indexType == IndexType.HASH ? new HashMap<>() : new TreeMap<>();
+        }
+
+        void insert(int slot, Object element) {
+            Object value = path.get(element);
+            if (value == null) {
+                return;
+            }
+            Object key = keyOf(value);
+            if (slot >= keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(slot + 1, keys.length * 2));
+            }
+            keys[slot] = key;
+            nonNull.set(slot);
+
+            Postings slots = postings.get(key);
+            if (slots == null) {
+                postings.put(key, slots = new Postings());
+            }
+            slots.add(slot);
+        }
+
+        void delete(int slot) {
+            Object key = slot < keys.length ? keys[slot] : null;
+            if (key == null) {
+                return;
+            }
+            keys[slot] = null;
+            nonNull.clear(slot);
+
+            Postings slots = postings.get(key);
+            slots.remove(slot);
+            if (slots.isEmpty()) {
+                postings.remove(key);
+            }
+        }
+
+        /**
+         * Returns a new set of the slots that match the comparison, or <tt>null</tt> if this
+         * index can't answer it.
+         */
+        @SuppressWarnings("unchecked")
+        BitSet lookup(ComparisonNode node) {
+            int id = node.getOperator().getId();
+
+            switch (indexType) {
+                case HASH:
+                    if (id == OperatorRegistry.EQUAL || id == OperatorRegistry.NOT_EQUAL) {
+                        String arg = node.argument(0);
+                        if (text && (arg.startsWith("*") || arg.endsWith("*"))) {
+                            return null;
+                        }
+                        return negateIf(id == OperatorRegistry.NOT_EQUAL, union(postings.get(argumentKey(arg))));
+                    }
+                    if (id == OperatorRegistry.IN || id == OperatorRegistry.NOT_IN) {
+                        BitSet result = new BitSet();
+                        for (String arg : node.arguments()) {
+                            Postings slots = postings.get(argumentKey(arg));
+                            if (slots != null) {
+                                slots.addTo(result);
+                            }
+                        }
+                        return negateIf(id == OperatorRegistry.NOT_IN, result);
+                    }
+                    return null;
+
+                case SORTED:
+                    NavigableMap<Object, Postings> sorted = (NavigableMap<Object, Postings>) postings;
+                    switch (id) {
+                        case OperatorRegistry.GREATER_THAN:          return union(sorted.tailMap(bound(node), false).values());
+                        case OperatorRegistry.GREATER_THAN_OR_EQUAL: return union(sorted.tailMap(bound(node), true).values());
+                        case OperatorRegistry.LESS_THAN:             return union(sorted.headMap(bound(node), false).values());
+                        case OperatorRegistry.LESS_THAN_OR_EQUAL:    return union(sorted.headMap(bound(node), true).values());
+                        default:                                     return null;
+                    }
+
+                case PREFIX:
+                    String arg = node.argument(0);
+                    if (!(id == OperatorRegistry.EQUAL || id == OperatorRegistry.NOT_EQUAL)
+                            || arg.startsWith("*") || arg.length() < 2 || !arg.endsWith("*")) {
+                        return null;
+                    }
+                    String prefix = arg.substring(0, arg.length() - 1).toLowerCase(Locale.ROOT);
+                    BitSet result = new BitSet();
+                    for (Map.Entry<Object, Postings> entry : ((NavigableMap<Object, Postings>) postings)
+                            .tailMap(prefix, true).entrySet()) {
+                        if (!((String) entry.getKey()).startsWith(prefix)) {
+                            break;
+                        }
+                        entry.getValue().addTo(result);
+                    }
+                    return negateIf(id == OperatorRegistry.NOT_EQUAL, result);
+
+                default:
+                    return null;
+            }
+        }
+
+
+        private Object keyOf(Object value) {
+            if (indexType == IndexType.PREFIX) {
+                return value.toString().toLowerCase(Locale.ROOT);
+            }
+            return text && indexType == IndexType.HASH ? value.toString() : value;
+        }
+
+        private Object argumentKey(String argument) {
+            return text ? argument : converter.convert(argument, path.getType());
+        }
+
+        private Object bound(ComparisonNode node) {
+            return converter.convert(node.argument(0), path.getType());
+        }
+
+        private BitSet negateIf(boolean negate, BitSet matches) {
+            if (negate) {
+                BitSet result = (BitSet) nonNull.clone();
+                result.andNot(matches);
+                return result;
+            }
+            return matches;
+        }
+
+        private static BitSet union(Postings slots) {
+            BitSet result = new BitSet();
+            if (slots != null) {
+                slots.addTo(result);
+            }
+            return result;
+        }
+
+        private static BitSet union(Collection<Postings> sets) {
+            BitSet result = new BitSet();
+            for (Postings slots : sets) {
+                slots.addTo(result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Set of the slots of the elements with the same key. A sparse set is kept as a sorted array
+     * of the slots, a dense one as a bitmap up to its highest slot, whichever is smaller; the set
+     * is converted when its density crosses the point where both take about the same memory.
+     * Hence an index of a unique property takes a few bytes per element, not a bitmap of all the
+     * slots per key.
+     */
+    private static final class Postings {
+
+        /**
+         * The number of slots per set slot above which the array is smaller than the bitmap
+         * (32 bits per array item, 1 bit per slot); the bitmap is converted back to the array
+         * only when it's twice as sparse, so it doesn't flip on every insert and delete.
+         */
+        private static final int DENSE_RATIO = 32, SPARSE_RATIO = 64;
+
+        private int[] array = new int[2];
+        private BitSet bitmap;
+        private int size;
+
+        void add(int slot) {
+            if (bitmap != null) {
+                if (!bitmap.get(slot)) {
+                    bitmap.set(slot);
+                    size++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, size, slot);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (size == array.length) {
+                int highest = Math.max(slot, array[size - 1]);
+                if ((long) (size + 1) * DENSE_RATIO > highest + 1) {
+                    toBitmap(highest + 1);
+                    bitmap.set(slot);
+                    size++;
+                    return;
+                }
+                array = Arrays.copyOf(array, size * 2);
+            }
+            System.arraycopy(array, i, array, i + 1, size - i);
+            array[i] = slot;
+            size++;
+        }
+
+        void remove(int slot) {
+            if (bitmap != null) {
+                if (bitmap.get(slot)) {
+                    bitmap.clear(slot);
+                    size--;
+                    if ((long) size * SPARSE_RATIO < bitmap.length()) {
+                        toArray();
+                    }
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, size, slot);
+            if (i >= 0) {
+                System.arraycopy(array, i + 1, array, i, size - i - 1);
+                size--;
+            }
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Adds all the slots of this set to the given bitmap.
+         */
+        void addTo(BitSet result) {
+            if (bitmap != null) {
+                result.or(bitmap);
+            } else {
+                for (int i = 0; i < size; i++) {
+                    result.set(array[i]);
+                }
+            }
+        }
+
+        private void toBitmap(int length) {
+            BitSet bits = new BitSet(length);
+            for (int i = 0; i < size; i++) {
+                bits.set(array[i]);
+            }
+            bitmap = bits;
+            array = null;
+        }
+
+        private void toArray() {
+            array = new int[Math.max(size, 2)];
+            int i = 0;
+            for (int slot = bitmap.nextSetBit(0); slot >= 0; slot = bitmap.nextSetBit(slot + 1)) {
+                array[i++] = slot;
+            }
+            bitmap = null;
+        }
+    }
+}
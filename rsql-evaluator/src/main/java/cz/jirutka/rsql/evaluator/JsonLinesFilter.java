@@ -0,0 +1,410 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.evaluator.JsonRecordScanner.JsonNumber;
+
+/**
+ * Filters <a href="http://jsonlines.org">JSON Lines</a>, i.e. JSON objects separated by line
+ * breaks, by the query without parsing the whole records.
+ *
+ * <p>The selectors are the paths of the properties in the records, with the names of nested
+ * objects separated by a dot. Each record is read by a forward-only tokenizer that decodes only
+ * the values on these paths and skips everything else. After each extracted value the query is
+ * evaluated with the values that are not known yet as unknown, so the rest of the record is not
+ * scanned at all once the result is decided (e.g. the first operand of AND is false). The
+ * matching records are passed through as raw bytes, byte-identical to the input.</p>
+ *
+ * <p>A string value is compared as text, with the same semantics as a textual property in the
+ * {@link PredicateCompiler}; a number is compared as a <tt>double</tt> if all the arguments are
+ * numbers, otherwise as its text; a boolean as the text <tt>true</tt> or <tt>false</tt>. A value
+ * that is missing, <tt>null</tt>, an object or an array doesn't match any comparison.</p>
+ *
+ * <p>Only the scanned part of a record is checked to be a valid JSON, malformed records are
+ * reported by {@link IllegalArgumentException}.</p>
+ */
+@Immutable
+public final class JsonLinesFilter {
+
+    private static final int MAX_MAPPED_CHUNK = 1 << 30;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Condition condition;
+
+    private final PathNode paths;
+
+    private final int slots;
+
+
+    /**
+     * Creates a new filter with the {@linkplain ArgumentConverter#DEFAULT default} converter.
+     *
+     * @param node The root of the AST. Must not be <tt>null</tt>.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public JsonLinesFilter(Node node) {
+        this(node, new PredicateCompiler());
+    }
+
+    /**
+     * @param node The root of the AST. Must not be <tt>null</tt>.
+     * @param compiler The compiler of the comparisons. Must not be <tt>null</tt>.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public JsonLinesFilter(Node node, final PredicateCompiler compiler) {
+        Assert.notNull(node, "node must not be null");
+        Assert.notNull(compiler, "compiler must not be null");
+
+        final Map<String, Integer> slotsBySelector = new HashMap<>();
+        this.paths = new PathNode();
+        this.condition = RSQLTraversal.fold(node, new RSQLFoldVisitor<Condition, Void>() {
+            public Condition visitLeaf(ComparisonNode node, Void param) {
+                Integer slot = slotsBySelector.get(node.getSelector());
+                if (slot == null) {
+                    slot = slotsBySelector.size();
+                    slotsBySelector.put(node.getSelector(), slot);
+                    paths.add(node.getSelector().split("\\.", -1), slot);
+                }
+                Predicate<Object> textTest = compiler.compileValueTest(node, String.class);
+                Predicate<Object> numberTest;
+                try {
+                    numberTest = compiler.compileValueTest(node, Double.class);
+                } catch (IllegalArgumentException ex) {
+                    numberTest = null;  // some argument is not a number
+                }
+                return new Comparison(slot, textTest, numberTest);
+            }
+            public Condition combine(LogicalNode node, List<Condition> results, Void param) {
+                return new Logical(node.getOperator() == LogicalOperator.AND,
+                        results.toArray(new Condition[results.size()]));
+            }
+        }, null);
+        this.slots = slotsBySelector.size();
+    }
+
+
+    /**
+     * Copies the matching records from the input stream to the output stream. The streams are
+     * not closed.
+     *
+     * @return The number of the matching records.
+     * @throws IllegalArgumentException If a scanned record is not valid JSON.
+     */
+    public long filter(InputStream input, OutputStream output) throws IOException {
+        Assert.notNull(input, "input must not be null");
+        Assert.notNull(output, "output must not be null");
+
+        JsonRecordScanner scanner = newScanner();
+        CountingHandler handler = new CountingHandler(new OutputStreamHandler(output));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int filled = 0;
+        boolean eof = false;
+
+        while (!eof) {
+            int n = input.read(buffer, filled, buffer.length - filled);
+            if (n < 0) {
+                eof = true;
+            } else {
+                filled += n;
+            }
+            int consumed = scanner.scanLines(ByteBuffer.wrap(buffer), 0, filled, eof, handler);
+            System.arraycopy(buffer, consumed, buffer, 0, filled - consumed);
+            filled -= consumed;
+
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);  // a very long record
+            }
+        }
+        return handler.count;
+    }
+
+    /**
+     * Copies the matching records from the file, which is memory-mapped, to the output stream.
+     * The stream is not closed.
+     *
+     * @return The number of the matching records.
+     * @throws IllegalArgumentException If a scanned record is not valid JSON.
+     * @throws IOException If the file can't be read, or a record is longer than 1 GiB.
+     */
+    public long filter(Path file, OutputStream output) throws IOException {
+        return filter(file, output, MAX_MAPPED_CHUNK);
+    }
+
+    /**
+     * Passes the matching records in the buffer, between its position and limit, to the handler.
+     * The position of the buffer is not changed.
+     *
+     * @return The number of the matching records.
+     * @throws IllegalArgumentException If a scanned record is not valid JSON.
+     */
+    public long filter(ByteBuffer buffer, RecordHandler handler) throws IOException {
+        Assert.notNull(buffer, "buffer must not be null");
+        Assert.notNull(handler, "handler must not be null");
+
+        CountingHandler counting = new CountingHandler(handler);
+        newScanner().scanLines(buffer, buffer.position(), buffer.limit(), true, counting);
+        return counting.count;
+    }
+
+    /**
+     * Tests a single record.
+     *
+     * @throws IllegalArgumentException If the scanned part of the record is not valid JSON.
+     */
+    public boolean matches(String record) {
+        Assert.notNull(record, "record must not be null");
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        return newScanner().matches(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+
+    long filter(Path file, OutputStream output, int chunkSize) throws IOException {
+        Assert.notNull(file, "file must not be null");
+        Assert.notNull(output, "output must not be null");
+
+        JsonRecordScanner scanner = newScanner();
+        CountingHandler handler = new CountingHandler(new OutputStreamHandler(output));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                int length = (int) Math.min(chunkSize, size - position);
+                boolean last = position + length == size;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int consumed = scanner.scanLines(chunk, 0, length, last, handler);
+                if (consumed == 0) {
+                    throw new IOException("Record at offset " + position + " is longer than " + chunkSize + " bytes");
+                }
+                position += consumed;
+            }
+        }
+        return handler.count;
+    }
+
+    private JsonRecordScanner newScanner() {
+        return new JsonRecordScanner(condition, paths, slots);
+    }
+
+
+    /**
+     * Receives the matching records.
+     */
+    public interface RecordHandler {
+
+        /**
+         * @param buffer The buffer with the record. Its position and limit may be arbitrary and
+         *               must not be changed; the content is valid only during this call.
+         * @param offset The absolute index of the first byte of the record in the buffer.
+         * @param length The length of the record including the line terminator, if any.
+         */
+        void record(ByteBuffer buffer, int offset, int length) throws IOException;
+    }
+
+    private static final class OutputStreamHandler implements RecordHandler {
+
+        private final OutputStream output;
+        private byte[] scratch;
+
+        OutputStreamHandler(OutputStream output) {
+            this.output = output;
+        }
+
+        public void record(ByteBuffer buffer, int offset, int length) throws IOException {
+            if (buffer.hasArray()) {
+                output.write(buffer.array(), buffer.arrayOffset() + offset, length);
+                return;
+            }
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 8192)];
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.get(scratch, 0, length);
+            output.write(scratch, 0, length);
+        }
+    }
+
+    private static final class CountingHandler implements RecordHandler {
+
+        private final RecordHandler delegate;
+        long count;
+
+        CountingHandler(RecordHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        public void record(ByteBuffer buffer, int offset, int length) throws IOException {
+            count++;
+            delegate.record(buffer, offset, length);
+        }
+    }
+
+    /**
+     * A trie of the selected paths; the nodes of the selectors have a slot for their value.
+     */
+    static final class PathNode {
+
+        int slot = -1;
+
+        private final List<String> names = new ArrayList<>(2);
+        private final List<byte[]> encodedNames = new ArrayList<>(2);
+        private final List<PathNode> children = new ArrayList<>(2);
+
+        void add(String[] path, int slot) {
+            PathNode node = this;
+            for (String name : path) {
+                int i = node.names.indexOf(name);
+                if (i < 0) {
+                    i = node.names.size();
+                    node.names.add(name);
+                    node.encodedNames.add(name.getBytes(StandardCharsets.UTF_8));
+                    node.children.add(new PathNode());
+                }
+                node = node.children.get(i);
+            }
+            node.slot = slot;
+        }
+
+        boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        /**
+         * Returns the child for the key between the indexes, or <tt>null</tt>.
+         */
+        PathNode child(JsonRecordScanner scanner, int keyStart, int keyEnd) {
+            for (int i = 0; i < children.size(); i++) {
+                if (scanner.keyEquals(keyStart, keyEnd, encodedNames.get(i), names.get(i))) {
+                    return children.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The query evaluated in three-valued logic on the values extracted so far.
+     */
+    abstract static class Condition {
+
+        static final int FALSE = 0;
+        static final int TRUE = 1;
+        static final int UNKNOWN = 2;
+
+        /**
+         * @param values The extracted values by slots; <tt>null</tt> if not extracted (yet).
+         * @param complete Whether the whole record has been scanned, so the values that have
+         *                 not been extracted are missing.
+         */
+        abstract int evaluate(Object[] values, boolean complete);
+    }
+
+    private static final class Comparison extends Condition {
+
+        private final int slot;
+        private final Predicate<Object> textTest;
+        private final Predicate<Object> numberTest;
+
+        Comparison(int slot, Predicate<Object> textTest, Predicate<Object> numberTest) {
+            this.slot = slot;
+            this.textTest = textTest;
+            this.numberTest = numberTest;
+        }
+
+        int evaluate(Object[] values, boolean complete) {
+            Object value = values[slot];
+            if (value == null) {
+                return complete ? FALSE : UNKNOWN;
+            }
+            if (value == JsonRecordScanner.NO_MATCH) {
+                return FALSE;
+            }
+            boolean result;
+            if (value instanceof JsonNumber) {
+                JsonNumber number = (JsonNumber) value;
+                result = numberTest != null ? numberTest.test(number.value) : textTest.test(number.text);
+            } else {
+                result = textTest.test(value.toString());
+            }
+            return result ? TRUE : FALSE;
+        }
+    }
+
+    private static final class Logical extends Condition {
+
+        private final boolean and;
+        private final Condition[] operands;
+
+        Logical(boolean and, Condition[] operands) {
+            this.and = and;
+            this.operands = operands;
+        }
+
+        int evaluate(Object[] values, boolean complete) {
+            int dominant = and ? FALSE : TRUE;
+            int result = and ? TRUE : FALSE;
+
+            for (Condition operand : operands) {
+                int value = operand.evaluate(values, complete);
+                if (value == dominant) {
+                    return dominant;
+                }
+                if (value == UNKNOWN) {
+                    result = UNKNOWN;
+                }
+            }
+            return result;
+        }
+    }
+}
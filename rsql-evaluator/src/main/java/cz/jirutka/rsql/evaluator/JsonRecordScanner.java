@@ -0,0 +1,466 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import cz.jirutka.rsql.evaluator.JsonLinesFilter.Condition;
+import cz.jirutka.rsql.evaluator.JsonLinesFilter.PathNode;
+import cz.jirutka.rsql.evaluator.JsonLinesFilter.RecordHandler;
+
+/**
+ * Forward-only tokenizer of JSON records, one per line, that extracts only the values of the
+ * selected paths and stops as soon as the condition is decided.
+ *
+ * <p>The bytes are read directly from the buffer by absolute indexes. The values that are not
+ * selected are skipped without decoding, just matching the brackets and quotes; only the
+ * selected strings and numbers are decoded. The numbers and literals outside of objects and
+ * arrays are validated by the JSON grammar, even when they're skipped. Since a JSON string can't contain a raw line break,
+ * the end of a record is found by looking for the next <tt>\n</tt>.</p>
+ */
+@NotThreadSafe
+final class JsonRecordScanner {
+
+    /**
+     * Marker of a value that is present, but can't match any comparison (null, object, array).
+     */
+    static final Object NO_MATCH = new Object();
+
+    private static final int STOP = -1;
+
+    private static final byte[][] LITERALS = {
+        "true".getBytes(StandardCharsets.US_ASCII),
+        "false".getBytes(StandardCharsets.US_ASCII),
+        "null".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final Condition condition;
+    private final PathNode paths;
+    private final Object[] values;
+
+    private ByteBuffer buf;
+    private int end;
+    private int recordStart;
+    private long lineNumber;
+    private int decided;
+    private byte[] scratch = new byte[256];
+
+
+    JsonRecordScanner(Condition condition, PathNode paths, int slots) {
+        this.condition = condition;
+        this.paths = paths;
+        this.values = new Object[slots];
+    }
+
+
+    /**
+     * Scans the complete lines in the buffer between the indexes and passes the matching ones
+     * (including the line terminator) to the handler. Lines that contain only whitespace are
+     * skipped.
+     *
+     * @param last Whether the end of the range is the end of the input, so the last line is
+     *             complete even if it's not terminated.
+     * @return The index after the last scanned line.
+     */
+    int scanLines(ByteBuffer buffer, int from, int to, boolean last, RecordHandler handler) throws IOException {
+        int start = from;
+        while (start < to) {
+            int lineEnd = indexOf(buffer, '\n', start, to);
+            if (lineEnd < 0) {
+                if (!last) {
+                    break;
+                }
+                lineEnd = to;
+            }
+            lineNumber++;
+            int next = Math.min(lineEnd + 1, to);
+
+            if (!isBlank(buffer, start, lineEnd) && matches(buffer, start, lineEnd)) {
+                handler.record(buffer, start, next - start);
+            }
+            start = next;
+        }
+        return start;
+    }
+
+    /**
+     * Tests the record between the indexes (without the line terminator).
+     *
+     * @throws IllegalArgumentException If the scanned part of the record is not valid JSON.
+     */
+    boolean matches(ByteBuffer buffer, int start, int end) {
+        this.buf = buffer;
+        this.end = end;
+        this.recordStart = start;
+        Arrays.fill(values, null);
+
+        decided = condition.evaluate(values, false);
+        if (decided == Condition.UNKNOWN) {
+            int pos = skipWhitespace(start);
+            if (pos < end && buf.get(pos) == '{') {
+                pos = scanObject(pos, paths);
+            } else {
+                pos = skipValue(pos);
+            }
+            if (pos != STOP && skipWhitespace(pos) != end) {
+                throw malformed(pos, "unexpected data after the value");
+            }
+        }
+        if (decided == Condition.UNKNOWN) {
+            decided = condition.evaluate(values, true);
+        }
+        return decided == Condition.TRUE;
+    }
+
+
+    /**
+     * Scans the object starting at the index, extracting the values of the paths.
+     *
+     * @return The index after the object, or {@link #STOP} when the condition has been decided.
+     */
+    private int scanObject(int pos, PathNode node) {
+        pos = skipWhitespace(pos + 1);
+        if (peek(pos) == '}') {
+            return pos + 1;
+        }
+        while (true) {
+            if (peek(pos) != '"') {
+                throw malformed(pos, "expected a key");
+            }
+            int keyEnd = skipString(pos);
+            PathNode child = node.child(this, pos + 1, keyEnd - 1);
+
+            pos = skipWhitespace(keyEnd);
+            if (peek(pos) != ':') {
+                throw malformed(pos, "expected ':'");
+            }
+            pos = skipWhitespace(pos + 1);
+
+            pos = child != null ? scanField(pos, child) : skipValue(pos);
+            if (pos == STOP) {
+                return STOP;
+            }
+            pos = skipWhitespace(pos);
+            byte c = peek(pos);
+            if (c == '}') {
+                return pos + 1;
+            }
+            if (c != ',') {
+                throw malformed(pos, "expected ',' or '}'");
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    private int scanField(int pos, PathNode node) {
+        byte c = peek(pos);
+        if (c == '{' && node.hasChildren()) {
+            int next = scanObject(pos, node);
+            if (next == STOP || node.slot < 0) {
+                return next;
+            }
+            return capture(node.slot, NO_MATCH, next);
+        }
+        if (node.slot < 0 || values[node.slot] != null) {
+            return skipValue(pos);  // not a leaf or a duplicate key
+        }
+        if (c == '"') {
+            int next = skipString(pos);
+            return capture(node.slot, decodeString(pos + 1, next - 1), next);
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            int next = skipNumber(pos);
+            return capture(node.slot, new JsonNumber(ascii(pos, next)), next);
+        }
+        if (c == 't' || c == 'f') {
+            return capture(node.slot, c == 't', skipLiteral(pos));
+        }
+        return capture(node.slot, NO_MATCH, skipValue(pos));
+    }
+
+    private int capture(int slot, Object value, int next) {
+        values[slot] = value;
+        decided = condition.evaluate(values, false);
+        return decided != Condition.UNKNOWN ? STOP : next;
+    }
+
+    /**
+     * Skips any value without decoding it.
+     */
+    private int skipValue(int pos) {
+        byte c = peek(pos);
+        if (c == '"') {
+            return skipString(pos);
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return skipNumber(pos);
+        }
+        if (c != '{' && c != '[') {
+            return skipLiteral(pos);
+        }
+        int depth = 0;
+        while (pos < end) {
+            c = buf.get(pos);
+            if (c == '"') {
+                pos = skipString(pos);
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return pos + 1;
+            }
+            pos++;
+        }
+        throw malformed(pos, "unterminated object or array");
+    }
+
+    /**
+     * Returns the index after the closing quote of the string starting at the index.
+     */
+    private int skipString(int pos) {
+        for (int i = pos + 1; i < end; i++) {
+            byte c = buf.get(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\') {
+                i++;
+            }
+        }
+        throw malformed(pos, "unterminated string");
+    }
+
+    /**
+     * Returns the index after the number starting at the index, validated by the JSON grammar:
+     * <tt>-? (0 | [1-9][0-9]*) (. [0-9]+)? ([eE] [+-]? [0-9]+)?</tt>.
+     */
+    private int skipNumber(int pos) {
+        int i = pos;
+        if (buf.get(i) == '-') {
+            i++;
+        }
+        if (i < end && buf.get(i) == '0') {
+            i++;
+        } else {
+            i = skipDigits(i, pos);
+        }
+        if (i < end && buf.get(i) == '.') {
+            i = skipDigits(i + 1, pos);
+        }
+        if (i < end && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            if (i < end && (buf.get(i) == '+' || buf.get(i) == '-')) {
+                i++;
+            }
+            i = skipDigits(i, pos);
+        }
+        if (i < end && !isDelimiter(buf.get(i))) {
+            throw malformed(pos, "invalid number");
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after one or more digits starting at the index.
+     */
+    private int skipDigits(int pos, int numberStart) {
+        int i = pos;
+        while (i < end && buf.get(i) >= '0' && buf.get(i) <= '9') {
+            i++;
+        }
+        if (i == pos) {
+            throw malformed(numberStart, "invalid number");
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after the literal <tt>true</tt>, <tt>false</tt> or <tt>null</tt>
+     * starting at the index.
+     */
+    private int skipLiteral(int pos) {
+        for (byte[] literal : LITERALS) {
+            int next = pos + literal.length;
+            if (next <= end && regionEquals(pos, literal) && (next == end || isDelimiter(buf.get(next)))) {
+                return next;
+            }
+        }
+        throw malformed(pos, "expected a value");
+    }
+
+    private boolean regionEquals(int pos, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipWhitespace(int pos) {
+        while (pos < end && isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private byte peek(int pos) {
+        if (pos >= end) {
+            throw malformed(pos, "unexpected end of the record");
+        }
+        return buf.get(pos);
+    }
+
+    /**
+     * Whether the bytes between the indexes equal the UTF-8 encoded name. Keys with escapes
+     * are decoded first.
+     */
+    boolean keyEquals(int start, int end, byte[] name, String decodedName) {
+        if (indexOf(buf, '\\', start, end) >= 0) {
+            return decodeString(start, end).equals(decodedName);
+        }
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decodeString(int start, int end) {
+        if (indexOf(buf, '\\', start, end) < 0) {
+            return utf8(start, end);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        int chunk = start;
+        for (int i = start; i < end; i++) {
+            if (buf.get(i) != '\\') {
+                continue;
+            }
+            sb.append(utf8(chunk, i));
+            byte c = buf.get(++i);
+            switch (c) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end) {
+                        throw malformed(i, "invalid unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(ascii(i + 1, i + 5), 16));
+                    } catch (NumberFormatException ex) {
+                        throw malformed(i, "invalid unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    sb.append((char) c);  // " \ /
+            }
+            chunk = i + 1;
+        }
+        return sb.append(utf8(chunk, end)).toString();
+    }
+
+    private String utf8(int start, int end) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        return new String(copy(start, end), 0, end - start, StandardCharsets.UTF_8);
+    }
+
+    private String ascii(int start, int end) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        return new String(copy(start, end), 0, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private byte[] copy(int start, int end) {
+        if (scratch.length < end - start) {
+            scratch = new byte[Math.max(end - start, scratch.length * 2)];
+        }
+        for (int i = start; i < end; i++) {
+            scratch[i - start] = buf.get(i);
+        }
+        return scratch;
+    }
+
+    private IllegalArgumentException malformed(int pos, String reason) {
+        return new IllegalArgumentException(String.format(
+                "Malformed JSON record on line %d at column %d: %s", lineNumber, pos - recordStart + 1, reason));
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDelimiter(byte c) {
+        return c == ',' || c == '}' || c == ']' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+
+    /**
+     * A JSON number with its original text.
+     */
+    static final class JsonNumber {
+
+        final String text;
+        final double value;
+
+        JsonNumber(String text) {
+            this.text = text;
+            this.value = Double.parseDouble(text);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+
+/**
+ * Evaluates a predicate, typically {@linkplain PredicateCompiler compiled} from a query, over a
+ * large list in parallel on a {@link ForkJoinPool}.
+ *
+ * <p>The list is divided into chunks of consecutive elements that are scanned by the pool
+ * threads, each chunk by a single thread, so the elements of a chunk are read sequentially and
+ * the matches of a chunk are collected without any synchronization. The matches are returned
+ * in the order of the list, unless the filter is {@linkplain #withOrdered(boolean) unordered}.</p>
+ *
+ * <p>A query with a limit stops scanning when enough matches have been found: an unordered
+ * filter as soon as there's enough of any, an ordered one when the chunks before those being
+ * scanned contain enough matches. {@link #exists(List, Predicate)} and
+ * {@link #count(List, Predicate)} don't depend on the order, so they always scan unordered and
+ * {@code exists} stops on the first match found by any thread.</p>
+ *
+ * <p>The list should be {@link RandomAccess}, others are copied into an array first. An array
+ * may be wrapped by {@link Arrays#asList(Object[])} without copying.</p>
+ */
+@Immutable
+public final class ParallelFilter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private final ForkJoinPool pool;
+
+    private final int chunkSize;
+
+    private final boolean ordered;
+
+
+    /**
+     * Creates a new ordered filter that uses the {@linkplain ForkJoinPool#commonPool() common
+     * pool} and the {@linkplain #DEFAULT_CHUNK_SIZE default chunk size}.
+     */
+    public ParallelFilter() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, true);
+    }
+
+    private ParallelFilter(ForkJoinPool pool, int chunkSize, boolean ordered) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.ordered = ordered;
+    }
+
+
+    /**
+     * Returns a copy of this filter that runs on the specified pool.
+     *
+     * @param pool Must not be <tt>null</tt>.
+     */
+    public ParallelFilter withPool(ForkJoinPool pool) {
+        Assert.notNull(pool, "pool must not be null");
+        return new ParallelFilter(pool, chunkSize, ordered);
+    }
+
+    /**
+     * Returns a copy of this filter that divides the list into chunks of the specified number
+     * of elements. A chunk should be large enough to amortize the scheduling of a task, and its
+     * matches should fit into a cache.
+     *
+     * @param chunkSize Must be greater than 0.
+     */
+    public ParallelFilter withChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize must be greater than 0");
+        return new ParallelFilter(pool, chunkSize, ordered);
+    }
+
+    /**
+     * Returns a copy of this filter that returns the matches in the order of the list (the
+     * default), or in any order. An unordered filter may stop earlier when the query has a
+     * limit.
+     */
+    public ParallelFilter withOrdered(boolean ordered) {
+        return new ParallelFilter(pool, chunkSize, ordered);
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Returns all the elements that match the predicate.
+     */
+    public <T> List<T> filter(List<? extends T> source, Predicate<? super T> predicate) {
+        return filter(source, predicate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns at most {@code limit} elements that match the predicate; the first ones if this
+     * filter is ordered.
+     *
+     * @param limit Must not be negative.
+     */
+    public <T> List<T> filter(List<? extends T> source, Predicate<? super T> predicate, int limit) {
+        Assert.isTrue(limit >= 0, "limit must not be negative");
+
+        Job<T> job = run(source, predicate, limit, true, ordered);
+        List<T> result = new ArrayList<>(Math.min(limit, job.total()));
+        for (List<T> matches : job.matches) {
+            if (matches != null) {
+                result.addAll(matches.subList(0, Math.min(matches.size(), limit - result.size())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether any element matches the predicate.
+     */
+    public <T> boolean exists(List<? extends T> source, Predicate<? super T> predicate) {
+        return run(source, predicate, 1, false, false).total() > 0;
+    }
+
+    /**
+     * Returns the number of elements that match the predicate.
+     */
+    public <T> int count(List<? extends T> source, Predicate<? super T> predicate) {
+        return run(source, predicate, Integer.MAX_VALUE, false, false).total();
+    }
+
+
+    private <T> Job<T> run(List<? extends T> source, Predicate<? super T> predicate, int limit,
+                           boolean collect, boolean ordered) {
+        Assert.notNull(source, "source must not be null");
+        Assert.notNull(predicate, "predicate must not be null");
+
+        List<? extends T> list = source instanceof RandomAccess ? source : new ArrayList<>(source);
+        int chunks = (int) ((list.size() + (long) chunkSize - 1) / chunkSize);
+        Job<T> job = new Job<>(list, predicate, chunkSize, chunks, limit, collect, ordered);
+
+        if (limit == 0 || chunks == 0) {
+            return job;
+        }
+        if (chunks == 1) {
+            job.scan(0);  // not worth to fork
+        } else {
+            pool.invoke(new ScanTask<>(job, 0, chunks));
+        }
+        return job;
+    }
+
+
+    /**
+     * State of a single evaluation shared by its tasks.
+     */
+    private static final class Job<T> {
+
+        /**
+         * How often (a mask of the element index) a chunk checks whether to stop scanning.
+         */
+        static final int CHECK_INTERVAL_MASK = 0xFF;
+
+        final List<? extends T> source;
+        final Predicate<? super T> predicate;
+        final int chunkSize;
+        final int limit;
+        final boolean collect;
+        final boolean ordered;
+
+        /**
+         * The matches (if collected) and the number of matches per chunk. Each chunk is written
+         * by a single task; the results are visible to the caller after the pool joins the tasks.
+         */
+        final List<T>[] matches;
+        final int[] counts;
+
+        /**
+         * The number of matches found so far by all the chunks, to stop an unordered scan.
+         */
+        final AtomicInteger found = new AtomicInteger();
+
+        /**
+         * The chunks after this one don't need to be scanned by an ordered scan.
+         */
+        volatile int lastNeededChunk = Integer.MAX_VALUE;
+
+        @GuardedBy("this") private int prefixChunks;
+        @GuardedBy("this") private int prefixCount;
+        @GuardedBy("this") private final boolean[] done;
+
+        @SuppressWarnings("unchecked")
+        Job(List<? extends T> source, Predicate<? super T> predicate, int chunkSize, int chunks,
+                int limit, boolean collect, boolean ordered) {
+            this.source = source;
+            this.predicate = predicate;
+            this.chunkSize = chunkSize;
+            this.limit = limit;
+            this.collect = collect;
+            this.ordered = ordered;
+            this.matches = (List<T>[]) new List<?>[collect ? chunks : 0];
+            this.counts = new int[chunks];
+            this.done = new boolean[limit < Integer.MAX_VALUE ? chunks : 0];
+        }
+
+        boolean isSatisfied(int chunk) {
+            return ordered ? chunk > lastNeededChunk : found.get() >= limit;
+        }
+
+        void scan(int chunk) {
+            if (isSatisfied(chunk)) {
+                return;
+            }
+            List<T> result = collect ? new ArrayList<T>() : Collections.<T>emptyList();
+            int count = 0;
+            int end = (int) Math.min(source.size(), (long) (chunk + 1) * chunkSize);
+
+            for (int i = chunk * chunkSize; i < end; i++) {
+                // the other chunks may have found enough matches meanwhile
+                if ((i & CHECK_INTERVAL_MASK) == 0 && limit < Integer.MAX_VALUE && isSatisfied(chunk)) {
+                    break;
+                }
+                T element = source.get(i);
+                if (!predicate.test(element)) {
+                    continue;
+                }
+                if (collect) {
+                    result.add(element);
+                }
+                count++;
+                if (!ordered) {
+                    found.incrementAndGet();
+                }
+                if (count >= limit) {
+                    break;
+                }
+            }
+            counts[chunk] = count;
+            if (collect) {
+                matches[chunk] = result;
+            }
+            if (ordered && limit < Integer.MAX_VALUE) {
+                completed(chunk);
+            }
+        }
+
+        /**
+         * Advances the prefix of the completed chunks; when it contains enough matches, the
+         * chunks after it are not needed.
+         */
+        synchronized void completed(int chunk) {
+            done[chunk] = true;
+            while (prefixChunks < done.length && done[prefixChunks]) {
+                prefixCount += counts[prefixChunks++];
+                if (prefixCount >= limit) {
+                    lastNeededChunk = prefixChunks - 1;
+                    return;
+                }
+            }
+        }
+
+        synchronized int total() {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return Math.min(total, limit);
+        }
+    }
+
+    /**
+     * Scans a range of chunks, splitting it in halves down to a single chunk.
+     */
+    private static final class ScanTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Job<T> job;
+        private final int from;
+        private final int to;
+
+        ScanTask(Job<T> job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.isSatisfied(from)) {
+                return;
+            }
+            if (to - from == 1) {
+                job.scan(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ScanTask<>(job, from, middle), new ScanTask<>(job, middle, to));
+        }
+    }
+}
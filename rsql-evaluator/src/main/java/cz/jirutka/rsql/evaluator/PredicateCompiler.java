@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.OperatorRegistry;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+
+/**
+ * Compiles the AST into a {@link Predicate} that evaluates the query on Java objects in memory.
+ *
+ * <p>All the work that doesn't depend on the tested object is done once, at compile time: each
+ * selector is resolved into a {@link PropertyPath} and the arguments are converted to the type of
+ * the property by the {@link ArgumentConverter}; the arguments of <tt>=in=</tt> and <tt>=out=</tt>
+ * on a numeric or textual property are collected into a compact hash set of primitives or chars.
+ * Testing an object then costs just a few direct calls per comparison.</p>
+ *
+ * <p>The semantics follow the Hibernate visitor: a comparison of a <tt>null</tt> value (or a
+ * value on the path to it) doesn't match, not even with <tt>!=</tt> or <tt>=out=</tt>; an argument
+ * of <tt>==</tt> or <tt>!=</tt> on a textual property with a wildcard <tt>*</tt> at the start or
+ * the end is matched case-insensitively as a pattern. An empty {@code AndNode} matches everything,
+ * an empty {@code OrNode} nothing. Only the {@linkplain cz.jirutka.rsql.RSQLOperators default
+ * operators} are supported.</p>
+ *
+ * <p>There's one difference: the Hibernate visitor passes the argument to SQL <tt>ilike</tt>
+ * whenever it contains <tt>%</tt>, so <tt>%</tt> and <tt>_</tt> act as wildcards anywhere in
+ * the argument (if the database doesn't treat them otherwise). Here they're always compared
+ * literally, only the leading and trailing <tt>*</tt> is a wildcard.</p>
+ */
+@Immutable
+public final class PredicateCompiler {
+
+    private static final String WILDCARD = "*";
+
+    private final ArgumentConverter converter;
+
+    private final int samplingPeriod;
+
+    private final int bloomFilterThreshold;
+
+
+    /**
+     * Creates a new compiler with the {@linkplain ArgumentConverter#DEFAULT default} converter,
+     * without adaptive ordering and Bloom filters.
+     */
+    public PredicateCompiler() {
+        this(ArgumentConverter.DEFAULT, 0, 0);
+    }
+
+    private PredicateCompiler(ArgumentConverter converter, int samplingPeriod, int bloomFilterThreshold) {
+        this.converter = converter;
+        this.samplingPeriod = samplingPeriod;
+        this.bloomFilterThreshold = bloomFilterThreshold;
+    }
+
+
+    /**
+     * Returns a copy of this compiler that uses the specified argument converter.
+     *
+     * @param converter Must not be <tt>null</tt>.
+     */
+    public PredicateCompiler withConverter(ArgumentConverter converter) {
+        Assert.notNull(converter, "converter must not be null");
+        return new PredicateCompiler(converter, samplingPeriod, bloomFilterThreshold);
+    }
+
+    /**
+     * Returns a copy of this compiler that produces predicates which reorder the operands of
+     * each AND and OR by their measured cost and selectivity: AND evaluates first the cheap
+     * operands that reject most, OR the cheap ones that accept most. About every n-th evaluation
+     * is sampled to measure the operands; the reordering is lock-free and doesn't block
+     * concurrent evaluations.
+     *
+     * <p>This pays off for predicates evaluated many times, e.g. when filtering large
+     * collections. The sampled evaluations are more expensive, since they don't short-circuit
+     * and measure time, so the period shouldn't be too small; 100 is a reasonable value.</p>
+     *
+     * @param samplingPeriod The average number of evaluations per sample, or <tt>0</tt> to
+     *                       disable adaptive ordering.
+     */
+    public PredicateCompiler withAdaptiveOrdering(int samplingPeriod) {
+        Assert.isTrue(samplingPeriod >= 0, "samplingPeriod must not be negative");
+        return new PredicateCompiler(converter, samplingPeriod, bloomFilterThreshold);
+    }
+
+    /**
+     * Returns a copy of this compiler that prefilters the values tested by <tt>=in=</tt> and
+     * <tt>=out=</tt> with at least the specified number of arguments by a Bloom filter. The
+     * filter takes about one byte per argument, so it stays in the CPU cache even when the set
+     * of the arguments doesn't, and rejects most of the values that are not in the set without
+     * looking into it.
+     *
+     * <p>This pays off only for large lists (thousands of arguments) and when most of the tested
+     * values are not in the list; otherwise it just adds a memory access to each test.</p>
+     *
+     * @param threshold The minimum number of arguments, or <tt>0</tt> to disable the filter.
+     */
+    public PredicateCompiler withBloomFilterThreshold(int threshold) {
+        Assert.isTrue(threshold >= 0, "threshold must not be negative");
+        return new PredicateCompiler(converter, samplingPeriod, threshold);
+    }
+
+    public ArgumentConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Returns the sampling period of the adaptive ordering, or <tt>0</tt> if it's disabled.
+     */
+    public int getSamplingPeriod() {
+        return samplingPeriod;
+    }
+
+    /**
+     * Returns the minimum number of arguments prefiltered by a Bloom filter, or <tt>0</tt> if
+     * it's disabled.
+     */
+    public int getBloomFilterThreshold() {
+        return bloomFilterThreshold;
+    }
+
+    /**
+     * Compiles the query into a predicate on objects of the specified type.
+     *
+     * @param node The root of the AST. Must not be <tt>null</tt>.
+     * @param type The type of the objects to test. Must not be <tt>null</tt>.
+     * @return A thread-safe predicate.
+     *
+     * @throws IllegalArgumentException If some selector can't be resolved on the type, or some
+     *          argument can't be converted to the type of the property.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public <T> Predicate<T> compile(Node node, final Class<T> type) {
+        Assert.notNull(node, "node must not be null");
+        Assert.notNull(type, "type must not be null");
+
+        return RSQLTraversal.fold(node, new RSQLFoldVisitor<Predicate<T>, Void>() {
+            public Predicate<T> visitLeaf(ComparisonNode node, Void param) {
+                PropertyPath path = PropertyPath.resolve(type, node.getSelector());
+                return new Predicates.Comparison<>(path, compileValueTest(node, path.getType()));
+            }
+            public Predicate<T> combine(LogicalNode node, List<Predicate<T>> results, Void param) {
+                List<Predicate<T>> operands = new ArrayList<>(results);
+                if (operands.isEmpty()) {
+                    return node.getOperator() == LogicalOperator.AND ? t -> true : t -> false;
+                }
+                boolean and = node.getOperator() == LogicalOperator.AND;
+                if (samplingPeriod > 0 && operands.size() > 1) {
+                    return Predicates.adaptive(operands, and, samplingPeriod);
+                }
+                return and ? Predicates.and(operands) : Predicates.or(operands);
+            }
+        }, null);
+    }
+
+    /**
+     * Compiles the operator and arguments of the comparison into a predicate on the non-null
+     * values of a property of the specified type.
+     *
+     * @throws IllegalArgumentException If some argument can't be converted to the type, or the
+     *          type is not comparable for a relational operator.
+     * @throws UnknownOperatorException If the operator is not supported.
+     */
+    Predicate<Object> compileValueTest(ComparisonNode node, Class<?> propertyType) {
+        ComparisonOperator op = node.getOperator();
+
+        switch (op.getId()) {
+            case OperatorRegistry.EQUAL:
+            case OperatorRegistry.NOT_EQUAL: {
+                Predicate<Object> test = equalTo(node.argument(0), propertyType);
+                return op.getId() == OperatorRegistry.EQUAL ? test : Predicates.not(test);
+            }
+            case OperatorRegistry.IN:
+            case OperatorRegistry.NOT_IN: {
+                Predicate<Object> test = in(node.arguments(), propertyType);
+                return op.getId() == OperatorRegistry.IN ? test : Predicates.not(test);
+            }
+            case OperatorRegistry.GREATER_THAN:          return compare(node, propertyType, 1, 1);
+            case OperatorRegistry.GREATER_THAN_OR_EQUAL: return compare(node, propertyType, 0, 1);
+            case OperatorRegistry.LESS_THAN:             return compare(node, propertyType, -1, -1);
+            case OperatorRegistry.LESS_THAN_OR_EQUAL:    return compare(node, propertyType, -1, 0);
+        }
+        throw new UnknownOperatorException(op.getSymbol(), "Unsupported operator: " + op);
+    }
+
+
+    private Predicate<Object> equalTo(String argument, Class<?> propertyType) {
+        if (isText(propertyType)) {
+            if (argument.startsWith(WILDCARD) || argument.endsWith(WILDCARD)) {
+                return Predicates.wildcard(argument);
+            }
+            return propertyType == String.class
+                    ? Predicates.equalTo(argument) : Predicates.textEqualTo(argument);
+        }
+        return Predicates.equalTo(converter.convert(argument, propertyType));
+    }
+
+    private Predicate<Object> in(List<String> arguments, Class<?> propertyType) {
+        if (arguments.size() > 1) {
+            Predicate<Object> set = ArgumentSets.of(arguments, propertyType, converter, bloomFilterThreshold);
+            if (set != null) {
+                return set;
+            }
+        }
+        if (isText(propertyType) && propertyType != String.class) {
+            return anyTextEqualTo(arguments);
+        }
+        List<Object> values = new ArrayList<>(arguments.size());
+        for (String arg : arguments) {
+            values.add(converter.convert(arg, propertyType));
+        }
+        return Predicates.in(values);
+    }
+
+    private Predicate<Object> anyTextEqualTo(List<String> arguments) {
+        List<Predicate<Object>> tests = new ArrayList<>(arguments.size());
+        for (String arg : arguments) {
+            tests.add(Predicates.textEqualTo(arg));
+        }
+        return Predicates.or(tests);
+    }
+
+    private Predicate<Object> compare(ComparisonNode node, Class<?> propertyType, int minSign, int maxSign) {
+        Class<?> wrapped = MethodType.methodType(propertyType).wrap().returnType();
+        if (!Comparable.class.isAssignableFrom(wrapped)) {
+            throw new IllegalArgumentException(String.format(
+                    "Property '%s' of type %s is not comparable", node.getSelector(), propertyType.getName()));
+        }
+        return Predicates.compare(converter.convert(node.argument(0), propertyType), minSign, maxSign);
+    }
+
+    static boolean isText(Class<?> type) {
+        return CharSequence.class.isAssignableFrom(type) || type == Object.class;
+    }
+}
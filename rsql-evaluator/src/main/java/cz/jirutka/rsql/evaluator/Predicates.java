@@ -0,0 +1,353 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+/**
+ * Implementations of the compiled predicates. They are all small final classes with a monomorphic
+ * {@code test} method, so the JIT can inline the whole evaluation of a typical query.
+ */
+final class Predicates {
+
+    private Predicates() {
+    }
+
+
+    static <T> Predicate<T> and(List<Predicate<T>> operands) {
+        return operands.size() == 1 ? operands.get(0) : new And<>(toArray(operands));
+    }
+
+    static <T> Predicate<T> or(List<Predicate<T>> operands) {
+        return operands.size() == 1 ? operands.get(0) : new Or<>(toArray(operands));
+    }
+
+    static <T> Predicate<T> adaptive(List<Predicate<T>> operands, boolean and, int samplingPeriod) {
+        return new Adaptive<>(toArray(operands), and, samplingPeriod);
+    }
+
+    static Predicate<Object> equalTo(Object expected) {
+        return new EqualTo(expected);
+    }
+
+    static Predicate<Object> textEqualTo(String expected) {
+        return new TextEqualTo(expected);
+    }
+
+    static Predicate<Object> in(Collection<?> values) {
+        return values.size() == 1 ? new EqualTo(values.iterator().next()) : new In(new HashSet<>(values));
+    }
+
+    static Predicate<Object> compare(Object bound, int minSign, int maxSign) {
+        return new Compare(bound, minSign, maxSign);
+    }
+
+    static Predicate<Object> wildcard(String pattern) {
+        return new Wildcard(pattern);
+    }
+
+    static Predicate<Object> not(Predicate<Object> predicate) {
+        return new Not(predicate);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Predicate<T>[] toArray(List<Predicate<T>> operands) {
+        return operands.toArray((Predicate<T>[]) new Predicate<?>[operands.size()]);
+    }
+
+
+    static final class And<T> implements Predicate<T> {
+
+        private final Predicate<T>[] operands;
+
+        And(Predicate<T>[] operands) {
+            this.operands = operands;
+        }
+
+        public boolean test(T t) {
+            for (Predicate<T> operand : operands) {
+                if (!operand.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Or<T> implements Predicate<T> {
+
+        private final Predicate<T>[] operands;
+
+        Or(Predicate<T>[] operands) {
+            this.operands = operands;
+        }
+
+        public boolean test(T t) {
+            for (Predicate<T> operand : operands) {
+                if (operand.test(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Conjunction or disjunction that reorders its operands by the measured cost and selectivity.
+     * An AND evaluates first the operands that are cheap and reject most, an OR those that are
+     * cheap and accept most, to short-circuit as early as possible.
+     *
+     * <p>Every n-th (on average) evaluation is sampled: all the operands are evaluated, each one
+     * is timed, and its result is counted. After {@link #SAMPLES_PER_REORDER} samples, the
+     * thread that took the last one computes a new order and publishes it by a volatile write;
+     * the statistics are then halved, so the order follows changes in the data. Evaluation never
+     * blocks, it just reads the current order.</p>
+     */
+    static final class Adaptive<T> implements Predicate<T> {
+
+        static final int SAMPLES_PER_REORDER = 256;
+
+        private final Predicate<T>[] operands;
+        private final boolean and;
+        private final int samplingPeriod;
+
+        private final AtomicLongArray nanos;
+        private final AtomicLongArray passes;
+        private final AtomicInteger samples = new AtomicInteger();
+
+        private volatile int[] order;
+
+        Adaptive(Predicate<T>[] operands, boolean and, int samplingPeriod) {
+            this.operands = operands;
+            this.and = and;
+            this.samplingPeriod = samplingPeriod;
+            this.nanos = new AtomicLongArray(operands.length);
+            this.passes = new AtomicLongArray(operands.length);
+            this.order = new int[operands.length];
+            for (int i = 0; i < operands.length; i++) {
+                order[i] = i;
+            }
+        }
+
+        public boolean test(T t) {
+            if (ThreadLocalRandom.current().nextInt(samplingPeriod) == 0) {
+                return sample(t);
+            }
+            for (int i : order) {
+                if (operands[i].test(t) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        /**
+         * Returns a copy of the current order of the operands (indexes as given).
+         */
+        int[] order() {
+            return order.clone();
+        }
+
+        private boolean sample(T t) {
+            boolean result = and;
+            for (int i = 0; i < operands.length; i++) {
+                long start = System.nanoTime();
+                boolean passed = operands[i].test(t);
+                nanos.addAndGet(i, System.nanoTime() - start);
+                if (passed) {
+                    passes.incrementAndGet(i);
+                }
+                if (passed != and) {
+                    result = !and;
+                }
+            }
+            if (samples.incrementAndGet() == SAMPLES_PER_REORDER) {
+                reorder();
+            }
+            return result;
+        }
+
+        private void reorder() {
+            int count = samples.get();
+            final double[] ranks = new double[operands.length];
+
+            for (int i = 0; i < operands.length; i++) {
+                double cost = (double) (nanos.get(i) + 1) / count;
+                double passRate = (passes.get(i) + 1.0) / (count + 2.0);
+                // expected cost of the operand per short-circuited evaluation
+                ranks[i] = cost / (and ? 1.0 - passRate : passRate);
+            }
+            Integer[] sorted = new Integer[operands.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (a, b) -> Double.compare(ranks[a], ranks[b]));
+
+            int[] newOrder = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                newOrder[i] = sorted[i];
+                nanos.set(i, nanos.get(i) / 2);
+                passes.set(i, passes.get(i) / 2);
+            }
+            order = newOrder;
+            samples.set(count / 2);
+        }
+    }
+
+    /**
+     * Tests the value of the property; a <tt>null</tt> value doesn't match anything.
+     */
+    static final class Comparison<T> implements Predicate<T> {
+
+        private final PropertyPath path;
+        private final Predicate<Object> valueTest;
+
+        Comparison(PropertyPath path, Predicate<Object> valueTest) {
+            this.path = path;
+            this.valueTest = valueTest;
+        }
+
+        public boolean test(T t) {
+            Object value = path.get(t);
+            return value != null && valueTest.test(value);
+        }
+    }
+
+    static final class EqualTo implements Predicate<Object> {
+
+        private final Object expected;
+
+        EqualTo(Object expected) {
+            this.expected = expected;
+        }
+
+        public boolean test(Object value) {
+            return expected.equals(value);
+        }
+    }
+
+    static final class TextEqualTo implements Predicate<Object> {
+
+        private final String expected;
+
+        TextEqualTo(String expected) {
+            this.expected = expected;
+        }
+
+        public boolean test(Object value) {
+            return expected.equals(value.toString());
+        }
+    }
+
+    static final class In implements Predicate<Object> {
+
+        private final Set<?> values;
+
+        In(Set<?> values) {
+            this.values = values;
+        }
+
+        public boolean test(Object value) {
+            return values.contains(value);
+        }
+    }
+
+    static final class Not implements Predicate<Object> {
+
+        private final Predicate<Object> predicate;
+
+        Not(Predicate<Object> predicate) {
+            this.predicate = predicate;
+        }
+
+        public boolean test(Object value) {
+            return !predicate.test(value);
+        }
+    }
+
+    /**
+     * Matches comparable values whose {@code compareTo} the bound is within the range of signs.
+     */
+    static final class Compare implements Predicate<Object> {
+
+        private final Object bound;
+        private final int minSign;
+        private final int maxSign;
+
+        Compare(Object bound, int minSign, int maxSign) {
+            this.bound = bound;
+            this.minSign = minSign;
+            this.maxSign = maxSign;
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean test(Object value) {
+            int sign = Integer.signum(((Comparable<Object>) value).compareTo(bound));
+            return sign >= minSign && sign <= maxSign;
+        }
+    }
+
+    /**
+     * Case-insensitive match of a pattern with a wildcard <tt>*</tt> at the start and/or the end,
+     * the same as translated to <tt>ilike</tt> by the Hibernate visitor. An asterisk elsewhere is
+     * matched literally, and so are <tt>%</tt> and <tt>_</tt>, unlike in <tt>ilike</tt>.
+     */
+    static final class Wildcard implements Predicate<Object> {
+
+        private final String infix;
+        private final boolean anyStart;
+        private final boolean anyEnd;
+
+        Wildcard(String pattern) {
+            anyStart = pattern.startsWith("*");
+            anyEnd = pattern.length() > 1 && pattern.endsWith("*");
+
+            int start = anyStart ? 1 : 0;
+            int end = anyEnd ? pattern.length() - 1 : pattern.length();
+            infix = pattern.substring(start, Math.max(start, end)).toLowerCase(Locale.ROOT);
+        }
+
+        public boolean test(Object value) {
+            String text = value.toString().toLowerCase(Locale.ROOT);
+
+            if (anyStart && anyEnd) {
+                return text.contains(infix);
+            } else if (anyStart) {
+                return text.endsWith(infix);
+            } else if (anyEnd) {
+                return text.startsWith(infix);
+            }
+            return text.equals(infix);
+        }
+    }
+}
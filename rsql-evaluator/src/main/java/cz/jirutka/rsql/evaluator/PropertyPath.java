@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import cz.jirutka.rsql.Assert;
+
+/**
+ * A chain of accessors for a dotted selector, e.g. <tt>director.lastName</tt>, resolved once
+ * against the static types of the properties. Each segment is a public getter
+ * (<tt>getX()</tt> or <tt>isX()</tt>), or a public field.
+ *
+ * <p>Getters are bound by {@link LambdaMetafactory}, so reading the property is a plain interface
+ * call that the JIT can inline, without any reflection. Fields and getters that can't be bound
+ * this way are read through a {@link MethodHandle}.</p>
+ *
+ * <p>Binding a getter spins a new class, so the accessor of each property is bound just once per
+ * type and then shared by all the paths that read the property.</p>
+ */
+@Immutable
+public final class PropertyPath {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType OBJECT_TO_OBJECT = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<ConcurrentMap<String, Property>> PROPERTIES =
+            new ClassValue<ConcurrentMap<String, Property>>() {
+                protected ConcurrentMap<String, Property> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+
+    private final String selector;
+
+    private final Function<Object, Object>[] accessors;
+
+    private final Class<?> type;
+
+
+    private PropertyPath(String selector, Function<Object, Object>[] accessors, Class<?> type) {
+        this.selector = selector;
+        this.accessors = accessors;
+        this.type = type;
+    }
+
+    /**
+     * Resolves the selector against the specified type.
+     *
+     * @param rootType The type of the objects the selector will be evaluated on.
+     * @param selector Dot-separated names of the properties.
+     *
+     * @throws IllegalArgumentException If some of the properties doesn't exist or isn't accessible.
+     */
+    @SuppressWarnings("unchecked")
+    public static PropertyPath resolve(Class<?> rootType, String selector) {
+        Assert.notNull(rootType, "rootType must not be null");
+        Assert.notBlank(selector, "selector must not be blank");
+
+        String[] names = selector.split("\\.", -1);
+        Function<Object, Object>[] accessors = (Function<Object, Object>[]) new Function<?, ?>[names.length];
+        Class<?> type = rootType;
+
+        for (int i = 0; i < names.length; i++) {
+            Property property = PROPERTIES.get(type).get(names[i]);
+            if (property == null) {
+                property = bind(type, names[i], selector);
+            }
+            accessors[i] = property.accessor;
+            type = property.type;
+        }
+        return new PropertyPath(selector, accessors, type);
+    }
+
+
+    /**
+     * Returns the value of the property, or <tt>null</tt> if the value or some of the
+     * intermediate values is <tt>null</tt>.
+     */
+    public Object get(Object root) {
+        Object value = root;
+        for (Function<Object, Object> accessor : accessors) {
+            if (value == null) {
+                return null;
+            }
+            value = accessor.apply(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the declared type of the last property in the path.
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    @Override
+    public String toString() {
+        return selector;
+    }
+
+
+    private static Property bind(Class<?> type, String name, String selector) {
+        Property property;
+
+        Method getter = findGetter(type, name);
+        Field field = getter == null ? findField(type, name) : null;
+        if (getter != null) {
+            property = new Property(bindGetter(getter), getter.getReturnType());
+        } else if (field != null) {
+            property = new Property(bindField(field), field.getType());
+        } else {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown property '%s' of %s in selector: %s", name, type.getName(), selector));
+        }
+        Property existing = PROPERTIES.get(type).putIfAbsent(name, property);
+
+        return existing != null ? existing : property;
+    }
+
+    private static Method findGetter(Class<?> type, String name) {
+        if (name.isEmpty()) {
+            return null;
+        }
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+        for (String prefix : new String[]{ "get", "is" }) {
+            try {
+                Method method = type.getMethod(prefix + suffix);
+                if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class
+                        && (prefix.equals("get") || method.getReturnType() == boolean.class)) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ex) {
+                // try next
+            }
+        }
+        return null;
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        try {
+            Field field = type.getField(name);
+            return Modifier.isStatic(field.getModifiers()) ? null : field;
+        } catch (NoSuchFieldException ex) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> bindGetter(Method getter) {
+        MethodHandle handle = unreflect(getter);
+        try {
+            Class<?> returnType = MethodType.methodType(getter.getReturnType()).wrap().returnType();
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    MethodType.methodType(Function.class), OBJECT_TO_OBJECT,
+                    handle, MethodType.methodType(returnType, getter.getDeclaringClass()));
+
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+
+        } catch (Throwable ex) {
+            // e.g. the declaring class is not accessible from here
+            return new HandleAccessor(handle);
+        }
+    }
+
+    private static Function<Object, Object> bindField(Field field) {
+        try {
+            return new HandleAccessor(LOOKUP.unreflectGetter(field));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Field is not accessible: " + field, ex);
+        }
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return LOOKUP.unreflect(method);
+        } catch (IllegalAccessException ex) {
+            method.setAccessible(true);  // public method declared in a non-public class
+            try {
+                return LOOKUP.unreflect(method);
+            } catch (IllegalAccessException ex2) {
+                throw new IllegalArgumentException("Getter is not accessible: " + method, ex2);
+            }
+        }
+    }
+
+
+    /**
+     * Accessor of a property bound for a specific type, and the declared type of the property.
+     */
+    private static final class Property {
+
+        final Function<Object, Object> accessor;
+        final Class<?> type;
+
+        Property(Function<Object, Object> accessor, Class<?> type) {
+            this.accessor = accessor;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Accessor that invokes a method handle.
+     */
+    private static final class HandleAccessor implements Function<Object, Object> {
+
+        private final MethodHandle handle;
+
+        HandleAccessor(MethodHandle handle) {
+            this.handle = handle.asType(OBJECT_TO_OBJECT);
+        }
+
+        public Object apply(Object target) {
+            try {
+                return handle.invokeExact(target);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Set of row ids of a {@link ColumnTable}, stored as a bitmap of 64-bit words. Unlike
+ * {@link BitSet}, the words are exposed to the column scans, so each scan fills whole words
+ * without a bounds check or a method call per row.
+ *
+ * <p>Iterate the rows by {@link #nextSetBit(int)} like with {@link BitSet}:</p>
+ * <pre>
+ * for (int row = rows.nextSetBit(0); row &gt;= 0; row = rows.nextSetBit(row + 1)) { ... }
+ * </pre>
+ */
+@NotThreadSafe
+public final class RowSet {
+
+    final long[] words;
+
+    private final int rowCount;
+
+
+    RowSet(int rowCount) {
+        this.rowCount = rowCount;
+        this.words = new long[(rowCount + 63) >>> 6];
+    }
+
+    /**
+     * Returns a new set of all the rows of a table with the specified number of rows.
+     */
+    static RowSet all(int rowCount) {
+        RowSet rows = new RowSet(rowCount);
+        Arrays.fill(rows.words, -1L);
+        rows.clearTail();
+        return rows;
+    }
+
+
+    /**
+     * Returns the number of rows of the table, i.e. the upper bound of the row ids.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public boolean get(int row) {
+        return row >= 0 && row < rowCount && (words[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Returns the first row in the set that is greater than or equal to the specified row,
+     * or <tt>-1</tt> if there's no such row.
+     */
+    public int nextSetBit(int fromRow) {
+        if (fromRow < 0) {
+            throw new IndexOutOfBoundsException("fromRow < 0: " + fromRow);
+        }
+        int w = fromRow >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & (-1L << fromRow);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * Returns the number of rows in the set.
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ids of the rows in the set in ascending order.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int i = 0;
+        for (int row = nextSetBit(0); row >= 0; row = nextSetBit(row + 1)) {
+            result[i++] = row;
+        }
+        return result;
+    }
+
+    public BitSet toBitSet() {
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Retains only the rows that are also in the other set.
+     */
+    public void and(RowSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+    }
+
+    /**
+     * Adds all the rows of the other set.
+     */
+    public void or(RowSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    /**
+     * Replaces the set with its complement.
+     */
+    public void flip() {
+        for (int i = 0; i < words.length; i++) {
+            words[i] = ~words[i];
+        }
+        clearTail();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof RowSet)) return false;
+
+        RowSet that = (RowSet) obj;
+        return rowCount == that.rowCount && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * rowCount + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return toBitSet().toString();
+    }
+
+
+    private void clearTail() {
+        if ((rowCount & 63) != 0) {
+            words[words.length - 1] &= (1L << rowCount) - 1;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Arrays;
+
+/**
+ * Plain loops that compute the bits without branching, 64 rows per word, so the JIT can unroll
+ * them and auto-vectorize the simple ones.
+ */
+@Immutable
+final class ScalarScanner implements ColumnScanner {
+
+    static final ScalarScanner INSTANCE = new ScalarScanner();
+
+    private ScalarScanner() {
+    }
+
+
+    public void scanRange(int[] values, int min, int max, long[] words) {
+        scanRange(values, min, max, words, 0);
+    }
+
+    public void scanRange(long[] values, long min, long max, long[] words) {
+        scanRange(values, min, max, words, 0);
+    }
+
+    public void scanRange(double[] values, long min, long max, long[] words) {
+        scanRange(values, min, max, words, 0);
+    }
+
+    public void scanIn(int[] values, int[] sorted, long[] words) {
+        scanIn(values, sorted, words, 0);
+    }
+
+    public void scanIn(long[] values, long[] sorted, long[] words) {
+        scanIn(values, sorted, words, 0);
+    }
+
+    public void scanIn(double[] values, double[] sorted, long[] words) {
+        scanIn(values, sorted, words, 0);
+    }
+
+    /*
+     * The variants below fill only the words from the given index on; the vectorized scanner
+     * uses them for the last words that don't fill a whole vector.
+     */
+
+    void scanRange(int[] values, int min, int max, long[] words, int fromWord) {
+        if (min > max) {
+            Arrays.fill(words, fromWord, words.length, 0L);
+            return;
+        }
+        // Unsigned comparison of the distance from min checks both bounds at once.
+        int span = max - min + Integer.MIN_VALUE;
+
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                word |= (values[base + b] - min + Integer.MIN_VALUE <= span ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+
+    void scanRange(long[] values, long min, long max, long[] words, int fromWord) {
+        if (min > max) {
+            Arrays.fill(words, fromWord, words.length, 0L);
+            return;
+        }
+        long span = max - min + Long.MIN_VALUE;
+
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                word |= (values[base + b] - min + Long.MIN_VALUE <= span ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+
+    void scanRange(double[] values, long min, long max, long[] words, int fromWord) {
+        if (min > max) {
+            Arrays.fill(words, fromWord, words.length, 0L);
+            return;
+        }
+        long span = max - min + Long.MIN_VALUE;
+
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                long key = ColumnScanner.orderKey(values[base + b]);
+                word |= (key - min + Long.MIN_VALUE <= span ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+
+    void scanIn(int[] values, int[] sorted, long[] words, int fromWord) {
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                word |= (Arrays.binarySearch(sorted, values[base + b]) >= 0 ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+
+    void scanIn(long[] values, long[] sorted, long[] words, int fromWord) {
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                word |= (Arrays.binarySearch(sorted, values[base + b]) >= 0 ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+
+    void scanIn(double[] values, double[] sorted, long[] words, int fromWord) {
+        for (int w = fromWord, base = fromWord << 6; w < words.length; w++, base += 64) {
+            int end = Math.min(64, values.length - base);
+            long word = 0;
+            for (int b = 0; b < end; b++) {
+                word |= (Arrays.binarySearch(sorted, values[base + b]) >= 0 ? 1L : 0L) << b;
+            }
+            words[w] = word;
+        }
+    }
+}
@@ -0,0 +1,838 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.OperatorRegistry;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import cz.jirutka.rsql.ast.AndNode;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+
+/**
+ * Index of standing queries (subscriptions) that finds the ones matching an event without
+ * evaluating each of them.
+ *
+ * <p>Each query is converted into a disjunction of conjunctions (clauses). The <tt>==</tt> and
+ * <tt>=in=</tt> comparisons of a clause are put into a hash index on the selector, keyed by the
+ * argument values; the relational comparisons of a clause on the same selector are merged into
+ * a single interval and put into an interval tree of the selector. Matching an event then looks
+ * up the value of each indexed selector in these indexes and counts the hits of each clause;
+ * a clause whose all indexed comparisons have been hit is a candidate, the remaining comparisons
+ * of the clause (e.g. <tt>!=</tt> or a pattern) are evaluated by a predicate
+ * {@linkplain PredicateCompiler compiled} from them. So the cost of matching is proportional
+ * to the number of hit comparisons, not to the number of subscriptions. Only the clauses without
+ * any indexed comparison, and queries with more than {@value #MAX_CLAUSES} clauses, are
+ * evaluated for each event. The results are exactly the same as of the compiled queries.</p>
+ *
+ * <p>Subscriptions may be registered and removed concurrently with each other and with matching.
+ * Matching doesn't acquire any lock; an event that is matched concurrently with registering or
+ * removing a subscription may or may not be matched against it.</p>
+ *
+ * @param <T> The type of the events.
+ * @param <K> The type of the subscription keys.
+ */
+@ThreadSafe
+public final class SubscriptionIndex<T, K> {
+
+    /**
+     * The maximum number of clauses of an indexed query.
+     */
+    public static final int MAX_CLAUSES = 64;
+
+    private static final Dnf TOO_MANY_CLAUSES = new Dnf(null, true);
+
+    private final Class<T> type;
+
+    private final PredicateCompiler compiler;
+
+    private final ConcurrentMap<K, Subscription<T, K>> subscriptions = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, SelectorIndex> selectors = new ConcurrentHashMap<>();
+
+    private final Set<Clause<T, K>> unindexed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // the largest table of hit counts needed so far, to avoid growing it in each match
+    private volatile int hitsCapacity = 64;
+
+
+    /**
+     * Creates a new empty index that uses the default {@link PredicateCompiler}.
+     *
+     * @param type The type of the events. Must not be <tt>null</tt>.
+     */
+    public SubscriptionIndex(Class<T> type) {
+        this(type, new PredicateCompiler());
+    }
+
+    /**
+     * @param type The type of the events. Must not be <tt>null</tt>.
+     * @param compiler The compiler of the comparisons that can't be indexed; its converter is
+     *                 used also to convert the arguments of the indexed ones. Must not be
+     *                 <tt>null</tt>.
+     */
+    public SubscriptionIndex(Class<T> type, PredicateCompiler compiler) {
+        Assert.notNull(type, "type must not be null");
+        Assert.notNull(compiler, "compiler must not be null");
+        this.type = type;
+        this.compiler = compiler;
+    }
+
+
+    /**
+     * Registers the query under the key, replacing the query previously registered under the
+     * same key, if any.
+     *
+     * @param key The key of the subscription. Must not be <tt>null</tt>.
+     * @param query The root of the AST. Must not be <tt>null</tt>.
+     *
+     * @throws IllegalArgumentException If some selector can't be resolved on the event type, or
+     *          some argument can't be converted to the type of the property.
+     * @throws UnknownOperatorException If the query contains an unsupported operator.
+     */
+    public void register(K key, Node query) {
+        Assert.notNull(key, "key must not be null");
+        Assert.notNull(query, "query must not be null");
+
+        Subscription<T, K> subscription = compile(key, query);
+        Subscription<T, K> previous = subscriptions.put(key, subscription);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(subscription);
+    }
+
+    /**
+     * Removes the subscription with the key.
+     *
+     * @return Whether the subscription has been registered.
+     */
+    public boolean remove(K key) {
+        Subscription<T, K> subscription = subscriptions.remove(key);
+        if (subscription == null) {
+            return false;
+        }
+        unindex(subscription);
+        return true;
+    }
+
+    public boolean contains(K key) {
+        return subscriptions.containsKey(key);
+    }
+
+    /**
+     * Returns the number of the registered subscriptions.
+     */
+    public int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the keys of the subscriptions whose query matches the event.
+     *
+     * @param event The event to match. Must not be <tt>null</tt>.
+     * @return A new mutable set.
+     */
+    public Set<K> match(T event) {
+        Assert.notNull(event, "event must not be null");
+
+        Match match = new Match(event, hitsCapacity);
+        for (SelectorIndex index : selectors.values()) {
+            Object value = index.path.get(event);
+            if (value != null) {
+                index.lookup(value, match);
+            }
+        }
+        for (Clause<T, K> clause : unindexed) {
+            match.evaluate(clause);
+        }
+        if (match.clauses.length > hitsCapacity) {
+            hitsCapacity = match.clauses.length;
+        }
+        return match.result;
+    }
+
+    /**
+     * Returns the number of the clauses that are evaluated for each event.
+     */
+    int unindexedCount() {
+        return unindexed.size();
+    }
+
+
+    private Subscription<T, K> compile(K key, Node query) {
+        // compile the whole query up front to validate it
+        Predicate<T> predicate = compiler.compile(query, type);
+
+        final Map<String, PropertyPath> paths = new HashMap<>();
+        Dnf dnf = RSQLTraversal.fold(query, new RSQLFoldVisitor<Dnf, Void>() {
+            public Dnf visitLeaf(ComparisonNode node, Void param) {
+                return new Dnf(Collections.singletonList(Collections.<Node>singletonList(node)),
+                        isIndexable(node, path(node.getSelector(), paths)));
+            }
+            public Dnf combine(LogicalNode node, List<Dnf> results, Void param) {
+                return Dnf.combine(node, results);
+            }
+        }, null);
+
+        Subscription<T, K> subscription = new Subscription<>(key);
+        if (dnf.clauses == null) {
+            subscription.clauses.add(new Clause<>(subscription, predicate, 0, sequence.incrementAndGet()));
+            return subscription;
+        }
+        for (List<Node> literals : dnf.clauses) {
+            Clause<T, K> clause = compileClause(subscription, literals, paths);
+            if (clause != null) {
+                subscription.clauses.add(clause);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * Returns the clause of the conjunction of the nodes, or <tt>null</tt> if it can't match
+     * anything.
+     */
+    private Clause<T, K> compileClause(Subscription<T, K> subscription, List<Node> literals,
+                                       Map<String, PropertyPath> paths) {
+        ArgumentConverter converter = compiler.getConverter();
+        List<Node> residual = new ArrayList<>();
+        List<ComparisonNode> equalities = new ArrayList<>();
+        Map<String, Range> ranges = new LinkedHashMap<>();
+
+        for (Node literal : literals) {
+            ComparisonNode node = literal instanceof ComparisonNode ? (ComparisonNode) literal : null;
+            if (node == null || !isIndexable(node, path(node.getSelector(), paths))) {
+                residual.add(literal);
+                continue;
+            }
+            int operator = node.getOperator().getId();
+            if (operator == OperatorRegistry.EQUAL || operator == OperatorRegistry.IN) {
+                equalities.add(node);
+            } else {
+                Range range = ranges.get(node.getSelector());
+                if (range == null) {
+                    range = new Range();
+                    ranges.put(node.getSelector(), range);
+                }
+                Class<?> propertyType = path(node.getSelector(), paths).getType();
+                range.restrict(operator, converter.convert(node.argument(0), propertyType));
+            }
+        }
+        for (Range range : ranges.values()) {
+            if (range.isEmpty()) {
+                return null;
+            }
+        }
+        Predicate<T> predicate = residual.isEmpty() ? null
+                : compiler.compile(residual.size() == 1 ? residual.get(0) : new AndNode(residual), type);
+        Clause<T, K> clause = new Clause<>(subscription, predicate, equalities.size() + ranges.size(),
+                sequence.incrementAndGet());
+
+        for (ComparisonNode node : equalities) {
+            Class<?> propertyType = path(node.getSelector(), paths).getType();
+            // the same as PredicateCompiler: == on a text is not converted, nor =in= on a non-String
+            boolean raw = PredicateCompiler.isText(propertyType)
+                    && (node.getOperator().getId() == OperatorRegistry.EQUAL || propertyType != String.class);
+            Set<Object> keys = new HashSet<>();
+            for (String arg : node.arguments()) {
+                keys.add(raw ? arg : converter.convert(arg, propertyType));
+            }
+            clause.entries.add(new Entry(clause, selectorIndex(node.getSelector(), paths), keys.toArray(), null,
+                    sequence.incrementAndGet()));
+        }
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            clause.entries.add(new Entry(clause, selectorIndex(entry.getKey(), paths), null, entry.getValue(),
+                    sequence.incrementAndGet()));
+        }
+        return clause;
+    }
+
+    /**
+     * Whether the comparison can be answered by an index. A pattern (<tt>==</tt> with a wildcard
+     * on a textual property) can't be, and a relational comparison only on a comparable type.
+     */
+    private static boolean isIndexable(ComparisonNode node, PropertyPath path) {
+        Class<?> propertyType = path.getType();
+
+        switch (node.getOperator().getId()) {
+            case OperatorRegistry.EQUAL:
+                String arg = node.argument(0);
+                return !PredicateCompiler.isText(propertyType) || !(arg.startsWith("*") || arg.endsWith("*"));
+            case OperatorRegistry.IN:
+                return true;
+            case OperatorRegistry.GREATER_THAN:
+            case OperatorRegistry.GREATER_THAN_OR_EQUAL:
+            case OperatorRegistry.LESS_THAN:
+            case OperatorRegistry.LESS_THAN_OR_EQUAL:
+                Class<?> wrapped = MethodType.methodType(propertyType).wrap().returnType();
+                return Comparable.class.isAssignableFrom(wrapped);
+            default:
+                return false;
+        }
+    }
+
+    private PropertyPath path(String selector, Map<String, PropertyPath> paths) {
+        PropertyPath path = paths.get(selector);
+        if (path == null) {
+            path = PropertyPath.resolve(type, selector);
+            paths.put(selector, path);
+        }
+        return path;
+    }
+
+    private SelectorIndex selectorIndex(String selector, Map<String, PropertyPath> paths) {
+        SelectorIndex index = selectors.get(selector);
+        if (index == null) {
+            SelectorIndex created = new SelectorIndex(path(selector, paths));
+            index = selectors.putIfAbsent(selector, created);
+            index = index != null ? index : created;
+        }
+        return index;
+    }
+
+    private void index(Subscription<T, K> subscription) {
+        synchronized (subscription) {
+            if (subscription.removed) {
+                return;  // removed or replaced by another thread meanwhile
+            }
+            for (Clause<T, K> clause : subscription.clauses) {
+                if (clause.entries.isEmpty()) {
+                    unindexed.add(clause);
+                }
+                for (Entry entry : clause.entries) {
+                    entry.index.add(entry);
+                }
+            }
+            subscription.indexed = true;
+        }
+    }
+
+    private void unindex(Subscription<T, K> subscription) {
+        synchronized (subscription) {
+            subscription.removed = true;
+            if (!subscription.indexed) {
+                return;
+            }
+            for (Clause<T, K> clause : subscription.clauses) {
+                unindexed.remove(clause);
+                for (Entry entry : clause.entries) {
+                    entry.index.remove(entry);
+                }
+            }
+            subscription.indexed = false;
+        }
+    }
+
+
+    /**
+     * State of a single {@link #match(Object)}: counts of the hits of the clauses and the result.
+     * The counts are kept in an open-addressing table keyed by the clause identity, a common
+     * predicate (e.g. on the event type) may hit thousands of clauses.
+     */
+    private final class Match implements Consumer<Entry> {
+
+        final T event;
+        final Set<K> result = new HashSet<>();
+
+        private Clause<?, ?>[] clauses;
+        private int[] hits;
+        private int size;
+
+        /**
+         * @param capacity The initial capacity of the table of the hit counts, a power of two.
+         */
+        Match(T event, int capacity) {
+            this.event = event;
+            this.clauses = new Clause<?, ?>[capacity];
+            this.hits = new int[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        public void accept(Entry entry) {
+            if (entry.required == 1 || increment(entry.clause, entry.clauseHash) == entry.required) {
+                evaluate((Clause<T, K>) entry.clause);
+            }
+        }
+
+        private int increment(Clause<?, ?> clause, int hash) {
+            int mask = clauses.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                if (clauses[i] == clause) {
+                    return ++hits[i];
+                }
+                if (clauses[i] == null) {
+                    if (size * 2 >= clauses.length) {
+                        grow();
+                        return increment(clause, hash);
+                    }
+                    clauses[i] = clause;
+                    size++;
+                    return hits[i] = 1;
+                }
+            }
+        }
+
+        private void grow() {
+            Clause<?, ?>[] oldClauses = clauses;
+            int[] oldHits = hits;
+            clauses = new Clause<?, ?>[oldClauses.length * 2];
+            hits = new int[oldHits.length * 2];
+
+            int mask = clauses.length - 1;
+            for (int j = 0; j < oldClauses.length; j++) {
+                if (oldClauses[j] != null) {
+                    int i = oldClauses[j].hash & mask;
+                    while (clauses[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    clauses[i] = oldClauses[j];
+                    hits[i] = oldHits[j];
+                }
+            }
+        }
+
+        void evaluate(Clause<T, K> clause) {
+            Subscription<T, K> subscription = clause.subscription;
+            if (!subscription.removed && !result.contains(subscription.key)
+                    && (clause.residual == null || clause.residual.test(event))) {
+                result.add(subscription.key);
+            }
+        }
+    }
+
+    private static final class Subscription<T, K> {
+
+        final K key;
+        final List<Clause<T, K>> clauses = new ArrayList<>();
+
+        volatile boolean removed;
+
+        @GuardedBy("this")
+        boolean indexed;
+
+        Subscription(K key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Clause<T, K> {
+
+        final Subscription<T, K> subscription;
+        final Predicate<T> residual;
+        final int required;
+        final int hash;
+        final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * @param residual The predicate of the comparisons that are not indexed, or <tt>null</tt>.
+         * @param required The number of the indexed comparisons.
+         */
+        Clause(Subscription<T, K> subscription, Predicate<T> residual, int required, long sequence) {
+            this.subscription = subscription;
+            this.residual = residual;
+            this.required = required;
+            this.hash = (int) ArgumentSets.mix(sequence);
+        }
+    }
+
+    /**
+     * An indexed comparison of a clause: either the values of <tt>==</tt> or <tt>=in=</tt>, or
+     * an interval of the relational comparisons on the same selector. The fields of the clause
+     * needed for counting are copied here, so a hit doesn't touch the clause itself.
+     */
+    static final class Entry {
+
+        final Clause<?, ?> clause;
+        final int clauseHash;
+        final int required;
+        final SelectorIndex index;
+        final Object[] keys;
+        final Range range;
+        final long sequence;
+        final int priority;
+
+        Entry(Clause<?, ?> clause, SelectorIndex index, Object[] keys, Range range, long sequence) {
+            this.clause = clause;
+            this.clauseHash = clause.hash;
+            this.required = clause.required;
+            this.index = index;
+            this.keys = keys;
+            this.range = range;
+            this.sequence = sequence;
+            this.priority = (int) ArgumentSets.mix(sequence);
+        }
+    }
+
+    /**
+     * Hash index and interval tree of the comparisons on a single selector. The lists of the
+     * comparisons with the same value are copied on write, since they are iterated for each
+     * event, but modified only when a subscription is registered or removed.
+     */
+    static final class SelectorIndex {
+
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        final PropertyPath path;
+
+        private final boolean byText;
+
+        private final ConcurrentMap<Object, Entry[]> postings = new ConcurrentHashMap<>();
+
+        @GuardedBy("this")
+        private volatile IntervalNode intervals;
+
+        SelectorIndex(PropertyPath path) {
+            this.path = path;
+            this.byText = PredicateCompiler.isText(path.getType()) && path.getType() != String.class;
+        }
+
+        void add(final Entry entry) {
+            if (entry.range != null) {
+                synchronized (this) {
+                    intervals = IntervalNode.insert(intervals, entry);
+                }
+                return;
+            }
+            for (Object key : entry.keys) {
+                postings.compute(key, (k, entries) -> {
+                    Entry[] result = Arrays.copyOf(entries != null ? entries : NO_ENTRIES,
+                            entries != null ? entries.length + 1 : 1);
+                    result[result.length - 1] = entry;
+                    return result;
+                });
+            }
+        }
+
+        void remove(final Entry entry) {
+            if (entry.range != null) {
+                synchronized (this) {
+                    intervals = IntervalNode.remove(intervals, entry);
+                }
+                return;
+            }
+            for (Object key : entry.keys) {
+                postings.computeIfPresent(key, (k, entries) -> {
+                    int i = 0;
+                    while (i < entries.length && entries[i] != entry) {
+                        i++;
+                    }
+                    if (i == entries.length) {
+                        return entries;
+                    }
+                    if (entries.length == 1) {
+                        return null;
+                    }
+                    Entry[] result = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, result, 0, i);
+                    System.arraycopy(entries, i + 1, result, i, result.length - i);
+                    return result;
+                });
+            }
+        }
+
+        /**
+         * Passes each comparison that matches the value to the action, exactly once.
+         */
+        void lookup(Object value, Consumer<Entry> action) {
+            Entry[] entries = postings.get(byText ? value.toString() : value);
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    action.accept(entry);
+                }
+            }
+            IntervalNode.stab(intervals, value, action);
+        }
+    }
+
+    /**
+     * Interval with bounds that are either unbounded (<tt>null</tt>), or inclusive or exclusive.
+     * It's mutable only while being built from the comparisons of a clause.
+     */
+    static final class Range {
+
+        Object low, high;
+        boolean lowInclusive, highInclusive;
+
+        void restrict(int operatorId, Object bound) {
+            switch (operatorId) {
+                case OperatorRegistry.GREATER_THAN:          raiseLow(bound, false);  break;
+                case OperatorRegistry.GREATER_THAN_OR_EQUAL: raiseLow(bound, true);   break;
+                case OperatorRegistry.LESS_THAN:             lowerHigh(bound, false); break;
+                case OperatorRegistry.LESS_THAN_OR_EQUAL:    lowerHigh(bound, true);  break;
+                default: throw new IllegalArgumentException("Not a relational operator: " + operatorId);
+            }
+        }
+
+        boolean isEmpty() {
+            if (low == null || high == null) {
+                return false;
+            }
+            int sign = compare(low, high);
+            return sign > 0 || sign == 0 && !(lowInclusive && highInclusive);
+        }
+
+        boolean containsAboveLow(Object value) {
+            if (low == null) {
+                return true;
+            }
+            int sign = compare(value, low);
+            return sign > 0 || sign == 0 && lowInclusive;
+        }
+
+        boolean containsBelowHigh(Object value) {
+            if (high == null) {
+                return true;
+            }
+            int sign = compare(value, high);
+            return sign < 0 || sign == 0 && highInclusive;
+        }
+
+        private void raiseLow(Object bound, boolean inclusive) {
+            int sign = low == null ? 1 : compare(bound, low);
+            if (sign > 0 || sign == 0 && !inclusive) {
+                low = bound;
+                lowInclusive = inclusive;
+            }
+        }
+
+        private void lowerHigh(Object bound, boolean inclusive) {
+            int sign = high == null ? -1 : compare(bound, high);
+            if (sign < 0 || sign == 0 && !inclusive) {
+                high = bound;
+                highInclusive = inclusive;
+            }
+        }
+
+        /**
+         * Compares the lower bounds; the order is total, ties are broken by the sequence.
+         */
+        static int compareLow(Entry a, Entry b) {
+            Range x = a.range, y = b.range;
+            if (x.low == null || y.low == null) {
+                if (x.low != y.low) {
+                    return x.low == null ? -1 : 1;
+                }
+            } else {
+                int sign = compare(x.low, y.low);
+                if (sign != 0) {
+                    return sign;
+                }
+                if (x.lowInclusive != y.lowInclusive) {
+                    return x.lowInclusive ? -1 : 1;
+                }
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+
+        static int compareHigh(Range x, Range y) {
+            if (x.high == null || y.high == null) {
+                return x.high == y.high ? 0 : x.high == null ? 1 : -1;
+            }
+            int sign = compare(x.high, y.high);
+            if (sign != 0 || x.highInclusive == y.highInclusive) {
+                return sign;
+            }
+            return x.highInclusive ? 1 : -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compare(Object a, Object b) {
+            return Integer.signum(((Comparable<Object>) a).compareTo(b));
+        }
+    }
+
+    /**
+     * Node of a persistent treap of intervals ordered by the lower bound and augmented by the
+     * greatest upper bound in the subtree. Modifications copy the path from the root, so the
+     * readers just read the current root without locking.
+     */
+    @Immutable
+    static final class IntervalNode {
+
+        final Entry entry;
+        final IntervalNode left;
+        final IntervalNode right;
+        final Range maxHigh;
+
+        IntervalNode(Entry entry, IntervalNode left, IntervalNode right) {
+            this.entry = entry;
+            this.left = left;
+            this.right = right;
+
+            Range max = entry.range;
+            if (left != null && Range.compareHigh(left.maxHigh, max) > 0) {
+                max = left.maxHigh;
+            }
+            if (right != null && Range.compareHigh(right.maxHigh, max) > 0) {
+                max = right.maxHigh;
+            }
+            this.maxHigh = max;
+        }
+
+        static IntervalNode insert(IntervalNode node, Entry entry) {
+            if (node == null) {
+                return new IntervalNode(entry, null, null);
+            }
+            if (Range.compareLow(entry, node.entry) < 0) {
+                IntervalNode left = insert(node.left, entry);
+                if (left.entry.priority > node.entry.priority) {
+                    return new IntervalNode(left.entry, left.left, new IntervalNode(node.entry, left.right, node.right));
+                }
+                return new IntervalNode(node.entry, left, node.right);
+            } else {
+                IntervalNode right = insert(node.right, entry);
+                if (right.entry.priority > node.entry.priority) {
+                    return new IntervalNode(right.entry, new IntervalNode(node.entry, node.left, right.left), right.right);
+                }
+                return new IntervalNode(node.entry, node.left, right);
+            }
+        }
+
+        static IntervalNode remove(IntervalNode node, Entry entry) {
+            if (node == null) {
+                return null;
+            }
+            if (node.entry == entry) {
+                return merge(node.left, node.right);
+            }
+            if (Range.compareLow(entry, node.entry) < 0) {
+                IntervalNode left = remove(node.left, entry);
+                return left == node.left ? node : new IntervalNode(node.entry, left, node.right);
+            } else {
+                IntervalNode right = remove(node.right, entry);
+                return right == node.right ? node : new IntervalNode(node.entry, node.left, right);
+            }
+        }
+
+        /**
+         * Passes the entries of all the intervals that contain the value to the action.
+         */
+        static void stab(IntervalNode node, Object value, Consumer<Entry> action) {
+            while (node != null && node.maxHigh.containsBelowHigh(value)) {
+                stab(node.left, value, action);
+
+                Range range = node.entry.range;
+                if (!range.containsAboveLow(value)) {
+                    return;  // all the intervals in the right subtree start above too
+                }
+                if (range.containsBelowHigh(value)) {
+                    action.accept(node.entry);
+                }
+                node = node.right;
+            }
+        }
+
+        private static IntervalNode merge(IntervalNode a, IntervalNode b) {
+            if (a == null) {
+                return b;
+            }
+            if (b == null) {
+                return a;
+            }
+            if (a.entry.priority > b.entry.priority) {
+                return new IntervalNode(a.entry, a.left, merge(a.right, b));
+            }
+            return new IntervalNode(b.entry, merge(a, b.left), b.right);
+        }
+    }
+
+    /**
+     * Disjunctive normal form of a subtree. A subtree without any indexable comparison is kept
+     * as a single literal, it'd be evaluated by the compiled predicate anyway.
+     */
+    private static final class Dnf {
+
+        final List<List<Node>> clauses;  // null if there would be too many
+        final boolean indexable;
+
+        Dnf(List<List<Node>> clauses, boolean indexable) {
+            this.clauses = clauses;
+            this.indexable = indexable;
+        }
+
+        static Dnf combine(LogicalNode node, List<Dnf> operands) {
+            boolean indexable = false;
+            for (Dnf operand : operands) {
+                if (operand.clauses == null) {
+                    return TOO_MANY_CLAUSES;
+                }
+                indexable |= operand.indexable;
+            }
+            if (!indexable) {
+                return new Dnf(Collections.singletonList(Collections.<Node>singletonList(node)), false);
+            }
+            List<List<Node>> clauses = new ArrayList<>();
+
+            if (node.getOperator() == LogicalOperator.OR) {
+                for (Dnf operand : operands) {
+                    clauses.addAll(operand.clauses);
+                }
+            } else {
+                clauses.add(Collections.<Node>emptyList());
+                for (Dnf operand : operands) {
+                    if ((long) clauses.size() * operand.clauses.size() > MAX_CLAUSES) {
+                        return TOO_MANY_CLAUSES;
+                    }
+                    List<List<Node>> product = new ArrayList<>();
+                    for (List<Node> left : clauses) {
+                        for (List<Node> right : operand.clauses) {
+                            List<Node> clause = new ArrayList<>(left);
+                            clause.addAll(right);
+                            product.add(clause);
+                        }
+                    }
+                    clauses = product;
+                }
+            }
+            return clauses.size() > MAX_CLAUSES ? TOO_MANY_CLAUSES : new Dnf(clauses, true);
+        }
+    }
+}
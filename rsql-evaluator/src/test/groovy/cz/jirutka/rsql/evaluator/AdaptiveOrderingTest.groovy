@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.function.Predicate
+
+@Unroll
+class AdaptiveOrderingTest extends Specification {
+
+    static final EVALUATIONS = 3 * Predicates.Adaptive.SAMPLES_PER_REORDER
+
+
+    def 'move cheap and #kind operand first in #operator'() {
+        setup:
+            def adaptive = new Predicates.Adaptive([slow(slowResult), cheap(cheapResult)] as Predicate[], and, 1)
+        when:
+            def results = (1..EVALUATIONS).collect { adaptive.test(it) }
+        then:
+            results.every { it == expected }
+            adaptive.order() == [1, 0] as int[]
+        where:
+            operator | and   | slowResult | cheapResult | expected | kind
+            'AND'    | true  | true       | false       | false    | 'rejecting'
+            'OR'     | false | false      | true        | true     | 'accepting'
+    }
+
+    def 'keep order when the first operand is already the best in #operator'() {
+        setup:
+            def adaptive = new Predicates.Adaptive([cheap(!and), slow(and)] as Predicate[], and, 1)
+        when:
+            EVALUATIONS.times { adaptive.test(it) }
+        then:
+            adaptive.order() == [0, 1] as int[]
+        where:
+            operator << ['AND', 'OR']
+            and << [true, false]
+    }
+
+    def 'evaluate the same as without adaptive ordering: #query'() {
+        setup:
+            def node = new RSQLParser().parse(query)
+            def expected = new PredicateCompiler().compile(node, Movie)
+            def adaptive = new PredicateCompiler().withAdaptiveOrdering(2).compile(node, Movie)
+            def movies = Fixtures.randomMovies(EVALUATIONS)
+        expect:
+            adaptive instanceof Predicates.Adaptive
+            movies.findAll { adaptive.test(it) } == movies.findAll { expected.test(it) }
+        where:
+            query << [ 'title==*1*;year>2000;genre==DRAMA', 'title==*1*,year>2010,genre==DRAMA',
+                       'genre!=DRAMA;(title==Movie*,year<1995)' ]
+    }
+
+    def 'evaluate correctly when accessed concurrently in #operator'() {
+        setup:
+            def executor = Executors.newFixedThreadPool(8)
+            def operands = [ slow { (it % 3 == 0) != and },
+                             { (it % 7 == 0) != and } as Predicate, { (it % 2 == 0) != and } as Predicate ]
+            def adaptive = new Predicates.Adaptive(operands as Predicate[], and, 1)
+            def sequential = and ? Predicates.and(operands) : Predicates.or(operands)
+        expect:
+            (1..EVALUATIONS).collect { sequential.test(it) }.unique().size() == 2
+        when:
+            def futures = (1..8).collect {
+                executor.submit({ (1..EVALUATIONS).every { adaptive.test(it) == sequential.test(it) } } as Callable)
+            }
+        then:
+            futures.every { it.get() }
+            adaptive.order()[2] == 0
+        cleanup:
+            executor.shutdown()
+        where:
+            operator << ['AND', 'OR']
+            and << [true, false]
+    }
+
+    def 'throw exception for negative sampling period'() {
+        when:
+            new PredicateCompiler().withAdaptiveOrdering(-1)
+        then:
+            thrown IllegalArgumentException
+    }
+
+
+    //////// Helpers ////////
+
+    static Predicate slow(boolean result) {
+        return { x -> def sum = 0; 2000.times { sum += it }; result } as Predicate
+    }
+
+    static Predicate slow(Closure<Boolean> condition) {
+        return { x -> def sum = 0; 2000.times { sum += it }; condition(x) } as Predicate
+    }
+
+    static Predicate cheap(boolean result) {
+        return { x -> result } as Predicate
+    }
+}
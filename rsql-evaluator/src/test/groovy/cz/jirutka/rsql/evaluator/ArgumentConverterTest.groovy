@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+import java.time.ZoneId
+
+import static cz.jirutka.rsql.evaluator.ArgumentConverter.DEFAULT
+
+@Unroll
+class ArgumentConverterTest extends Specification {
+
+    def 'convert "#argument" to #type.simpleName'() {
+        expect:
+            DEFAULT.convert(argument, type) == expected
+        where:
+            argument    | type          | expected
+            'foo'       | String        | 'foo'
+            '42'        | int           | 42
+            '42'        | Long          | 42L
+            '1.5'       | double        | 1.5d
+            '1.50'      | BigDecimal    | 1.50G
+            'TRUE'      | boolean       | true
+            'x'         | char          | 'x' as char
+            'sci_fi'    | Genre         | Genre.SCI_FI
+            '2014-01-31'| LocalDate     | LocalDate.of(2014, 1, 31)
+            '2014-01-31'| Date          | Date.from(LocalDate.of(2014, 1, 31).atStartOfDay(ZoneId.systemDefault()).toInstant())
+            'http://x'  | URI           | new URI('http://x')
+            'abc'       | StringBuilder | new StringBuilder('abc')
+    }
+
+    def 'throw exception for invalid argument "#argument" of #type.simpleName'() {
+        when:
+            DEFAULT.convert(argument, type)
+        then:
+            thrown IllegalArgumentException
+        where:
+            argument | type
+            'x'      | int
+            'yes'    | boolean
+            'xy'     | char
+            'HORROR' | Genre
+            '2014'   | LocalDate
+            'x'      | Person
+    }
+
+    def 'use registered converter'() {
+        setup:
+            def converter = DEFAULT.withConverter(Person, { new Person(lastName: it) })
+        expect:
+            converter.convert('Nolan', Person).lastName == 'Nolan'
+            converter.supports(Person)
+            ! DEFAULT.supports(Person)
+    }
+}
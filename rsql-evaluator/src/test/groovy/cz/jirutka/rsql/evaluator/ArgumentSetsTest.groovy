@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.evaluator.ArgumentSets.BloomFilter
+import cz.jirutka.rsql.evaluator.ArgumentSets.LongSet
+import cz.jirutka.rsql.evaluator.ArgumentSets.StringSet
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class ArgumentSetsTest extends Specification {
+
+    def converter = ArgumentConverter.DEFAULT
+
+
+    def 'test membership of #type.simpleName values'() {
+        setup:
+            def set = ArgumentSets.of(arguments, type, converter, 0)
+        expect:
+            set instanceof LongSet
+            set.size() == arguments.toSet().size()
+            members.every { set.test(it) }
+            !others.any { set.test(it) }
+        where:
+            type    | arguments                       | members                                            | others
+            int     | ['1', '0', '-7', '1']           | [1, 0, -7]                                         | [2, -1, Integer.MAX_VALUE]
+            Integer | ['42', '2147483647']            | [42, Integer.MAX_VALUE]                            | [0, 41]
+            long    | ['0', '-9223372036854775808']   | [0L, Long.MIN_VALUE]                               | [1L, Long.MAX_VALUE]
+            short   | ['3', '-3']                     | [3 as short, -3 as short]                          | [0 as short]
+            byte    | ['127', '-128']                 | [127 as byte, -128 as byte]                        | [0 as byte]
+            double  | ['0.5', '-0.0', 'NaN', '1e300'] | [0.5d, Double.valueOf('-0.0'), Double.NaN, 1e300d] | [0.0d, 1.5d]
+            Float   | ['0.1', '0', 'Infinity']        | [0.1f, 0.0f, Float.POSITIVE_INFINITY]              | [Float.valueOf('-0.0'), 0.2f]
+    }
+
+    def 'test membership of #type.simpleName values as text'() {
+        setup:
+            def set = ArgumentSets.of(['foo', '', 'bar', 'foo', 'ba'], type, converter, 0)
+        expect:
+            set instanceof StringSet
+            set.size() == 4
+            members.every { set.test(it) }
+            !others.any { set.test(it) }
+        where:
+            type          | members                                            | others
+            String        | ['foo', '', 'bar', 'ba']                           | ['fo', 'Foo', 'bar ', 'b']
+            CharSequence  | [new StringBuilder('foo'), new StringBuilder('')]  | [new StringBuilder('oo')]
+            Object        | ['bar', new StringBuilder('ba')]                   | [42]
+    }
+
+    def 'return null for type without specialized set: #type.simpleName'() {
+        expect:
+            ArgumentSets.of(['1', '2'], type, converter, 0) == null
+        where:
+            type << [BigDecimal, Boolean, Genre]
+    }
+
+    def 'build Bloom filter only for sets with at least #threshold arguments'() {
+        expect:
+            ArgumentSets.of(['1', '2', '3'], int, converter, threshold).hasBloomFilter() == expected
+            ArgumentSets.of(['a', 'b', 'c'], String, converter, threshold).hasBloomFilter() == expected
+        where:
+            threshold | expected
+            0         | false
+            3         | true
+            4         | false
+    }
+
+    def 'agree with HashSet on large #type.simpleName set with Bloom filter'() {
+        setup:
+            def random = new Random(42)
+            def values = (1..20000).collect { random.nextInt(1000000) }
+            def expected = values.collect { converter.convert(it as String, type) }.toSet()
+            def set = ArgumentSets.of(values*.toString(), type, converter, 1000)
+        expect:
+            set.hasBloomFilter()
+            set.size() == expected.size()
+        and:
+            (0..<1000000).step(13).every { n ->
+                def value = converter.convert(n as String, type)
+                set.test(value) == expected.contains(value)
+            }
+        where:
+            type << [long, double, String]
+    }
+
+    def 'Bloom filter has no false negatives and few false positives'() {
+        setup:
+            def filter = new BloomFilter(10000)
+            def random = new Random(42)
+            def added = (1..10000).collect { ArgumentSets.mix(random.nextLong()) }
+            added.each { filter.add(it) }
+        when:
+            def falsePositives = (1..100000).count { filter.mightContain(ArgumentSets.mix(random.nextLong())) }
+        then:
+            added.every { filter.mightContain(it) }
+            falsePositives < 8000
+    }
+
+    def 'compile large =in= and =out= into specialized set'() {
+        setup:
+            def ids = (1..5000).collect { it * 3 }
+            def compiler = new PredicateCompiler().withBloomFilterThreshold(1000)
+            def parser = new RSQLParser()
+        when:
+            def inPredicate = compiler.compile(parser.parse("year=in=(${ids.join(',')})"), Movie)
+            def outPredicate = compiler.compile(parser.parse("year=out=(${ids.join(',')})"), Movie)
+        then:
+            (1990..2030).every { year ->
+                inPredicate.test(new Movie(year: year)) == (year % 3 == 0) && outPredicate.test(new Movie(year: year)) == (year % 3 != 0)
+            }
+    }
+
+    def 'throw IllegalArgumentException when Bloom filter threshold is negative'() {
+        when:
+            new PredicateCompiler().withBloomFilterThreshold(-1)
+        then:
+            thrown IllegalArgumentException
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class ColumnScannerTest extends Specification {
+
+    static random = new Random(42)
+
+    def scalar = ScalarScanner.INSTANCE
+
+
+    def 'scalar scan selects values in range of #type column with #length rows'() {
+        setup:
+            def values = randomValues(type, length)
+            def words = new long[(length + 63) >>> 6]
+        when:
+            scalar.scanRange(values, bound(type, -10), bound(type, 10), words)
+        then:
+            bits(words) == (0..<length).findAll { values[it] >= -10 && values[it] <= 10 }
+        where:
+            [type, length] << [[int, long, double], [0, 1, 63, 64, 65, 1000]].combinations()
+    }
+
+    def 'scalar scan orders double values as Double.compare: [#min, #max]'() {
+        setup:
+            def values = [ Double.NaN, Double.NEGATIVE_INFINITY, -1.0d, Double.valueOf('-0.0'), 0.0d, 1.0d,
+                           Double.POSITIVE_INFINITY ] as double[]
+            def words = new long[1]
+        when:
+            scalar.scanRange(values, ColumnScanner.orderKey(min), ColumnScanner.orderKey(max), words)
+        then:
+            bits(words) == (0..<values.length).findAll {
+                Double.compare(values[it], min) >= 0 && Double.compare(values[it], max) <= 0
+            }
+        where:
+            min                       | max
+            Double.valueOf('-0.0')    | Double.valueOf('-0.0')
+            0.0d                      | 0.0d
+            Double.valueOf('-0.0')    | 1.0d
+            Double.NEGATIVE_INFINITY  | Double.valueOf('-0.0')
+            Double.POSITIVE_INFINITY  | Double.NaN
+            Double.NaN                | Double.NaN
+            1.0d                      | -1.0d
+    }
+
+    def 'scalar scan selects values in set of #type column'() {
+        setup:
+            def values = randomValues(type, 1000)
+            def sorted = castArray(type, [-7, -3, 0, 5, 42])
+            def words = new long[16]
+        when:
+            scalar.scanIn(values, sorted, words)
+        then:
+            bits(words) == (0..<1000).findAll { values[it] in sorted }
+        where:
+            type << [int, long, double]
+    }
+
+    @IgnoreIf({ !ColumnarEvaluator.vectorizationAvailable })
+    def 'vectorized scan equals scalar scan of #type column with #length rows'() {
+        setup:
+            def vector = ColumnScanner.vectorized()
+            def values = randomValues(type, length)
+            if (type == double && length > 10) {
+                values[3] = Double.NaN; values[5] = Double.valueOf('-0.0'); values[7] = Double.POSITIVE_INFINITY
+                values[9] = Double.NEGATIVE_INFINITY
+            }
+            def ranges = [[-10, 10], [0, 0], [-100, 100], [50, -50]].collect { it.collect { bound(type, it) } }
+            if (type == double) {
+                ranges += [[Double.valueOf('-0.0'), 0.0d], [Double.POSITIVE_INFINITY, Double.NaN],
+                           [Double.NEGATIVE_INFINITY, Double.valueOf('-0.0')]].collect { it.collect { ColumnScanner.orderKey(it) } }
+            }
+            def sets = [[3], [-7, -3, 0, 5, 42], (-20..20).toList()]
+        expect:
+            ranges.each { min, max ->
+                assert scan(vector, values, length) { scanner, words ->
+                    scanner.scanRange(values, min, max, words)
+                } == scan(scalar, values, length) { scanner, words ->
+                    scanner.scanRange(values, min, max, words)
+                }
+            }
+            sets.each { set ->
+                def sorted = castArray(type, set)
+                assert scan(vector, values, length) { scanner, words -> scanner.scanIn(values, sorted, words) } ==
+                        scan(scalar, values, length) { scanner, words -> scanner.scanIn(values, sorted, words) }
+            }
+        where:
+            [type, length] << [[int, long, double], [0, 17, 64, 1000, 4099]].combinations()
+    }
+
+    def 'vectorize evaluator only if available'() {
+        expect:
+            new ColumnarEvaluator().withVectorization(true).vectorized == ColumnarEvaluator.vectorizationAvailable
+            !new ColumnarEvaluator().withVectorization(true).withVectorization(false).vectorized
+            !new ColumnarEvaluator().vectorized
+    }
+
+
+    //////// Helpers ////////
+
+    static randomValues(Class type, int length) {
+        castArray(type, (0..<length).collect { random.nextInt(201) - 100 })
+    }
+
+    static cast(Class type, Number number) {
+        type == int ? number.intValue() : type == long ? number.longValue() : number.doubleValue()
+    }
+
+    /**
+     * Returns the bound of a range scan, i.e. the order key for a double column.
+     */
+    static bound(Class type, Number number) {
+        type == double ? ColumnScanner.orderKey(number.doubleValue()) : cast(type, number)
+    }
+
+    static castArray(Class type, List<Number> numbers) {
+        numbers.collect { cast(type, it) }.asType(type == int ? int[] : type == long ? long[] : double[])
+    }
+
+    static scan(ColumnScanner scanner, values, int length, Closure scan) {
+        def words = new long[(length + 63) >>> 6]
+        scan(scanner, words)
+        words as List
+    }
+
+    static bits(long[] words) {
+        def bits = BitSet.valueOf(words)
+        (0..<bits.length()).findAll { bits.get(it) }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class ColumnarEvaluatorTest extends Specification {
+
+    @Shared parser = new RSQLParser()
+
+    @Shared movies = withSpecialRatings(Fixtures.randomMovies(1000))
+
+    @Shared views = (1..1000).collect { (it * 7919L) % 1000 - 500 + (it % 2 ? Long.MAX_VALUE - 1000 : 0) } as long[]
+
+    @Shared table = new ColumnTable(1000)
+            .withIntColumn('year', movies*.year as int[])
+            .withDoubleColumn('rating', movies*.rating as double[])
+            .withStringColumn('title', movies*.title as String[])
+            .withLongColumn('views', views)
+
+    def evaluator = new ColumnarEvaluator()
+
+
+    def 'return the same rows as the compiled predicate: #query'() {
+        setup:
+            def node = parser.parse(query)
+            def predicate = new PredicateCompiler().compile(node, Movie)
+        expect:
+            evaluator.evaluate(node, table).toArray() as List == (0..<movies.size()).findAll { predicate.test(movies[it]) }
+        where:
+            query << [
+                'year==2000', 'year!=2000', 'year=gt=2010', 'year>=2010', 'year<1995', 'year<=1995',
+                'year=in=(1990,2000,2010,3000)', 'year=out=(1990,2000)', "year>=${Integer.MAX_VALUE}", "year<${Integer.MIN_VALUE}",
+                'rating==5.5', 'rating!=5.5', 'rating>9.5', 'rating>=9.5', 'rating<0.5', 'rating=le=0.5',
+                'rating=in=(1.5,2.5)', 'title=="Movie 7"', 'title!="Movie 7"', 'title==movie1*', 'title==*9',
+                'title=in=("Movie 1","Movie 2")', 'title=out=("Movie 1","Movie 2")', 'title>"Movie 5"',
+                'year>2000;rating<5', 'year<1995,title==*3', '(year>2000,rating>9);title!=*1', 'title==Nothing' ]
+    }
+
+    def 'return the same rows as the compiled predicate for special double values: #query'() {
+        setup:
+            def node = parser.parse(query)
+            def predicate = new PredicateCompiler().compile(node, Movie)
+            def expected = (0..<movies.size()).findAll { predicate.test(movies[it]) }
+        expect:
+            evaluator.evaluate(node, table).toArray() as List == expected
+            evaluator.withVectorization(true).evaluate(node, table).toArray() as List == expected
+        where:
+            query << [
+                'rating==NaN', 'rating!=NaN', 'rating>5', 'rating<=5', 'rating>NaN', 'rating>=NaN', 'rating<NaN',
+                'rating==0', 'rating==-0.0', 'rating!=0', 'rating>0', 'rating>=0', 'rating<0', 'rating<=-0.0',
+                'rating>-0.0', 'rating>Infinity', 'rating>=Infinity', 'rating<-Infinity', 'rating<=-Infinity',
+                'rating<Infinity', 'rating>-Infinity', 'rating=in=(0,NaN)', 'rating=out=(-0.0,Infinity)' ]
+    }
+
+    def 'evaluate long column: #query'() {
+        expect:
+            evaluator.evaluate(parser.parse(query), table).toArray() as List == (0..<views.length).findAll { expected(views[it]) }
+        where:
+            query                                | expected
+            'views=gt=0'                         | { it > 0 }
+            'views<=-100'                        | { it <= -100 }
+            "views>=${Long.MAX_VALUE - 500}"     | { it >= Long.MAX_VALUE - 500 }
+            "views>${Long.MAX_VALUE}"            | { false }
+            'views=in=(1,2,3,-4)'                | { it in [1L, 2L, 3L, -4L] }
+            'views!=7'                           | { it != 7 }
+    }
+
+    def 'return all rows for empty AND and no rows for empty OR'() {
+        expect:
+            evaluator.evaluate(new cz.jirutka.rsql.ast.AndNode([]), table).cardinality() == 1000
+            evaluator.evaluate(new cz.jirutka.rsql.ast.OrNode([]), table).isEmpty()
+    }
+
+    def 'throw exception for #description'() {
+        when:
+            evaluator.evaluate(node, table)
+        then:
+            thrown exception
+        where:
+            description           | node                                                                          | exception
+            'unknown column'      | parser.parse('foo==1')                                                         | IllegalArgumentException
+            'invalid argument'    | parser.parse('year==3000000000')                                                      | IllegalArgumentException
+            'unsupported operator'| new ComparisonNode(new ComparisonOperator('=all=', true), 'year', ['1'])       | UnknownOperatorException
+    }
+
+    def 'throw exception when column length differs from table'() {
+        when:
+            new ColumnTable(10).withIntColumn('year', new int[9])
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'iterate rows of RowSet'() {
+        setup:
+            def rows = RowSet.all(130)
+            rows.and(evaluator.evaluate(parser.parse('x=in=(0,63,64,129)'), new ColumnTable(130)
+                    .withIntColumn('x', (0..<130) as int[])))
+        expect:
+            rows.toArray() == [0, 63, 64, 129] as int[]
+            rows.nextSetBit(65) == 129
+            rows.nextSetBit(130) == -1
+            rows.get(64) && !rows.get(65) && !rows.get(200)
+            rows.toBitSet() == bitSet(0, 63, 64, 129)
+        when:
+            rows.flip()
+        then:
+            rows.cardinality() == 126
+            !rows.get(129)
+    }
+
+
+    //////// Helpers ////////
+
+    static bitSet(int... bits) {
+        def result = new BitSet()
+        bits.each { result.set(it) }
+        result
+    }
+
+    /**
+     * Sets the rating of the first movies to NaN, the zeros and the infinities.
+     */
+    static withSpecialRatings(List<Movie> movies) {
+        [ Double.NaN, Double.valueOf('-0.0'), 0.0d, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN ]
+                .eachWithIndex { rating, i -> movies[i].rating = rating }
+        movies
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import java.time.LocalDate
+
+enum Genre { DRAMA, SCI_FI, THRILLER }
+
+class Person {
+    String firstName
+    String lastName
+}
+
+class Movie {
+    String title
+    int year
+    Double rating
+    Genre genre
+    boolean available
+    LocalDate released
+    Person director
+    StringBuilder notes
+    public String code
+}
+
+class Fixtures {
+
+    /**
+     * Returns movies with random, but always the same properties.
+     */
+    static List<Movie> randomMovies(int count) {
+        def random = new Random(42)
+        def directors = [ new Person(firstName: 'Christopher', lastName: 'Nolan'),
+                          new Person(firstName: 'Quentin', lastName: 'Tarantino'), null ]
+        (1..count).collect {
+            new Movie(title: random.nextInt(10) == 0 ? null : "Movie ${random.nextInt(200)}",
+                      year: 1990 + random.nextInt(30), rating: random.nextInt(100) / 10.0,
+                      genre: random.nextInt(5) == 0 ? null : Genre.values()[random.nextInt(3)],
+                      available: random.nextBoolean(), director: directors[random.nextInt(3)])
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import static cz.jirutka.rsql.evaluator.IndexedCollection.IndexType.*
+
+@Unroll
+class IndexedCollectionTest extends Specification {
+
+    @Shared parser = new RSQLParser()
+
+    @Shared movies = Fixtures.randomMovies(500)
+
+    def collection = new IndexedCollection<Movie>(Movie)
+            .addIndex('genre', HASH)
+            .addIndex('year', HASH)
+            .addIndex('year', SORTED)
+            .addIndex('rating', SORTED)
+            .addIndex('title', HASH)
+            .addIndex('title', PREFIX)
+            .addIndex('director.lastName', HASH)
+
+    def setup() {
+        collection.addAll(movies)
+    }
+
+
+    def 'return the same elements as the compiled predicate: #query'() {
+        setup:
+            def node = parser.parse(query)
+            def predicate = new PredicateCompiler().compile(node, Movie)
+        expect:
+            collection.query(node) as Set == movies.findAll { predicate.test(it) } as Set
+        where:
+            query << [
+                'genre==DRAMA', 'genre!=DRAMA', 'genre=in=(drama,sci_fi)', 'genre=out=(DRAMA,SCI_FI)',
+                'year=gt=2005', 'year>=2005;year<2010', 'year=le=1995', 'rating=lt=5.5', 'rating>=9',
+                'title==Movie1*', 'title!=movie2*', 'title==*7', 'title=="Movie 42"', 'title=in=("Movie 1","Movie 2")',
+                'director.lastName==Nolan', 'director.lastName!=Nolan', 'director.firstName==Quentin',
+                'genre==DRAMA;year>2000', 'genre==DRAMA,year>2015', 'genre==DRAMA;available==true',
+                'available==true,year<1992', '(genre==DRAMA,title==*3);(year=ge=2000,rating<3)',
+                'genre==THRILLER;(available==true,director.lastName==Nolan)', 'year==1995' ]
+    }
+
+    def 'answer fully indexed query without scanning: #query'() {
+        expect:
+            collection.plan(parser.parse(query)).residual == null
+        where:
+            query << [ 'genre==DRAMA;year>2000', 'genre=in=(DRAMA,SCI_FI),title==Movie1*', 'year!=2000;rating<4' ]
+    }
+
+    def 'scan only the candidates selected by indexes: #query'() {
+        setup:
+            def plan = collection.plan(parser.parse(query))
+        expect:
+            plan.residual != null
+            (plan.candidates != null) == restricted
+        where:
+            query                                     | restricted
+            'genre==DRAMA;available==true'            | true
+            'title==*7;year>2000'                     | true
+            'genre==DRAMA,available==true'            | false
+            'available==true'                         | false
+    }
+
+    def 'reflect added, updated and removed elements'() {
+        setup:
+            def movie = new Movie(title: 'New one', year: 1800, genre: Genre.DRAMA)
+            def query = parser.parse('year<1900')
+        when:
+            collection.add(movie)
+        then:
+            collection.query(query) == [movie]
+            collection.size() == movies.size() + 1
+            !collection.add(movie)
+
+        when:
+            movie.year = 2100
+            collection.update(movie)
+        then:
+            collection.query(query).isEmpty()
+            collection.query(parser.parse('year>2050')) == [movie]
+
+        when:
+            collection.remove(movies[0])
+            collection.remove(movie)
+        then:
+            collection.size() == movies.size() - 1
+            collection.query(parser.parse('year>2050')).isEmpty()
+            !collection.query(parser.parse('year>0')).contains(movies[0])
+            !collection.remove(movie)
+    }
+
+    def 'reuse slots of removed elements'() {
+        setup:
+            def added = (1..3).collect { new Movie(title: "Added ${it}", year: 1800) }
+        when:
+            collection.remove(movies[10])
+            collection.remove(movies[20])
+            added.each { collection.add(it) }
+        then:
+            collection.slots[added[0]] == 20
+            collection.slots[added[1]] == 10
+            collection.slots[added[2]] == movies.size()
+            collection.query(parser.parse('year<1900')) as Set == added as Set
+            collection.size() == movies.size() + 1
+    }
+
+    def 'keep slots of rare keys in arrays and of frequent keys in bitmaps'() {
+        setup:
+            def coll = new IndexedCollection<Movie>(Movie).addIndex('title', HASH).addIndex('genre', HASH)
+            coll.addAll((1..10000).collect { new Movie(title: "Movie ${it}", genre: Genre.values()[it % 3]) })
+        expect:
+            coll.indexes['title'][0].postings.values().every { it.bitmap == null && it.array.length <= 2 }
+            coll.indexes['genre'][0].postings.values().every { it.bitmap != null && it.array == null }
+    }
+
+    def 'return the same elements after slots of a key are converted: #query'() {
+        setup:
+            def random = new Random(42)
+            def coll = new IndexedCollection<Movie>(Movie).addIndex('year', HASH).addIndex('year', SORTED)
+            def all = (1..3000).collect { new Movie(year: 2000 + (it < 2000 ? 0 : random.nextInt(50))) }
+            coll.addAll(all)
+            def removed = all.findAll { it.year == 2000 && random.nextInt(100) != 0 }
+            removed.each { coll.remove(it) }
+            def added = (1..500).collect { new Movie(year: 2000 + random.nextInt(50)) }
+            coll.addAll(added)
+            def present = (all - removed) + added
+            def node = parser.parse(query)
+            def predicate = new PredicateCompiler().compile(node, Movie)
+        expect:
+            coll.query(node) as Set == present.findAll { predicate.test(it) } as Set
+        where:
+            query << [ 'year==2000', 'year!=2000', 'year=in=(2000,2001,2049)', 'year=gt=2000', 'year=le=2025' ]
+    }
+
+    def 'build index from elements added before'() {
+        setup:
+            def coll = new IndexedCollection<Movie>(Movie)
+            coll.addAll(movies)
+        when:
+            coll.addIndex('genre', HASH)
+        then:
+            coll.plan(parser.parse('genre==DRAMA')).residual == null
+            coll.query(parser.parse('genre==DRAMA')) as Set == movies.findAll { it.genre == Genre.DRAMA } as Set
+    }
+
+    def 'throw exception when index is not suitable for property: #selector #indexType'() {
+        when:
+            new IndexedCollection<Movie>(Movie).addIndex(selector, indexType)
+        then:
+            thrown IllegalArgumentException
+        where:
+            selector   | indexType
+            'foo'      | HASH
+            'director' | SORTED
+            'year'     | PREFIX
+    }
+
+    def 'throw exception for unsupported operator'() {
+        when:
+            collection.query(new ComparisonNode(new ComparisonOperator('=all=', true), 'genre', ['DRAMA']))
+        then:
+            thrown UnknownOperatorException
+    }
+
+    def 'answer queries concurrently with updates'() {
+        setup:
+            def executor = Executors.newFixedThreadPool(4)
+            def query = parser.parse('genre==DRAMA;year>=1990')
+            def expected = collection.query(query) as Set
+        when:
+            def readers = (1..3).collect {
+                executor.submit({ (1..200).every { collection.query(query).findAll { it.year >= 1990 } as Set == expected } } as Callable)
+            }
+            def writer = executor.submit({
+                (1..200).each { collection.add(new Movie(title: "Old ${it}", year: 1900, genre: Genre.DRAMA)) }
+            } as Runnable)
+            writer.get()
+        then:
+            readers.every { it.get() }
+            collection.size() == movies.size() + 200
+        cleanup:
+            executor.shutdown()
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+@Unroll
+class JsonLinesFilterTest extends Specification {
+
+    @Shared parser = new RSQLParser()
+
+    static final RECORD = '''{"title": "Pulp Fiction", "year": 1994, "rating": 8.9, "available": true, "tags": ["cult", "crime"],
+                              "director": {"name": {"first": "Quentin", "last": "Tarantino"}, "born": 1963},
+                              "notes": null, "quote": "Say \\"what\\" again\\u0021", "extra": {"nested": [1, {"a": "}"}]}}'''
+                              .replace('\n', ' ')
+
+
+    def 'evaluate #query on record: #expected'() {
+        expect:
+            new JsonLinesFilter(parser.parse(query)).matches(RECORD) == expected
+        where:
+            query                                       | expected
+            'title=="Pulp Fiction"'                     | true
+            'title==pulp*'                              | true
+            'title==*FICTION'                           | true
+            'title!="Pulp Fiction"'                     | false
+            'year==1994'                                | true
+            'year==1994.0'                              | true
+            'year=gt=1990;year<2000'                    | true
+            'year=in=(1993,1994)'                       | true
+            'year==199*'                                | true
+            'rating>=8.9'                               | true
+            'rating<8.9'                                | false
+            'available==true'                           | true
+            'available!=true'                           | false
+            'director.name.last==Tarantino'             | true
+            'director.born<1970;director.name.first==Q*'| true
+            'director.name==Tarantino'                  | false
+            'director!=foo'                             | false
+            'tags==cult'                                | false
+            'notes!=foo'                                | false
+            'missing!=foo'                              | false
+            'missing==foo,year==1994'                   | true
+            'quote==\'Say "what" again!\''             | true
+            'extra.nested==1'                           | false
+            'title>Pulp'                                | true
+    }
+
+    def 'stop scanning the record when the result is decided: #query'() {
+        setup:
+            def filter = new JsonLinesFilter(parser.parse(query))
+        expect:
+            filter.matches('{"a": 1, "b": 2, "c": }}} not a JSON') == expected
+        where:
+            query            | expected
+            'a==2;c==1'      | false
+            'a==1,c==1'      | true
+            'a==1;b==2'      | true
+    }
+
+    def 'accept valid JSON number: #number'() {
+        expect:
+            new JsonLinesFilter(parser.parse("a==${value};b==x")).matches("{\"a\": ${number}, \"c\": ${number}, \"b\": \"x\"}")
+        where:
+            number      | value
+            '0'         | '0'
+            '-0'        | '-0'
+            '-12'       | '-12'
+            '0.5'       | '0.5'
+            '1e3'       | '1000'
+            '1.5E+2'    | '150'
+            '-25e-1'    | '-2.5'
+    }
+
+    def 'throw exception for malformed record: #record'() {
+        when:
+            new JsonLinesFilter(parser.parse('a==1;c==2')).matches(record)
+        then:
+            def ex = thrown IllegalArgumentException
+            ex.message.startsWith('Malformed JSON')
+        where:
+            record << [ '{"a": 1, "b": 2', '{"a" 1}', '{"a": 1 "b": 2}', '{"a": 1.2.3}', '{"a": "x', '{"a": 1} x', '{a: 1}',
+                        '{"a": 1f}', '{"a": 1d}', '{"a": -Infinity}', '{"a": NaN}', '{"a": 01}', '{"a": 1.}', '{"a": .5}',
+                        '{"a": +1}', '{"a": 1e}', '{"a": 0x1}', '{"a": -}', '{"a": truex}', '{"a": nul}',
+                        '{"b": 1f, "a": 1}', '{"b": .5, "a": 1}', '{"b": nil, "a": 1}' ]
+    }
+
+    def 'copy matching records byte-identical from input stream'() {
+        setup:
+            def input = '{"id": 1, "ok": true}\r\n\n   \n{"id":2,"ok":false}\n{ "id" : 3 , "ok" : true }'
+            def filter = new JsonLinesFilter(parser.parse('ok==true'))
+            def output = new ByteArrayOutputStream()
+        when:
+            def count = filter.filter(new ByteArrayInputStream(input.getBytes(UTF_8)), output)
+        then:
+            count == 2
+            output.toString('UTF-8') == '{"id": 1, "ok": true}\r\n{ "id" : 3 , "ok" : true }'
+    }
+
+    def 'copy records longer than the buffer from input stream'() {
+        setup:
+            def records = (1..5).collect { """{"id": ${it}, "text": "${'x' * 100000}"}\n""" as String }
+            def output = new ByteArrayOutputStream()
+        when:
+            def count = new JsonLinesFilter(parser.parse('id>=4')).filter(
+                    new ByteArrayInputStream(records.join('').getBytes(UTF_8)), output)
+        then:
+            count == 2
+            output.toString('UTF-8') == records[3] + records[4]
+    }
+
+    def 'copy matching records from memory-mapped file'() {
+        setup:
+            def file = Files.createTempFile('rsql', '.jsonl')
+            def records = (1..200).collect { """{"id": ${it}, "name": "rec ${it}"}\n""" as String }
+            Files.write(file, records.join('').getBytes(UTF_8))
+            def filter = new JsonLinesFilter(parser.parse('id=in=(1,50,200),name=="rec 100"'))
+            def output = new ByteArrayOutputStream()
+        when:
+            def count = filter.filter(file, output, chunkSize)
+        then:
+            count == 4
+            output.toString('UTF-8') == records[0] + records[49] + records[99] + records[199]
+        cleanup:
+            Files.delete(file)
+        where:
+            chunkSize << [100, 4096, 1 << 30]
+    }
+
+    def 'throw exception when record is longer than mapped chunk'() {
+        setup:
+            def file = Files.createTempFile('rsql', '.jsonl')
+            Files.write(file, '{"id": 1, "name": "a long name"}\n'.getBytes(UTF_8))
+        when:
+            new JsonLinesFilter(parser.parse('id==1')).filter(file, new ByteArrayOutputStream(), 10)
+        then:
+            thrown IOException
+        cleanup:
+            Files.delete(file)
+    }
+
+    def 'pass matching records in direct buffer to handler'() {
+        setup:
+            def bytes = '{"id": 1}\n{"id": 2}\n{"id": 3}\n'.getBytes(UTF_8)
+            def buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes)
+            buffer.flip()
+            def ranges = []
+        when:
+            def count = new JsonLinesFilter(parser.parse('id!=2')).filter(buffer,
+                    { buf, offset, length -> ranges << [offset, length] } as JsonLinesFilter.RecordHandler)
+        then:
+            count == 2
+            ranges == [[0, 10], [20, 10]]
+            buffer.position() == 0
+    }
+
+    def 'throw exception for unsupported operator'() {
+        when:
+            new JsonLinesFilter(new ComparisonNode(new ComparisonOperator('=all=', true), 'a', ['1']))
+        then:
+            thrown UnknownOperatorException
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Predicate
+
+@Unroll
+class ParallelFilterTest extends Specification {
+
+    static final MOVIES = Fixtures.randomMovies(10000)
+
+    def pool = new ForkJoinPool(4)
+    def filter = new ParallelFilter().withPool(pool).withChunkSize(100)
+
+
+    def 'filter the same as sequential evaluation: #query'() {
+        setup:
+            def predicate = new PredicateCompiler().compile(new RSQLParser().parse(query), Movie)
+        expect:
+            filter.filter(MOVIES, predicate) == MOVIES.findAll { predicate.test(it) }
+            filter.count(MOVIES, predicate) == MOVIES.count { predicate.test(it) }
+            filter.exists(MOVIES, predicate) == MOVIES.any { predicate.test(it) }
+        where:
+            query << [ 'year>2010', 'title==*7*;genre==DRAMA', 'year<1900', 'genre=in=(DRAMA,THRILLER),year==2000' ]
+    }
+
+    def 'filter unordered to the same elements'() {
+        setup:
+            def matches = { it.year % 7 == 0 }
+        when:
+            def result = filter.withOrdered(false).filter(MOVIES, matches as Predicate)
+        then:
+            result.size() == MOVIES.count(matches)
+            result as Set == MOVIES.findAll(matches) as Set
+    }
+
+    def 'return the first #limit matches with ordered filter'() {
+        setup:
+            def matches = { it.year == 2000 }
+        expect:
+            filter.filter(MOVIES, matches as Predicate, limit) == MOVIES.findAll(matches).take(limit)
+        where:
+            limit << [0, 1, 5, 99, 100, 250, Integer.MAX_VALUE]
+    }
+
+    def 'return #limit matches with unordered filter'() {
+        setup:
+            def matches = { it.year == 2000 }
+            def expected = MOVIES.findAll(matches)
+        when:
+            def result = filter.withOrdered(false).filter(MOVIES, matches as Predicate, limit)
+        then:
+            result.size() == Math.min(limit, expected.size())
+            expected.containsAll(result)
+        where:
+            limit << [0, 1, 5, 250, Integer.MAX_VALUE]
+    }
+
+    def 'stop scanning when enough matches are found (ordered: #ordered)'() {
+        setup:
+            def evaluated = new AtomicInteger()
+            def predicate = { evaluated.incrementAndGet(); true } as Predicate
+        when:
+            def result = filter.withOrdered(ordered).filter(MOVIES, predicate, 10)
+        then:
+            result.size() == 10
+            evaluated.get() < MOVIES.size() / 2
+        where:
+            ordered << [true, false]
+    }
+
+    def 'stop scanning on the first match in exists'() {
+        setup:
+            def evaluated = new AtomicInteger()
+            def predicate = { evaluated.incrementAndGet(); it.year == MOVIES[0].year } as Predicate
+        expect:
+            filter.exists(MOVIES, predicate)
+            evaluated.get() < MOVIES.size() / 2
+    }
+
+    def 'stop scanning in exists when the only match is in a middle chunk (ordered: #ordered)'() {
+        setup:
+            // a single worker scans the left half first, then the right half from its start
+            def singlePool = new ForkJoinPool(1)
+            def match = MOVIES[MOVIES.size().intdiv(2) + 50]
+            def evaluated = new AtomicInteger()
+            def predicate = { evaluated.incrementAndGet(); it.is(match) } as Predicate
+        expect:
+            filter.withPool(singlePool).withOrdered(ordered).exists(MOVIES, predicate)
+            evaluated.get() == MOVIES.size().intdiv(2) + 51
+        cleanup:
+            singlePool.shutdown()
+        where:
+            ordered << [true, false]
+    }
+
+    def 'filter list without random access and small list'() {
+        setup:
+            def matches = { it.year > 2010 }
+        expect:
+            filter.filter(new LinkedList(MOVIES), matches as Predicate) == MOVIES.findAll(matches)
+            filter.filter(MOVIES.take(7), matches as Predicate) == MOVIES.take(7).findAll(matches)
+            filter.filter([], matches as Predicate) == []
+    }
+
+    def 'propagate exception thrown by predicate'() {
+        when:
+            filter.filter(MOVIES, { throw new IllegalStateException('boom') } as Predicate)
+        then:
+            thrown IllegalStateException
+    }
+
+    def 'throw exception when configured with invalid arguments'() {
+        when:
+            configure.call(new ParallelFilter())
+        then:
+            thrown IllegalArgumentException
+        where:
+            configure << [ { it.withPool(null) }, { it.withChunkSize(0) },
+                           { it.filter([], { true } as Predicate, -1) }, { it.filter(null, { true } as Predicate) },
+                           { it.count([], null) } ]
+    }
+
+    def cleanup() {
+        pool.shutdown()
+    }
+}
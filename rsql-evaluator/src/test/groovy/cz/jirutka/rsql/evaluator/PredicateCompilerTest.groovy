@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ast.AndNode
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.ast.OrNode
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+
+@Unroll
+class PredicateCompilerTest extends Specification {
+
+    @Shared parser = new RSQLParser()
+
+    @Shared movies = [
+        new Movie(title: 'Inception', year: 2010, rating: 8.8, genre: Genre.SCI_FI, available: true,
+                  released: LocalDate.of(2010, 7, 16), director: new Person(firstName: 'Christopher', lastName: 'Nolan')),
+        new Movie(title: 'Memento', year: 2000, rating: 8.4, genre: Genre.THRILLER, available: false,
+                  released: LocalDate.of(2000, 9, 5), director: new Person(firstName: 'Christopher', lastName: 'Nolan')),
+        new Movie(title: 'Pulp Fiction', year: 1994, rating: 8.9, genre: Genre.DRAMA, available: true,
+                  director: new Person(firstName: 'Quentin', lastName: 'Tarantino'), notes: new StringBuilder('cult')),
+        new Movie(title: 'Unknown', year: 2020)
+    ]
+
+    def compiler = new PredicateCompiler()
+
+
+    def 'filter objects by query: #query'() {
+        setup:
+            def predicate = compiler.compile(parser.parse(query), Movie)
+        expect:
+            movies.findAll { predicate.test(it) }*.title == expected
+        where:
+            query                                          | expected
+            'title==Memento'                               | ['Memento']
+            'title!=Memento'                               | ['Inception', 'Pulp Fiction', 'Unknown']
+            'year=gt=2000'                                 | ['Inception', 'Unknown']
+            'year>=2000;year<2020'                         | ['Inception', 'Memento']
+            'year=le=2000'                                 | ['Memento', 'Pulp Fiction']
+            'rating=lt=8.85'                               | ['Inception', 'Memento']
+            'genre=in=(sci_fi,DRAMA)'                      | ['Inception', 'Pulp Fiction']
+            'genre=out=(sci_fi,DRAMA)'                     | ['Memento']
+            'available==true'                              | ['Inception', 'Pulp Fiction']
+            'released=ge=2005-01-01'                       | ['Inception']
+            'director.lastName==Nolan,year==1994'          | ['Inception', 'Memento', 'Pulp Fiction']
+            'director.firstName==Christopher;genre!=SCI_FI'| ['Memento']
+            'title==*tion'                                 | ['Inception', 'Pulp Fiction']
+            'title==PULP*'                                 | ['Pulp Fiction']
+            'title==*EMEN*'                                | ['Memento']
+            'title!=*ion'                                  | ['Memento', 'Unknown']
+            'title==*e%to'                                 | []
+            'title==Pulp_*'                                | []
+            'title=in=(Memento,Unknown)'                   | ['Memento', 'Unknown']
+            'notes==cult'                                  | ['Pulp Fiction']
+            'notes=in=(cult,foo)'                          | ['Pulp Fiction']
+    }
+
+    def 'do not match null values, not even with negative operators: #query'() {
+        setup:
+            def predicate = compiler.compile(parser.parse(query), Movie)
+        expect:
+            ! predicate.test(movies[3])
+        where:
+            query << ['rating!=1', 'genre=out=(DRAMA)', 'director.lastName!=Nolan', 'released=lt=2100-01-01']
+    }
+
+    def 'evaluate empty logical nodes as identity elements'() {
+        expect:
+            compiler.compile(new AndNode([]), Movie).test(movies[0])
+            ! compiler.compile(new OrNode([]), Movie).test(movies[0])
+    }
+
+    def 'reuse bound accessors when compiling the same query again'() {
+        setup:
+            def node = parser.parse('director.lastName==Nolan')
+        when:
+            def first = compiler.compile(node, Movie)
+            def second = compiler.compile(node, Movie)
+        then:
+            [first.path.accessors, second.path.accessors].transpose().every { a, b -> a.is(b) }
+            second.test(movies[0])
+    }
+
+    def 'compile single comparison'() {
+        setup:
+            def predicate = compiler.compile(parser.parse('year==2010'), Movie)
+        expect:
+            predicate.test(movies[0])
+            ! predicate.test(movies[1])
+            ! predicate.test(null)
+    }
+
+    def 'throw exception when compiling invalid query: #query'() {
+        when:
+            compiler.compile(parser.parse(query), Movie)
+        then:
+            thrown IllegalArgumentException
+        where:
+            query << ['foo==1', 'year==abc', 'genre==HORROR', 'director=gt=x', 'year==20*']
+    }
+
+    def 'throw exception for unsupported operator'() {
+        setup:
+            def node = new ComparisonNode(new ComparisonOperator('=all=', true), 'title', ['a'])
+        when:
+            compiler.compile(node, Movie)
+        then:
+            thrown UnknownOperatorException
+    }
+
+    def 'use custom argument converter'() {
+        setup:
+            def converter = ArgumentConverter.DEFAULT.withConverter(Integer, { it == 'now' ? 2020 : Integer.valueOf(it) })
+            def predicate = compiler.withConverter(converter).compile(parser.parse('year==now'), Movie)
+        expect:
+            movies.findAll { predicate.test(it) }*.title == ['Unknown']
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class PropertyPathTest extends Specification {
+
+    def movie = new Movie(title: 'Inception', year: 2010, available: true, code: 'X1',
+            director: new Person(lastName: 'Nolan'))
+
+
+    def 'resolve selector #selector to #type.simpleName'() {
+        setup:
+            def path = PropertyPath.resolve(Movie, selector)
+        expect:
+            path.get(movie) == expected
+            path.type == type
+            path.selector == selector
+        where:
+            selector           | type    | expected
+            'title'            | String  | 'Inception'
+            'year'             | int     | 2010
+            'available'        | boolean | true
+            'code'             | String  | 'X1'
+            'director.lastName'| String  | 'Nolan'
+    }
+
+    def 'share accessors of the same property between paths'() {
+        setup:
+            def first = PropertyPath.resolve(Movie, 'director.lastName')
+            def second = PropertyPath.resolve(Movie, 'director.lastName')
+            def third = PropertyPath.resolve(Movie, 'director.firstName')
+        expect:
+            [first.accessors, second.accessors].transpose().every { a, b -> a.is(b) }
+            third.accessors[0].is(first.accessors[0])
+            ! third.accessors[1].is(first.accessors[1])
+    }
+
+    def 'return null when some value on the path is null'() {
+        setup:
+            def path = PropertyPath.resolve(Movie, 'director.firstName')
+        expect:
+            path.get(movie) == null
+            path.get(new Movie()) == null
+            path.get(null) == null
+    }
+
+    def 'throw exception for unknown property: #selector'() {
+        when:
+            PropertyPath.resolve(Movie, selector)
+        then:
+            def ex = thrown(IllegalArgumentException)
+            ex.message.contains(selector)
+        where:
+            selector << ['foo', 'director.foo', 'title.', 'year.value']
+    }
+
+    def 'read property of a class that is not public'() {
+        setup:
+            def path = PropertyPath.resolve(Collections.unmodifiableList([1, 2]).getClass(), 'empty')
+        expect:
+            path.get(Collections.unmodifiableList([1, 2])) == false
+    }
+}
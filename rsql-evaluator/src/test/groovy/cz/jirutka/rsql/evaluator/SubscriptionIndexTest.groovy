@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.evaluator
+
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.parser.RSQLParser
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+@Unroll
+class SubscriptionIndexTest extends Specification {
+
+    @Shared parser = new RSQLParser()
+
+    @Shared movies = Fixtures.randomMovies(300)
+
+    @Shared queries = [
+        'genre==DRAMA', 'genre!=DRAMA', 'genre=in=(drama,sci_fi)', 'genre=out=(DRAMA,SCI_FI)',
+        'year=gt=2005', 'year>=2005;year<2010', 'year=le=1995', 'rating=lt=5.5', 'rating>=9',
+        'year>2000;year<=2000', 'year>=2000;year<=2000', 'year>2000;year>2010;year<2015;year<2012',
+        'title==Movie1*', 'title!=movie2*', 'title==*7', 'title=="Movie 42"', 'title=in=("Movie 1","Movie 2")',
+        'title>"Movie 5";title<"Movie 6"', 'director.lastName==Nolan', 'director.lastName!=Nolan',
+        'director.firstName==Quentin', 'genre==DRAMA;year>2000', 'genre==DRAMA,year>2015',
+        'genre==DRAMA;available==true', 'available==true,year<1992', '(genre==DRAMA,title==*3);(year=ge=2000,rating<3)',
+        'genre==THRILLER;(available==true,director.lastName==Nolan)', 'year==1995', 'year==1995;year=in=(1995,1996)',
+        'notes=in=(cult,classic)', 'year!=2000;rating<4', '(year!=2000,genre!=DRAMA);title==*1*' ]
+
+    def index = new SubscriptionIndex<Movie, String>(Movie)
+
+
+    def 'match the same queries as the compiled predicates'() {
+        setup:
+            queries.each { index.register(it, parser.parse(it)) }
+            def predicates = queries.collectEntries { [(it): new PredicateCompiler().compile(parser.parse(it), Movie)] }
+        expect:
+            movies.every { movie ->
+                index.match(movie) == predicates.findAll { it.value.test(movie) }.keySet()
+            }
+    }
+
+    def 'evaluate query for each event only if some clause has no indexed comparison: #query'() {
+        when:
+            index.register('q', parser.parse(query))
+        then:
+            index.unindexedCount() == expected
+        where:
+            query                                          | expected
+            'genre==DRAMA;year>2000'                       | 0
+            'year>2000;rating<5;title==*1'                 | 0
+            'genre=in=(DRAMA,SCI_FI),title==Movie1'        | 0
+            '(year!=2000,genre!=DRAMA);title==*1*'         | 1
+            'genre==DRAMA,title!=foo'                      | 1
+            'year>2000;year<1990'                          | 0
+    }
+
+    def 'match query with more clauses than indexed: #query'() {
+        setup:
+            def node = parser.parse(query)
+            def predicate = new PredicateCompiler().compile(node, Movie)
+            index.register('q', node)
+        expect:
+            movies.every { movie -> index.match(movie).contains('q') == predicate.test(movie) }
+        where:
+            query = (1..7).collect { "(year==${1990 + it},rating>${it})" }.join(';')
+    }
+
+    def 'match empty AND and OR'() {
+        setup:
+            index.register('all', new cz.jirutka.rsql.ast.AndNode([]))
+            index.register('none', new cz.jirutka.rsql.ast.OrNode([]))
+        expect:
+            index.match(movies[0]) == ['all'] as Set
+    }
+
+    def 'replace query registered under the same key'() {
+        setup:
+            index.register('q', parser.parse('year==1995'))
+        when:
+            index.register('q', parser.parse('year==1996'))
+        then:
+            index.size() == 1
+            index.match(new Movie(year: 1995)).isEmpty()
+            index.match(new Movie(year: 1996)) == ['q'] as Set
+    }
+
+    def 'remove subscription'() {
+        setup:
+            index.register('a', parser.parse('year>=1995;rating<5'))
+            index.register('b', parser.parse('year=in=(1995,1996)'))
+            index.register('c', parser.parse('title!=foo'))
+        when:
+            def removed = index.remove('a')
+            index.remove('c')
+        then:
+            removed
+            !index.remove('a')
+            !index.contains('a')
+            index.size() == 1
+            index.match(new Movie(title: 'bar', year: 1995, rating: 1.0)) == ['b'] as Set
+    }
+
+    def 'register and remove concurrently with matching'() {
+        setup:
+            def executor = Executors.newFixedThreadPool(4)
+            def stable = (0..<50).collect { "year==${1990 + it % 30}" as String }
+            stable.eachWithIndex { query, i -> index.register("stable$i" as String, parser.parse(query)) }
+            def movie = new Movie(year: 1995, rating: 0.5)
+            def expected = (0..<50).findAll { 1990 + it % 30 == 1995 }.collect { "stable$it" as String } as Set
+        when:
+            def writers = (0..<2).collect { w ->
+                executor.submit({
+                    (0..<2000).each {
+                        def key = "temp$w-${it % 100}" as String
+                        index.register(key, parser.parse("year>=${1990 + it % 10};rating<${it % 10}"))
+                        if (it % 3 == 0) {
+                            index.remove(key)
+                        }
+                    }
+                } as Callable)
+            }
+            def readers = (0..<2).collect {
+                executor.submit({
+                    (0..<2000).every { index.match(movie).findAll { it.startsWith('stable') } as Set == expected }
+                } as Callable)
+            }
+            writers*.get()
+            def consistent = readers.every { it.get() }
+        and:
+            // the last registration of temp*-r is in the iteration 1900 + r
+            def remaining = (0..<100).findAll { (1900 + it) % 3 != 0 }
+            def matching = remaining.findAll { it % 10 >= 1 && it % 10 <= 5 }
+        then:
+            consistent
+            index.size() == 50 + 2 * remaining.size()
+            index.match(movie) == expected + matching.collectMany { ["temp0-$it", "temp1-$it"]*.toString() }
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'throw #exception.simpleName when registering #query'() {
+        when:
+            index.register('q', node)
+        then:
+            thrown exception
+            !index.contains('q')
+        where:
+            query                                   | exception
+            'foo==1'                                | IllegalArgumentException
+            'year==abc'                             | IllegalArgumentException
+            'year=in=(1,x)'                         | IllegalArgumentException
+            'director>Nolan'                        | IllegalArgumentException
+            '=all='                                 | UnknownOperatorException
+
+            node = query == '=all=' ? new ComparisonNode(new ComparisonOperator('=all=', true), 'year', ['1'])
+                                    : parser.parse(query)
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.ast.NodesFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static cz.jirutka.rsql.parser.Lexer.*;
+
+/**
+ * Base of the hand-written recursive descent parsers of the RSQL that work directly on the query
+ * characters (or UTF-8 bytes). It implements the rules of the grammar that are common to all
+ * of them, i.e. everything but the logical operations, and enforces the {@link ParserLimits};
+ * the subclasses differ only in what they produce from the parsed constraints.
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each input.</p>
+ *
+ * @param <N> Type of the result of the parsed rules.
+ */
+abstract class AbstractDirectParser<N> {
+
+    final Lexer lexer;
+
+    final NodesFactory factory;
+
+    final LimitsTracker limits;
+
+
+    AbstractDirectParser(LexerInput input, NodesFactory factory, ParserLimits limits) {
+        this.lexer = new Lexer(input);
+        this.factory = factory;
+        this.limits = new LimitsTracker(limits);
+    }
+
+
+    /**
+     * or = and, { "," , and };
+     */
+    abstract N or() throws ParseException;
+
+    /**
+     * Creates the result of a comparison with the given (already checked) parts.
+     */
+    abstract N comparison(String selector, ComparisonOperator operator, List<String> arguments);
+
+
+    /**
+     * input = or, EOF;
+     */
+    final N input() throws ParseException {
+        lexer.next();
+        N result = or();
+        expect(EOF);
+
+        return result;
+    }
+
+    /**
+     * constraint = ( group | comparison );
+     * group      = "(", or, ")";
+     */
+    final N constraint() throws ParseException {
+        switch (lexer.kind()) {
+            case LPAREN:
+                limits.enterGroup();
+                lexer.next();
+                N result = or();
+                expect(RPAREN);
+                limits.leaveGroup();
+                return result;
+
+            case UNRESERVED_STR:
+                return comparison();
+
+            default:
+                throw unexpected("\"(\" or <UNRESERVED_STR>");
+        }
+    }
+
+    /**
+     * comparison = selector, comparator, arguments;
+     *
+     * <p>The token following the arguments is read only after the result is created, so errors
+     * are reported in the same order as by the JavaCC parser (i.e. unknown operator before
+     * a lexical error behind it).</p>
+     */
+    private N comparison() throws ParseException {
+        String selector = lexer.image();
+        lexer.next();
+
+        if (lexer.kind() != COMP_FIQL && lexer.kind() != COMP_ALT) {
+            throw unexpected("<COMP_FIQL> or <COMP_ALT>");
+        }
+        String operatorToken = lexer.image();
+        lexer.next();
+
+        List<String> arguments = arguments();
+        limits.addNode();
+
+        ComparisonOperator operator = factory.findComparisonOperator(operatorToken);
+        if (!operator.isMultiValue() && arguments.size() > 1) {
+            throw new IllegalArgumentException(String.format(
+                    "operator %s expects single argument, but multiple values given", operator));
+        }
+        N result = comparison(selector, operator, arguments);
+        lexer.next();
+
+        return result;
+    }
+
+    /**
+     * arguments = ( "(", value, { "," , value }, ")" ) | value;
+     *
+     * <p>Leaves the last token of the arguments as the current one.</p>
+     */
+    private List<String> arguments() throws ParseException {
+        if (lexer.kind() != LPAREN) {
+            return Collections.singletonList(argument());
+        }
+        lexer.next();
+
+        List<String> args = new ArrayList<String>(3);
+        args.add(argument());
+        lexer.next();
+
+        while (lexer.kind() == OR) {
+            lexer.next();
+            String arg = argument();
+            limits.checkArguments(args.size() + 1);
+            args.add(arg);
+            lexer.next();
+        }
+        if (lexer.kind() != RPAREN) {
+            throw unexpected("<OR> or \")\"");
+        }
+        return args;
+    }
+
+    /**
+     * value = unreserved-str | double-quoted | single-quoted;
+     *
+     * <p>Leaves the value as the current token.</p>
+     */
+    private String argument() throws ParseException {
+        switch (lexer.kind()) {
+            case UNRESERVED_STR:
+            case SINGLE_QUOTED_STR:
+            case DOUBLE_QUOTED_STR:
+                limits.checkArgument(lexer.imageLength());
+                return lexer.image();
+
+            default:
+                throw unexpected("<UNRESERVED_STR>, <SINGLE_QUOTED_STR> or <DOUBLE_QUOTED_STR>");
+        }
+    }
+
+
+    private void expect(int kind) throws ParseException {
+        if (lexer.kind() != kind) {
+            throw unexpected(Lexer.describeKind(kind));
+        }
+        if (kind != EOF) {
+            lexer.next();
+        }
+    }
+
+    private ParseException unexpected(String expected) {
+        return new ParseException(String.format("Encountered %s at column %d. Was expecting: %s",
+                lexer.describe(), lexer.column(), expected));
+    }
+}
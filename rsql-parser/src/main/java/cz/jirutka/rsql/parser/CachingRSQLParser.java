@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ast.Node;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decorator of the {@link RSQLParser} that caches the parsed AST. The nodes are immutable, so
+ * the same instance may be safely shared by all callers.
+ *
+ * <p>The cache holds at most the specified number of entries. When it's full, a new query is
+ * admitted only if it has been requested more frequently than a victim sampled from the cache
+ * entries, so a burst of unique queries doesn't flush the frequently used ones. The frequencies
+ * are estimated by a small sketch that ages over time.</p>
+ *
+ * <p>Lookups don't acquire any lock; only inserting a new entry is serialized. Queries that fail
+ * to parse are cached as well, the same {@link RSQLParserException} instance is thrown again for
+ * the subsequent lookups.</p>
+ */
+@ThreadSafe
+public final class CachingRSQLParser {
+
+    private static final int SAMPLE_SIZE = 8;
+
+    private final RSQLParser parser;
+
+    private final int maximumSize;
+
+    private final KeyType keyType;
+
+    private final ConcurrentMap<String, Entry> entries;
+
+    private final FrequencySketch sketch;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    @GuardedBy("evictionLock")
+    private final Entry[] slots;
+
+    @GuardedBy("evictionLock")
+    private int size;
+
+    @GuardedBy("evictionLock")
+    private int randomSeed = 0x2545f491;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+
+    /**
+     * Creates a new cache that uses the raw query as the key.
+     *
+     * @see #CachingRSQLParser(RSQLParser, int, KeyType)
+     */
+    public CachingRSQLParser(RSQLParser parser, int maximumSize) {
+        this(parser, maximumSize, KeyType.RAW);
+    }
+
+    /**
+     * @param parser The parser to delegate to. Must not be <tt>null</tt>.
+     * @param maximumSize The maximum number of cached queries. Must be greater than 0.
+     * @param keyType The form of the query to use as the cache key. Must not be <tt>null</tt>.
+     */
+    public CachingRSQLParser(RSQLParser parser, int maximumSize, KeyType keyType) {
+        if (parser == null) {
+            throw new IllegalArgumentException("parser must not be null");
+        }
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be greater than 0");
+        }
+        if (keyType == null) {
+            throw new IllegalArgumentException("keyType must not be null");
+        }
+        this.parser = parser;
+        this.maximumSize = maximumSize;
+        this.keyType = keyType;
+        this.entries = new ConcurrentHashMap<String, Entry>(maximumSize);
+        this.sketch = new FrequencySketch(maximumSize);
+        this.slots = new Entry[maximumSize];
+    }
+
+
+    /**
+     * Returns the cached AST of the query, or parses it using the underlying parser.
+     *
+     * @param query The query expression to parse.
+     * @return A root of the parsed AST.
+     *
+     * @throws RSQLParserException If the {@code query} is syntactically invalid.
+     * @throws IllegalArgumentException If the {@code query} is null.
+     */
+    public Node parse(String query) throws RSQLParserException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        String key = keyOf(query);
+        sketch.increment(key);
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry.get();
+        }
+        missCount.incrementAndGet();
+
+        try {
+            entry = new Entry(key, parser.parse(query), null);
+        } catch (RSQLParserException ex) {
+            entry = new Entry(key, null, ex);
+        }
+        admit(entry);
+
+        return entry.get();
+    }
+
+    /**
+     * Discards all the cached entries. The statistics are not reset.
+     */
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            entries.clear();
+            for (int i = 0; i < size; i++) {
+                slots[i] = null;
+            }
+            size = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of cached queries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the number of lookups that have been answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that have been delegated to the parser.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries that have been removed to make room for a new one.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+
+    private String keyOf(String query) {
+        if (keyType == KeyType.NORMALIZED) {
+            String normalized = QueryNormalizer.normalize(query);
+            if (normalized != null) {
+                return normalized;
+            }
+        }
+        return query;
+    }
+
+    private void admit(Entry entry) {
+        evictionLock.lock();
+        try {
+            if (entries.containsKey(entry.key)) {
+                return;  // added by another thread meanwhile
+            }
+            if (size < maximumSize) {
+                entry.slot = size;
+                slots[size++] = entry;
+                entries.put(entry.key, entry);
+                return;
+            }
+            Entry victim = sampleVictim();
+            if (sketch.frequency(entry.key) <= sketch.frequency(victim.key)) {
+                return;
+            }
+            entries.remove(victim.key);
+            evictionCount.incrementAndGet();
+
+            entry.slot = victim.slot;
+            slots[entry.slot] = entry;
+            entries.put(entry.key, entry);
+
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the least frequently used entry from a random sample of the entries.
+     */
+    @GuardedBy("evictionLock")
+    private Entry sampleVictim() {
+        Entry victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < Math.min(SAMPLE_SIZE, size); i++) {
+            Entry candidate = slots[nextRandom() % size];
+            int frequency = sketch.frequency(candidate.key);
+            if (frequency < victimFrequency) {
+                victim = candidate;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+    @GuardedBy("evictionLock")
+    private int nextRandom() {
+        int x = randomSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        randomSeed = x;
+        return x & Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * The form of the query used as the cache key.
+     */
+    public enum KeyType {
+
+        /**
+         * The query exactly as given.
+         */
+        RAW,
+
+        /**
+         * The query with insignificant whitespaces removed, alternative logical operators replaced
+         * by <tt>;</tt> and <tt>,</tt>, and quoted strings enclosed in single quotes if possible.
+         * Queries that differ only in these aspects share the same entry. Note that the error
+         * message of a cached failure may then refer to a column of another form of the query.
+         */
+        NORMALIZED
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final Node node;
+        final RSQLParserException failure;
+
+        @GuardedBy("evictionLock")
+        int slot;
+
+        Entry(String key, Node node, RSQLParserException failure) {
+            this.key = key;
+            this.node = node;
+            this.failure = failure;
+        }
+
+        Node get() {
+            if (failure != null) {
+                throw failure;
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.ast.NodesFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cz.jirutka.rsql.parser.Lexer.*;
+
+/**
+ * Hand-written recursive descent parser of the RSQL that works directly on the query characters
+ * (or UTF-8 bytes). It accepts exactly the same grammar as the JavaCC generated {@link Parser} and
+ * creates nodes using the same {@link NodesFactory}, so both produce equal AST. The only objects
+ * allocated are strings of the selectors and arguments, and the nodes itself (with its lists).
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each input.</p>
+ */
+final class DirectParser extends AbstractDirectParser<Node> {
+
+    DirectParser(CharSequence input, NodesFactory factory) {
+        this(LexerInput.of(input), factory, ParserLimits.UNLIMITED);
+    }
+
+    DirectParser(LexerInput input, NodesFactory factory, ParserLimits limits) {
+        super(input, factory, limits);
+    }
+
+
+    Node parse() throws ParseException {
+        return input();
+    }
+
+    /**
+     * or = and, { "," , and };
+     */
+    Node or() throws ParseException {
+        Node first = and();
+        if (lexer.kind() != OR) {
+            return first;
+        }
+        List<Node> nodes = new ArrayList<Node>(3);
+        nodes.add(first);
+
+        while (lexer.kind() == OR) {
+            lexer.next();
+            nodes.add(and());
+        }
+        limits.addNode();
+        return factory.createLogicalNode(LogicalOperator.OR, nodes);
+    }
+
+    /**
+     * and = constraint, { ";" , constraint };
+     */
+    private Node and() throws ParseException {
+        Node first = constraint();
+        if (lexer.kind() != AND) {
+            return first;
+        }
+        List<Node> nodes = new ArrayList<Node>(3);
+        nodes.add(first);
+
+        while (lexer.kind() == AND) {
+            lexer.next();
+            nodes.add(constraint());
+        }
+        limits.addNode();
+        return factory.createLogicalNode(LogicalOperator.AND, nodes);
+    }
+
+    Node comparison(String selector, ComparisonOperator operator, List<String> arguments) {
+        return factory.createComparisonNode(operator, selector, arguments);
+    }
+}
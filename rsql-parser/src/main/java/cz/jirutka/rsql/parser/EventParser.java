@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.ast.NodesFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static cz.jirutka.rsql.parser.Lexer.*;
+
+/**
+ * Variant of the {@link DirectParser} that reports the query to a {@link RSQLHandler} instead of
+ * building the AST. It accepts exactly the same grammar, resolves the operators using the
+ * {@link NodesFactory} and fails for the same reasons; only the logical operations are parsed
+ * differently.
+ *
+ * <p>The events are produced in pre-order, so whether an <tt>or</tt> or <tt>and</tt> rule
+ * matches more than one operand (and thus produces a logical operation) must be known before
+ * its first operand is parsed. Hence the tokens are scanned ahead in a linear pass that doesn't
+ * allocate anything but two bit sets indexed by the order in which the rules are invoked.</p>
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each input.</p>
+ */
+final class EventParser extends AbstractDirectParser<Void> {
+
+    private final LexerInput input;
+
+    private final RSQLHandler handler;
+
+    private final BitSet multiOr = new BitSet();
+
+    private final BitSet multiAnd = new BitSet();
+
+    private int orIndex;
+
+    private int andIndex;
+
+
+    EventParser(LexerInput input, NodesFactory factory, ParserLimits limits, RSQLHandler handler) {
+        super(input, factory, limits);
+        this.input = input;
+        this.handler = handler;
+    }
+
+
+    void parse() throws ParseException {
+        scanOperands();
+        input();
+    }
+
+    /**
+     * or = and, { "," , and };
+     */
+    Void or() throws ParseException {
+        boolean multi = multiOr.get(orIndex++);
+        if (multi) {
+            limits.addNode();
+            handler.startOr();
+        }
+        and();
+        while (lexer.kind() == OR) {
+            lexer.next();
+            and();
+        }
+        if (multi) {
+            handler.end();
+        }
+        return null;
+    }
+
+    /**
+     * and = constraint, { ";" , constraint };
+     */
+    private void and() throws ParseException {
+        boolean multi = multiAnd.get(andIndex++);
+        if (multi) {
+            limits.addNode();
+            handler.startAnd();
+        }
+        constraint();
+        while (lexer.kind() == AND) {
+            lexer.next();
+            constraint();
+        }
+        if (multi) {
+            handler.end();
+        }
+    }
+
+    Void comparison(String selector, ComparisonOperator operator, List<String> arguments) {
+        handler.comparison(selector, operator, arguments);
+        return null;
+    }
+
+    /**
+     * Scans the tokens ahead and marks the <tt>or</tt> and <tt>and</tt> rules (in order of their
+     * invocation) that match more than one operand. Only a valid prefix of the query must be
+     * scanned correctly, the parser fails at the first error anyway; thus a lexical error just
+     * stops the scan and is reported later by the parser itself.
+     */
+    private void scanOperands() {
+        Lexer scanner = new Lexer(input);
+        int[] ors = new int[8];
+        int[] ands = new int[8];
+        int depth = 0, orCount = 1, andCount = 1;
+        int previous = EOF;
+
+        try {
+            for (int kind = scanner.next(); kind != EOF; previous = kind, kind = scanner.next()) {
+                switch (kind) {
+                    case LPAREN:
+                        if (previous == COMP_FIQL || previous == COMP_ALT) {
+                            // arguments, they can't contain a group
+                            while (kind != RPAREN && kind != EOF) {
+                                kind = scanner.next();
+                            }
+                            break;
+                        }
+                        if (++depth == ors.length) {
+                            ors = Arrays.copyOf(ors, depth * 2);
+                            ands = Arrays.copyOf(ands, depth * 2);
+                        }
+                        ors[depth] = orCount++;
+                        ands[depth] = andCount++;
+                        break;
+
+                    case RPAREN:
+                        depth = Math.max(depth - 1, 0);
+                        break;
+
+                    case AND:
+                        multiAnd.set(ands[depth]);
+                        break;
+
+                    case OR:
+                        multiOr.set(ors[depth]);
+                        ands[depth] = andCount++;
+                        break;
+                }
+            }
+        } catch (ParseException ex) {
+            // reported by the parser
+        }
+    }
+}
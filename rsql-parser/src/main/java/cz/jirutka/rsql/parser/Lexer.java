@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+/**
+ * Hand-written tokenizer of the RSQL that scans a {@link LexerInput} in place. It recognizes
+ * exactly the same tokens as the JavaCC grammar (<tt>RSQLParser.jj</tt>), including its longest
+ * match and declaration order rules, but doesn't allocate any token objects; the current token
+ * is described only by its kind and a range of the input.
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each input.</p>
+ */
+final class Lexer {
+
+    static final int
+            EOF = 0,
+            UNRESERVED_STR = 1,
+            SINGLE_QUOTED_STR = 2,
+            DOUBLE_QUOTED_STR = 3,
+            AND = 4,
+            OR = 5,
+            LPAREN = 6,
+            RPAREN = 7,
+            COMP_FIQL = 8,
+            COMP_ALT = 9;
+
+    private static final String[] KIND_NAMES = {
+            "<EOF>", "<UNRESERVED_STR>", "<SINGLE_QUOTED_STR>", "<DOUBLE_QUOTED_STR>",
+            "<AND>", "<OR>", "\"(\"", "\")\"", "<COMP_FIQL>", "<COMP_ALT>" };
+
+    private static final String AND_ALT = " and ";
+    private static final String OR_ALT = " or ";
+
+    private final LexerInput input;
+
+    private final int end;
+
+    private int pos;
+
+    private int kind = -1;
+
+    private int tokenStart;
+
+    private int imageStart;
+
+    private int imageEnd;
+
+
+    Lexer(CharSequence input) {
+        this(LexerInput.of(input));
+    }
+
+    Lexer(LexerInput input) {
+        this.input = input;
+        this.end = input.end;
+        this.pos = input.start;
+    }
+
+
+    /**
+     * Advances to the next token and returns its kind.
+     *
+     * @throws ParseException If the input contains a character sequence that doesn't match
+     *          any token.
+     */
+    int next() throws ParseException {
+
+        while (pos < end) {
+            int c = input.unitAt(pos);
+            int following = input.next(pos);
+            tokenStart = pos;
+
+            switch (c) {
+                case ' ':
+                    int altEnd = regionEnd(pos, AND_ALT);
+                    if (altEnd > 0) {
+                        return token(AND, altEnd);
+                    }
+                    altEnd = regionEnd(pos, OR_ALT);
+                    if (altEnd > 0) {
+                        return token(OR, altEnd);
+                    }
+                    pos = following;
+                    continue;
+
+                case '\t':
+                    // Tab is skipped only when it's not followed by an unreserved char,
+                    // otherwise the longer UNRESERVED_STR wins.
+                    int strEnd = scanUnreserved(following);
+                    if (strEnd > following) {
+                        return token(UNRESERVED_STR, strEnd);
+                    }
+                    pos = following;
+                    continue;
+
+                case '\'':
+                    return quoted(SINGLE_QUOTED_STR, '\'', following);
+                case '"':
+                    return quoted(DOUBLE_QUOTED_STR, '"', following);
+                case ';':
+                    return token(AND, following);
+                case ',':
+                    return token(OR, following);
+                case '(':
+                    return token(LPAREN, following);
+                case ')':
+                    return token(RPAREN, following);
+
+                case '=':
+                    int i = following;
+                    while (i < end && isAlpha(input.unitAt(i))) {
+                        i = input.next(i);
+                    }
+                    if (i < end && input.unitAt(i) == '=') {
+                        return token(COMP_FIQL, input.next(i));
+                    }
+                    throw lexicalError(c);
+
+                case '!':
+                    if (following < end && input.unitAt(following) == '=') {
+                        return token(COMP_FIQL, input.next(following));
+                    }
+                    throw lexicalError(c);
+
+                case '<':
+                case '>':
+                    if (following < end && input.unitAt(following) == '=') {
+                        return token(COMP_ALT, input.next(following));
+                    }
+                    return token(COMP_ALT, following);
+
+                case '~':
+                    throw lexicalError(c);
+
+                default:
+                    return token(UNRESERVED_STR, scanUnreserved(following));
+            }
+        }
+        tokenStart = imageStart = imageEnd = pos;
+        return kind = EOF;
+    }
+
+    /**
+     * Returns kind of the current token.
+     */
+    int kind() {
+        return kind;
+    }
+
+    /**
+     * Returns image of the current token; quoted strings are returned without the quotes.
+     */
+    String image() {
+        return input.image(imageStart, imageEnd);
+    }
+
+    /**
+     * Returns length of the image of the current token without building it.
+     */
+    int imageLength() throws ParseException {
+        return input.length(imageStart, imageEnd);
+    }
+
+    /**
+     * Returns 1-based column of the current token.
+     */
+    int column() {
+        return input.column(tokenStart);
+    }
+
+    /**
+     * Returns description of the current token for error messages.
+     */
+    String describe() {
+        return kind == EOF
+                ? KIND_NAMES[EOF]
+                : '"' + input.image(tokenStart, pos) + '"';
+    }
+
+    static String describeKind(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+
+    private int token(int kind, int end) {
+        this.imageStart = tokenStart;
+        this.imageEnd = end;
+        this.pos = end;
+        return this.kind = kind;
+    }
+
+    private int quoted(int kind, char quote, int from) throws ParseException {
+        int i = from;
+        while (i < end && input.unitAt(i) != quote) {
+            i = input.next(i);
+        }
+        if (i >= end) {
+            throw lexicalError(quote);
+        }
+        this.imageStart = from;
+        this.imageEnd = i;
+        this.pos = input.next(i);
+        return this.kind = kind;
+    }
+
+    private int scanUnreserved(int from) throws ParseException {
+        int i = from;
+        while (i < end && !isReserved((char) input.unitAt(i))) {
+            i = input.next(i);
+        }
+        return i;
+    }
+
+    /**
+     * Returns position after the given string if it's at the given position, otherwise -1.
+     */
+    private int regionEnd(int from, String str) throws ParseException {
+        int i = from;
+        for (int j = 0; j < str.length(); j++) {
+            if (i >= end || input.unitAt(i) != str.charAt(j)) {
+                return -1;
+            }
+            i = input.next(i);
+        }
+        return i;
+    }
+
+    private ParseException lexicalError(int c) {
+        return new ParseException(String.format(
+                "Lexical error at column %d. Encountered: \"%s\"", input.column(pos), (char) c));
+    }
+
+
+    static boolean isReserved(char c) {
+        switch (c) {
+            case '"': case '\'': case '(': case ')': case ';': case ',':
+            case '=': case '<': case '>': case '!': case '~': case ' ':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isAlpha(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
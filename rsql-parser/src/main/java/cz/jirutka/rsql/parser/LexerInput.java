@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Source of the characters for the {@link Lexer}. The input is read in <i>units</i>, addressed by
+ * their position in the underlying storage; a unit is a char of a {@link CharSequence}, or a byte
+ * of an UTF-8 encoded buffer, or a percent-encoded triplet <tt>%XX</tt> of such buffer.
+ *
+ * <p>All the chars that have a meaning in the grammar are ASCII, and UTF-8 never uses bytes lower
+ * than 0x80 inside multibyte sequences. Thus the lexer can classify the units one by one without
+ * decoding them; only the image of a token is decoded to a {@code String}.</p>
+ */
+abstract class LexerInput {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Position of the first unit.
+     */
+    final int start;
+
+    /**
+     * Position after the last unit.
+     */
+    final int end;
+
+
+    LexerInput(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+
+    static LexerInput of(CharSequence input) {
+        return new Chars(input);
+    }
+
+    /**
+     * @param buffer The UTF-8 encoded input between the buffer's position and limit. Neither the
+     *          buffer nor its position is modified.
+     * @param percentEncoded Whether to decode percent-encoded octets (<tt>%XX</tt>).
+     */
+    static LexerInput of(ByteBuffer buffer, boolean percentEncoded) {
+        return new Bytes(buffer, percentEncoded);
+    }
+
+
+    /**
+     * Returns the unit at the given position; a char, or an octet (0-255) of the UTF-8 input.
+     *
+     * @throws ParseException If the unit is not valid, i.e. a malformed percent-encoded octet.
+     */
+    abstract int unitAt(int pos) throws ParseException;
+
+    /**
+     * Returns position of the unit following the one at the given position.
+     */
+    abstract int next(int pos);
+
+    /**
+     * Decodes the units between the given positions.
+     */
+    abstract String image(int from, int to);
+
+    /**
+     * Returns the number of chars that the units between the given positions are decoded to,
+     * without decoding them.
+     */
+    abstract int length(int from, int to) throws ParseException;
+
+    /**
+     * Returns 1-based column of the decoded character at the given position.
+     */
+    abstract int column(int pos);
+
+    /**
+     * Validates and decodes the whole input.
+     *
+     * @throws ParseException If some unit is not valid.
+     */
+    String decode() throws ParseException {
+        for (int i = start; i < end; i = next(i)) {
+            unitAt(i);
+        }
+        return image(start, end);
+    }
+
+
+    private static final class Chars extends LexerInput {
+
+        private final CharSequence input;
+
+        Chars(CharSequence input) {
+            super(0, input.length());
+            this.input = input;
+        }
+
+        int unitAt(int pos) {
+            return input.charAt(pos);
+        }
+
+        int next(int pos) {
+            return pos + 1;
+        }
+
+        String image(int from, int to) {
+            return input.subSequence(from, to).toString();
+        }
+
+        int length(int from, int to) {
+            return to - from;
+        }
+
+        int column(int pos) {
+            return pos + 1;
+        }
+    }
+
+    /**
+     * Reads a heap buffer directly from its backing array, other buffers using the absolute
+     * get methods; the input is never copied as a whole. Images of the tokens that contain
+     * percent-encoded octets, or come from a direct buffer, are decoded through a scratch array
+     * that is reused for all the tokens.
+     */
+    private static final class Bytes extends LexerInput {
+
+        private final ByteBuffer buffer;
+
+        private final byte[] array;
+
+        private final int arrayOffset;
+
+        private final boolean percentEncoded;
+
+        private byte[] scratch;
+
+        Bytes(ByteBuffer buffer, boolean percentEncoded) {
+            super(buffer.position(), buffer.limit());
+            this.buffer = buffer;
+            this.array = buffer.hasArray() ? buffer.array() : null;
+            this.arrayOffset = buffer.hasArray() ? buffer.arrayOffset() : 0;
+            this.percentEncoded = percentEncoded;
+        }
+
+        int unitAt(int pos) throws ParseException {
+            int b = byteAt(pos);
+            if (b == '%' && percentEncoded) {
+                int high = pos + 1 < end ? hexValue(byteAt(pos + 1)) : -1;
+                int low = pos + 2 < end ? hexValue(byteAt(pos + 2)) : -1;
+                if (high < 0 || low < 0) {
+                    throw new ParseException(String.format(
+                            "Lexical error at column %d. Malformed percent-encoded octet", column(pos)));
+                }
+                return high << 4 | low;
+            }
+            return b;
+        }
+
+        int next(int pos) {
+            return byteAt(pos) == '%' && percentEncoded ? pos + 3 : pos + 1;
+        }
+
+        String image(int from, int to) {
+            if (array != null && !percentEncoded) {
+                return new String(array, arrayOffset + from, to - from, UTF_8);
+            }
+            if (scratch == null || scratch.length < to - from) {
+                scratch = new byte[Math.max(to - from, 32)];
+            }
+            int length = 0;
+            for (int i = from; i < to; i = next(i)) {
+                int b = byteAt(i);
+                if (b == '%' && percentEncoded) {
+                    b = hexValue(byteAt(i + 1)) << 4 | hexValue(byteAt(i + 2));
+                }
+                scratch[length++] = (byte) b;
+            }
+            return new String(scratch, 0, length, UTF_8);
+        }
+
+        int length(int from, int to) throws ParseException {
+            int length = 0;
+            for (int i = from; i < to; i = next(i)) {
+                int b = unitAt(i);
+                if ((b & 0xC0) != 0x80) {  // not a continuation byte
+                    length += b >= 0xF0 ? 2 : 1;  // 4-byte sequence is decoded to a surrogate pair
+                }
+            }
+            return length;
+        }
+
+        int column(int pos) {
+            return image(start, pos).length() + 1;
+        }
+
+        private int byteAt(int pos) {
+            return (array != null ? array[arrayOffset + pos] : buffer.get(pos)) & 0xFF;
+        }
+
+        private static int hexValue(int b) {
+            if (b >= '0' && b <= '9') {
+                return b - '0';
+            }
+            if (b >= 'A' && b <= 'F') {
+                return b - 'A' + 10;
+            }
+            if (b >= 'a' && b <= 'f') {
+                return b - 'a' + 10;
+            }
+            return -1;
+        }
+    }
+}
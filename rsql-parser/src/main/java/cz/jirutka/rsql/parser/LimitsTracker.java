@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import static cz.jirutka.rsql.parser.ParserLimits.Limit.*;
+
+/**
+ * Keeps track of the resources consumed by parsing of a single query and enforces the
+ * {@link ParserLimits}. Both parser engines call it at the same points of the grammar, so they
+ * fail for the same reason.
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each input.</p>
+ */
+final class LimitsTracker {
+
+    private final ParserLimits limits;
+
+    private int depth;
+
+    private int nodes;
+
+
+    LimitsTracker(ParserLimits limits) {
+        this.limits = limits;
+    }
+
+
+    /**
+     * Should be called after the opening parenthesis of a group is read.
+     */
+    void enterGroup() {
+        if (++depth > limits.getMaxDepth()) {
+            throw new LimitExceededException(DEPTH, limits.getMaxDepth());
+        }
+    }
+
+    /**
+     * Should be called after the closing parenthesis of a group is read.
+     */
+    void leaveGroup() {
+        depth--;
+    }
+
+    /**
+     * Should be called before a node is created.
+     */
+    void addNode() {
+        if (++nodes > limits.getMaxNodes()) {
+            throw new LimitExceededException(NODES, limits.getMaxNodes());
+        }
+    }
+
+    /**
+     * Should be called before an argument is added to the arguments of a comparison.
+     *
+     * @param count The number of arguments including the one to be added.
+     */
+    void checkArguments(int count) {
+        if (count > limits.getMaxArguments()) {
+            throw new LimitExceededException(ARGUMENTS, limits.getMaxArguments());
+        }
+    }
+
+    /**
+     * Should be called before an argument is created, i.e. with the length of its token.
+     */
+    void checkArgument(int length) {
+        if (length > limits.getMaxArgumentLength()) {
+            throw new LimitExceededException(ARGUMENT_LENGTH, limits.getMaxArgumentLength());
+        }
+    }
+
+    static void checkInputLength(ParserLimits limits, int length) {
+        if (length > limits.getMaxInputLength()) {
+            throw new LimitExceededException(INPUT_LENGTH, limits.getMaxInputLength());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.ast.NodesFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handler that builds the AST from the parser events using the {@link NodesFactory}, i.e. the
+ * same AST as returned by {@link RSQLParser#parse(String)}.
+ *
+ * <p>This class is not thread-safe, a new instance must be created for each query.</p>
+ */
+public class NodesBuilder implements RSQLHandler {
+
+    private final NodesFactory factory;
+
+    private final List<LogicalOperator> operators = new ArrayList<LogicalOperator>();
+
+    private final List<List<Node>> operands = new ArrayList<List<Node>>();
+
+    private Node result;
+
+
+    /**
+     * @param factory The factory to create nodes with. Must not be <tt>null</tt>.
+     */
+    public NodesBuilder(NodesFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory must not be null");
+        }
+        this.factory = factory;
+    }
+
+
+    public void startAnd() {
+        start(LogicalOperator.AND);
+    }
+
+    public void startOr() {
+        start(LogicalOperator.OR);
+    }
+
+    public void comparison(String selector, ComparisonOperator operator, List<String> arguments) {
+        add(factory.createComparisonNode(operator, selector, arguments));
+    }
+
+    public void end() {
+        int last = operators.size() - 1;
+        if (last < 0) {
+            throw new IllegalStateException("No logical operation to end");
+        }
+        LogicalOperator operator = operators.remove(last);
+        List<Node> children = operands.remove(last);
+
+        add(factory.createLogicalNode(operator, children));
+    }
+
+    /**
+     * Returns the root of the built AST.
+     *
+     * @throws IllegalStateException If the events are not complete yet.
+     */
+    public Node getResult() {
+        if (result == null || !operators.isEmpty()) {
+            throw new IllegalStateException("The events are not complete");
+        }
+        return result;
+    }
+
+
+    private void start(LogicalOperator operator) {
+        operators.add(operator);
+        operands.add(new ArrayList<Node>(3));
+    }
+
+    private void add(Node node) {
+        if (operands.isEmpty()) {
+            result = node;
+        } else {
+            operands.get(operands.size() - 1).add(node);
+        }
+    }
+}
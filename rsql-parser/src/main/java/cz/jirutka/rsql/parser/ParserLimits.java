@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.Assert;
+import net.jcip.annotations.Immutable;
+
+/**
+ * Limits of the resources that may be consumed by parsing a single query. The parser stops as soon
+ * as any of the limits is exceeded, before the AST is built, and throws an
+ * {@link RSQLParserException} caused by a {@link LimitExceededException}.
+ *
+ * <p>All the limits are unlimited by default, use the {@code with*} methods to restrict them.
+ * </p>
+ *
+ * <pre>{@code
+ * ParserLimits limits = ParserLimits.UNLIMITED
+ *         .withMaxInputLength(4096)
+ *         .withMaxDepth(10);
+ * }</pre>
+ */
+@Immutable
+public final class ParserLimits {
+
+    /**
+     * No limits, this is the default.
+     */
+    public static final ParserLimits UNLIMITED = new ParserLimits(
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final int maxDepth;
+
+    private final int maxNodes;
+
+    private final int maxArguments;
+
+    private final int maxArgumentLength;
+
+    private final int maxInputLength;
+
+
+    private ParserLimits(int maxDepth, int maxNodes, int maxArguments, int maxArgumentLength,
+                         int maxInputLength) {
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.maxArguments = maxArguments;
+        this.maxArgumentLength = maxArgumentLength;
+        this.maxInputLength = maxInputLength;
+    }
+
+
+    /**
+     * @param maxDepth The maximum number of nested groups (parentheses). Must not be negative.
+     */
+    public ParserLimits withMaxDepth(int maxDepth) {
+        Assert.isTrue(maxDepth >= 0, "maxDepth must not be negative");
+        return new ParserLimits(maxDepth, maxNodes, maxArguments, maxArgumentLength, maxInputLength);
+    }
+
+    /**
+     * @param maxNodes The maximum number of nodes in the AST, both logical and comparison.
+     *          Must be greater than 0.
+     */
+    public ParserLimits withMaxNodes(int maxNodes) {
+        Assert.isTrue(maxNodes > 0, "maxNodes must be greater than 0");
+        return new ParserLimits(maxDepth, maxNodes, maxArguments, maxArgumentLength, maxInputLength);
+    }
+
+    /**
+     * @param maxArguments The maximum number of arguments of a single comparison. Must be greater
+     *          than 0.
+     */
+    public ParserLimits withMaxArguments(int maxArguments) {
+        Assert.isTrue(maxArguments > 0, "maxArguments must be greater than 0");
+        return new ParserLimits(maxDepth, maxNodes, maxArguments, maxArgumentLength, maxInputLength);
+    }
+
+    /**
+     * @param maxArgumentLength The maximum length of a single argument (without quotes) in
+     *          characters. Must not be negative.
+     */
+    public ParserLimits withMaxArgumentLength(int maxArgumentLength) {
+        Assert.isTrue(maxArgumentLength >= 0, "maxArgumentLength must not be negative");
+        return new ParserLimits(maxDepth, maxNodes, maxArguments, maxArgumentLength, maxInputLength);
+    }
+
+    /**
+     * @param maxInputLength The maximum length of the whole query in characters, or in bytes
+     *          when parsing a binary input. Must not be negative.
+     */
+    public ParserLimits withMaxInputLength(int maxInputLength) {
+        Assert.isTrue(maxInputLength >= 0, "maxInputLength must not be negative");
+        return new ParserLimits(maxDepth, maxNodes, maxArguments, maxArgumentLength, maxInputLength);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public int getMaxArguments() {
+        return maxArguments;
+    }
+
+    public int getMaxArgumentLength() {
+        return maxArgumentLength;
+    }
+
+    public int getMaxInputLength() {
+        return maxInputLength;
+    }
+
+
+    /**
+     * Kinds of the limits.
+     */
+    public enum Limit {
+        DEPTH ("nesting depth"),
+        NODES ("number of nodes"),
+        ARGUMENTS ("number of arguments"),
+        ARGUMENT_LENGTH ("argument length"),
+        INPUT_LENGTH ("input length");
+
+        private final String description;
+
+        private Limit(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import static cz.jirutka.rsql.parser.Lexer.*;
+
+/**
+ * Rewrites a query to a canonical textual form without parsing it. The query is tokenized and
+ * the tokens are written back with insignificant whitespaces removed, alternative logical
+ * operators (<tt>" and "</tt>, <tt>" or "</tt>) replaced by <tt>;</tt> and <tt>,</tt>, and quoted
+ * strings enclosed in single quotes (unless they contain one). Queries with the same canonical form
+ * have the same sequence of token kinds and images, so they're parsed into equal AST.
+ */
+abstract class QueryNormalizer {
+
+    /**
+     * Returns the canonical form of the query, or <tt>null</tt> if it can't be tokenized.
+     */
+    static String normalize(CharSequence query) {
+        Lexer lexer = new Lexer(query);
+        StringBuilder sb = new StringBuilder(query.length());
+        int previous = EOF;
+        String previousImage = null;
+
+        try {
+            for (int kind = lexer.next(); kind != EOF; kind = lexer.next()) {
+                String image = lexer.image();
+
+                if (needsSeparator(previous, previousImage, kind, image)) {
+                    sb.append(' ');
+                }
+                switch (kind) {
+                    case AND : sb.append(';'); break;
+                    case OR  : sb.append(','); break;
+                    case SINGLE_QUOTED_STR :
+                    case DOUBLE_QUOTED_STR :
+                        char quote = image.indexOf('\'') < 0 ? '\'' : '"';
+                        sb.append(quote).append(image).append(quote);
+                        break;
+                    default  : sb.append(image);
+                }
+                previous = kind;
+                previousImage = image;
+            }
+        } catch (ParseException ex) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Whether the two adjacent tokens would be read as a different token(s) when written without
+     * a space between them.
+     */
+    private static boolean needsSeparator(int previous, String previousImage, int kind, String image) {
+        switch (previous) {
+            case UNRESERVED_STR:
+                return kind == UNRESERVED_STR;
+            case COMP_ALT:
+                return previousImage.length() == 1 && image.startsWith("=");
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser;
+
+import cz.jirutka.rsql.ComparisonOperator;
+
+import java.util.List;
+
+/**
+ * Receiver of the events produced by {@link RSQLParser#parse(CharSequence, RSQLHandler)}. The
+ * events describe the query in the same structure as the AST, in pre-order; a logical operation
+ * starts before its first operand and ends after the last one.
+ *
+ * <p>For example, the query <tt>a==1;(b==2,c==3)</tt> produces the events:</p>
+ * <pre>{@code
+ * startAnd()
+ *   comparison("a", EQUAL, ["1"])
+ *   startOr()
+ *     comparison("b", EQUAL, ["2"])
+ *     comparison("c", EQUAL, ["3"])
+ *   end()
+ * end()
+ * }</pre>
+ *
+ * <p>The logical operations are reported only when they have at least two operands, i.e. in
+ * the same cases when the parser creates a {@link cz.jirutka.rsql.ast.LogicalNode}. When the
+ * query is syntactically invalid, the handler may receive events for the part preceding the
+ * error before the exception is thrown.</p>
+ *
+ * @see NodesBuilder
+ */
+public interface RSQLHandler {
+
+    /**
+     * Starts a logical AND of the following operands, up to the matching {@link #end()}.
+     */
+    void startAnd();
+
+    /**
+     * Starts a logical OR of the following operands, up to the matching {@link #end()}.
+     */
+    void startOr();
+
+    /**
+     * A comparison.
+     *
+     * @param selector The selector; not blank.
+     * @param operator One of the supported operators.
+     * @param arguments The arguments; not empty. When the operator is not
+     *          {@link ComparisonOperator#isMultiValue() multiValue}, it contains exactly one
+     *          argument. The list must not be retained after returning from this method.
+     */
+    void comparison(String selector, ComparisonOperator operator, List<String> arguments);
+
+    /**
+     * Ends the last started logical operation.
+     */
+    void end();
+}
@@ -26,11 +26,13 @@ package cz.jirutka.rsql.parser;
 import cz.jirutka.rsql.ComparisonOperator;
 import cz.jirutka.rsql.RSQLOperators;
 import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.ast.NodeInterner;
 import cz.jirutka.rsql.ast.NodesFactory;
 import net.jcip.annotations.Immutable;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Set;
 
@@ -68,6 +70,9 @@ import java.util.Set;
  * all-chars      = ? all unicode characters ?;
  * }</pre>
  *
+ * <p>The query may be parsed by one of two {@linkplain Engine engines}; both accept exactly the
+ * same grammar and produce equal AST. The default one is {@link Engine#JAVACC}.</p>
+ *
  * @version 2.0
  */
 @Immutable
@@ -77,12 +82,17 @@ public final class RSQLParser {
 
     private final NodesFactory nodesFactory;
 
+    private final Engine engine;
+
+    private final ParserLimits limits;
+
 
     /**
      * Creates a new instance of {@code RSQLParser} with the default set of comparison operators.
      */
     public RSQLParser() {
-        this.nodesFactory = new NodesFactory(RSQLOperators.defaultOperators());
+        this(new NodesFactory(RSQLOperators.defaultOperators()), Engine.JAVACC,
+                ParserLimits.UNLIMITED);
     }
 
     /**
@@ -96,6 +106,57 @@ public final class RSQLParser {
             throw new IllegalArgumentException("operators must not be null or empty");
         }
         this.nodesFactory = new NodesFactory(operators);
+        this.engine = Engine.JAVACC;
+        this.limits = ParserLimits.UNLIMITED;
+    }
+
+    private RSQLParser(NodesFactory nodesFactory, Engine engine, ParserLimits limits) {
+        this.nodesFactory = nodesFactory;
+        this.engine = engine;
+        this.limits = limits;
+    }
+
+
+    /**
+     * Returns a copy of this parser that uses the specified engine.
+     *
+     * @param engine Must not be <tt>null</tt>.
+     */
+    public RSQLParser withEngine(Engine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("engine must not be null");
+        }
+        return new RSQLParser(nodesFactory, engine, limits);
+    }
+
+    /**
+     * Returns a copy of this parser that enforces the specified limits.
+     *
+     * @param limits Must not be <tt>null</tt>.
+     */
+    public RSQLParser withLimits(ParserLimits limits) {
+        if (limits == null) {
+            throw new IllegalArgumentException("limits must not be null");
+        }
+        return new RSQLParser(nodesFactory, engine, limits);
+    }
+
+    /**
+     * Returns a copy of this parser that interns all the parsed nodes using the specified
+     * interner, so identical subtrees of all the parsed queries are shared.
+     *
+     * @param interner The interner to use, or <tt>null</tt> to not intern the nodes.
+     */
+    public RSQLParser withInterner(NodeInterner interner) {
+        return new RSQLParser(nodesFactory.withInterner(interner), engine, limits);
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public ParserLimits getLimits() {
+        return limits;
     }
 
     /**
@@ -109,11 +170,172 @@ public final class RSQLParser {
      * @throws IllegalArgumentException If the {@code query} is null.
      */
     public Node parse(String query) throws RSQLParserException {
+        return parse((CharSequence) query);
+    }
+
+    /**
+     * Parses the RSQL expression and returns AST.
+     *
+     * <p>The {@link Engine#DIRECT DIRECT} engine reads the characters straight from the given
+     * sequence, it's not converted to a {@code String} at all.</p>
+     *
+     * @param query The query expression to parse.
+     * @return A root of the parsed AST.
+     *
+     * @throws RSQLParserException If some exception occurred during parsing, i.e. the
+     *          {@code query} is syntactically invalid or exceeds the {@linkplain ParserLimits
+     *          limits}.
+     * @throws IllegalArgumentException If the {@code query} is null.
+     */
+    public Node parse(CharSequence query) throws RSQLParserException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        checkInputLength(query.length());
+        switch (engine) {
+            case DIRECT : return parseDirect(LexerInput.of(query));
+            default     : return parseJavaCC(query.toString());
+        }
+    }
+
+    /**
+     * Parses the UTF-8 encoded RSQL expression and returns AST.
+     *
+     * @see #parse(ByteBuffer, boolean)
+     */
+    public Node parse(byte[] query, int offset, int length) throws RSQLParserException {
         if (query == null) {
             throw new IllegalArgumentException("query must not be null");
         }
+        return parse(ByteBuffer.wrap(query, offset, length), false);
+    }
+
+    /**
+     * Parses the UTF-8 encoded RSQL expression and returns AST.
+     *
+     * @see #parse(ByteBuffer, boolean)
+     */
+    public Node parse(ByteBuffer query) throws RSQLParserException {
+        return parse(query, false);
+    }
+
+    /**
+     * Parses the UTF-8 encoded RSQL expression, that may be also percent-encoded (i.e. taken
+     * from URI as is), and returns AST. The query is read from the buffer's position to its
+     * limit; neither the buffer's content nor its position is modified.
+     *
+     * <p>The {@link Engine#DIRECT DIRECT} engine tokenizes the bytes in place, both heap and
+     * direct buffers, and decodes the percent-encoded octets and UTF-8 in the same pass; only
+     * the selectors and arguments are decoded into strings. The {@link Engine#JAVACC JAVACC}
+     * engine decodes the whole query into a {@code String} first.</p>
+     *
+     * @param query The query expression to parse.
+     * @param percentEncoded Whether to decode percent-encoded octets (<tt>%XX</tt>). Note that
+     *          <tt>+</tt> is not decoded to a space.
+     * @return A root of the parsed AST.
+     *
+     * @throws RSQLParserException If some exception occurred during parsing, i.e. the
+     *          {@code query} is syntactically invalid, contains a malformed percent-encoded
+     *          octet or exceeds the {@linkplain ParserLimits limits}.
+     * @throws IllegalArgumentException If the {@code query} is null.
+     */
+    public Node parse(ByteBuffer query, boolean percentEncoded) throws RSQLParserException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        checkInputLength(query.remaining());
+        LexerInput input = LexerInput.of(query, percentEncoded);
+
+        switch (engine) {
+            case DIRECT : return parseDirect(input);
+            default     : return parseJavaCC(decode(input));
+        }
+    }
+
+
+    /**
+     * Parses the RSQL expression and reports it to the given handler as a sequence of events,
+     * without building the AST. The events are always produced by the hand-written parser,
+     * regardless of the {@linkplain #getEngine() engine}.
+     *
+     * @param query The query expression to parse.
+     * @param handler The handler to report the query to.
+     *
+     * @throws RSQLParserException If some exception occurred during parsing, i.e. the
+     *          {@code query} is syntactically invalid or exceeds the {@linkplain ParserLimits
+     *          limits}. Exceptions thrown by the handler are wrapped as well.
+     * @throws IllegalArgumentException If the {@code query} or {@code handler} is null.
+     */
+    public void parse(CharSequence query, RSQLHandler handler) throws RSQLParserException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        checkInputLength(query.length());
+        parseEvents(LexerInput.of(query), handler);
+    }
+
+    /**
+     * Parses the UTF-8 encoded RSQL expression, that may be also percent-encoded, and reports it
+     * to the given handler as a sequence of events, without building the AST.
+     *
+     * @see #parse(ByteBuffer, boolean)
+     * @see #parse(CharSequence, RSQLHandler)
+     */
+    public void parse(ByteBuffer query, boolean percentEncoded, RSQLHandler handler)
+            throws RSQLParserException {
+        if (query == null) {
+            throw new IllegalArgumentException("query must not be null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        checkInputLength(query.remaining());
+        parseEvents(LexerInput.of(query, percentEncoded), handler);
+    }
+
+
+    private void checkInputLength(int length) {
+        try {
+            LimitsTracker.checkInputLength(limits, length);
+
+        } catch (LimitExceededException ex) {
+            throw new RSQLParserException(ex);
+        }
+    }
+
+    private Node parseDirect(LexerInput input) {
+        try {
+            return new DirectParser(input, nodesFactory, limits).parse();
+
+        } catch (Exception ex) {
+            throw new RSQLParserException(ex);
+        }
+    }
+
+    private void parseEvents(LexerInput input, RSQLHandler handler) {
+        try {
+            new EventParser(input, nodesFactory, limits, handler).parse();
+
+        } catch (Exception ex) {
+            throw new RSQLParserException(ex);
+        }
+    }
+
+    private String decode(LexerInput input) {
+        try {
+            return input.decode();
+
+        } catch (ParseException ex) {
+            throw new RSQLParserException(ex);
+        }
+    }
+
+    private Node parseJavaCC(String query) {
         InputStream is = new ByteArrayInputStream(query.getBytes(ENCODING));
-        Parser parser = new Parser(is, ENCODING.name(), nodesFactory);
+        Parser parser = new Parser(is, ENCODING.name(), nodesFactory, limits);
 
         try {
             return parser.Input();
@@ -124,4 +346,23 @@ public final class RSQLParser {
             throw new RSQLParserException(ex);
         }
     }
+
+
+    /**
+     * Implementations of the parser.
+     */
+    public enum Engine {
+
+        /**
+         * Parser generated by JavaCC from the grammar <tt>RSQLParser.jj</tt>. The query is
+         * encoded to UTF-8 and read through JavaCC's character stream.
+         */
+        JAVACC,
+
+        /**
+         * Hand-written recursive descent parser that scans the query characters (or bytes) in
+         * place and doesn't allocate anything except the resulting AST.
+         */
+        DIRECT
+    }
 }
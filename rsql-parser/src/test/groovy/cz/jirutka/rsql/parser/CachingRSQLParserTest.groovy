@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import static cz.jirutka.rsql.parser.CachingRSQLParser.KeyType.*
+
+@Unroll
+class CachingRSQLParserTest extends Specification {
+
+    def parser = new RSQLParser()
+
+
+    def 'throw exception when created with invalid arguments'() {
+        when:
+            new CachingRSQLParser(delegate, size, keyType)
+        then:
+            thrown IllegalArgumentException
+        where:
+            delegate         | size | keyType
+            null             | 10   | RAW
+            new RSQLParser() | 0    | RAW
+            new RSQLParser() | 10   | null
+    }
+
+    def 'return the same AST instance for a repeated query'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 10)
+        when:
+            def first = cache.parse('status==ACTIVE;tenant==42')
+            def second = cache.parse('status==ACTIVE;tenant==42')
+        then:
+            first == parser.parse('status==ACTIVE;tenant==42')
+            second.is(first)
+        and:
+            cache.missCount == 1
+            cache.hitCount == 1
+            cache.size() == 1
+    }
+
+    def 'cache failure of a malformed query'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 10)
+        when:
+            cache.parse('status==(')
+        then:
+            def first = thrown(RSQLParserException)
+
+        when:
+            cache.parse('status==(')
+        then:
+            def second = thrown(RSQLParserException)
+            second.is(first)
+        and:
+            cache.missCount == 1
+            cache.hitCount == 1
+    }
+
+    def 'share entry for equivalent queries with NORMALIZED keys: #query'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 10, NORMALIZED)
+            def expected = cache.parse('a==1;b=in=(x,\'y z\')')
+        expect:
+            cache.parse(query).is(expected)
+            cache.size() == 1
+        where:
+            query << [ 'a==1 and b=in=(x,"y z")', ' a==1 ;b=in=(x, \'y z\') ', 'a==1;b=in=(x or "y z")' ]
+    }
+
+    def 'do not share entry for different queries with NORMALIZED keys: #query'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 10, NORMALIZED)
+            cache.parse('a==1;b==2')
+        when:
+            cache.parse(query)
+        then:
+            cache.size() == 2
+        where:
+            query << [ 'a==1,b==2', 'a==1;b==3', 'a=ge=1;b==2', 'a==1;(b==2)' ]
+    }
+
+    def 'normalized query is parsed the same as the original one: #query'() {
+        setup:
+            def normalized = QueryNormalizer.normalize(query)
+        expect:
+            parser.parse(normalized) == parser.parse(query)
+        where:
+            query << [
+                'name=="Kill Bill" and year>2003', 'genres=in=(sci-fi,action) or director==\'Que Tarantino\'',
+                'a< =gt=b', 'a<==b', 'a> ==b', '\tsel==\tval', 'sel==val\t', 'a==x y==z', '"it\'s"',
+                'a==b ; c==d,e==f', 's==\'say "hi"\'', 's=="it\'s"' ]
+                .findAll { q -> tryParse(q) }
+    }
+
+    def 'keep frequently used queries when flooded by unique ones'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 100)
+            def hot = (1..20).collect { "hot==${it}" as String }
+        when:
+            (1..5000).each {
+                cache.parse("cold==${it}")
+                cache.parse(hot[it % hot.size()])
+            }
+        and:
+            def hitsBefore = cache.hitCount
+            hot.each { cache.parse(it) }
+        then:
+            cache.size() <= 100
+            cache.hitCount - hitsBefore == hot.size()
+    }
+
+    def 'stay within bound when accessed concurrently'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 50, NORMALIZED)
+            def executor = Executors.newFixedThreadPool(8)
+            def random = new Random(42)
+            def queries = (1..2000).collect { "sel${random.nextInt(200)}==${random.nextInt(3)}" as String }
+        when:
+            def futures = queries.collate(250).collect { batch ->
+                executor.submit({ batch.collect { cache.parse(it) } } as Callable)
+            }
+            def results = futures.collect { it.get() }.flatten()
+        then:
+            results == queries.collect { parser.parse(it) }
+            cache.size() <= 50
+            cache.hitCount + cache.missCount == 2000
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'invalidate all entries'() {
+        setup:
+            def cache = new CachingRSQLParser(parser, 10)
+            cache.parse('a==1')
+        when:
+            cache.invalidateAll()
+            cache.parse('a==1')
+        then:
+            cache.size() == 1
+            cache.missCount == 2
+    }
+
+
+    //////// Helpers ////////
+
+    static tryParse(String query) {
+        try {
+            new RSQLParser().parse(query)
+            true
+        } catch (RSQLParserException ex) {
+            false
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ast.NodesFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
+import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.parser.RSQLParser.Engine.*
+
+/**
+ * Differential test of the {@link DirectParser} against the JavaCC generated {@link Parser}.
+ */
+@Unroll
+class DirectParserTest extends Specification {
+
+    static final OPERATORS = defaultOperators() + new ComparisonOperator('=all=', true)
+
+    static final FRAGMENTS = [
+        'a', 'sel', 'x.y', 'č', '42', '*', 'and', 'or', '==', '!=', '=gt=', '=foo=', '=in=', '=all=',
+        '<', '>=', '=', '!', '~', ';', ',', ' and ', ' or ', ' ', '  ', '\t', '\n', '(', ')',
+        "'", '"', "'hi there'", '"o\'O"', "''", '=1=', '=A=' ]
+
+    def javacc = new RSQLParser(OPERATORS).withEngine(JAVACC)
+    def direct = new RSQLParser(OPERATORS).withEngine(DIRECT)
+
+
+    def 'parse the same as JavaCC: #input'() {
+        expect:
+            assertSameResult input
+        where:
+            input << [
+                'sel==val', 'sel!=val', 'sel=gt=val', 'sel>val', 'sel=ge=val', 'sel>=val', 'sel=lt=val',
+                'sel<val', 'sel=le=val', 'sel<=val', 'sel=in=(a,b)', 'sel=out=(a)', 'sel=all=(a,b,c)',
+                'sel=val', 'sel==', '==val', 'sel=foo=val', 'sel!val', 'sel~val', 'sel==(a,b)',
+                'name=="Kill Bill";year=gt=2003', "genres=in=(sci-fi,'\"action\"')", 'a<=1;b!=2;c>3',
+                'a=gt=1,b==2;c!=3,d=lt=4', 's0==a0,s1=out=(a10,a11),s2==a2', '(s0==a0,s1==a1);s2==a2',
+                '((s0==a0,s1==a1);s2==a2,s3==a3);s4==a4', '(s0==a0)', '((s0==a0));s1==a1',
+                '(s0==a0;s1!=a1', 's0==a0)', 's0==a;(s1=in=(b,c),s2!=d', '()', '', ' ', '\t',
+                'a==b and c==d', 'a==b or c==d', 'a==b  and  c==d', 'a==b and', 'a==b or',
+                'a==b and(c==d)', 'a==b\tand c==d', 'sel=in=(a or b)', 'sel=in=(a and b)',
+                ' sel==val ', '\tsel==val', 'sel\t==val', 'sel==\tval', 'sel==val\t', '\t\t',
+                'sel=="unterminated', "sel=='unterminated", 'sel==\'\'', 'sel==""',
+                'sel==«Allons-y»', 'sel==čes*ký', 'sel==3:15', 'sel==a\nb', 'a==1;;b==2', 'a==1,,b==2',
+                'a==1;', ';a==1', 'a==1,', 'sel==(a,)', 'sel=in=()', 'sel=in=(a,b', 'sel=in=a,b)',
+                '=gt=val', 'sel=Gt=val', 'sel=gT=val', 'sel==val)', 'sel"==val', "sel'==val",
+            ]
+    }
+
+    def 'parse the same as JavaCC: random queries from fragments (seed #seed)'() {
+        setup:
+            def random = new Random(seed)
+        expect:
+            1000.times {
+                def query = (1..random.nextInt(12) + 1).collect {
+                    FRAGMENTS[random.nextInt(FRAGMENTS.size())]
+                }.join('')
+                assertSameResult query
+            }
+        where:
+            seed << (1..10)
+    }
+
+    def 'parse the same as JavaCC: random generated queries (seed #seed)'() {
+        setup:
+            def random = new Random(seed)
+        expect:
+            500.times {
+                assertSameResult randomQuery(random, 0)
+            }
+        where:
+            seed << (1..10)
+    }
+
+    def 'parse the same from percent-encoded bytes as JavaCC from decoded string (seed #seed)'() {
+        setup:
+            def random = new Random(seed)
+        expect:
+            300.times {
+                def query = (1..random.nextInt(12) + 1).collect {
+                    FRAGMENTS[random.nextInt(FRAGMENTS.size())]
+                }.join('')
+                def encoded = query.collect { ch ->
+                    random.nextInt(3) == 0 ? percentEncode(ch) : ch
+                }.join('')
+                def bytes = encoded.getBytes('UTF-8')
+                def buffer = random.nextBoolean() ? ByteBuffer.wrap(bytes) : ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()
+
+                def expected = tryParse(javacc, query)
+                def actual = tryParse { direct.parse(buffer, true) }
+                assertSameResult(query, expected, actual)
+            }
+        where:
+            seed << (1..10)
+    }
+
+    def 'build the same AST from events as the parser: random queries (seed #seed)'() {
+        setup:
+            def random = new Random(seed)
+        expect:
+            300.times {
+                def query = random.nextBoolean() ? randomQuery(random, 0) : (1..random.nextInt(12) + 1).collect {
+                    FRAGMENTS[random.nextInt(FRAGMENTS.size())]
+                }.join('')
+                def builder = new NodesBuilder(new NodesFactory(OPERATORS))
+                def actual = tryParse { direct.parse(query, builder); builder.result }
+
+                assertSameResult(query, tryParse(direct, query), actual)
+            }
+        where:
+            seed << (1..10)
+    }
+
+
+    //////// Helpers ////////
+
+    def assertSameResult(String input) {
+        assertSameResult(input, tryParse(javacc, input), tryParse(direct, input))
+    }
+
+    def assertSameResult(String input, expected, actual) {
+        if (expected instanceof RSQLParserException) {
+            assert actual instanceof RSQLParserException : "expected failure for: ${input}"
+            if (expected.cause instanceof UnknownOperatorException
+                    || expected.cause instanceof IllegalArgumentException) {
+                assert actual.cause.class == expected.cause.class : "different failure for: ${input}"
+            }
+        } else {
+            assert actual == expected : "different AST for: ${input}"
+        }
+        true
+    }
+
+    def tryParse(RSQLParser parser, String input) {
+        tryParse { parser.parse(input) }
+    }
+
+    def tryParse(Closure parse) {
+        try {
+            parse()
+        } catch (RSQLParserException ex) {
+            ex
+        }
+    }
+
+    def percentEncode(String ch) {
+        ch.getBytes('UTF-8').collect { String.format('%%%02X', it & 0xFF) }.join('')
+    }
+
+    def randomQuery(Random random, int depth) {
+        def count = random.nextInt(3) + 1
+        def glue = random.nextBoolean() ? [';', ' and '] : [',', ' or ']
+        (1..count).collect {
+            if (depth < 3 && random.nextInt(4) == 0) {
+                '(' + randomQuery(random, depth + 1) + ')'
+            } else {
+                def op = ['==', '!=', '=gt=', '<', '>=', '=in=', '=out=', '=all=', '=nope='][random.nextInt(9)]
+                def args = (1..random.nextInt(3) + 1).collect { randomArgument(random) }
+                def value = args.size() > 1 || random.nextBoolean() ? "(${args.join(',')})" : args[0]
+                "sel${random.nextInt(5)}${op}${value}"
+            }
+        }.join(glue[random.nextInt(2)])
+    }
+
+    def randomArgument(Random random) {
+        switch (random.nextInt(4)) {
+            case 0: return ["'it is (x)'", "''", "'\"'"][random.nextInt(3)]
+            case 1: return ['"a;b,c"', '"it\'s"', '"'][random.nextInt(3)]
+            case 2: return '\tv' + random.nextInt(100)
+            default: return 'v' + random.nextInt(100)
+        }
+    }
+}
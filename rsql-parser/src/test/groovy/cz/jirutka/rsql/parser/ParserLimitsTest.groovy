@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.ast.NodesFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
+import static cz.jirutka.rsql.RSQLOperators.defaultOperators
+import static cz.jirutka.rsql.parser.ParserLimits.Limit.*
+import static cz.jirutka.rsql.parser.RSQLParser.Engine.*
+
+@Unroll
+class ParserLimitsTest extends Specification {
+
+    def 'throw exception when limit is set to invalid value: #method(#value)'() {
+        when:
+            ParserLimits.UNLIMITED."${method}"(value)
+        then:
+            thrown IllegalArgumentException
+        where:
+            method                   | value
+            'withMaxDepth'           | -1
+            'withMaxNodes'           | 0
+            'withMaxArguments'       | 0
+            'withMaxArgumentLength'  | -1
+            'withMaxInputLength'     | -1
+    }
+
+    def 'parse query within the limits with #engine engine: #query'() {
+        setup:
+            def parser = new RSQLParser().withEngine(engine).withLimits(limits)
+        expect:
+            parser.parse(query) == new RSQLParser().parse(query)
+        where:
+            [query, limits, engine] << [[
+                ['(a==1;(b==2,c==3))', ParserLimits.UNLIMITED.withMaxDepth(2)],
+                ['a==1;b==2,c==3',     ParserLimits.UNLIMITED.withMaxNodes(5)],
+                ['a=in=(1,2,3)',       ParserLimits.UNLIMITED.withMaxArguments(3)],
+                ['a=="abc";b==de',     ParserLimits.UNLIMITED.withMaxArgumentLength(3)],
+                ['a==1;b==2',          ParserLimits.UNLIMITED.withMaxInputLength(9)]
+            ], [JAVACC, DIRECT]].combinations().collect { it.flatten() }
+    }
+
+    def 'throw exception when #limit limit is exceeded with #engine engine: #query'() {
+        setup:
+            def parser = new RSQLParser().withEngine(engine).withLimits(limits)
+        when:
+            parser.parse(query)
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause instanceof LimitExceededException
+            ex.cause.limit == limit
+        where:
+            [query, limits, limit, engine] << [[
+                ['(a==1;(b==2,(c==3)))', ParserLimits.UNLIMITED.withMaxDepth(2), DEPTH],
+                ['(a==1)',               ParserLimits.UNLIMITED.withMaxDepth(0), DEPTH],
+                ['a==1;b==2,c==3',       ParserLimits.UNLIMITED.withMaxNodes(4), NODES],
+                ['a==1;b==2;c==3',       ParserLimits.UNLIMITED.withMaxNodes(3), NODES],
+                ['a=in=(1,2,3,4)',       ParserLimits.UNLIMITED.withMaxArguments(3), ARGUMENTS],
+                ["a=='abcd'",            ParserLimits.UNLIMITED.withMaxArgumentLength(3), ARGUMENT_LENGTH],
+                ['a=in=(x,abcd)',        ParserLimits.UNLIMITED.withMaxArgumentLength(3), ARGUMENT_LENGTH],
+                ['a==1;b==23',           ParserLimits.UNLIMITED.withMaxInputLength(9), INPUT_LENGTH]
+            ], [JAVACC, DIRECT]].combinations().collect { it.flatten() }
+    }
+
+    def 'stop at the limit before reading rest of the query with #engine engine'() {
+        setup:
+            def parser = new RSQLParser().withEngine(engine).withLimits(ParserLimits.UNLIMITED.withMaxDepth(100))
+            def query = '(' * 5000 + 'a==1' + ')' * 5000
+        when:
+            parser.parse(query)
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause.limit == DEPTH
+        where:
+            engine << [JAVACC, DIRECT]
+    }
+
+    def 'stop at the limit before creating any node with #engine parser'() {
+        setup:
+            def factory = Spy(NodesFactory, constructorArgs: [defaultOperators()])
+            def limits = ParserLimits.UNLIMITED.withMaxArguments(2)
+            def query = 'a==1;b=in=(1,2,3)'
+        when:
+            switch (engine) {
+                case 'JavaCC': new Parser(new ByteArrayInputStream(query.bytes), 'UTF-8', factory, limits).Input(); break
+                case 'direct': new DirectParser(LexerInput.of(query), factory, limits).parse(); break
+            }
+        then:
+            def ex = thrown(LimitExceededException)
+            ex.limit == ARGUMENTS
+            1 * factory.createComparisonNode(_ as ComparisonOperator, 'a', ['1'])
+            0 * factory.createLogicalNode(*_)
+        where:
+            engine << ['JavaCC', 'direct']
+    }
+
+    def 'check argument length before decoding it with direct engine'() {
+        setup:
+            def query = 'a==abcd'
+            def images = []
+            def input = new LexerInput(0, query.length()) {
+                int unitAt(int pos) { query.charAt(pos) as int }
+                int next(int pos) { pos + 1 }
+                String image(int from, int to) { images << query.substring(from, to); images.last() }
+                int length(int from, int to) { to - from }
+                int column(int pos) { pos + 1 }
+            }
+        when:
+            new DirectParser(input, new NodesFactory(defaultOperators()), ParserLimits.UNLIMITED.withMaxArgumentLength(3)).parse()
+        then:
+            def ex = thrown(LimitExceededException)
+            ex.limit == ARGUMENT_LENGTH
+            images == ['a', '==']
+    }
+
+    def 'check argument length of binary input in decoded chars: #query'() {
+        setup:
+            def parser = new RSQLParser().withEngine(DIRECT).withLimits(ParserLimits.UNLIMITED.withMaxArgumentLength(3))
+            def limit = null
+        when:
+            try {
+                parser.parse(ByteBuffer.wrap(query.getBytes('UTF-8')), true)
+            } catch (RSQLParserException ex) {
+                limit = ex.cause.limit
+            }
+        then:
+            (limit == ARGUMENT_LENGTH) == exceeded
+        where:
+            query                   | exceeded
+            'a==čšř'                | false
+            'a==čšřž'               | true
+            'a==%C4%8D%C5%A1x'      | false
+            'a==%C4%8D%C5%A1xy'     | true
+            'a==\uD83D\uDE00x'      | false
+            'a==\uD83D\uDE00xy'     | true
+    }
+
+    def 'check input length of binary input in bytes'() {
+        setup:
+            def parser = new RSQLParser().withEngine(DIRECT).withLimits(ParserLimits.UNLIMITED.withMaxInputLength(6))
+        when:
+            parser.parse(ByteBuffer.wrap('a==čč'.getBytes('UTF-8')))
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause.limit == INPUT_LENGTH
+    }
+}
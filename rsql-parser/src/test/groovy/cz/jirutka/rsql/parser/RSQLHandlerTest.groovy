@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.parser
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import cz.jirutka.rsql.ast.NodesFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.RSQLOperators.*
+
+@Unroll
+class RSQLHandlerTest extends Specification {
+
+    def parser = new RSQLParser()
+
+
+    def 'throw exception when handler is null'() {
+        when:
+            parser.parse('a==1', (RSQLHandler) null)
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'report events in pre-order: #query'() {
+        setup:
+            def handler = new RecordingHandler()
+        when:
+            parser.parse(query, handler)
+        then:
+            handler.events == expected
+        where:
+            query                            | expected
+            'a==1'                           | ['a==1']
+            'a==1;b>2'                       | ['and', 'a==1', 'b=gt=2', 'end']
+            'a==1;(b==2,c==3)'               | ['and', 'a==1', 'or', 'b==2', 'c==3', 'end', 'end']
+            'a==1;b==2,c=in=(x,y)'           | ['or', 'and', 'a==1', 'b==2', 'end', 'c=in=x,y', 'end']
+            '((a==1))'                       | ['a==1']
+            '(a==1,b==2);(c==3,d==4)'        | ['and', 'or', 'a==1', 'b==2', 'end', 'or', 'c==3', 'd==4', 'end', 'end']
+            'a=out=(x,y) or (b==1 and c==2)' | ['or', 'a=out=x,y', 'and', 'b==1', 'c==2', 'end', 'end']
+    }
+
+    def 'build the same AST from events as the parser: #query'() {
+        setup:
+            def builder = new NodesBuilder(new NodesFactory(defaultOperators()))
+        when:
+            parser.parse(query, builder)
+        then:
+            builder.result == parser.parse(query)
+        where:
+            query << [ 'name=="Kill Bill";year=gt=2003', 'genres=in=(sci-fi,action);(director==\'Nolan\',actor==*Bale)',
+                       's0==a0;(s1==a1,(s2==a2;s3==a3));s4==a4,s5==a5' ]
+    }
+
+    def 'fail for the same reason as the parser: #query'() {
+        when:
+            parser.parse(query, new RecordingHandler())
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause.class == cause
+        where:
+            query            | cause
+            'a=foo=1'        | UnknownOperatorException
+            'a==(1,2)'       | IllegalArgumentException
+            'a==1;'          | ParseException
+            '(a==1'          | ParseException
+            'a==1)'          | ParseException
+            'a=foo=1;b~2'    | UnknownOperatorException
+    }
+
+    def 'wrap exception thrown by handler'() {
+        setup:
+            def handler = Mock(RSQLHandler) {
+                comparison(*_) >> { throw new IllegalStateException('boom') }
+            }
+        when:
+            parser.parse('a==1', handler)
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause instanceof IllegalStateException
+    }
+
+    def 'enforce limits'() {
+        setup:
+            def limited = parser.withLimits(ParserLimits.UNLIMITED.withMaxDepth(1))
+        when:
+            limited.parse('((a==1))', new RecordingHandler())
+        then:
+            def ex = thrown(RSQLParserException)
+            ex.cause instanceof LimitExceededException
+    }
+
+
+    //////// Helpers ////////
+
+    static class RecordingHandler implements RSQLHandler {
+
+        def events = []
+
+        void startAnd() { events << 'and' }
+        void startOr() { events << 'or' }
+        void end() { events << 'end' }
+
+        void comparison(String selector, ComparisonOperator operator, List<String> arguments) {
+            events << selector + operator.symbol + arguments.join(',')
+        }
+    }
+}
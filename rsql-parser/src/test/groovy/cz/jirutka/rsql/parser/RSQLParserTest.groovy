@@ -29,11 +29,16 @@ import cz.jirutka.rsql.UnknownOperatorException
 import cz.jirutka.rsql.ast.AndNode
 import cz.jirutka.rsql.ast.ComparisonNode
 import cz.jirutka.rsql.ast.Node
+import cz.jirutka.rsql.ast.NodeInterner
 import cz.jirutka.rsql.ast.NodesFactory
 import cz.jirutka.rsql.ast.OrNode;
 import spock.lang.Specification
 import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
 import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.parser.RSQLParser.Engine.*
 
 @Unroll
 class RSQLParserTest extends Specification {
@@ -210,6 +215,65 @@ class RSQLParserTest extends Specification {
     }
 
 
+    def 'parse UTF-8 encoded query from #kind buffer with #engine engine'() {
+        setup:
+            def query = 'name=="Kill Bill";title=="Žluťoučký kůň",year=gt=2003'
+            def bytes = query.getBytes('UTF-8')
+            def buffer = direct ? ByteBuffer.allocateDirect(bytes.length + 4) : ByteBuffer.allocate(bytes.length + 4)
+            buffer.put('xx'.bytes).put(bytes).put('yy'.bytes).position(2).limit(bytes.length + 2)
+            def parser = new RSQLParser().withEngine(engine)
+        expect:
+            parser.parse(buffer.slice()) == parse(query)
+            parser.parse(buffer) == parse(query)
+            buffer.position() == 2
+            direct || parser.parse(buffer.array(), 2, bytes.length) == parse(query)
+        where:
+            engine << [JAVACC, DIRECT] * 2
+            direct << [false, false, true, true]
+            kind = direct ? 'direct' : 'heap'
+    }
+
+    def 'parse percent-encoded query with #engine engine: #input'() {
+        setup:
+            def parser = new RSQLParser().withEngine(engine)
+        expect:
+            parser.parse(ByteBuffer.wrap(input.getBytes('UTF-8')), true) == parse(expected)
+        where:
+            [input, expected, engine] << [[
+                ['name%3D%3D%22Kill%20Bill%22', 'name=="Kill Bill"'],
+                ['title==%C5%BDlu%c5%a5ou%C4%8Dk%C3%BD', 'title==Žluťoučký'],
+                ['a==1%20and%20b=in=%28x%2Cy%29', 'a==1 and b=in=(x,y)'],
+                ['a==b+c', 'a==b+c'],
+                ['a==%27%25%27', "a=='%'"]
+            ], [JAVACC, DIRECT]].combinations().collect { it.flatten() }
+    }
+
+    def 'throw exception for malformed percent-encoded octet with #engine engine: #input'() {
+        when:
+            new RSQLParser().withEngine(engine).parse(ByteBuffer.wrap(input.bytes), true)
+        then:
+            thrown RSQLParserException
+        where:
+            [input, engine] << [['a==%2', 'a==%', 'a==%G0', 'a=="%zz"'], [JAVACC, DIRECT]].combinations()
+    }
+
+    def 'share identical subtrees of parsed queries with #engine engine'() {
+        setup:
+            def parser = new RSQLParser().withEngine(engine).withInterner(new NodeInterner())
+        when:
+            def first = parser.parse('tenant==42;(status=in=(A,B),deleted==false)')
+            def second = parser.parse('(status=in=(A,B),deleted==false);tenant==43')
+        then:
+            first == parse('tenant==42;(status=in=(A,B),deleted==false)')
+            second.children[0].is(first.children[1])
+            parser.parse('tenant==42;(status=in=(A,B),deleted==false)').is(first)
+        and:
+            parser.parse('tenant==42').is(first.children[0])
+        where:
+            engine << [JAVACC, DIRECT]
+    }
+
+
     //////// Helpers ////////
 
     def parse(String rsql) { new RSQLParser().parse(rsql) }
@@ -21,6 +21,7 @@ package cz.jirutka.rsql.visitor.hibernate;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.metadata.ClassMetadata;
@@ -44,11 +45,10 @@ import java.util.Map;
 
 import cz.jirutka.rsql.ComparisonOperator;
 import cz.jirutka.rsql.NoArgRSQLVisitorAdapter;
-import cz.jirutka.rsql.RSQLOperators;
+import cz.jirutka.rsql.OperatorRegistry;
 import cz.jirutka.rsql.StringUtils;
 import cz.jirutka.rsql.ast.AndNode;
 import cz.jirutka.rsql.ast.ComparisonNode;
-import cz.jirutka.rsql.ast.Node;
 import cz.jirutka.rsql.ast.OrNode;
 
 public class HibernateCriterionVisitor extends NoArgRSQLVisitorAdapter<Criterion> {
@@ -228,22 +228,24 @@ public class HibernateCriterionVisitor extends NoArgRSQLVisitorAdapter<Criterion
 
     @Override
     public Criterion visit(AndNode node) {
-        List<Node> children = node.getChildren();
-        assert children.size() >= 2;
-        Criterion previous = children.get(0).accept(this);
-        for (int i = 1; i < children.size(); ++i) {
-            previous = Restrictions.and(previous, children.get(i).accept(this));
+        if (node.childCount() == 0) {
+            return Restrictions.sqlRestriction("1=1");  // see QueryOptimizer.ALWAYS_TRUE
+        }
+        Criterion previous = node.child(0).accept(this);
+        for (int i = 1; i < node.childCount(); ++i) {
+            previous = Restrictions.and(previous, node.child(i).accept(this));
         }
         return previous;
     }
 
     @Override
     public Criterion visit(OrNode node) {
-        List<Node> children = node.getChildren();
-        assert children.size() >= 2;
-        Criterion previous = children.get(0).accept(this);
-        for (int i = 1; i < children.size(); ++i) {
-            previous = Restrictions.or(previous, children.get(i).accept(this));
+        if (node.childCount() == 0) {
+            return Restrictions.sqlRestriction("1=0");  // see QueryOptimizer.ALWAYS_FALSE
+        }
+        Criterion previous = node.child(0).accept(this);
+        for (int i = 1; i < node.childCount(); ++i) {
+            previous = Restrictions.or(previous, node.child(i).accept(this));
         }
         return previous;
     }
@@ -261,9 +263,9 @@ public class HibernateCriterionVisitor extends NoArgRSQLVisitorAdapter<Criterion
         boolean isCollection = type instanceof CollectionType;
 
         String exp = getExpression(path, isCollection);
-        List<Object> arguments = new ArrayList<Object>(node.getArguments().size());
-        for (String argument : node.getArguments()) {
-            Object value = argument;
+        List<Object> arguments = new ArrayList<Object>(node.argumentCount());
+        for (int i = 0; i < node.argumentCount(); i++) {
+            Object value = node.argument(i);
             if (isPrimitive) {
                 value = ((StringRepresentableType) type).fromStringValue((String) value);
             } else if (isCustom) {
@@ -281,62 +283,75 @@ public class HibernateCriterionVisitor extends NoArgRSQLVisitorAdapter<Criterion
         assert arguments.size() >= 1;
 
         Object firstArgument = arguments.get(0);
-        if (operator.equals(RSQLOperators.EQUAL)) {
-            if (!isCollection) {
-                if (String.class.isInstance(firstArgument) && ((String) firstArgument).contains("%")) {
-                    return Restrictions.ilike(exp, firstArgument);
+        switch (operator.getId()) {
+            case OperatorRegistry.EQUAL:
+                if (!isCollection) {
+                    if (String.class.isInstance(firstArgument) && ((String) firstArgument).contains("%")) {
+                        return Restrictions.ilike(exp, firstArgument);
+                    } else {
+                        return Restrictions.eq(exp, firstArgument);
+                    }
                 } else {
-                    return Restrictions.eq(exp, firstArgument);
+                    return Restrictions.sizeEq(exp, (Integer) firstArgument);
                 }
-            } else {
-                return Restrictions.sizeEq(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.NOT_EQUAL)) {
-            if (!isCollection) {
-                if (String.class.isInstance(firstArgument) && ((String) firstArgument).contains("%")) {
-                    return Restrictions.not(Restrictions.ilike(exp, firstArgument));
+            case OperatorRegistry.NOT_EQUAL:
+                if (!isCollection) {
+                    if (String.class.isInstance(firstArgument) && ((String) firstArgument).contains("%")) {
+                        return Restrictions.not(Restrictions.ilike(exp, firstArgument));
+                    } else {
+                        return Restrictions.ne(exp, firstArgument);
+                    }
                 } else {
-                    return Restrictions.ne(exp, firstArgument);
+                    return Restrictions.sizeNe(exp, (Integer) firstArgument);
+                }
+            case OperatorRegistry.GREATER_THAN:
+                if (!isCollection) {
+                    return Restrictions.gt(exp, firstArgument);
+                } else {
+                    return Restrictions.sizeGt(exp, (Integer) firstArgument);
+                }
+            case OperatorRegistry.GREATER_THAN_OR_EQUAL:
+                if (!isCollection) {
+                    return Restrictions.ge(exp, firstArgument);
+                } else {
+                    return Restrictions.sizeGe(exp, (Integer) firstArgument);
+                }
+            case OperatorRegistry.LESS_THAN:
+                if (!isCollection) {
+                    return Restrictions.lt(exp, firstArgument);
+                } else {
+                    return Restrictions.sizeLt(exp, (Integer) firstArgument);
+                }
+            case OperatorRegistry.LESS_THAN_OR_EQUAL:
+                if (!isCollection) {
+                    return Restrictions.le(exp, firstArgument);
+                } else {
+                    return Restrictions.sizeLe(exp, (Integer) firstArgument);
+                }
+            case OperatorRegistry.IN:
+                if (!isCollection) {
+                    return Restrictions.in(exp, arguments);
+                } else {
+                    return sizeIn(exp, arguments);
+                }
+            case OperatorRegistry.NOT_IN:
+                if (!isCollection) {
+                    return Restrictions.not(Restrictions.in(exp, arguments));
+                } else {
+                    return Restrictions.not(sizeIn(exp, arguments));
                 }
-            } else {
-                return Restrictions.sizeNe(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.GREATER_THAN)) {
-            if (!isCollection) {
-                return Restrictions.gt(exp, firstArgument);
-            } else {
-                return Restrictions.sizeGt(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.GREATER_THAN_OR_EQUAL)) {
-            if (!isCollection) {
-                return Restrictions.ge(exp, firstArgument);
-            } else {
-                return Restrictions.sizeGe(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.LESS_THAN)) {
-            if (!isCollection) {
-                return Restrictions.lt(exp, firstArgument);
-            } else {
-                return Restrictions.sizeLt(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.LESS_THAN_OR_EQUAL)) {
-            if (!isCollection) {
-                return Restrictions.le(exp, firstArgument);
-            } else {
-                return Restrictions.sizeLe(exp, (Integer) firstArgument);
-            }
-        } else if (operator.equals(RSQLOperators.IN)) {
-            if (!isCollection) {
-                return Restrictions.in(exp, arguments);
-            }
-        } else if (operator.equals(RSQLOperators.NOT_IN)) {
-            if (!isCollection) {
-                return Restrictions.not(Restrictions.in(exp, arguments));
-            }
         }
         throw new IllegalArgumentException("Unknown operation " + operator.toString() + " for property" + name);
     }
 
+    private static Criterion sizeIn(String exp, List<Object> sizes) {
+        Disjunction disjunction = Restrictions.disjunction();
+        for (Object size : sizes) {
+            disjunction.add(Restrictions.sizeEq(exp, (Integer) size));
+        }
+        return disjunction;
+    }
+
     public static String toSqlWildcardString(String value) {
         if (value.startsWith("*")) {
             value = "%" + value.substring(1);
@@ -171,7 +171,10 @@ public abstract class AbstractHibernateVisitorTest extends Assert {
     }
 
     protected List<Book> queryBooks(String expression) throws Exception {
-        Node parse = PARSER.parse(expression);
+        return queryBooks(PARSER.parse(expression));
+    }
+
+    protected List<Book> queryBooks(Node parse) throws Exception {
         HibernateCriterionVisitor jpa = new HibernateCriterionVisitor(session, Book.class);
         Criterion criterion = parse.accept(jpa);
         Criteria query = jpa.createCriteria(criterion, null);
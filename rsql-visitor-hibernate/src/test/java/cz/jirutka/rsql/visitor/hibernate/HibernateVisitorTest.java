@@ -20,8 +20,14 @@ package cz.jirutka.rsql.visitor.hibernate;
 
 import org.junit.Test;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import cz.jirutka.rsql.ast.Node;
+import cz.jirutka.rsql.ast.QueryOptimizer;
+import cz.jirutka.rsql.ast.QueryOptimizer.Rule;
+import cz.jirutka.rsql.parser.RSQLParser;
 import cz.jirutka.rsql.visitor.hibernate.persistence.Book;
 
 public class HibernateVisitorTest extends AbstractHibernateVisitorTest {
@@ -209,4 +215,42 @@ public class HibernateVisitorTest extends AbstractHibernateVisitorTest {
         assertTrue(9 == books.get(0).getId() && 11 == books.get(1).getId()
                 || 11 == books.get(0).getId() && 9 == books.get(1).getId());
     }
+
+    @Test
+    public void testNumberOfReviewsIn() throws Exception {
+        assertEquals(3, queryBooks("reviews=in=(1,2,3)").size());
+        assertEquals(0, queryBooks("reviews=out=(1,2,3)").size());
+    }
+
+    @Test
+    public void testOptimizedQuery() throws Exception {
+        QueryOptimizer optimizer = new QueryOptimizer();
+        String[] queries = {
+            "id==9,id==10,(id==11,bookTitle==num9)", "id=gt=5;id=ge=9;id=lt=12", "id!=9;id!=11;id!=9",
+            "reviews==1,reviews==2,reviews==3", "id=lt=9,id=le=9,(bookTitle==num1*;id=gt=10)"
+        };
+        for (String query : queries) {
+            Node node = new RSQLParser().parse(query);
+            assertFalse(query, optimizer.optimize(node).equals(node));
+            assertEquals(query, idsOf(queryBooks(node)), idsOf(queryBooks(optimizer.optimize(node))));
+        }
+    }
+
+    @Test
+    public void testAlwaysFalseAndTrueQuery() throws Exception {
+        Node node = new QueryOptimizer().withRule(Rule.DETECT_CONTRADICTIONS, true)
+                .optimize(new RSQLParser().parse("id==10;(id==11,id==12)"));
+        assertSame(QueryOptimizer.ALWAYS_FALSE, node);
+        assertEquals(0, queryBooks(node).size());
+        assertEquals(3, queryBooks(QueryOptimizer.ALWAYS_TRUE).size());
+    }
+
+
+    private static Set<Integer> idsOf(List<Book> books) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        return ids;
+    }
 }
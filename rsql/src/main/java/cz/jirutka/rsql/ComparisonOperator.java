@@ -38,6 +38,8 @@ public final class ComparisonOperator {
 
     private final boolean multiValue;
 
+    private final int id;
+
 
     /**
      * @param symbols Textual representation of this operator (e.g. <tt>=gt=</tt>); the first item
@@ -56,6 +58,7 @@ public final class ComparisonOperator {
         }
         this.multiValue = multiValue;
         this.symbols = symbols.clone();
+        this.id = OperatorRegistry.register(this.symbols[0]);
     }
 
     /**
@@ -102,6 +105,14 @@ public final class ComparisonOperator {
         return multiValue;
     }
 
+    /**
+     * Returns the dense id of this operator assigned by the {@link OperatorRegistry}. Equal
+     * operators have the same id.
+     */
+    public int getId() {
+        return id;
+    }
+
 
     /**
      * Whether the given string can represent an operator.
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql;
+
+import cz.jirutka.rsql.ast.AndNode;
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.OrNode;
+
+/**
+ * An adapter that lets a {@link RSQLFoldVisitor} be used as a {@link RSQLVisitor}. When a logical
+ * node accepts it, the whole subtree is folded by {@link RSQLTraversal} instead of recursion.
+ *
+ * <p>An existing visitor opts in by extending this class and implementing
+ * {@link #combine(cz.jirutka.rsql.ast.LogicalNode, java.util.List, Object) combine()} with the
+ * already computed children results, instead of visiting the children by itself.</p>
+ *
+ * @param <R> Return type of the visitor's methods.
+ * @param <A> Type of an optional parameter passed to the visitor's methods.
+ */
+public abstract class FoldingRSQLVisitorAdapter<R, A> implements RSQLVisitor<R, A>, RSQLFoldVisitor<R, A> {
+
+    public R visit(AndNode node, A param) {
+        return RSQLTraversal.fold(node, this, param);
+    }
+
+    public R visit(OrNode node, A param) {
+        return RSQLTraversal.fold(node, this, param);
+    }
+
+    public R visit(ComparisonNode node, A param) {
+        return visitLeaf(node, param);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry that assigns a dense {@code int} id to each {@link ComparisonOperator}, so the
+ * operators can be dispatched by a <tt>switch</tt> or a lookup table instead of comparing
+ * symbols. The id is assigned when the operator is created and it's available through
+ * {@link ComparisonOperator#getId()}.
+ *
+ * <p>Operators are identified by their primary symbol, same as in
+ * {@link ComparisonOperator#equals(Object)}; equal operators have the same id. The
+ * {@linkplain RSQLOperators default operators} have fixed ids given by the constants of this
+ * class, custom operators are numbered from {@link #BUILTIN_COUNT} in the order they are
+ * created. The ids are unique within the JVM, but not stable across JVMs.</p>
+ *
+ * <pre>{@code
+ * switch (node.getOperator().getId()) {
+ *     case OperatorRegistry.EQUAL: ...
+ *     case OperatorRegistry.IN: ...
+ * }
+ * }</pre>
+ */
+@ThreadSafe
+public final class OperatorRegistry {
+
+    public static final int
+            EQUAL = 0,
+            NOT_EQUAL = 1,
+            GREATER_THAN = 2,
+            GREATER_THAN_OR_EQUAL = 3,
+            LESS_THAN = 4,
+            LESS_THAN_OR_EQUAL = 5,
+            IN = 6,
+            NOT_IN = 7;
+
+    /**
+     * The number of the default operators, i.e. the first id of a custom operator.
+     */
+    public static final int BUILTIN_COUNT = 8;
+
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    @GuardedBy("ids")
+    private static volatile int size;
+
+    static {
+        String[] builtins = { "==", "!=", "=gt=", "=ge=", "=lt=", "=le=", "=in=", "=out=" };
+        for (String symbol : builtins) {
+            register(symbol);
+        }
+    }
+
+
+    private OperatorRegistry() {
+    }
+
+
+    /**
+     * Returns id of the operator with the given primary symbol, or <tt>-1</tt> if no such
+     * operator has been created yet.
+     */
+    public static int idOf(String symbol) {
+        Integer id = ids.get(symbol);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the number of the assigned ids, i.e. the size of a lookup table indexed by the id
+     * that covers all the operators created so far.
+     */
+    public static int size() {
+        return size;
+    }
+
+    /**
+     * Returns id of the operator with the given primary symbol, assigns a new one if needed.
+     */
+    static int register(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(symbol);
+            if (id == null) {
+                id = size;
+                ids.put(symbol, id);
+                size = id + 1;
+            }
+            return id;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql;
+
+import java.util.List;
+
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+
+/**
+ * A visitor that computes a result of the AST bottom-up, without descending into the children
+ * by itself. It's driven by {@link RSQLTraversal#fold(cz.jirutka.rsql.ast.Node, RSQLFoldVisitor,
+ * Object)}, which walks the tree with an explicit stack, so the depth of the tree is not limited
+ * by the thread's stack size.
+ *
+ * @param <R> Return type of the visitor's methods.
+ * @param <A> Type of an optional parameter passed to the visitor's methods.
+ */
+public interface RSQLFoldVisitor<R, A> {
+
+    /**
+     * Computes the result of a leaf of the tree.
+     */
+    R visitLeaf(ComparisonNode node, A param);
+
+    /**
+     * Combines the results of the node's children into the result of the node.
+     *
+     * @param node The logical node whose children have been visited.
+     * @param results An unmodifiable view of the children results, in the order of the children.
+     *                It's valid only during this call, so it must not be kept.
+     * @param param An optional parameter.
+     */
+    R combine(LogicalNode node, List<R> results, A param);
+}
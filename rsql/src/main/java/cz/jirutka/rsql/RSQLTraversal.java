@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Traversal of the AST that uses an explicit stack on the heap instead of recursion. Unlike
+ * {@link Node#accept(RSQLVisitor, Object)}, it can handle trees of any depth and it calls just
+ * two or three monomorphic methods of the given visitor, which the JIT can inline.
+ */
+public final class RSQLTraversal {
+
+    private static final int INITIAL_DEPTH = 16;
+
+
+    private RSQLTraversal() {
+    }
+
+
+    /**
+     * Walks the tree and calls the callback for each node in the specified order.
+     *
+     * @param root The root of the tree to walk. Must not be <tt>null</tt>.
+     * @param order The order in which to visit the nodes. Must not be <tt>null</tt>.
+     * @param callback Must not be <tt>null</tt>.
+     *
+     * @throws IllegalArgumentException If some of the arguments is null, or the tree contains
+     *          an unknown type of node.
+     */
+    public static void walk(Node root, Order order, Callback callback) {
+        Assert.notNull(root, "root must not be null");
+        Assert.notNull(order, "order must not be null");
+        Assert.notNull(callback, "callback must not be null");
+
+        if (!(root instanceof LogicalNode)) {
+            callback.visit(checkLeaf(root));
+            return;
+        }
+        Stack stack = new Stack((LogicalNode) root);
+        if (order == Order.PRE_ORDER) {
+            callback.visit(root);
+        }
+        while (stack.depth > 0) {
+            LogicalNode top = stack.top();
+            int index = stack.next[stack.depth - 1]++;
+
+            if (index < top.childCount()) {
+                if (order == Order.IN_ORDER && index > 0) {
+                    callback.visit(top);
+                }
+                Node child = top.child(index);
+
+                if (child instanceof LogicalNode) {
+                    stack.push((LogicalNode) child, 0);
+                    if (order == Order.PRE_ORDER) {
+                        callback.visit(child);
+                    }
+                } else {
+                    callback.visit(checkLeaf(child));
+                }
+            } else {
+                stack.pop();
+                if (order == Order.POST_ORDER || (order == Order.IN_ORDER && top.childCount() < 2)) {
+                    callback.visit(top);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a result of the tree bottom-up (in post-order) using the given visitor.
+     *
+     * @param root The root of the tree to fold. Must not be <tt>null</tt>.
+     * @param visitor Must not be <tt>null</tt>.
+     * @param param An optional parameter to pass to the visitor.
+     * @return The result of the root node, as returned by the visitor.
+     *
+     * @throws IllegalArgumentException If the root or the visitor is null, or the tree contains
+     *          an unknown type of node.
+     */
+    public static <R, A> R fold(Node root, RSQLFoldVisitor<R, A> visitor, A param) {
+        Assert.notNull(root, "root must not be null");
+        Assert.notNull(visitor, "visitor must not be null");
+
+        if (!(root instanceof LogicalNode)) {
+            return visitor.visitLeaf(checkLeaf(root), param);
+        }
+        List<R> results = new ArrayList<R>();
+        Stack stack = new Stack((LogicalNode) root);
+
+        while (stack.depth > 0) {
+            LogicalNode top = stack.top();
+            int index = stack.next[stack.depth - 1]++;
+
+            if (index < top.childCount()) {
+                Node child = top.child(index);
+
+                if (child instanceof LogicalNode) {
+                    stack.push((LogicalNode) child, results.size());
+                } else {
+                    results.add(visitor.visitLeaf(checkLeaf(child), param));
+                }
+            } else {
+                List<R> childResults = results.subList(stack.pop(), results.size());
+                R result = visitor.combine(top, unmodifiableList(childResults), param);
+                childResults.clear();
+                results.add(result);
+            }
+        }
+        return results.get(0);
+    }
+
+
+    private static ComparisonNode checkLeaf(Node node) {
+        if (node instanceof ComparisonNode) {
+            return (ComparisonNode) node;
+        }
+        throw new IllegalArgumentException("Unknown node type: " + node.getClass());
+    }
+
+
+    /**
+     * The order in which {@link #walk(Node, Order, Callback)} visits the nodes.
+     */
+    public enum Order {
+
+        /**
+         * A logical node is visited before its children.
+         */
+        PRE_ORDER,
+
+        /**
+         * A logical node is visited after its children.
+         */
+        POST_ORDER,
+
+        /**
+         * A logical node is visited between each two of its children, i.e. as many times as
+         * its operator appears in the textual form of the query. A node with less than two
+         * children is visited once, after its children.
+         */
+        IN_ORDER
+    }
+
+    /**
+     * Callback for {@link #walk(Node, Order, Callback)}.
+     */
+    public interface Callback {
+
+        void visit(Node node);
+    }
+
+
+    /**
+     * Stack of the logical nodes being visited with the index of the next child to visit and
+     * an arbitrary mark.
+     */
+    private static final class Stack {
+
+        LogicalNode[] nodes = new LogicalNode[INITIAL_DEPTH];
+        int[] next = new int[INITIAL_DEPTH];
+        int[] marks = new int[INITIAL_DEPTH];
+        int depth;
+
+        Stack(LogicalNode root) {
+            push(root, 0);
+        }
+
+        LogicalNode top() {
+            return nodes[depth - 1];
+        }
+
+        void push(LogicalNode node, int mark) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+                marks = Arrays.copyOf(marks, depth * 2);
+            }
+            nodes[depth] = node;
+            next[depth] = 0;
+            marks[depth] = mark;
+            depth++;
+        }
+
+        /**
+         * Removes the top node and returns its mark.
+         */
+        int pop() {
+            nodes[--depth] = null;
+            return marks[depth];
+        }
+    }
+}
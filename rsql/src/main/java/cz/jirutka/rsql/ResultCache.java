@@ -0,0 +1,614 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql;
+
+import cz.jirutka.rsql.ast.ComparisonNode;
+import cz.jirutka.rsql.ast.LogicalNode;
+import cz.jirutka.rsql.ast.Node;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static cz.jirutka.rsql.RSQLOperators.IN;
+import static cz.jirutka.rsql.RSQLOperators.NOT_IN;
+
+/**
+ * Cache of query results keyed by the {@linkplain #canonicalize(Node) canonical form} of the
+ * query, so equivalent queries that differ only in the order of operands share the same entry.
+ *
+ * <p>The entries are indexed by the selectors the query refers to; when the data of a selector
+ * changes, {@link #invalidateSelector(String)} evicts just the entries that refer to it. The
+ * cache is bounded by the total weight of the entries (by default, each entry weighs 1); when
+ * it's exceeded, the least recently used entries are evicted. Each entry expires after its
+ * time to live; an expired entry is removed when it's read, or when it's evicted as the least
+ * recently used one.</p>
+ *
+ * <p>When a result is {@linkplain #get(Node, Callable) loaded} by the cache, concurrent requests
+ * for an equivalent query wait for the single load instead of hitting the data store again. A
+ * result loaded while a selector of the query has been invalidated is returned, but not cached;
+ * the requests that come after the invalidation don't wait for such a load, but start a new
+ * one.</p>
+ *
+ * @param <R> Type of the cached results.
+ */
+@ThreadSafe
+public final class ResultCache<R> {
+
+    private final long maximumWeight;
+
+    private final Weigher<? super R> weigher;
+
+    private final long defaultTimeToLive;
+
+    private final Ticker ticker;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private final LinkedHashMap<Node, Entry<R>> entries = new LinkedHashMap<Node, Entry<R>>(16, 0.75f, true);
+
+    @GuardedBy("lock")
+    private final Map<String, Set<Node>> entriesBySelector = new HashMap<String, Set<Node>>();
+
+    /**
+     * The sequence number of the last invalidation of each selector.
+     */
+    @GuardedBy("lock")
+    private final Map<String, Long> invalidations = new HashMap<String, Long>();
+
+    /**
+     * The sequence number of the last invalidation of all the entries.
+     */
+    @GuardedBy("lock")
+    private long invalidatedAll;
+
+    @GuardedBy("lock")
+    private long sequence;
+
+    @GuardedBy("lock")
+    private long weight;
+
+    @GuardedBy("lock")
+    private long hitCount, missCount, evictionCount;
+
+    /**
+     * The loads in progress that started after the last invalidation of the query.
+     */
+    private final ConcurrentMap<Node, FutureTask<R>> loads = new ConcurrentHashMap<Node, FutureTask<R>>();
+
+
+    /**
+     * Creates a new cache that holds at most {@code maximumSize} entries.
+     *
+     * @see #ResultCache(long, Weigher, long, TimeUnit)
+     */
+    public ResultCache(long maximumSize, long timeToLive, TimeUnit unit) {
+        this(maximumSize, null, timeToLive, unit);
+    }
+
+    /**
+     * @param maximumWeight The maximum total weight of the entries. Must be greater than 0.
+     * @param weigher Computes the weight of an entry, e.g. the estimated size of the result in
+     *          bytes; or <tt>null</tt> to weigh each entry 1.
+     * @param timeToLive The default time after which an entry expires. Must be greater than 0.
+     * @param unit The unit of {@code timeToLive}. Must not be <tt>null</tt>.
+     */
+    public ResultCache(long maximumWeight, Weigher<? super R> weigher, long timeToLive, TimeUnit unit) {
+        this(maximumWeight, weigher, timeToLive, unit, Ticker.SYSTEM);
+    }
+
+    ResultCache(long maximumWeight, Weigher<? super R> weigher, long timeToLive, TimeUnit unit, Ticker ticker) {
+        Assert.isTrue(maximumWeight > 0, "maximumWeight must be greater than 0");
+        Assert.isTrue(timeToLive > 0, "timeToLive must be greater than 0");
+        Assert.notNull(unit, "unit must not be null");
+
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.defaultTimeToLive = unit.toNanos(timeToLive);
+        this.ticker = ticker;
+    }
+
+
+    /**
+     * Returns the cached result of an equivalent query, or <tt>null</tt> if there's none or it
+     * has expired.
+     *
+     * @param query Must not be <tt>null</tt>.
+     */
+    public R get(Node query) {
+        return getCanonical(canonicalize(query));
+    }
+
+    /**
+     * Returns the cached result of an equivalent query, or loads it by the loader and caches it.
+     * When an equivalent query is being loaded by another thread, waits for its result.
+     *
+     * @param query Must not be <tt>null</tt>.
+     * @param loader Loads the result of the query. Must not be <tt>null</tt>. If it returns
+     *          <tt>null</tt>, nothing is cached.
+     * @throws Exception The exception thrown by the loader.
+     */
+    public R get(Node query, final Callable<? extends R> loader) throws Exception {
+        Assert.notNull(loader, "loader must not be null");
+
+        final Node key = canonicalize(query);
+        R result = getCanonical(key);
+        if (result != null) {
+            return result;
+        }
+        final long startSequence = currentSequence();
+
+        FutureTask<R> load = new FutureTask<R>(new Callable<R>() {
+            public R call() throws Exception {
+                R loaded = loader.call();
+                if (loaded != null) {
+                    putCanonical(key, loaded, defaultTimeToLive, startSequence);
+                }
+                return loaded;
+            }
+        });
+        FutureTask<R> existing = loads.putIfAbsent(key, load);
+        if (existing == null) {
+            try {
+                load.run();
+            } finally {
+                loads.remove(key, load);
+            }
+        } else {
+            load = existing;
+        }
+        try {
+            return load.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    /**
+     * Caches the result of the query with the default time to live.
+     *
+     * @param query Must not be <tt>null</tt>.
+     * @param result Must not be <tt>null</tt>.
+     */
+    public void put(Node query, R result) {
+        put(query, result, defaultTimeToLive, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Caches the result of the query with the specified time to live.
+     *
+     * @param query Must not be <tt>null</tt>.
+     * @param result Must not be <tt>null</tt>.
+     * @param timeToLive Must be greater than 0.
+     * @param unit Must not be <tt>null</tt>.
+     */
+    public void put(Node query, R result, long timeToLive, TimeUnit unit) {
+        Assert.notNull(result, "result must not be null");
+        Assert.isTrue(timeToLive > 0, "timeToLive must be greater than 0");
+        Assert.notNull(unit, "unit must not be null");
+
+        putCanonical(canonicalize(query), result, unit.toNanos(timeToLive), Long.MAX_VALUE);
+    }
+
+    /**
+     * Evicts all the entries of queries that refer to the selector.
+     *
+     * @return The number of evicted entries.
+     */
+    public int invalidateSelector(String selector) {
+        Assert.notNull(selector, "selector must not be null");
+
+        lock.lock();
+        try {
+            invalidations.put(selector, ++sequence);
+
+            for (Map.Entry<Node, FutureTask<R>> load : loads.entrySet()) {
+                if (selectorsOf(load.getKey()).contains(selector)) {
+                    loads.remove(load.getKey(), load.getValue());  // it may load a stale result
+                }
+            }
+
+            Set<Node> keys = entriesBySelector.get(selector);
+            if (keys == null) {
+                return 0;
+            }
+            int count = 0;
+            for (Node key : new ArrayList<Node>(keys)) {
+                removeEntry(key);
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the entry of an equivalent query, if any.
+     */
+    public void invalidate(Node query) {
+        Node key = canonicalize(query);
+        lock.lock();
+        try {
+            removeEntry(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts all the entries. The statistics are not reset.
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            invalidatedAll = ++sequence;
+            loads.clear();  // they may load stale results
+            entries.clear();
+            entriesBySelector.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current number of entries, including the expired ones that have not been
+     * evicted yet.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current total weight of the entries.
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Returns the number of lookups that have been answered from the cache.
+     */
+    public long getHitCount() {
+        lock.lock();
+        try {
+            return hitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that have not found a live entry.
+     */
+    public long getMissCount() {
+        lock.lock();
+        try {
+            return missCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to keep the weight in bounds.
+     */
+    public long getEvictionCount() {
+        lock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Returns the canonical form of the query: the children of each logical node are sorted and
+     * deduplicated, and so are the arguments of <tt>=in=</tt> and <tt>=out=</tt>. Queries that
+     * differ only in these aspects have equal canonical forms.
+     *
+     * @param query Must not be <tt>null</tt>.
+     */
+    public static Node canonicalize(Node query) {
+        Assert.notNull(query, "query must not be null");
+
+        return RSQLTraversal.fold(query, new RSQLFoldVisitor<Node, Void>() {
+            public Node visitLeaf(ComparisonNode node, Void param) {
+                ComparisonOperator op = node.getOperator();
+                if ((op == IN || op == NOT_IN) && node.argumentCount() > 1) {
+                    List<String> arguments = new ArrayList<String>(new TreeSet<String>(node.arguments()));
+                    if (!arguments.equals(node.arguments())) {
+                        return new ComparisonNode(op, node.getSelector(), arguments);
+                    }
+                }
+                return node;
+            }
+            public Node combine(LogicalNode node, List<Node> results, Void param) {
+                List<Node> children = new ArrayList<Node>(results);
+                Collections.sort(children, NODE_ORDER);
+                for (int i = children.size() - 1; i > 0; i--) {
+                    if (children.get(i).equals(children.get(i - 1))) {
+                        children.remove(i);
+                    }
+                }
+                return children.equals(node.children()) ? node : node.withChildren(children);
+            }
+        }, null);
+    }
+
+
+    private R getCanonical(Node key) {
+        lock.lock();
+        try {
+            Entry<R> entry = entries.get(key);
+            if (entry != null && entry.expiresAt - ticker.read() <= 0) {
+                removeEntry(key);
+                entry = null;
+            }
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return entry.result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches the result, unless some selector of the query has been invalidated after the
+     * given sequence number.
+     */
+    private void putCanonical(Node key, R result, long timeToLive, long startSequence) {
+        Set<String> selectors = selectorsOf(key);
+        long entryWeight = weigher != null ? weigher.weigh(key, result) : 1;
+        Assert.isTrue(entryWeight >= 0, "weight must not be negative");
+
+        lock.lock();
+        try {
+            if (invalidatedAll > startSequence) {
+                return;  // the result may be stale
+            }
+            for (String selector : selectors) {
+                Long invalidated = invalidations.get(selector);
+                if (invalidated != null && invalidated > startSequence) {
+                    return;  // the result may be stale
+                }
+            }
+            removeEntry(key);
+            if (entryWeight > maximumWeight) {
+                return;
+            }
+            entries.put(key, new Entry<R>(result, selectors, entryWeight, ticker.read() + timeToLive));
+            weight += entryWeight;
+
+            for (String selector : selectors) {
+                Set<Node> keys = entriesBySelector.get(selector);
+                if (keys == null) {
+                    keys = new HashSet<Node>();
+                    entriesBySelector.put(selector, keys);
+                }
+                keys.add(key);
+            }
+            evict();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the weight is in bounds. It doesn't look for
+     * the expired entries elsewhere, so it costs just the number of the removed entries.
+     */
+    @GuardedBy("lock")
+    private void evict() {
+        if (weight <= maximumWeight) {
+            return;
+        }
+        long now = ticker.read();
+        for (Iterator<Map.Entry<Node, Entry<R>>> it = entries.entrySet().iterator(); weight > maximumWeight; ) {
+            Map.Entry<Node, Entry<R>> entry = it.next();
+            it.remove();
+            unindex(entry.getKey(), entry.getValue());
+
+            if (entry.getValue().expiresAt - now > 0) {
+                evictionCount++;
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void removeEntry(Node key) {
+        Entry<R> entry = entries.remove(key);
+        if (entry != null) {
+            unindex(key, entry);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void unindex(Node key, Entry<R> entry) {
+        weight -= entry.weight;
+        for (String selector : entry.selectors) {
+            Set<Node> keys = entriesBySelector.get(selector);
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                entriesBySelector.remove(selector);
+            }
+        }
+    }
+
+    private long currentSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Set<String> selectorsOf(Node query) {
+        final Set<String> selectors = new HashSet<String>();
+        RSQLTraversal.walk(query, RSQLTraversal.Order.PRE_ORDER, new RSQLTraversal.Callback() {
+            public void visit(Node node) {
+                if (node instanceof ComparisonNode) {
+                    selectors.add(((ComparisonNode) node).getSelector());
+                }
+            }
+        });
+        return selectors;
+    }
+
+
+    /**
+     * A total order of the nodes: comparisons first, then AND and OR nodes; comparisons by the
+     * selector, operator and arguments, logical nodes by the number of children and then the
+     * children.
+     */
+    private static final Comparator<Node> NODE_ORDER = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            int result = rank(a) - rank(b);
+            if (result != 0) {
+                return result;
+            }
+            if (a instanceof ComparisonNode) {
+                ComparisonNode x = (ComparisonNode) a, y = (ComparisonNode) b;
+                result = x.getSelector().compareTo(y.getSelector());
+                if (result == 0) {
+                    result = x.getOperator().getSymbol().compareTo(y.getOperator().getSymbol());
+                }
+                if (result == 0) {
+                    result = compareLists(x.arguments(), y.arguments(), null);
+                }
+                return result;
+            }
+            return compareLists(((LogicalNode) a).children(), ((LogicalNode) b).children(), this);
+        }
+
+        private int rank(Node node) {
+            if (node instanceof ComparisonNode) {
+                return 0;
+            }
+            return ((LogicalNode) node).getOperator() == LogicalOperator.AND ? 1 : 2;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> int compareLists(List<T> a, List<T> b, Comparator<T> comparator) {
+            if (a.size() != b.size()) {
+                return a.size() < b.size() ? -1 : 1;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                int result = comparator != null
+                        ? comparator.compare(a.get(i), b.get(i))
+                        : ((Comparable<T>) a.get(i)).compareTo(b.get(i));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    };
+
+
+    /**
+     * Computes the weight of a cache entry.
+     */
+    public interface Weigher<R> {
+
+        /**
+         * @param query The canonical form of the query.
+         * @param result The result of the query.
+         * @return The weight of the entry; must not be negative.
+         */
+        long weigh(Node query, R result);
+    }
+
+    /**
+     * Source of the time in nanoseconds, replaceable in tests.
+     */
+    interface Ticker {
+
+        Ticker SYSTEM = new Ticker() {
+            public long read() {
+                return System.nanoTime();
+            }
+        };
+
+        long read();
+    }
+
+    private static final class Entry<R> {
+
+        final R result;
+        final Set<String> selectors;
+        final long weight;
+        final long expiresAt;
+
+        Entry(R result, Set<String> selectors, long weight, long expiresAt) {
+            this.result = result;
+            this.selectors = selectors;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
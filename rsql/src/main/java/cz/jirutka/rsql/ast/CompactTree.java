@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact representation of the AST, suitable for keeping a lot of parsed queries in memory.
+ * Instead of a graph of node objects, the whole tree is encoded in pre-order into a single
+ * {@code int} array, with all the distinct strings and operators stored only once in tables.
+ *
+ * <p>The nodes are addressed by their position in the array, the root node is at
+ * {@link #ROOT}. A logical node is encoded as two ints; the operator with the number of
+ * children, and the length of its subtree. It's followed by its children. A comparison node is
+ * encoded as the number of arguments, an index of the operator, an index of the selector and
+ * indexes of the arguments. Thus a comparison with single argument takes just 16 bytes.</p>
+ *
+ * <p>The tree can be traversed by a {@link Visitor} similar to the
+ * {@link cz.jirutka.rsql.RSQLVisitor}, without creating any objects, or converted back to
+ * the {@link Node}s.</p>
+ *
+ * <pre>{@code
+ * CompactTree tree = new CompactTree(rootNode);
+ *
+ * if (tree.isLogical(ROOT)) {
+ *     int child = tree.firstChild(ROOT);
+ *     for (int i = 0; i < tree.childCount(ROOT); i++, child = tree.nextSibling(child)) {
+ *         if (tree.isComparison(child)) {
+ *             System.out.println(tree.getSelector(child));
+ *         }
+ *     }
+ * }
+ * }</pre>
+ */
+@Immutable
+public final class CompactTree {
+
+    /**
+     * Position of the root node.
+     */
+    public static final int ROOT = 0;
+
+    private static final int AND = 0, OR = 1, COMPARISON = 2;
+
+    private static final int TYPE_MASK = 0x3, COUNT_SHIFT = 2;
+
+    private final int[] code;
+
+    private final String[] strings;
+
+    private final ComparisonOperator[] operators;
+
+    private final int nodeCount;
+
+
+    /**
+     * Encodes the given AST.
+     *
+     * @param root The root node. Must not be <tt>null</tt>.
+     * @throws IllegalArgumentException If the AST contains a node of unknown type.
+     */
+    public CompactTree(Node root) {
+        Encoder encoder = new Encoder();
+        encoder.encode(root);
+
+        this.code = Arrays.copyOf(encoder.code, encoder.length);
+        this.strings = encoder.strings.toArray(new String[encoder.strings.size()]);
+        this.operators = encoder.operators.toArray(new ComparisonOperator[encoder.operators.size()]);
+        this.nodeCount = encoder.nodeCount;
+    }
+
+
+    /**
+     * Decodes the tree into a new AST that is equal to the one this tree was created from.
+     */
+    public Node toNode() {
+        return toNode(ROOT);
+    }
+
+    /**
+     * Decodes the subtree at the given position into a new AST.
+     */
+    public Node toNode(int node) {
+        if (isComparison(node)) {
+            int count = argumentCount(node);
+            List<String> arguments = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                arguments.add(argument(node, i));
+            }
+            return new ComparisonNode(getComparisonOperator(node), getSelector(node), arguments);
+        }
+        int count = childCount(node);
+        List<Node> children = new ArrayList<Node>(count);
+        for (int i = 0, child = firstChild(node); i < count; i++, child = nextSibling(child)) {
+            children.add(toNode(child));
+        }
+        return type(node) == AND ? new AndNode(children) : new OrNode(children);
+    }
+
+    /**
+     * Calls the visitor's method appropriate to the root node and returns the result.
+     */
+    public <R, A> R accept(Visitor<R, A> visitor, A param) {
+        return accept(ROOT, visitor, param);
+    }
+
+    /**
+     * Calls the visitor's method appropriate to the node at the given position and returns
+     * the result.
+     */
+    public <R, A> R accept(int node, Visitor<R, A> visitor, A param) {
+        switch (type(node)) {
+            case AND : return visitor.visitAnd(this, node, param);
+            case OR  : return visitor.visitOr(this, node, param);
+            default  : return visitor.visitComparison(this, node, param);
+        }
+    }
+
+    /**
+     * Returns the total number of nodes in the tree.
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+
+    //////// Logical nodes ////////
+
+    public boolean isLogical(int node) {
+        return type(node) != COMPARISON;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not logical.
+     */
+    public LogicalOperator getLogicalOperator(int node) {
+        checkLogical(node);
+        return type(node) == AND ? LogicalOperator.AND : LogicalOperator.OR;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not logical.
+     */
+    public int childCount(int node) {
+        checkLogical(node);
+        return code[node] >>> COUNT_SHIFT;
+    }
+
+    /**
+     * Returns position of the first child of the logical node. It's defined only when the node
+     * has some children.
+     *
+     * @throws IllegalArgumentException If the node is not logical.
+     */
+    public int firstChild(int node) {
+        checkLogical(node);
+        return node + 2;
+    }
+
+    /**
+     * Returns position of the node that follows the given one, and its subtree, in the same
+     * parent. It's defined only when the node is not the last child.
+     */
+    public int nextSibling(int node) {
+        return type(node) == COMPARISON
+                ? node + 3 + (code[node] >>> COUNT_SHIFT)
+                : node + code[node + 1];
+    }
+
+
+    //////// Comparison nodes ////////
+
+    public boolean isComparison(int node) {
+        return type(node) == COMPARISON;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not a comparison.
+     */
+    public ComparisonOperator getComparisonOperator(int node) {
+        checkComparison(node);
+        return operators[code[node + 1]];
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not a comparison.
+     */
+    public String getSelector(int node) {
+        checkComparison(node);
+        return strings[code[node + 2]];
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not a comparison.
+     */
+    public int argumentCount(int node) {
+        checkComparison(node);
+        return code[node] >>> COUNT_SHIFT;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the node is not a comparison.
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    public String argument(int node, int index) {
+        if (index < 0 || index >= argumentCount(node)) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        return strings[code[node + 3 + index]];
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb, ROOT);
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactTree)) return false;
+
+        // the encoding is deterministic, so equal AST (with the same operator instances)
+        // are encoded equally
+        CompactTree that = (CompactTree) o;
+        if (!Arrays.equals(code, that.code)) return false;
+        if (!Arrays.equals(strings, that.strings)) return false;
+        if (!Arrays.equals(operators, that.operators)) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(code);
+        result = 31 * result + Arrays.hashCode(strings);
+        result = 31 * result + Arrays.hashCode(operators);
+        return result;
+    }
+
+
+    private int type(int node) {
+        return code[node] & TYPE_MASK;
+    }
+
+    private void checkLogical(int node) {
+        if (type(node) == COMPARISON) {
+            throw new IllegalArgumentException("Not a logical node at: " + node);
+        }
+    }
+
+    private void checkComparison(int node) {
+        if (type(node) != COMPARISON) {
+            throw new IllegalArgumentException("Not a comparison node at: " + node);
+        }
+    }
+
+    /**
+     * Appends the same representation as {@link Node#toString()}.
+     */
+    private void appendTo(StringBuilder sb, int node) {
+        if (isComparison(node)) {
+            int count = argumentCount(node);
+            sb.append(getSelector(node)).append(getComparisonOperator(node));
+            sb.append(count > 1 ? "('" : "'");
+            for (int i = 0; i < count; i++) {
+                sb.append(i > 0 ? "','" : "").append(argument(node, i));
+            }
+            sb.append(count > 1 ? "')" : "'");
+            return;
+        }
+        int count = childCount(node);
+        if (count == 0) {
+            sb.append(type(node) == AND ? "<true>" : "<false>");
+            return;
+        }
+        sb.append('(');
+        for (int i = 0, child = firstChild(node); i < count; i++, child = nextSibling(child)) {
+            if (i > 0) {
+                sb.append(getLogicalOperator(node));
+            }
+            appendTo(sb, child);
+        }
+        sb.append(')');
+    }
+
+
+    /**
+     * A visitor of the {@link CompactTree}. The nodes are identified by the tree and position,
+     * use the tree's methods to access their properties.
+     *
+     * @param <R> Return type of the visitor's method.
+     * @param <A> Type of an optional parameter passed to the visitor's method.
+     */
+    public interface Visitor<R, A> {
+
+        R visitAnd(CompactTree tree, int node, A param);
+
+        R visitOr(CompactTree tree, int node, A param);
+
+        R visitComparison(CompactTree tree, int node, A param);
+    }
+
+    private static final class Encoder {
+
+        int[] code = new int[32];
+        int length;
+        int nodeCount;
+
+        final List<String> strings = new ArrayList<String>();
+        final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+
+        final List<ComparisonOperator> operators = new ArrayList<ComparisonOperator>();
+        final Map<ComparisonOperator, Integer> operatorIndexes =
+                new IdentityHashMap<ComparisonOperator, Integer>();
+
+        void encode(Node node) {
+            nodeCount++;
+            if (node instanceof ComparisonNode) {
+                ComparisonNode comparison = (ComparisonNode) node;
+                int argCount = comparison.argumentCount();
+                int start = reserve(3 + argCount);
+
+                code[start] = COMPARISON | argCount << COUNT_SHIFT;
+                code[start + 1] = indexOf(comparison.getOperator());
+                code[start + 2] = indexOf(comparison.getSelector());
+                for (int i = 0; i < argCount; i++) {
+                    code[start + 3 + i] = indexOf(comparison.argument(i));
+                }
+            } else if (node instanceof LogicalNode) {
+                LogicalNode logical = (LogicalNode) node;
+                int type = logical.getOperator() == LogicalOperator.AND ? AND : OR;
+                int start = reserve(2);
+                int count = logical.childCount();
+
+                for (int i = 0; i < count; i++) {
+                    encode(logical.child(i));
+                }
+                code[start] = type | count << COUNT_SHIFT;
+                code[start + 1] = length - start;
+            } else {
+                throw new IllegalArgumentException("Unknown node type: " + node.getClass());
+            }
+        }
+
+        int reserve(int size) {
+            if (length + size > code.length) {
+                code = Arrays.copyOf(code, Math.max(code.length * 2, length + size));
+            }
+            int start = length;
+            length += size;
+            return start;
+        }
+
+        int indexOf(String string) {
+            Integer index = stringIndexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                stringIndexes.put(string, index);
+            }
+            return index;
+        }
+
+        int indexOf(ComparisonOperator operator) {
+            Integer index = operatorIndexes.get(operator);
+            if (index == null) {
+                index = operators.size();
+                operators.add(operator);
+                operatorIndexes.put(operator, index);
+            }
+            return index;
+        }
+    }
+}
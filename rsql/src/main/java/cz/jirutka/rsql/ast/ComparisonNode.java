@@ -33,6 +33,7 @@ import cz.jirutka.rsql.ComparisonOperator;
 import cz.jirutka.rsql.RSQLVisitor;
 
 import static cz.jirutka.rsql.StringUtils.join;
+import static java.util.Collections.unmodifiableList;
 
 /**
  * This node represents a comparison with operator, selector and arguments,
@@ -66,7 +67,7 @@ public final class ComparisonNode extends AbstractNode {
 
         this.operator = operator;
         this.selector = selector;
-        this.arguments = new ArrayList<String>(arguments);
+        this.arguments = unmodifiableList(new ArrayList<String>(arguments));
     }
 
 
@@ -109,6 +110,30 @@ public final class ComparisonNode extends AbstractNode {
         return new ArrayList<String>(arguments);
     }
 
+    /**
+     * Returns an unmodifiable view of the arguments list. Unlike {@link #getArguments()}, this
+     * doesn't copy anything.
+     */
+    public List<String> arguments() {
+        return arguments;
+    }
+
+    /**
+     * Returns the number of arguments, at least one.
+     */
+    public int argumentCount() {
+        return arguments.size();
+    }
+
+    /**
+     * Returns the argument at the specified position.
+     *
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    public String argument(int index) {
+        return arguments.get(index);
+    }
+
     /**
      * Returns a copy of this node with the specified arguments.
      *
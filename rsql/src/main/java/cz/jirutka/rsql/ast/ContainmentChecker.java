@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+
+import static cz.jirutka.rsql.RSQLOperators.*;
+import static cz.jirutka.rsql.ast.QueryOptimizer.compareArguments;
+import static cz.jirutka.rsql.ast.QueryOptimizer.hasWildcard;
+
+/**
+ * Checks whether a query is contained in another one, i.e. every entry that matches the
+ * narrower query matches also the broader one. Then the result of the narrower query can be
+ * computed by filtering the result of the broader one, e.g. <tt>region==EU;amount=gt=100</tt>
+ * from <tt>region==EU</tt>.
+ *
+ * <p>The check is sound, but not complete: {@link Result#YES} is returned only if the
+ * containment surely holds, otherwise {@link Result#UNKNOWN}. The logical nodes are decomposed
+ * by the rules of implication: the narrower query implies a conjunction if it implies all of its
+ * operands, a disjunction if it implies any of them, and it's enough if any operand of the
+ * narrower conjunction implies the broader query. Nested operations of the same kind are
+ * flattened first, and the result is remembered for each pair of the subqueries, so the check
+ * takes time proportional to the product of the sizes of both queries. Two comparisons on the
+ * same selector imply one another when:</p>
+ *
+ * <ul>
+ *   <li>they are equal,</li>
+ *   <li>the values of <tt>==</tt> or <tt>=in=</tt> are a subset of the values of <tt>==</tt> or
+ *       <tt>=in=</tt>, e.g. <tt>x=in=(1,2)</tt> implies <tt>x=in=(1,2,3)</tt>,</li>
+ *   <li>the values of <tt>==</tt> or <tt>=in=</tt> satisfy the bound, e.g. <tt>x==5</tt> implies
+ *       <tt>x=gt=3</tt>,</li>
+ *   <li>the bound is tighter than a bound in the same direction, e.g. <tt>x=ge=5</tt> implies
+ *       <tt>x=gt=3</tt>,</li>
+ *   <li>the values of <tt>!=</tt> or <tt>=out=</tt> are a superset of the values of <tt>!=</tt> or
+ *       <tt>=out=</tt>, e.g. <tt>x=out=(1,2)</tt> implies <tt>x!=1</tt>.</li>
+ * </ul>
+ *
+ * <p>The values are compared as strings exactly, so the rules hold regardless of the case
+ * sensitivity of the data store. Bounds are compared only under the same conditions as by the
+ * {@link QueryOptimizer}: both arguments are numbers and compare the same as numbers and as
+ * strings. Arguments with a wildcard and operators other than the
+ * {@linkplain cz.jirutka.rsql.RSQLOperators default ones} are only compared for equality. An
+ * equality doesn't imply an inequality of another value (e.g. <tt>x==1</tt> and <tt>x!=2</tt>),
+ * since it doesn't hold when the selector refers to a collection.</p>
+ */
+@Immutable
+public final class ContainmentChecker {
+
+    /**
+     * Checks whether the {@code narrower} query is contained in the {@code broader} one.
+     *
+     * @param broader Must not be <tt>null</tt>.
+     * @param narrower Must not be <tt>null</tt>.
+     */
+    public Result check(Node broader, Node narrower) {
+        Assert.notNull(broader, "broader must not be null");
+        Assert.notNull(narrower, "narrower must not be null");
+
+        return new Implications().implies(flatten(narrower), flatten(broader)) ? Result.YES : Result.UNKNOWN;
+    }
+
+    /**
+     * Whether the {@code narrower} query is surely contained in the {@code broader} one.
+     *
+     * @see #check(Node, Node)
+     */
+    public boolean isContained(Node narrower, Node broader) {
+        return check(broader, narrower) == Result.YES;
+    }
+
+
+    /**
+     * Returns the node with the operands of the nested logical nodes of the same operator merged
+     * into their parent, e.g. <tt>a;(b;(c;d))</tt> into <tt>a;b;c;d</tt>.
+     */
+    private static Node flatten(Node node) {
+        if (!(node instanceof LogicalNode)) {
+            return node;
+        }
+        LogicalNode logical = (LogicalNode) node;
+        List<Node> operands = new ArrayList<Node>(logical.childCount());
+        addOperands(logical, logical.getOperator(), operands);
+
+        return logical.withChildren(operands);
+    }
+
+    private static void addOperands(LogicalNode node, LogicalOperator operator, List<Node> operands) {
+        for (Node child : node.children()) {
+            if (isLogical(child, operator)) {
+                addOperands((LogicalNode) child, operator, operands);
+            } else {
+                operands.add(flatten(child));
+            }
+        }
+    }
+
+    private static boolean implies(ComparisonNode b, ComparisonNode a) {
+        if (b.equals(a)) {
+            return true;
+        }
+        if (!b.getSelector().equals(a.getSelector()) || hasWildcard(b) || hasWildcard(a)) {
+            return false;
+        }
+        ComparisonOperator bOp = b.getOperator();
+        ComparisonOperator aOp = a.getOperator();
+
+        if (isPositive(bOp) && isPositive(aOp)) {
+            return a.arguments().containsAll(b.arguments());
+        }
+        if (isNegative(bOp) && isNegative(aOp)) {
+            return b.arguments().containsAll(a.arguments());
+        }
+        QueryOptimizer.Bound aBound = QueryOptimizer.Bound.of(a);
+        if (aBound == null) {
+            return false;
+        }
+        if (isPositive(bOp)) {
+            return admitsAll(aBound, b.arguments());
+        }
+        QueryOptimizer.Bound bBound = QueryOptimizer.Bound.of(b);
+        if (bBound == null || bBound.lower != aBound.lower) {
+            return false;
+        }
+        Integer cmp = compareArguments(bBound.argument, aBound.argument);
+        if (cmp == null) {
+            return false;
+        }
+        if (cmp == 0) {
+            return bBound.strict || !aBound.strict;
+        }
+        return aBound.lower ? cmp > 0 : cmp < 0;
+    }
+
+    private static boolean admitsAll(QueryOptimizer.Bound bound, List<String> values) {
+        for (String value : values) {
+            if (!Boolean.TRUE.equals(bound.admits(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLogical(Node node, LogicalOperator operator) {
+        return node instanceof LogicalNode && ((LogicalNode) node).getOperator() == operator;
+    }
+
+    private static boolean isPositive(ComparisonOperator operator) {
+        return operator == EQUAL || operator == IN;
+    }
+
+    private static boolean isNegative(ComparisonOperator operator) {
+        return operator == NOT_EQUAL || operator == NOT_IN;
+    }
+
+
+    /**
+     * Decides the implications between the subqueries of a single check. The same pair of
+     * subqueries is reached along many paths through both trees, so the results are remembered
+     * by the identity of the nodes.
+     */
+    private static final class Implications {
+
+        private final Map<Node, Map<Node, Boolean>> results = new IdentityHashMap<Node, Map<Node, Boolean>>();
+
+        /**
+         * Whether a match of {@code b} is surely a match of {@code a}.
+         */
+        boolean implies(Node b, Node a) {
+            if (b instanceof ComparisonNode && a instanceof ComparisonNode) {
+                return ContainmentChecker.implies((ComparisonNode) b, (ComparisonNode) a);
+            }
+            Map<Node, Boolean> resultsOfB = results.get(b);
+            if (resultsOfB == null) {
+                resultsOfB = new IdentityHashMap<Node, Boolean>();
+                results.put(b, resultsOfB);
+            }
+            Boolean result = resultsOfB.get(a);
+            if (result == null) {
+                result = decompose(b, a);
+                resultsOfB.put(a, result);
+            }
+            return result;
+        }
+
+        private boolean decompose(Node b, Node a) {
+            if (isLogical(a, LogicalOperator.AND)) {
+                for (Node child : ((LogicalNode) a).children()) {
+                    if (!implies(b, child)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (isLogical(b, LogicalOperator.OR)) {
+                for (Node child : ((LogicalNode) b).children()) {
+                    if (!implies(child, a)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (isLogical(b, LogicalOperator.AND)) {
+                for (Node child : ((LogicalNode) b).children()) {
+                    if (implies(child, a)) {
+                        return true;
+                    }
+                }
+            }
+            if (isLogical(a, LogicalOperator.OR)) {
+                for (Node child : ((LogicalNode) a).children()) {
+                    if (implies(b, child)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * The result of the check.
+     */
+    public enum Result {
+
+        /**
+         * The narrower query is surely contained in the broader one.
+         */
+        YES,
+
+        /**
+         * The containment can't be decided; it may or may not hold.
+         */
+        UNKNOWN
+    }
+}
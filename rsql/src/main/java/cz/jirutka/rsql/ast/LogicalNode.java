@@ -71,14 +71,48 @@ public abstract class LogicalNode extends AbstractNode implements Iterable<Node>
 
     /**
      * Returns a copy of the children nodes.
+     *
+     * @see #children()
      */
     public List<Node> getChildren() {
         return new ArrayList<Node>(children);
     }
 
+    /**
+     * Returns an unmodifiable view of the children nodes. Unlike {@link #getChildren()}, this
+     * doesn't copy anything.
+     */
+    public List<Node> children() {
+        return children;
+    }
+
+    /**
+     * Returns the number of children nodes.
+     */
+    public int childCount() {
+        return children.size();
+    }
 
+    /**
+     * Returns the child node at the specified position.
+     *
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     */
+    public Node child(int index) {
+        return children.get(index);
+    }
+
+
+    /**
+     * Returns the query in the RSQL syntax. A node without any children can't be expressed in
+     * RSQL, so it's represented by <tt>&lt;true&gt;</tt> for AND, and <tt>&lt;false&gt;</tt>
+     * for OR.
+     */
     @Override
     public String toString() {
+        if (children.isEmpty()) {
+            return operator == LogicalOperator.AND ? "<true>" : "<false>";
+        }
         return "(" + join(children, operator.toString()) + ")";
     }
 
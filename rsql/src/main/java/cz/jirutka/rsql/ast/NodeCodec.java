@@ -0,0 +1,644 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.RSQLOperators;
+import cz.jirutka.rsql.RSQLTraversal;
+import cz.jirutka.rsql.UnknownOperatorException;
+import net.jcip.annotations.Immutable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cz.jirutka.rsql.RSQLOperators.*;
+
+/**
+ * Compact binary serialization of the AST, for shipping parsed queries between services or
+ * storing them in a cache without parsing them again.
+ *
+ * <p>The encoded form starts with the byte <tt>R</tt>, the {@linkplain #VERSION version} of the
+ * format and the length of the body, all integers are unsigned varints. The body contains a table
+ * of the custom operators, followed by the nodes in pre-order. A logical node is encoded as its
+ * type with the number of children, and a comparison as the number of arguments, the operator,
+ * the selector and the arguments. The {@linkplain RSQLOperators default operators} are stored just
+ * as their ids, the custom ones as indexes into the table.</p>
+ *
+ * <p>The selectors and arguments are stored in two dictionaries that are built while encoding:
+ * a string is written in UTF-8 only on its first occurrence, then it's referred by its index in
+ * the dictionary. Arguments that are decimal integers are stored as numbers, so a long
+ * <tt>=in=</tt> list of ids takes a fraction of its textual form.</p>
+ *
+ * <p>The decoder creates the nodes using the given {@link NodesFactory}, so the operators are
+ * resolved by their symbols to the supported ones and the nodes may be interned. Neither the
+ * encoder, nor the decoder recurses into the nested nodes, so an untrusted input can't overflow
+ * the call stack, however deep it's nested. The decoder also doesn't allocate memory by the
+ * counts and lengths written in the input, but by the data actually read.</p>
+ *
+ * <pre>{@code
+ * NodeCodec codec = new NodeCodec();
+ *
+ * byte[] bytes = codec.encode(rootNode);
+ * Node decoded = codec.decode(bytes);
+ * }</pre>
+ */
+@Immutable
+public final class NodeCodec {
+
+    /**
+     * Version of the format written by this codec.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte MAGIC = 'R';
+
+    private static final int AND = 0, OR = 1, COMPARISON = 2;
+
+    private static final int TYPE_MASK = 0x3, COUNT_SHIFT = 2;
+
+    /**
+     * The operators with fixed ids; the ids from {@code BUILTIN_OPERATORS.length} refer to
+     * the table of custom operators.
+     */
+    private static final ComparisonOperator[] BUILTIN_OPERATORS = {
+        EQUAL, NOT_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL, IN, NOT_IN
+    };
+
+    /**
+     * Tags of a string reference in its lowest two bits.
+     */
+    private static final int TEXT = 0, NUMBER = 1, REFERENCE = 2, TAG_MASK = 0x3, TAG_SHIFT = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The initial capacity of the buffers and lists that grow as the data is read.
+     */
+    private static final int INITIAL_CAPACITY = 16, INITIAL_BUFFER_SIZE = 8192;
+
+    private final NodesFactory factory;
+
+
+    /**
+     * Creates a codec that supports the {@linkplain RSQLOperators#defaultOperators() default
+     * operators}.
+     */
+    public NodeCodec() {
+        this(new NodesFactory(RSQLOperators.defaultOperators()));
+    }
+
+    /**
+     * @param factory The factory to create the decoded nodes with. Must not be <tt>null</tt>.
+     */
+    public NodeCodec(NodesFactory factory) {
+        Assert.notNull(factory, "factory must not be null");
+        this.factory = factory;
+    }
+
+
+    /**
+     * Encodes the AST into a new byte array.
+     *
+     * @param node The root node. Must not be <tt>null</tt>.
+     * @throws IllegalArgumentException If the AST contains a node of unknown type.
+     */
+    public byte[] encode(Node node) {
+        Assert.notNull(node, "node must not be null");
+
+        Encoder encoder = new Encoder();
+        encoder.encodeNode(node);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Encodes the AST into the buffer, starting at its current position.
+     *
+     * @throws java.nio.BufferOverflowException If there's not enough space in the buffer.
+     * @see #encode(Node)
+     */
+    public void encode(Node node, ByteBuffer target) {
+        target.put(encode(node));
+    }
+
+    /**
+     * Encodes the AST into the stream.
+     *
+     * @see #encode(Node)
+     */
+    public void encode(Node node, OutputStream output) throws IOException {
+        output.write(encode(node));
+    }
+
+    /**
+     * Decodes the AST from the byte array.
+     *
+     * @throws IllegalArgumentException If the bytes are not a valid encoded AST of the supported
+     *          version.
+     * @throws UnknownOperatorException If the AST contains an operator that is not supported by
+     *          the factory.
+     */
+    public Node decode(byte[] bytes) {
+        Assert.notNull(bytes, "bytes must not be null");
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes the AST from the buffer, starting at its current position. The position is then
+     * advanced after the encoded AST.
+     *
+     * @see #decode(byte[])
+     */
+    public Node decode(ByteBuffer source) {
+        try {
+            int length = readHeader(source);
+            check(length <= source.remaining(), "truncated input");
+
+            ByteBuffer body = source.slice();
+            body.limit(length);
+            source.position(source.position() + length);
+
+            return new Decoder(body).decode();
+
+        } catch (BufferUnderflowException ex) {
+            throw malformed("truncated input");
+        }
+    }
+
+    /**
+     * Decodes the AST from the stream. Exactly the bytes of the encoded AST are read, so multiple
+     * ASTs may be read from the same stream. The body is read into a buffer that grows as the
+     * bytes arrive, not preallocated by the length in the header.
+     *
+     * @throws EOFException If the stream ends before the end of the encoded AST.
+     * @see #decode(byte[])
+     */
+    public Node decode(InputStream input) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2 + 5);
+        header.put(readByte(input)).put(readByte(input));
+        byte b;
+        do {
+            check(header.hasRemaining(), "invalid varint");
+            header.put(b = readByte(input));
+        } while (b < 0);
+
+        header.flip();
+        int length = readHeader(header);
+        byte[] bytes = new byte[Math.min(length, INITIAL_BUFFER_SIZE)];
+
+        for (int read = 0, n; read < length; read += n) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+            }
+            if ((n = input.read(bytes, read, bytes.length - read)) < 0) {
+                throw new EOFException("Unexpected end of encoded node");
+            }
+        }
+        return new Decoder(ByteBuffer.wrap(bytes)).decode();
+    }
+
+
+    /**
+     * Reads the magic, version and length of the body.
+     */
+    private static int readHeader(ByteBuffer source) {
+        check(source.get() == MAGIC, "invalid magic byte");
+
+        int version = source.get() & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version of encoded node: " + version);
+        }
+        return readVarint(source);
+    }
+
+    private static byte readByte(InputStream input) throws IOException {
+        int b = input.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of encoded node");
+        }
+        return (byte) b;
+    }
+
+    private static int readVarint(ByteBuffer source) {
+        long value = readVarlong(source);
+        check(value <= Integer.MAX_VALUE, "integer out of range");
+        return (int) value;
+    }
+
+    private static long readVarlong(ByteBuffer source) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw malformed("invalid varint");
+    }
+
+    private static void check(boolean expression, String message) {
+        if (!expression) {
+            throw malformed(message);
+        }
+    }
+
+    private static IllegalArgumentException malformed(String message) {
+        return new IllegalArgumentException("Malformed encoded node: " + message);
+    }
+
+    private static int builtinId(ComparisonOperator operator) {
+        for (int i = 0; i < BUILTIN_OPERATORS.length; i++) {
+            if (BUILTIN_OPERATORS[i].equals(operator)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the string is a decimal integer without redundant characters that is small enough
+     * to be stored as a number, i.e. its zig-zag encoding shifted by the tag fits into 64 bits.
+     * It must produce the same string when converted back.
+     */
+    private static boolean isNumber(String str) {
+        int length = str.length();
+        int start = length > 0 && str.charAt(0) == '-' ? 1 : 0;
+        int digits = length - start;
+
+        if (digits < 1 || digits > 18) {
+            return false;  // at most 18 digits, so it's below 2^60
+        }
+        if (str.charAt(start) == '0' && (digits > 1 || start > 0)) {
+            return false;  // leading zero or "-0"
+        }
+        for (int i = start; i < length; i++) {
+            char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Growable byte array with varint encoding.
+     */
+    private static final class Output {
+
+        byte[] bytes;
+        int length;
+
+        Output(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void ensureCapacity(int size) {
+            if (length + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + size));
+            }
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Writes the string as a varint header followed by its UTF-8 bytes, or a number
+         * in the header itself. The tag in the lowest bits of the header tells which one.
+         */
+        void writeString(String str) {
+            if (isNumber(str)) {
+                long value = Long.parseLong(str);
+                writeVarint(((value << 1) ^ (value >> 63)) << TAG_SHIFT | NUMBER);
+                return;
+            }
+            int length = str.length();
+            if (isAscii(str)) {
+                writeVarint((long) length << TAG_SHIFT | TEXT);
+                ensureCapacity(length);
+                for (int i = 0; i < length; i++) {
+                    bytes[this.length++] = (byte) str.charAt(i);
+                }
+            } else {
+                byte[] encoded = str.getBytes(UTF_8);
+                writeVarint((long) encoded.length << TAG_SHIFT | TEXT);
+                write(encoded, 0, encoded.length);
+            }
+        }
+
+        void write(byte[] source, int offset, int size) {
+            ensureCapacity(size);
+            System.arraycopy(source, offset, bytes, length, size);
+            length += size;
+        }
+
+        static boolean isAscii(String str) {
+            for (int i = 0; i < str.length(); i++) {
+                if (str.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Dictionary of the strings written so far.
+     */
+    private static final class Dictionary {
+
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        /**
+         * Writes a reference to the string, or the string itself on its first occurrence.
+         */
+        void write(Output output, String str) {
+            Integer index = indexes.get(str);
+            if (index != null) {
+                output.writeVarint((long) index << TAG_SHIFT | REFERENCE);
+            } else {
+                indexes.put(str, indexes.size());
+                output.writeString(str);
+            }
+        }
+    }
+
+    private static final class Encoder implements RSQLTraversal.Callback {
+
+        final Output nodes = new Output(64);
+        final List<ComparisonOperator> operators = new ArrayList<ComparisonOperator>();
+        final Dictionary selectors = new Dictionary();
+        final Dictionary arguments = new Dictionary();
+
+        void encodeNode(Node root) {
+            RSQLTraversal.walk(root, RSQLTraversal.Order.PRE_ORDER, this);
+        }
+
+        public void visit(Node node) {
+            if (node instanceof ComparisonNode) {
+                ComparisonNode comparison = (ComparisonNode) node;
+                int count = comparison.argumentCount();
+
+                nodes.writeVarint(COMPARISON | (long) count << COUNT_SHIFT);
+                nodes.writeVarint(idOf(comparison.getOperator()));
+                selectors.write(nodes, comparison.getSelector());
+                for (int i = 0; i < count; i++) {
+                    arguments.write(nodes, comparison.argument(i));
+                }
+            } else if (node instanceof LogicalNode) {
+                LogicalNode logical = (LogicalNode) node;
+                int type = logical.getOperator() == LogicalOperator.AND ? AND : OR;
+                int count = logical.childCount();
+
+                nodes.writeVarint(type | (long) count << COUNT_SHIFT);
+            }
+        }
+
+        int idOf(ComparisonOperator operator) {
+            int id = builtinId(operator);
+            if (id < 0) {
+                id = operators.indexOf(operator);
+                if (id < 0) {
+                    id = operators.size();
+                    operators.add(operator);
+                }
+                id += BUILTIN_OPERATORS.length;
+            }
+            return id;
+        }
+
+        byte[] toByteArray() {
+            Output table = new Output(16);
+            table.writeVarint(operators.size());
+            for (ComparisonOperator operator : operators) {
+                table.writeString(operator.getSymbol());
+            }
+            int bodyLength = table.length + nodes.length;
+
+            Output result = new Output(bodyLength + 7);
+            result.bytes[result.length++] = MAGIC;
+            result.bytes[result.length++] = VERSION;
+            result.writeVarint(bodyLength);
+            result.write(table.bytes, 0, table.length);
+            result.write(nodes.bytes, 0, nodes.length);
+
+            return result.length == result.bytes.length ? result.bytes : Arrays.copyOf(result.bytes, result.length);
+        }
+    }
+
+    private final class Decoder {
+
+        final ByteBuffer source;
+        final ComparisonOperator[] builtins = new ComparisonOperator[BUILTIN_OPERATORS.length];
+        ComparisonOperator[] operators;
+        final StringList selectors = new StringList();
+        final StringList arguments = new StringList();
+
+        /**
+         * The logical nodes whose children are being read, the innermost last.
+         */
+        final List<PendingNode> pending = new ArrayList<PendingNode>();
+
+        Decoder(ByteBuffer source) {
+            this.source = source;
+        }
+
+        Node decode() {
+            try {
+                operators = new ComparisonOperator[readCount()];
+                for (int i = 0; i < operators.length; i++) {
+                    operators[i] = factory.findComparisonOperator(readString(null));
+                }
+                Node node = readNode();
+                check(!source.hasRemaining(), "unexpected data after the root node");
+
+                return node;
+
+            } catch (BufferUnderflowException ex) {
+                throw malformed("truncated input");
+            }
+        }
+
+        /**
+         * Reads the nodes in pre-order; a logical node is created when all its children
+         * have been read.
+         */
+        Node readNode() {
+            while (true) {
+                long header = readVarlong(source);
+                check(header >>> COUNT_SHIFT <= source.remaining(), "count out of range");
+                int count = (int) (header >>> COUNT_SHIFT);
+                Node node;
+
+                switch ((int) header & TYPE_MASK) {
+                    case COMPARISON: {
+                        ComparisonOperator operator = readOperator();
+                        String selector = readString(selectors);
+                        List<String> args = new ArrayList<String>(count);
+                        for (int i = 0; i < count; i++) {
+                            args.add(readString(arguments));
+                        }
+                        node = factory.createComparisonNode(operator, selector, args);
+                        break;
+                    }
+                    case AND:
+                    case OR: {
+                        LogicalOperator operator = ((int) header & TYPE_MASK) == AND ? LogicalOperator.AND : LogicalOperator.OR;
+                        if (count > 0) {
+                            pending.add(new PendingNode(operator, count));
+                            continue;
+                        }
+                        node = factory.createLogicalNode(operator, new ArrayList<Node>(0));
+                        break;
+                    }
+                    default:
+                        throw malformed("unknown node type");
+                }
+                // add the node to its parent, and create the parents that are complete
+                while (!pending.isEmpty()) {
+                    PendingNode parent = pending.get(pending.size() - 1);
+                    parent.children.add(node);
+                    if (parent.children.size() < parent.count) {
+                        break;
+                    }
+                    pending.remove(pending.size() - 1);
+                    node = factory.createLogicalNode(parent.operator, parent.children);
+                }
+                if (pending.isEmpty()) {
+                    return node;
+                }
+            }
+        }
+
+        /**
+         * Reads the count of items that are at least one byte each.
+         */
+        int readCount() {
+            int count = readVarint(source);
+            check(count <= source.remaining(), "count out of range");
+            return count;
+        }
+
+        ComparisonOperator readOperator() {
+            int id = readVarint(source);
+            if (id >= BUILTIN_OPERATORS.length) {
+                id -= BUILTIN_OPERATORS.length;
+                check(id < operators.length, "operator id out of range");
+                return operators[id];
+            }
+            // resolved lazily to not require the factory to support all the default operators
+            if (builtins[id] == null) {
+                builtins[id] = factory.findComparisonOperator(BUILTIN_OPERATORS[id].getSymbol());
+            }
+            return builtins[id];
+        }
+
+        /**
+         * Reads a string, or a reference to a string in the dictionary. A string that has been
+         * read is added to the dictionary, if any.
+         */
+        String readString(StringList dictionary) {
+            long header = readVarlong(source);
+            long value = header >>> TAG_SHIFT;
+            String str;
+
+            switch ((int) header & TAG_MASK) {
+                case REFERENCE:
+                    check(dictionary != null && value < dictionary.size, "string reference out of range");
+                    return dictionary.items[(int) value];
+                case NUMBER:
+                    str = Long.toString((value >>> 1) ^ -(value & 1));
+                    break;
+                case TEXT:
+                    str = readText(value);
+                    break;
+                default:
+                    throw malformed("unknown string tag");
+            }
+            if (dictionary != null) {
+                dictionary.add(str);
+            }
+            return str;
+        }
+
+        String readText(long length) {
+            check(length <= source.remaining(), "string length out of range");
+            String str;
+            if (source.hasArray()) {
+                str = new String(source.array(), source.arrayOffset() + source.position(), (int) length, UTF_8);
+                source.position(source.position() + (int) length);
+            } else {
+                byte[] bytes = new byte[(int) length];
+                source.get(bytes);
+                str = new String(bytes, UTF_8);
+            }
+            return str;
+        }
+    }
+
+    private static final class PendingNode {
+
+        final LogicalOperator operator;
+        final int count;
+        final List<Node> children;
+
+        PendingNode(LogicalOperator operator, int count) {
+            this.operator = operator;
+            this.count = count;
+            // the count is not trusted until the children are actually read
+            this.children = new ArrayList<Node>(Math.min(count, INITIAL_CAPACITY));
+        }
+    }
+
+    private static final class StringList {
+
+        String[] items = new String[16];
+        int size;
+
+        void add(String str) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = str;
+        }
+    }
+}
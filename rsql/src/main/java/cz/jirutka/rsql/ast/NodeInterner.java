@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.jirutka.rsql.Assert;
+
+/**
+ * Pool of canonical nodes (hash-consing). For a node that is structurally equal to a node
+ * interned before, the interner returns the already interned instance, so identical subtrees of
+ * many queries are shared in memory and may be compared by reference.
+ *
+ * <p>The pool holds the nodes only weakly, an interned node is discarded as soon as it's not
+ * referenced from anywhere else. Since the children of a canonical {@link LogicalNode} are
+ * canonical too, it's looked up just by its operator and the identity of the children, without
+ * traversing the subtree.</p>
+ *
+ * <p>To let the parser produce interned trees directly, use
+ * {@link NodesFactory#withInterner(NodeInterner)}.</p>
+ */
+@ThreadSafe
+public final class NodeInterner {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ReferenceQueue<Node> queue = new ReferenceQueue<Node>();
+
+    @GuardedBy("this")
+    private Entry[] table = new Entry[INITIAL_CAPACITY];
+
+    @GuardedBy("this")
+    private int size;
+
+
+    /**
+     * Returns the canonical instance of the specified tree. All its nodes are interned, from the
+     * leafs up to the root, and the tree is rebuilt if some of them are replaced.
+     *
+     * @param node Must not be <tt>null</tt>.
+     * @return The canonical instance structurally equal to the {@code node}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Node> T intern(T node) {
+        Assert.notNull(node, "node must not be null");
+
+        if (node instanceof LogicalNode) {
+            LogicalNode logical = (LogicalNode) node;
+            List<Node> children = new ArrayList<Node>(logical.childCount());
+            boolean replaced = false;
+
+            for (int i = 0; i < logical.childCount(); i++) {
+                Node child = logical.child(i);
+                Node canonical = intern(child);
+                replaced |= canonical != child;
+                children.add(canonical);
+            }
+            if (replaced) {
+                node = (T) logical.withChildren(children);
+            }
+        }
+        return (T) internShallow(node);
+    }
+
+    /**
+     * Returns the number of interned nodes that have not been discarded yet.
+     */
+    public synchronized int size() {
+        expungeStaleEntries();
+        return size;
+    }
+
+
+    /**
+     * Returns the canonical instance of the node, assuming that its children (if any) are
+     * already canonical.
+     */
+    synchronized Node internShallow(Node node) {
+        expungeStaleEntries();
+
+        int hash = shallowHash(node);
+        int index = indexFor(hash, table.length);
+
+        for (Entry e = table[index]; e != null; e = e.next) {
+            Node candidate = e.get();
+            if (e.hash == hash && candidate != null && shallowEquals(candidate, node)) {
+                return candidate;
+            }
+        }
+        table[index] = new Entry(node, hash, table[index], queue);
+
+        if (++size > table.length * 3 / 4) {
+            resize();
+        }
+        return node;
+    }
+
+
+    private static int shallowHash(Node node) {
+        if (node instanceof LogicalNode) {
+            LogicalNode logical = (LogicalNode) node;
+            int result = logical.getOperator().hashCode();
+            for (int i = 0; i < logical.childCount(); i++) {
+                result = 31 * result + System.identityHashCode(logical.child(i));
+            }
+            return result;
+        }
+        return node.hashCode();
+    }
+
+    private static boolean shallowEquals(Node a, Node b) {
+        if (a instanceof LogicalNode) {
+            if (a.getClass() != b.getClass()) {
+                return false;
+            }
+            LogicalNode la = (LogicalNode) a;
+            LogicalNode lb = (LogicalNode) b;
+            if (la.childCount() != lb.childCount()) {
+                return false;
+            }
+            for (int i = 0; i < la.childCount(); i++) {
+                if (la.child(i) != lb.child(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.getClass() == b.getClass() && a.equals(b);
+    }
+
+    private static int indexFor(int hash, int length) {
+        hash ^= hash >>> 16;
+        return hash & (length - 1);
+    }
+
+    @GuardedBy("this")
+    private void resize() {
+        Entry[] newTable = new Entry[table.length * 2];
+
+        for (Entry head : table) {
+            Entry e = head;
+            while (e != null) {
+                Entry next = e.next;
+                int index = indexFor(e.hash, newTable.length);
+                e.next = newTable[index];
+                newTable[index] = e;
+                e = next;
+            }
+        }
+        table = newTable;
+    }
+
+    @GuardedBy("this")
+    private void expungeStaleEntries() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            Entry stale = (Entry) ref;
+            int index = indexFor(stale.hash, table.length);
+
+            Entry prev = null;
+            for (Entry e = table[index]; e != null; prev = e, e = e.next) {
+                if (e == stale) {
+                    if (prev == null) {
+                        table[index] = e.next;
+                    } else {
+                        prev.next = e.next;
+                    }
+                    size--;
+                    break;
+                }
+            }
+        }
+    }
+
+
+    private static final class Entry extends WeakReference<Node> {
+
+        final int hash;
+        Entry next;
+
+        Entry(Node node, int hash, Entry next, ReferenceQueue<Node> queue) {
+            super(node, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
@@ -35,13 +35,16 @@ import cz.jirutka.rsql.LogicalOperator;
 import cz.jirutka.rsql.UnknownOperatorException;
 
 /**
- * Factory that creates {@link Node} instances for the parser.
+ * Factory that creates {@link Node} instances for the parser. When it's configured with a
+ * {@link NodeInterner}, then all the created nodes are interned.
  */
 @Immutable
 public class NodesFactory {
 
     private final Map<String, ComparisonOperator> comparisonOperators;
 
+    private final NodeInterner interner;
+
 
     public NodesFactory(Set<ComparisonOperator> operators) {
 
@@ -51,6 +54,31 @@ public class NodesFactory {
                 comparisonOperators.put(sym, op);
             }
         }
+        interner = null;
+    }
+
+    private NodesFactory(Map<String, ComparisonOperator> comparisonOperators, NodeInterner interner) {
+        this.comparisonOperators = comparisonOperators;
+        this.interner = interner;
+    }
+
+
+    /**
+     * Returns a copy of this factory that interns the created nodes using the specified interner.
+     * The children given to {@link #createLogicalNode(LogicalOperator, List)} are expected to be
+     * created by this factory, i.e. already interned.
+     *
+     * @param interner The interner to use, or <tt>null</tt> to not intern the nodes.
+     */
+    public NodesFactory withInterner(NodeInterner interner) {
+        return new NodesFactory(comparisonOperators, interner);
+    }
+
+    /**
+     * Returns the interner used by this factory, or <tt>null</tt> if none.
+     */
+    public NodeInterner getInterner() {
+        return interner;
     }
 
     /**
@@ -62,13 +90,15 @@ public class NodesFactory {
      * @return A subclass of the {@link LogicalNode} according to the specified operator.
      */
     public LogicalNode createLogicalNode(LogicalOperator operator, List<Node> children) {
+        LogicalNode node;
         switch (operator) {
-            case AND : return new AndNode(children);
-            case OR  : return new OrNode(children);
+            case AND : node = new AndNode(children); break;
+            case OR  : node = new OrNode(children); break;
 
             // this normally can't happen
             default  : throw new IllegalStateException("Unknown operator: " + operator);
         }
+        return interner != null ? (LogicalNode) interner.internShallow(node) : node;
     }
 
     /**
@@ -84,9 +114,36 @@ public class NodesFactory {
     public ComparisonNode createComparisonNode(
             String operatorToken, String selector, List<String> arguments) throws UnknownOperatorException {
 
+        return createComparisonNode(findComparisonOperator(operatorToken), selector, arguments);
+    }
+
+    /**
+     * Creates a {@link ComparisonNode} instance with the given parameters.
+     *
+     * @param operator The comparison operator, presumably one of the supported operators.
+     * @param selector The selector that specifies the left side of the comparison.
+     * @param arguments A list of arguments that specifies the right side of the comparison.
+     */
+    public ComparisonNode createComparisonNode(
+            ComparisonOperator operator, String selector, List<String> arguments) {
+
+        ComparisonNode node = new ComparisonNode(operator, selector, arguments);
+
+        return interner != null ? (ComparisonNode) interner.internShallow(node) : node;
+    }
+
+    /**
+     * Returns the supported comparison operator with the specified symbol.
+     *
+     * @param operatorToken A textual representation of the comparison operator.
+     *
+     * @throws cz.jirutka.rsql.UnknownOperatorException If no operator for the specified operator token exists.
+     */
+    public ComparisonOperator findComparisonOperator(String operatorToken) throws UnknownOperatorException {
+
         ComparisonOperator op = comparisonOperators.get(operatorToken);
         if (op != null) {
-            return new ComparisonNode(op, selector, arguments);
+            return op;
         } else {
             throw new UnknownOperatorException(operatorToken);
         }
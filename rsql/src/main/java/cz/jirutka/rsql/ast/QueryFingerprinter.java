@@ -0,0 +1,390 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+
+/**
+ * Computes a fingerprint of the query shape, i.e. of the tree with the arguments left out, so
+ * e.g. <tt>age=gt=30;name==Bob</tt> and <tt>age=gt=41;name==Al</tt> have the same fingerprint.
+ * It's intended as a key of per-shape caches, metrics or prepared query plans. The arguments
+ * are extracted into a vector of parameters in the order of the fingerprinted tree.
+ *
+ * <p>The fingerprint is a 128-bit hash of the selectors, operators (by their primary symbol),
+ * numbers of arguments, and the logical operators and structure of the tree. It's computed in a
+ * single pass without allocating anything but the parameters list, unless the order of children
+ * is {@linkplain Option#IGNORE_ORDER ignored}. The hash is stable across JVMs and versions of
+ * this library, so it may be stored or shared between services. It's not a cryptographic hash,
+ * so it should not be relied upon with queries crafted to collide.</p>
+ */
+@Immutable
+public final class QueryFingerprinter {
+
+    private static final long HIGH_SEED = 0x9e3779b97f4a7c15L, LOW_SEED = 0xc2b2ae3d27d4eb4fL;
+
+    private static final long HIGH_PRIME = 0x100000001b3L, LOW_PRIME = 0x9e3779b97f4a7c55L;
+
+    private static final int AND = 1, OR = 2, COMPARISON = 3;
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private final Set<Option> options;
+
+
+    /**
+     * Creates a new fingerprinter with all the options disabled.
+     */
+    public QueryFingerprinter() {
+        this(EnumSet.noneOf(Option.class));
+    }
+
+    private QueryFingerprinter(Set<Option> options) {
+        this.options = options;
+    }
+
+
+    /**
+     * Returns a copy of this fingerprinter with the specified option enabled or disabled.
+     *
+     * @param option Must not be <tt>null</tt>.
+     * @param enabled Whether the option should be applied.
+     */
+    public QueryFingerprinter withOption(Option option, boolean enabled) {
+        Assert.notNull(option, "option must not be null");
+
+        Set<Option> newOptions = options.isEmpty() ? EnumSet.noneOf(Option.class) : EnumSet.copyOf(options);
+        if (enabled) {
+            newOptions.add(option);
+        } else {
+            newOptions.remove(option);
+        }
+        return new QueryFingerprinter(newOptions);
+    }
+
+    public boolean isEnabled(Option option) {
+        return options.contains(option);
+    }
+
+    /**
+     * Computes the fingerprint of the tree and extracts its parameters.
+     *
+     * @param node The root of the tree. Must not be <tt>null</tt>.
+     * @throws IllegalArgumentException If the tree contains a node of unknown type.
+     */
+    public Fingerprint fingerprint(Node node) {
+        Assert.notNull(node, "node must not be null");
+
+        Hasher hasher = new Hasher(isEnabled(Option.IGNORE_ORDER), isEnabled(Option.BUCKET_ARGUMENT_COUNTS));
+        hasher.hash(node);
+
+        return new Fingerprint(hasher.high, hasher.low, Collections.unmodifiableList(hasher.parameters));
+    }
+
+
+    /**
+     * Finalization step of MurmurHash3, spreads the bits of the value.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Rounds the count up to a power of two.
+     */
+    private static int bucketOf(int count) {
+        return count <= 2 ? count : Integer.highestOneBit(count - 1) << 1;
+    }
+
+
+    public enum Option {
+
+        /**
+         * Ignore the order of children of the logical nodes, since AND and OR are commutative,
+         * e.g. <tt>a==1;b==2</tt> and <tt>b==3;a==4</tt> have the same fingerprint. The children
+         * are ordered by their fingerprint, so the parameters are extracted in the same order
+         * for both, i.e. <tt>[1, 2]</tt> and <tt>[4, 3]</tt>.
+         */
+        IGNORE_ORDER,
+
+        /**
+         * Round the number of arguments of the multi-value operators (e.g. <tt>=in=</tt>) up to
+         * a power of two, so e.g. lists of 5 to 8 arguments have the same fingerprint. The
+         * number of parameters then differs between queries of the same fingerprint.
+         */
+        BUCKET_ARGUMENT_COUNTS
+    }
+
+    /**
+     * Fingerprint of a query shape along with the parameters of the query. Two fingerprints are
+     * equal when they have the same hash, regardless of the parameters.
+     */
+    @Immutable
+    public static final class Fingerprint {
+
+        private final long high;
+
+        private final long low;
+
+        private final List<String> parameters;
+
+
+        Fingerprint(long high, long low, List<String> parameters) {
+            this.high = high;
+            this.low = low;
+            this.parameters = parameters;
+        }
+
+
+        /**
+         * Returns the upper 64 bits of the hash.
+         */
+        public long getHigh() {
+            return high;
+        }
+
+        /**
+         * Returns the lower 64 bits of the hash; it can be used alone as a 64-bit fingerprint.
+         */
+        public long getLow() {
+            return low;
+        }
+
+        /**
+         * Returns the arguments of all the comparisons, in the order of the fingerprinted tree.
+         * The list is unmodifiable.
+         */
+        public List<String> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Returns the hash as 32 hexadecimal digits.
+         */
+        @Override
+        public String toString() {
+            return hex(high) + hex(low);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint)) return false;
+
+            Fingerprint that = (Fingerprint) o;
+            return high == that.high && low == that.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ low >>> 32);
+        }
+
+        private static String hex(long value) {
+            String str = Long.toHexString(value);
+            return "0000000000000000".substring(str.length()) + str;
+        }
+    }
+
+    /**
+     * Computes the hash recursively; the hash of the last visited node is left in the
+     * {@link #high} and {@link #low} fields.
+     */
+    private static final class Hasher {
+
+        final boolean ignoreOrder;
+        final boolean bucketCounts;
+        final List<String> parameters = new ArrayList<String>();
+
+        long high;
+        long low;
+
+        Hasher(boolean ignoreOrder, boolean bucketCounts) {
+            this.ignoreOrder = ignoreOrder;
+            this.bucketCounts = bucketCounts;
+        }
+
+        void hash(Node node) {
+            if (node instanceof ComparisonNode) {
+                hashComparison((ComparisonNode) node);
+            } else if (node instanceof LogicalNode) {
+                hashLogical((LogicalNode) node);
+            } else {
+                throw new IllegalArgumentException("Unknown node type: " + node.getClass());
+            }
+        }
+
+        void hashComparison(ComparisonNode node) {
+            ComparisonOperator operator = node.getOperator();
+            int count = node.argumentCount();
+
+            high = HIGH_SEED;
+            low = LOW_SEED;
+            update(COMPARISON);
+            update(node.getSelector());
+            update(operator.getSymbol());
+            update(bucketCounts && operator.isMultiValue() ? bucketOf(count) : count);
+
+            high = mix(high);
+            low = mix(low);
+
+            for (int i = 0; i < count; i++) {
+                parameters.add(node.argument(i));
+            }
+        }
+
+        void hashLogical(LogicalNode node) {
+            int count = node.childCount();
+            long h = HIGH_SEED ^ (node.getOperator() == LogicalOperator.AND ? AND : OR);
+            long l = LOW_SEED ^ (node.getOperator() == LogicalOperator.AND ? AND : OR);
+
+            if (ignoreOrder && count > 1) {
+                long[] hashes = new long[2 * count];
+                int[] starts = new int[count + 1];
+                for (int i = 0; i < count; i++) {
+                    starts[i] = parameters.size();
+                    hash(node.child(i));
+                    hashes[2 * i] = high;
+                    hashes[2 * i + 1] = low;
+                }
+                starts[count] = parameters.size();
+
+                int[] order = sortedOrder(hashes);
+                reorderParameters(order, starts);
+
+                for (int i : order) {
+                    h = (h ^ hashes[2 * i]) * HIGH_PRIME;
+                    l = (l ^ hashes[2 * i + 1]) * LOW_PRIME;
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    hash(node.child(i));
+                    h = (h ^ high) * HIGH_PRIME;
+                    l = (l ^ low) * LOW_PRIME;
+                }
+            }
+            high = mix(h ^ count);
+            low = mix(l ^ count);
+        }
+
+        void update(long value) {
+            high = (high ^ value) * HIGH_PRIME;
+            low = (low ^ value) * LOW_PRIME;
+        }
+
+        void update(String str) {
+            long h = high, l = low;
+            for (int i = 0; i < str.length(); i++) {
+                char ch = str.charAt(i);
+                h = (h ^ ch) * HIGH_PRIME;
+                l = (l ^ ch) * LOW_PRIME;
+            }
+            high = h;
+            low = l;
+            update(str.length());  // terminates the string
+        }
+
+        /**
+         * Returns indexes of the children sorted by their hashes; children with equal hashes
+         * keep their order. The number of children is usually small, so it's sorted by insertion.
+         */
+        static int[] sortedOrder(final long[] hashes) {
+            int[] order = new int[hashes.length / 2];
+
+            if (order.length > INSERTION_SORT_THRESHOLD) {
+                Integer[] boxed = new Integer[order.length];
+                for (int i = 0; i < boxed.length; i++) {
+                    boxed[i] = i;
+                }
+                Arrays.sort(boxed, new Comparator<Integer>() {  // stable
+                    public int compare(Integer a, Integer b) {
+                        return Hasher.compare(hashes, a, b);
+                    }
+                });
+                for (int i = 0; i < boxed.length; i++) {
+                    order[i] = boxed[i];
+                }
+                return order;
+            }
+            for (int i = 0; i < order.length; i++) {
+                int j = i;
+                while (j > 0 && compare(hashes, order[j - 1], i) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+            }
+            return order;
+        }
+
+        static int compare(long[] hashes, int a, int b) {
+            int result = compareUnsigned(hashes[2 * a], hashes[2 * b]);
+            return result != 0 ? result : compareUnsigned(hashes[2 * a + 1], hashes[2 * b + 1]);
+        }
+
+        static int compareUnsigned(long x, long y) {
+            x += Long.MIN_VALUE;
+            y += Long.MIN_VALUE;
+            return x < y ? -1 : x == y ? 0 : 1;
+        }
+
+        /**
+         * Reorders the parameters of the children, given by their start positions, to the
+         * specified order of the children.
+         */
+        void reorderParameters(int[] order, int[] starts) {
+            boolean sorted = true;
+            for (int i = 0; i < order.length; i++) {
+                sorted &= order[i] == i;
+            }
+            if (sorted) {
+                return;
+            }
+            int from = starts[0];
+            List<String> segment = new ArrayList<String>(parameters.subList(from, starts[order.length]));
+            int position = from;
+            for (int child : order) {
+                for (int i = starts[child]; i < starts[child + 1]; i++) {
+                    parameters.set(position++, segment.get(i - from));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast;
+
+import net.jcip.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import cz.jirutka.rsql.Assert;
+import cz.jirutka.rsql.ComparisonOperator;
+import cz.jirutka.rsql.LogicalOperator;
+import cz.jirutka.rsql.RSQLFoldVisitor;
+import cz.jirutka.rsql.RSQLTraversal;
+
+import static cz.jirutka.rsql.RSQLOperators.*;
+
+/**
+ * Rule-based optimizer that rewrites the AST into a semantically equivalent, but smaller tree.
+ * The tree is rewritten bottom-up, each logical node after its children, by the enabled
+ * {@linkplain Rule rules}.
+ *
+ * <p>The result of a logical operation without any operands is its identity element, so an empty
+ * {@link OrNode} ({@link #ALWAYS_FALSE}) matches nothing and an empty {@link AndNode}
+ * ({@link #ALWAYS_TRUE}) matches everything. When the optimizer finds out that a query can't match
+ * anything, it returns {@link #ALWAYS_FALSE}; such a query doesn't have to be executed at all.
+ * These constants are always propagated to the parent nodes, regardless of the enabled rules, so
+ * they may appear only as the root of the optimized tree. They can't be expressed in RSQL, so check
+ * the result by {@link #isAlwaysFalse(Node)} and {@link #isAlwaysTrue(Node)} before converting it
+ * back to a query string.</p>
+ *
+ * <p>Only the {@linkplain cz.jirutka.rsql.RSQLOperators default operators} are considered,
+ * comparisons with any other operator are left untouched. Arguments that contain a wildcard
+ * <tt>*</tt> or <tt>%</tt> are never merged or compared, since they are usually translated to
+ * a pattern matching. The order of arguments is taken into account only when both are numbers
+ * and they compare the same as numbers and as strings, so the rewrites hold regardless of
+ * whether the selector is numeric or textual.</p>
+ */
+@Immutable
+public final class QueryOptimizer {
+
+    /**
+     * The node that matches nothing.
+     */
+    public static final OrNode ALWAYS_FALSE = new OrNode(Collections.<Node>emptyList());
+
+    /**
+     * The node that matches everything.
+     */
+    public static final AndNode ALWAYS_TRUE = new AndNode(Collections.<Node>emptyList());
+
+    private static final String WILDCARDS = "*%";
+
+    private final Set<Rule> rules;
+
+
+    /**
+     * Creates a new optimizer with all the rules enabled, except
+     * {@link Rule#DETECT_CONTRADICTIONS} that must be enabled explicitly.
+     */
+    public QueryOptimizer() {
+        this(EnumSet.complementOf(EnumSet.of(Rule.DETECT_CONTRADICTIONS)));
+    }
+
+    private QueryOptimizer(Set<Rule> rules) {
+        this.rules = rules;
+    }
+
+
+    /**
+     * Returns a copy of this optimizer with the specified rule enabled or disabled.
+     *
+     * @param rule Must not be <tt>null</tt>.
+     * @param enabled Whether the rule should be applied.
+     */
+    public QueryOptimizer withRule(Rule rule, boolean enabled) {
+        Assert.notNull(rule, "rule must not be null");
+
+        Set<Rule> newRules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+        if (enabled) {
+            newRules.add(rule);
+        } else {
+            newRules.remove(rule);
+        }
+        return new QueryOptimizer(newRules);
+    }
+
+    public boolean isEnabled(Rule rule) {
+        return rules.contains(rule);
+    }
+
+    /**
+     * Returns an optimized tree, semantically equivalent to the given one.
+     *
+     * @param node The root of the tree to optimize. Must not be <tt>null</tt>.
+     * @return The root of the optimized tree; may be {@link #ALWAYS_FALSE} or
+     *          {@link #ALWAYS_TRUE}.
+     */
+    public Node optimize(Node node) {
+        Assert.notNull(node, "node must not be null");
+
+        return RSQLTraversal.fold(node, new RSQLFoldVisitor<Node, Void>() {
+            public Node visitLeaf(ComparisonNode node, Void param) {
+                return node;
+            }
+            public Node combine(LogicalNode node, List<Node> results, Void param) {
+                return simplify(node, results);
+            }
+        }, null);
+    }
+
+    /**
+     * Whether the node matches nothing, i.e. it's an {@link OrNode} without any children.
+     */
+    public static boolean isAlwaysFalse(Node node) {
+        return node instanceof OrNode && ((OrNode) node).childCount() == 0;
+    }
+
+    /**
+     * Whether the node matches everything, i.e. it's an {@link AndNode} without any children.
+     */
+    public static boolean isAlwaysTrue(Node node) {
+        return node instanceof AndNode && ((AndNode) node).childCount() == 0;
+    }
+
+
+    private Node simplify(LogicalNode original, List<Node> optimizedChildren) {
+        LogicalOperator operator = original.getOperator();
+        boolean and = operator == LogicalOperator.AND;
+        List<Node> children = new ArrayList<Node>(optimizedChildren.size());
+
+        for (Node child : optimizedChildren) {
+            if (and ? isAlwaysTrue(child) : isAlwaysFalse(child)) {
+                continue;  // identity element
+            }
+            if (and ? isAlwaysFalse(child) : isAlwaysTrue(child)) {
+                return child;  // absorbing element
+            }
+            if (isEnabled(Rule.FLATTEN) && child instanceof LogicalNode
+                    && ((LogicalNode) child).getOperator() == operator) {
+                children.addAll(((LogicalNode) child).children());
+            } else {
+                children.add(child);
+            }
+        }
+        if (isEnabled(Rule.REMOVE_DUPLICATES)) {
+            children = new ArrayList<Node>(new LinkedHashSet<Node>(children));
+        }
+        if (isEnabled(Rule.MERGE_IN)) {
+            children = and ? mergeSets(children, NOT_EQUAL, NOT_IN) : mergeSets(children, EQUAL, IN);
+        }
+        if (isEnabled(Rule.COLLAPSE_RANGES)) {
+            children = collapseRanges(children, and);
+        }
+        if (and && isEnabled(Rule.DETECT_CONTRADICTIONS) && hasContradiction(children)) {
+            return ALWAYS_FALSE;
+        }
+
+        if (children.isEmpty()) {
+            return and ? ALWAYS_TRUE : ALWAYS_FALSE;
+        }
+        if (children.size() == 1 && isEnabled(Rule.FLATTEN)) {
+            return children.get(0);
+        }
+        if (children.equals(original.children())) {
+            return original;
+        }
+        return original.withChildren(children);
+    }
+
+    /**
+     * Merges the comparisons with the single-value operator and the multi-value operator on the
+     * same selector into one comparison with the multi-value operator, e.g. <tt>x==1,x=in=(2,3)</tt>
+     * into <tt>x=in=(1,2,3)</tt>.
+     */
+    private static List<Node> mergeSets(List<Node> children, ComparisonOperator single, ComparisonOperator multi) {
+        Map<String, Integer> positions = new LinkedHashMap<String, Integer>();
+        Map<String, Set<String>> values = new LinkedHashMap<String, Set<String>>();
+        List<Node> result = new ArrayList<Node>(children.size());
+
+        for (Node child : children) {
+            ComparisonNode comp = asComparison(child, single, multi);
+            if (comp == null || hasWildcard(comp)) {
+                result.add(child);
+                continue;
+            }
+            String selector = comp.getSelector();
+            Set<String> set = values.get(selector);
+            if (set == null) {
+                set = new LinkedHashSet<String>();
+                values.put(selector, set);
+                positions.put(selector, result.size());
+                result.add(child);
+            }
+            set.addAll(comp.arguments());
+        }
+        for (Map.Entry<String, Set<String>> entry : values.entrySet()) {
+            int position = positions.get(entry.getKey());
+            ComparisonNode first = (ComparisonNode) result.get(position);
+            List<String> arguments = new ArrayList<String>(entry.getValue());
+
+            if (!arguments.equals(first.arguments())) {
+                ComparisonOperator op = arguments.size() > 1 ? multi : first.getOperator();
+                result.set(position, new ComparisonNode(op, entry.getKey(), arguments));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Keeps only the tightest (for AND) or the loosest (for OR) lower and upper bound of each
+     * selector compared with numeric arguments, e.g. <tt>x=gt=5;x=gt=7</tt> into <tt>x=gt=7</tt>.
+     */
+    private static List<Node> collapseRanges(List<Node> children, boolean and) {
+        Map<String, Integer> lowers = new LinkedHashMap<String, Integer>();
+        Map<String, Integer> uppers = new LinkedHashMap<String, Integer>();
+        List<Node> result = new ArrayList<Node>(children.size());
+
+        for (Node child : children) {
+            Bound bound = Bound.of(child);
+            if (bound == null) {
+                result.add(child);
+                continue;
+            }
+            Map<String, Integer> positions = bound.lower ? lowers : uppers;
+            Integer position = positions.get(bound.selector);
+            Boolean tighter = position != null ? bound.isTighterThan(Bound.of(result.get(position))) : null;
+
+            if (tighter == null) {
+                if (position == null) {
+                    positions.put(bound.selector, result.size());
+                }
+                result.add(child);
+            } else if (tighter == and) {
+                // for AND keep the tighter bound, for OR the looser one
+                result.set(position, child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether a conjunction of the given nodes can't match anything.
+     */
+    private static boolean hasContradiction(List<Node> children) {
+        Map<String, Domain> domains = new LinkedHashMap<String, Domain>();
+
+        for (Node child : children) {
+            if (!(child instanceof ComparisonNode) || hasWildcard((ComparisonNode) child)) {
+                continue;
+            }
+            ComparisonNode comp = (ComparisonNode) child;
+            Domain domain = domains.get(comp.getSelector());
+            if (domain == null) {
+                domain = new Domain();
+                domains.put(comp.getSelector(), domain);
+            }
+            if (!domain.restrict(comp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ComparisonNode asComparison(Node node, ComparisonOperator... operators) {
+        if (node instanceof ComparisonNode) {
+            ComparisonNode comp = (ComparisonNode) node;
+            for (ComparisonOperator op : operators) {
+                if (comp.getOperator() == op) {
+                    return comp;
+                }
+            }
+        }
+        return null;
+    }
+
+    static boolean hasWildcard(ComparisonNode node) {
+        for (int i = 0; i < node.argumentCount(); i++) {
+            String arg = node.argument(i);
+            for (int j = 0; j < WILDCARDS.length(); j++) {
+                if (arg.indexOf(WILDCARDS.charAt(j)) >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the argument parsed as a number, or <tt>null</tt> if it's not a number.
+     */
+    private static BigDecimal toNumber(String argument) {
+        try {
+            return new BigDecimal(argument);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Compares the arguments as numbers, but only if they compare the same also as strings, so the
+     * result holds for both numeric and textual selectors. Otherwise returns <tt>null</tt>.
+     */
+    static Integer compareArguments(String a, String b) {
+        BigDecimal x = toNumber(a);
+        BigDecimal y = toNumber(b);
+        if (x == null || y == null) {
+            return null;
+        }
+        int numeric = Integer.signum(x.compareTo(y));
+        return numeric == Integer.signum(a.compareTo(b)) ? numeric : null;
+    }
+
+    /**
+     * Whether the arguments may refer to the same value, i.e. they are equal ignoring case, or
+     * they are equal numbers.
+     */
+    private static boolean mayBeEqual(String a, String b) {
+        if (a.equalsIgnoreCase(b)) {
+            return true;
+        }
+        BigDecimal x = toNumber(a);
+        BigDecimal y = toNumber(b);
+        return x != null && y != null && x.compareTo(y) == 0;
+    }
+
+
+    /**
+     * The optimization rules.
+     */
+    public enum Rule {
+
+        /**
+         * Lift children of a nested node with the same operator into the parent, e.g.
+         * <tt>a==1,(b==2,c==3)</tt> into <tt>a==1,b==2,c==3</tt>, and replace a logical node with
+         * a single child by the child.
+         */
+        FLATTEN,
+
+        /**
+         * Remove children that are equal to a preceding sibling, e.g. <tt>a==1;a==1</tt>.
+         */
+        REMOVE_DUPLICATES,
+
+        /**
+         * Merge equality comparisons on the same selector connected by OR into a single
+         * <tt>=in=</tt>, e.g. <tt>a==1,a==2,a==3</tt> into <tt>a=in=(1,2,3)</tt>, and likewise
+         * inequalities connected by AND into a single <tt>=out=</tt>.
+         */
+        MERGE_IN,
+
+        /**
+         * Keep only the tightest (for AND), or the loosest (for OR) of the lower and upper bounds
+         * on the same selector with numeric arguments, e.g. <tt>x=gt=5;x=gt=7</tt> into
+         * <tt>x=gt=7</tt>.
+         */
+        COLLAPSE_RANGES,
+
+        /**
+         * Replace a conjunction that can't match anything by {@link #ALWAYS_FALSE}, e.g.
+         * <tt>x==1;x==2</tt>, <tt>x==1;x!=1</tt>, or <tt>x=gt=5;x=lt=3</tt>. This assumes that
+         * each selector refers to a single value of the entry, which doesn't hold for selectors
+         * that refer to a collection (e.g. <tt>reviews==1;reviews==2</tt> matches an entry with
+         * both reviews). Therefore this rule is disabled by default.
+         */
+        DETECT_CONTRADICTIONS
+    }
+
+
+    /**
+     * A lower or upper bound with a numeric argument.
+     */
+    static final class Bound {
+
+        final String selector;
+        final String argument;
+        final boolean lower;
+        final boolean strict;
+
+        private Bound(String selector, String argument, boolean lower, boolean strict) {
+            this.selector = selector;
+            this.argument = argument;
+            this.lower = lower;
+            this.strict = strict;
+        }
+
+        static Bound of(Node node) {
+            ComparisonNode comp = asComparison(node,
+                    GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL);
+            if (comp == null || toNumber(comp.argument(0)) == null) {
+                return null;
+            }
+            ComparisonOperator op = comp.getOperator();
+            return new Bound(comp.getSelector(), comp.argument(0),
+                    op == GREATER_THAN || op == GREATER_THAN_OR_EQUAL,
+                    op == GREATER_THAN || op == LESS_THAN);
+        }
+
+        /**
+         * Whether this bound admits less values than the other one in the same direction, or
+         * <tt>null</tt> if it can't be decided.
+         */
+        Boolean isTighterThan(Bound other) {
+            Integer cmp = compareArguments(argument, other.argument);
+            if (cmp == null) {
+                return null;
+            }
+            if (cmp == 0) {
+                return strict && !other.strict;
+            }
+            return lower ? cmp > 0 : cmp < 0;
+        }
+
+        /**
+         * Whether the value satisfies this bound, or <tt>null</tt> if it can't be decided.
+         */
+        Boolean admits(String value) {
+            Integer cmp = compareArguments(value, argument);
+            if (cmp == null) {
+                return null;
+            }
+            if (lower) {
+                return strict ? cmp > 0 : cmp >= 0;
+            }
+            return strict ? cmp < 0 : cmp <= 0;
+        }
+    }
+
+    /**
+     * Set of the values of a selector admitted by the comparisons of a conjunction.
+     */
+    private static final class Domain {
+
+        /** The admitted values, or <tt>null</tt> if not restricted by an equality. */
+        Set<String> allowed;
+
+        final Set<String> excluded = new HashSet<String>();
+
+        Bound lower;
+        Bound upper;
+
+        /**
+         * Restricts the domain by the comparison and returns whether it may be still non-empty.
+         */
+        boolean restrict(ComparisonNode comp) {
+            ComparisonOperator op = comp.getOperator();
+
+            if (op == EQUAL || op == IN) {
+                if (allowed == null) {
+                    allowed = new HashSet<String>(comp.arguments());
+                } else {
+                    Set<String> intersection = new HashSet<String>();
+                    for (String a : allowed) {
+                        for (String b : comp.arguments()) {
+                            if (mayBeEqual(a, b)) {
+                                intersection.add(a);
+                                intersection.add(b);
+                            }
+                        }
+                    }
+                    allowed = intersection;
+                }
+            } else if (op == NOT_EQUAL || op == NOT_IN) {
+                excluded.addAll(comp.arguments());
+
+            } else {
+                Bound bound = Bound.of(comp);
+                if (bound == null) {
+                    return true;
+                }
+                if (bound.lower && (lower == null || Boolean.TRUE.equals(bound.isTighterThan(lower)))) {
+                    lower = bound;
+                } else if (!bound.lower && (upper == null || Boolean.TRUE.equals(bound.isTighterThan(upper)))) {
+                    upper = bound;
+                }
+            }
+            return !isEmpty();
+        }
+
+        private boolean isEmpty() {
+            if (lower != null && upper != null) {
+                Integer cmp = compareArguments(lower.argument, upper.argument);
+                if (cmp != null && (cmp > 0 || (cmp == 0 && (lower.strict || upper.strict)))) {
+                    return true;
+                }
+            }
+            if (allowed == null) {
+                return false;
+            }
+            for (String value : allowed) {
+                if (!excluded.contains(value)
+                        && !Boolean.FALSE.equals(lower != null ? lower.admits(value) : null)
+                        && !Boolean.FALSE.equals(upper != null ? upper.admits(value) : null)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
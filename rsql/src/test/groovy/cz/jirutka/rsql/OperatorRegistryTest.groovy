@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.RSQLOperators.*
+
+@Unroll
+class OperatorRegistryTest extends Specification {
+
+    def 'assign fixed id to default operator #operator'() {
+        expect:
+            operator.id == id
+            OperatorRegistry.idOf(operator.symbol) == id
+        where:
+            operator              | id
+            EQUAL                 | OperatorRegistry.EQUAL
+            NOT_EQUAL             | OperatorRegistry.NOT_EQUAL
+            GREATER_THAN          | OperatorRegistry.GREATER_THAN
+            GREATER_THAN_OR_EQUAL | OperatorRegistry.GREATER_THAN_OR_EQUAL
+            LESS_THAN             | OperatorRegistry.LESS_THAN
+            LESS_THAN_OR_EQUAL    | OperatorRegistry.LESS_THAN_OR_EQUAL
+            IN                    | OperatorRegistry.IN
+            NOT_IN                | OperatorRegistry.NOT_IN
+    }
+
+    def 'assign the same id to equal operators'() {
+        expect:
+            new ComparisonOperator('==').id == EQUAL.id
+            new ComparisonOperator('=gt=', '>').id == GREATER_THAN.id
+            new ComparisonOperator('=rega=').id == new ComparisonOperator('=rega=', true).id
+    }
+
+    def 'assign new id to custom operator'() {
+        setup:
+            def sizeBefore = OperatorRegistry.size()
+        when:
+            def first = new ComparisonOperator('=regb=')
+            def second = new ComparisonOperator('=regc=', true)
+        then:
+            first.id >= OperatorRegistry.BUILTIN_COUNT
+            second.id == first.id + 1
+            OperatorRegistry.idOf('=regb=') == first.id
+            OperatorRegistry.size() == sizeBefore + 2
+    }
+
+    def 'return -1 for unknown symbol'() {
+        expect:
+            OperatorRegistry.idOf('=unknown=') == -1
+    }
+}
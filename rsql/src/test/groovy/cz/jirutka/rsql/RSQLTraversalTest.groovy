@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql
+
+import cz.jirutka.rsql.ast.AndNode
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.ast.LogicalNode
+import cz.jirutka.rsql.ast.Node
+import cz.jirutka.rsql.ast.OrNode
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.RSQLOperators.EQUAL
+import static cz.jirutka.rsql.RSQLTraversal.Order.*
+
+@Unroll
+class RSQLTraversalTest extends Specification {
+
+    // (a==1;(b==2,c==3,d==4);e==5)
+    static final TREE = and(eq('a'), or(eq('b'), eq('c'), eq('d')), eq('e'))
+
+
+    def 'walk the tree in #order'() {
+        setup:
+            def visited = []
+        when:
+            RSQLTraversal.walk(TREE, order, { visited << label(it) } as RSQLTraversal.Callback)
+        then:
+            visited.join(' ') == expected
+        where:
+            order      | expected
+            PRE_ORDER  | 'and a or b c d e'
+            POST_ORDER | 'a b c d or e and'
+            IN_ORDER   | 'a and b or c or d and e'
+    }
+
+    def 'walk a single comparison in #order'() {
+        setup:
+            def visited = []
+        when:
+            RSQLTraversal.walk(eq('a'), order, { visited << label(it) } as RSQLTraversal.Callback)
+        then:
+            visited == ['a']
+        where:
+            order << RSQLTraversal.Order.values()
+    }
+
+    def 'visit logical node with less than two children once in #order'() {
+        setup:
+            def visited = []
+        when:
+            RSQLTraversal.walk(and(or(), and(eq('a'))), order, { visited << label(it) } as RSQLTraversal.Callback)
+        then:
+            visited.join(' ') == expected
+        where:
+            order      | expected
+            PRE_ORDER  | 'and or and a'
+            POST_ORDER | 'or a and and'
+            IN_ORDER   | 'or and a and'
+    }
+
+    def 'fold the tree bottom-up'() {
+        expect:
+            RSQLTraversal.fold(TREE, new ToStringFolder(), null) == TREE.toString()
+            RSQLTraversal.fold(eq('a'), new ToStringFolder(), null) == eq('a').toString()
+    }
+
+    def 'pass the children results in order and the parameter to the visitor'() {
+        setup:
+            def visitor = Mock(RSQLFoldVisitor)
+            def leafB = TREE.child(1).child(0)
+        when:
+            def result = RSQLTraversal.fold(TREE, visitor, 'param')
+        then:
+            5 * visitor.visitLeaf(_, 'param') >> { node, param -> node.selector }
+            1 * visitor.combine(TREE.child(1), ['b', 'c', 'd'], 'param') >> 'bcd'
+            1 * visitor.combine(TREE, ['a', 'bcd', 'e'], 'param') >> 'result'
+        and:
+            result == 'result'
+    }
+
+    def 'handle very deep trees without stack overflow'() {
+        setup:
+            Node tree = eq('x')
+            100000.times { tree = it % 2 ? new AndNode([eq('a'), tree]) : new OrNode([tree, eq('b')]) }
+            def count = 0
+        when:
+            RSQLTraversal.walk(tree, POST_ORDER, { count++ } as RSQLTraversal.Callback)
+        then:
+            count == 200001
+        expect:
+            RSQLTraversal.fold(tree, new DepthFolder(), null) == 100001
+            tree.accept(new DepthFolder()) == 100001
+    }
+
+    def 'throw exception when given null #name'() {
+        when:
+            RSQLTraversal.walk(root, order, callback)
+        then:
+            thrown IllegalArgumentException
+        where:
+            name       | root | order     | callback
+            'root'     | null | PRE_ORDER | {} as RSQLTraversal.Callback
+            'order'    | TREE | null      | {} as RSQLTraversal.Callback
+            'callback' | TREE | PRE_ORDER | null
+    }
+
+    def 'throw exception for unknown node type'() {
+        setup:
+            def unknown = Mock(Node)
+        when:
+            RSQLTraversal.fold(and(eq('a'), unknown), new DepthFolder(), null)
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'let folding adapter be accepted as RSQLVisitor by #className'() {
+        expect:
+            node.accept(new ToStringFolder()) == node.toString()
+        where:
+            node << [TREE, TREE.child(1), eq('a')]
+            className = node.class.simpleName
+    }
+
+
+    //////// Helpers ////////
+
+    static eq(String sel) { new ComparisonNode(EQUAL, sel, ['1']) }
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+
+    static label(Node node) {
+        node instanceof ComparisonNode ? node.selector : node.operator.name().toLowerCase()
+    }
+
+    static class ToStringFolder extends FoldingRSQLVisitorAdapter<String, Void> {
+
+        String visitLeaf(ComparisonNode node, Void param) {
+            node.toString()
+        }
+
+        String combine(LogicalNode node, List<String> results, Void param) {
+            '(' + results.join(node.operator.toString()) + ')'
+        }
+    }
+
+    static class DepthFolder extends FoldingRSQLVisitorAdapter<Integer, Void> {
+
+        Integer visitLeaf(ComparisonNode node, Void param) {
+            1
+        }
+
+        Integer combine(LogicalNode node, List<Integer> results, Void param) {
+            results.max() + 1
+        }
+    }
+}
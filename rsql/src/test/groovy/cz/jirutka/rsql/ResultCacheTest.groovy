@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql
+
+import cz.jirutka.rsql.ast.AndNode
+import cz.jirutka.rsql.ast.ComparisonNode
+import cz.jirutka.rsql.ast.Node
+import cz.jirutka.rsql.ast.OrNode
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static cz.jirutka.rsql.RSQLOperators.*
+import static java.util.concurrent.TimeUnit.*
+
+@Unroll
+class ResultCacheTest extends Specification {
+
+    def ticker = new FakeTicker()
+    def cache = new ResultCache<String>(100, null, 1, MINUTES, ticker)
+
+
+    def 'canonicalize #query'() {
+        expect:
+            ResultCache.canonicalize(query) == expected
+        where:
+            query                                                  | expected
+            eq('a', '1')                                           | eq('a', '1')
+            cmp(IN, 'a', '3', '1', '2', '1')                       | cmp(IN, 'a', '1', '2', '3')
+            cmp(NOT_IN, 'a', 'y', 'x')                             | cmp(NOT_IN, 'a', 'x', 'y')
+            and(eq('b', '1'), eq('a', '2'), eq('b', '1'))          | and(eq('a', '2'), eq('b', '1'))
+            or(and(eq('b', '1'), eq('a', '1')), eq('c', '1'))      | or(eq('c', '1'), and(eq('a', '1'), eq('b', '1')))
+            and(or(eq('x', '1')), and(eq('x', '1')), eq('x', '0')) | and(eq('x', '0'), and(eq('x', '1')), or(eq('x', '1')))
+            and(cmp(GREATER_THAN, 'a', '1'), eq('a', '1'))         | and(eq('a', '1'), cmp(GREATER_THAN, 'a', '1'))
+    }
+
+    def 'share entry for equivalent queries'() {
+        when:
+            cache.put(and(eq('region', 'EU'), cmp(IN, 'id', '2', '1', '2')), 'result')
+        then:
+            cache.get(and(cmp(IN, 'id', '1', '2'), eq('region', 'EU'))) == 'result'
+            cache.get(and(eq('region', 'EU'), cmp(IN, 'id', '1', '2', '3'))) == null
+            cache.size() == 1
+            cache.hitCount == 1
+            cache.missCount == 1
+    }
+
+    def 'evict only entries that refer to invalidated selector'() {
+        setup:
+            cache.put(eq('price', '1'), 'a')
+            cache.put(and(eq('name', 'x'), cmp(LESS_THAN, 'price', '9')), 'b')
+            cache.put(eq('name', 'x'), 'c')
+        when:
+            def count = cache.invalidateSelector('price')
+        then:
+            count == 2
+            cache.get(eq('price', '1')) == null
+            cache.get(and(eq('name', 'x'), cmp(LESS_THAN, 'price', '9'))) == null
+            cache.get(eq('name', 'x')) == 'c'
+            cache.invalidateSelector('price') == 0
+    }
+
+    def 'evict least recently used entries when exceeding maximum size'() {
+        setup:
+            def cache = new ResultCache<String>(2, 1, MINUTES)
+            cache.put(eq('a', '1'), 'a')
+            cache.put(eq('b', '1'), 'b')
+        when:
+            cache.get(eq('a', '1'))
+            cache.put(eq('c', '1'), 'c')
+        then:
+            cache.get(eq('a', '1')) == 'a'
+            cache.get(eq('b', '1')) == null
+            cache.get(eq('c', '1')) == 'c'
+            cache.size() == 2
+            cache.evictionCount == 1
+    }
+
+    def 'do not count expired entry removed as least recently used as eviction'() {
+        setup:
+            def cache = new ResultCache<String>(2, null, 1, MINUTES, ticker)
+            cache.put(eq('a', '1'), 'a', 10, SECONDS)
+            cache.put(eq('b', '1'), 'b')
+        when:
+            ticker.nanos += SECONDS.toNanos(10)
+            cache.put(eq('c', '1'), 'c')
+        then:
+            cache.size() == 2
+            cache.evictionCount == 0
+            cache.get(eq('b', '1')) == 'b'
+            cache.get(eq('c', '1')) == 'c'
+    }
+
+    def 'evict least recently used entry even when another one has expired'() {
+        setup:
+            def cache = new ResultCache<String>(2, null, 1, MINUTES, ticker)
+            cache.put(eq('a', '1'), 'a')
+            cache.put(eq('b', '1'), 'b', 10, SECONDS)
+        when:
+            ticker.nanos += SECONDS.toNanos(10)
+            cache.put(eq('c', '1'), 'c')
+        then:
+            cache.evictionCount == 1
+            cache.get(eq('a', '1')) == null
+            cache.get(eq('b', '1')) == null
+            cache.get(eq('c', '1')) == 'c'
+            cache.size() == 1
+    }
+
+    def 'evict entries when exceeding maximum weight'() {
+        setup:
+            def cache = new ResultCache<String>(10, { query, result -> result.length() as long } as ResultCache.Weigher, 1, MINUTES)
+        when:
+            cache.put(eq('a', '1'), 'aaaa')
+            cache.put(eq('b', '1'), 'bbbb')
+            cache.put(eq('c', '1'), 'ccc')
+        then:
+            cache.weight == 7
+            cache.get(eq('a', '1')) == null
+        when:
+            cache.put(eq('d', '1'), 'd' * 11)
+        then:
+            cache.get(eq('d', '1')) == null
+            cache.weight == 7
+    }
+
+    def 'expire entries after their time to live'() {
+        setup:
+            cache.put(eq('a', '1'), 'default')
+            cache.put(eq('b', '1'), 'short', 10, SECONDS)
+        when:
+            ticker.nanos += SECONDS.toNanos(10)
+        then:
+            cache.get(eq('a', '1')) == 'default'
+            cache.get(eq('b', '1')) == null
+        when:
+            ticker.nanos += SECONDS.toNanos(50)
+        then:
+            cache.get(eq('a', '1')) == null
+            cache.size() == 0
+    }
+
+    def 'load result only once for concurrent equivalent queries'() {
+        setup:
+            def loads = new AtomicInteger()
+            def started = new CountDownLatch(1)
+            def release = new CountDownLatch(1)
+            def loader = {
+                loads.incrementAndGet()
+                started.countDown()
+                release.await()
+                'loaded'
+            } as Callable
+            def executor = Executors.newFixedThreadPool(4)
+        when:
+            def first = executor.submit({ cache.get(and(eq('a', '1'), eq('b', '2')), loader) } as Callable)
+            started.await()
+            def others = (1..3).collect { executor.submit({ cache.get(and(eq('b', '2'), eq('a', '1')), loader) } as Callable) }
+            Thread.sleep(50)
+            release.countDown()
+        then:
+            first.get() == 'loaded'
+            others.every { it.get() == 'loaded' }
+            loads.get() == 1
+            cache.get(eq('a', '1')) == null
+            cache.get(and(eq('a', '1'), eq('b', '2'))) == 'loaded'
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'not cache result loaded while its selector was invalidated'() {
+        when:
+            def result = cache.get(eq('price', '1'), {
+                cache.invalidateSelector(invalidated)
+                'stale'
+            } as Callable)
+        then:
+            result == 'stale'
+            cache.size() == expectedSize
+        where:
+            invalidated | expectedSize
+            'price'     | 0
+            'name'      | 1
+    }
+
+    def 'not cache result loaded while all entries were invalidated'() {
+        when:
+            cache.get(eq('price', '1'), { cache.invalidateAll(); 'stale' } as Callable)
+        then:
+            cache.size() == 0
+    }
+
+    def 'do not join load that started before #description'() {
+        setup:
+            def started = new CountDownLatch(1)
+            def release = new CountDownLatch(1)
+            def executor = Executors.newSingleThreadExecutor()
+        when:
+            def first = executor.submit({
+                cache.get(eq('price', '1'), { started.countDown(); release.await(); 'stale' } as Callable)
+            } as Callable)
+            started.await()
+            invalidate.call(cache)
+        and:
+            def second = cache.get(eq('price', '1'), { 'fresh' } as Callable)
+            release.countDown()
+        then:
+            first.get() == 'stale'
+            second == 'fresh'
+            cache.get(eq('price', '1')) == 'fresh'
+        cleanup:
+            release.countDown()
+            executor.shutdown()
+        where:
+            description                         | invalidate
+            'invalidation of its selector'      | { it.invalidateSelector('price') }
+            'invalidation of all entries'       | { it.invalidateAll() }
+    }
+
+    def 'join load when another selector is invalidated'() {
+        setup:
+            def started = new CountDownLatch(1)
+            def release = new CountDownLatch(1)
+            def executor = Executors.newFixedThreadPool(2)
+        when:
+            def first = executor.submit({
+                cache.get(eq('price', '1'), { started.countDown(); release.await(); 'loaded' } as Callable)
+            } as Callable)
+            started.await()
+            cache.invalidateSelector('name')
+            def second = executor.submit({ cache.get(eq('price', '1'), { 'another' } as Callable) } as Callable)
+            Thread.sleep(50)
+            release.countDown()
+        then:
+            first.get() == 'loaded'
+            second.get() == 'loaded'
+        cleanup:
+            executor.shutdown()
+    }
+
+    def 'propagate exception thrown by loader'() {
+        when:
+            cache.get(eq('a', '1'), { throw new IOException('boom') } as Callable)
+        then:
+            thrown IOException
+            cache.size() == 0
+    }
+
+    def 'throw exception when created with invalid arguments'() {
+        when:
+            new ResultCache<String>(maximumWeight, null, timeToLive, unit)
+        then:
+            thrown IllegalArgumentException
+        where:
+            maximumWeight | timeToLive | unit
+            0             | 1          | SECONDS
+            10            | 0          | SECONDS
+            10            | 1          | null
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static eq(sel, arg) { new ComparisonNode(EQUAL, sel, [arg as String]) }
+    static cmp(op, sel, String... args) { new ComparisonNode(op, sel, args as List) }
+
+    static class FakeTicker implements ResultCache.Ticker {
+        long nanos = 0
+        long read() { nanos }
+    }
+}
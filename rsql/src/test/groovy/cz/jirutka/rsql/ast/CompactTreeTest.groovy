@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import cz.jirutka.rsql.ComparisonOperator
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.LogicalOperator.*
+import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.ast.CompactTree.ROOT
+
+@Unroll
+class CompactTreeTest extends Specification {
+
+    static final NODES = [
+        eq('name', 'Kill Bill'),
+        new ComparisonNode(IN, 'genres', ['sci-fi', 'action', 'sci-fi']),
+        and(eq('a', '1'), new ComparisonNode(GREATER_THAN, 'b', ['2'])),
+        or(and(eq('a', '1'), eq('b', '2')), eq('c', '3'), and(eq('a', '1'), or(eq('d', 'a'), eq('e', 'b')))),
+        and(or(and(or(eq('s0', 'a0'), eq('s1', 'a1')), eq('s2', 'a2')), eq('s3', 'a3')), eq('s4', 'a4')),
+        new AndNode([]),
+        or(new OrNode([]), eq('x', 'y'))
+    ]
+
+
+    def 'convert to tree and back losslessly: #node'() {
+        setup:
+            def tree = new CompactTree(node)
+        expect:
+            tree.toNode() == node
+            tree.toString() == node.toString()
+        where:
+            node << NODES
+    }
+
+    def 'be equal when created from equal AST: #node'() {
+        expect:
+            new CompactTree(node) == new CompactTree(node.accept(new CopyingVisitor()))
+            new CompactTree(node).hashCode() == new CompactTree(node.accept(new CopyingVisitor())).hashCode()
+        where:
+            node << NODES
+    }
+
+    def 'not be equal when created from different AST'() {
+        expect:
+            new CompactTree(eq('a', '1')) != new CompactTree(eq('a', '2'))
+            new CompactTree(and(eq('a', '1'), eq('b', '2'))) != new CompactTree(or(eq('a', '1'), eq('b', '2')))
+    }
+
+    def 'provide properties of the nodes'() {
+        setup:
+            def tree = new CompactTree(and(eq('a', '1'), or(new ComparisonNode(NOT_IN, 'b', ['x', 'y']), eq('c', '1'))))
+            def first = tree.firstChild(ROOT)
+            def second = tree.nextSibling(first)
+            def nested = tree.nextSibling(tree.firstChild(second))
+        expect:
+            tree.nodeCount() == 5
+            tree.isLogical(ROOT)
+            tree.getLogicalOperator(ROOT) == AND
+            tree.childCount(ROOT) == 2
+        and:
+            tree.isComparison(first)
+            tree.getSelector(first) == 'a'
+            tree.getComparisonOperator(first) == EQUAL
+            tree.argumentCount(first) == 1
+            tree.argument(first, 0) == '1'
+        and:
+            tree.getLogicalOperator(second) == OR
+            tree.childCount(second) == 2
+            tree.getSelector(tree.firstChild(second)) == 'b'
+            (0..1).collect { tree.argument(tree.firstChild(second), it) } == ['x', 'y']
+            tree.getSelector(nested) == 'c'
+            tree.argument(nested, 0) == '1'
+    }
+
+    def 'throw exception when accessing property of another node type'() {
+        setup:
+            def tree = new CompactTree(and(eq('a', '1'), eq('b', '2')))
+        when:
+            tree.getSelector(ROOT)
+        then:
+            thrown IllegalArgumentException
+        when:
+            tree.childCount(tree.firstChild(ROOT))
+        then:
+            thrown IllegalArgumentException
+        when:
+            tree.argument(tree.firstChild(ROOT), 1)
+        then:
+            thrown IndexOutOfBoundsException
+    }
+
+    def 'traverse tree by visitor'() {
+        setup:
+            def tree = new CompactTree(or(and(eq('a', '1'), eq('b', '2')), eq('c', '3')))
+            def visitor = new CompactTree.Visitor<String, String>() {
+                String visitAnd(CompactTree t, int node, String indent) { visitChildren(t, node, 'AND', indent) }
+                String visitOr(CompactTree t, int node, String indent) { visitChildren(t, node, 'OR', indent) }
+                String visitComparison(CompactTree t, int node, String indent) {
+                    indent + t.getSelector(node) + '\n'
+                }
+                String visitChildren(CompactTree t, int node, String name, String indent) {
+                    def result = indent + name + '\n'
+                    def child = t.firstChild(node)
+                    t.childCount(node).times {
+                        result += t.accept(child, this, indent + '  ')
+                        child = t.nextSibling(child)
+                    }
+                    result
+                }
+            }
+        expect:
+            tree.accept(visitor, '') == 'OR\n  AND\n    a\n    b\n  c\n'
+    }
+
+    def 'store distinct strings only once'() {
+        setup:
+            def tree = new CompactTree(and(eq('a', 'x'), eq('a', 'x'), new ComparisonNode(IN, 'a', ['x', 'x'])))
+        expect:
+            tree.@strings as List == ['a', 'x']
+            tree.@operators as List == [EQUAL, IN]
+    }
+
+    def 'preserve custom operator instance'() {
+        setup:
+            def allOp = new ComparisonOperator('=all=', true)
+        expect:
+            new CompactTree(new ComparisonNode(allOp, 'a', ['1', '2'])).toNode().operator.is(allOp)
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static eq(sel, arg) { new ComparisonNode(EQUAL, sel, [arg as String]) }
+
+    static class CopyingVisitor extends cz.jirutka.rsql.NoArgRSQLVisitorAdapter<Node> {
+        Node visit(AndNode node) { new AndNode(node.children.collect { it.accept(this) }) }
+        Node visit(OrNode node) { new OrNode(node.children.collect { it.accept(this) }) }
+        Node visit(ComparisonNode node) { new ComparisonNode(node.operator, new String(node.selector), node.arguments.collect { new String(it) }) }
+    }
+}
@@ -59,4 +59,25 @@ class ComparisonNodeTest extends Specification {
         then: "node's arguments remains unchanged"
             node.getArguments() == ['thriller', 'sci-fi']
     }
+
+    def 'provide read-only access to arguments without copying'() {
+        given:
+            def node = new ComparisonNode(IN, 'genres', ['thriller', 'sci-fi'])
+        expect:
+            node.argumentCount() == 2
+            node.argument(0) == 'thriller'
+            node.argument(1) == 'sci-fi'
+            node.arguments() == ['thriller', 'sci-fi']
+            node.arguments().is(node.arguments())
+
+        when:
+            node.arguments() << 'horror'
+        then:
+            thrown UnsupportedOperationException
+
+        when:
+            node.argument(2)
+        then:
+            thrown IndexOutOfBoundsException
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.LogicalOperator
+import spock.lang.Specification
+import spock.lang.Timeout
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.LogicalOperator.*
+import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.ast.ContainmentChecker.Result.*
+
+@Unroll
+class ContainmentCheckerTest extends Specification {
+
+    def checker = new ContainmentChecker()
+
+
+    def 'detect that #narrower is contained in #broader'() {
+        expect:
+            checker.check(broader, narrower) == YES
+            checker.isContained(narrower, broader)
+        where:
+            broader                                 | narrower
+            eq('region', 'EU')                      | and(eq('region', 'EU'), cmp(GREATER_THAN, 'amount', '100'))
+            eq('a', 'x')                            | eq('a', 'x')
+            eq('a', 'x*')                           | eq('a', 'x*')
+            cmp(IN, 'a', '1', '2', '3')             | cmp(IN, 'a', '3', '1')
+            cmp(IN, 'a', '1', '2')                  | eq('a', '2')
+            eq('a', '2')                            | cmp(IN, 'a', '2', '2')
+            cmp(GREATER_THAN, 'x', '3')             | eq('x', '5')
+            cmp(LESS_THAN_OR_EQUAL, 'x', '5')       | cmp(IN, 'x', '5', '4', '-1')
+            cmp(GREATER_THAN, 'x', '3')             | cmp(GREATER_THAN_OR_EQUAL, 'x', '5')
+            cmp(GREATER_THAN_OR_EQUAL, 'x', '3')    | cmp(GREATER_THAN, 'x', '3')
+            cmp(GREATER_THAN, 'x', '3')             | cmp(GREATER_THAN, 'x', '3')
+            cmp(LESS_THAN, 'x', '5')                | cmp(LESS_THAN, 'x', '4')
+            cmp(NOT_EQUAL, 'a', 'x')                | cmp(NOT_IN, 'a', 'y', 'x')
+            and(cmp(GREATER_THAN, 'x', '3'), cmp(LESS_THAN, 'x', '9')) | and(cmp(GREATER_THAN, 'x', '4'), cmp(LESS_THAN, 'x', '8'), eq('y', '1'))
+            or(eq('a', '1'), eq('b', '2'))          | eq('b', '2')
+            or(eq('a', '1'), eq('b', '2'))          | or(eq('b', '2'), and(eq('a', '1'), eq('c', '3')))
+            or(and(eq('a', '1'), eq('b', '2')), eq('c', '3')) | and(eq('b', '2'), eq('d', '4'), eq('a', '1'))
+            and(eq('a', '1'), or(eq('b', '2'), eq('c', '3'))) | and(eq('a', '1'), eq('c', '3'))
+            QueryOptimizer.ALWAYS_TRUE              | eq('a', '1')
+            eq('a', '1')                            | QueryOptimizer.ALWAYS_FALSE
+    }
+
+    def 'do not claim that #narrower is contained in #broader'() {
+        expect:
+            checker.check(broader, narrower) == UNKNOWN
+            ! checker.isContained(narrower, broader)
+        where:
+            broader                                 | narrower
+            and(eq('region', 'EU'), cmp(GREATER_THAN, 'amount', '100')) | eq('region', 'EU')
+            eq('a', 'x')                            | eq('b', 'x')
+            eq('a', 'x')                            | eq('a', 'X')
+            eq('a', '1')                            | eq('a', '1.0')
+            eq('a', 'x*')                           | eq('a', 'xy')
+            cmp(IN, 'a', '1', '2')                  | cmp(IN, 'a', '2', '3')
+            cmp(GREATER_THAN, 'x', '3')             | eq('x', '3')
+            cmp(GREATER_THAN, 'x', '3')             | eq('x', '10')
+            cmp(GREATER_THAN, 'x', '3')             | eq('x', 'abc')
+            cmp(GREATER_THAN, 'x', '3')             | cmp(GREATER_THAN_OR_EQUAL, 'x', '3')
+            cmp(GREATER_THAN, 'x', '3')             | cmp(LESS_THAN, 'x', '1')
+            cmp(GREATER_THAN, 'x', '3')             | cmp(GREATER_THAN, 'x', '10')
+            cmp(NOT_IN, 'a', 'y', 'x')              | cmp(NOT_EQUAL, 'a', 'x')
+            cmp(NOT_EQUAL, 'a', '2')                | eq('a', '1')
+            eq('a', '1')                            | or(eq('a', '1'), eq('b', '2'))
+            or(eq('a', '1'), eq('b', '2'))          | or(eq('a', '1'), eq('c', '2'))
+            eq('a', 'x')                            | QueryOptimizer.ALWAYS_TRUE
+            QueryOptimizer.ALWAYS_FALSE             | eq('a', 'x')
+            cmp(new ComparisonOperator('=all=', true), 'a', '1', '2') | cmp(new ComparisonOperator('=all=', true), 'a', '1')
+    }
+
+    @Timeout(10)
+    def 'check deeply nested operations in polynomial time'() {
+        expect:
+            checker.check(nested(OR, 30, 'b'), nested(AND, 30, 'a')) == UNKNOWN
+            checker.check(or(nested(OR, 30, 'b'), eq('a29', '1')), nested(AND, 30, 'a')) == YES
+            checker.check(alternating(OR, 30, 'c', 'd'), alternating(AND, 30, 'a', 'b')) == UNKNOWN
+            checker.check(alternating(AND, 30, 'a', 'b'), alternating(AND, 30, 'a', 'b')) == YES
+    }
+
+    def 'throw exception when given null'() {
+        when:
+            checker.check(broader, narrower)
+        then:
+            thrown IllegalArgumentException
+        where:
+            broader      | narrower
+            null         | eq('a', '1')
+            eq('a', '1') | null
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static eq(sel, arg) { new ComparisonNode(EQUAL, sel, [arg as String]) }
+    /**
+     * Returns e.g. <tt>a0==1;(a1==1;(a2==1;(...)))</tt> for the operator AND and name <tt>a</tt>.
+     */
+    static nested(LogicalOperator operator, int depth, String name) {
+        def node = eq("${name}${depth - 1}", '1')
+        for (int i = depth - 2; i >= 0; i--) {
+            def operands = [eq("${name}${i}", '1'), node]
+            node = operator == AND ? new AndNode(operands) : new OrNode(operands)
+        }
+        node
+    }
+
+    /**
+     * Returns e.g. <tt>a0==1;b0==1;(a1==1,b1==1,(a2==1;b2==1;(...)))</tt> for the operator AND
+     * and names <tt>a</tt> and <tt>b</tt>.
+     */
+    static alternating(LogicalOperator top, int depth, String first, String second) {
+        def node = eq("${first}${depth}", '1')
+        for (int i = depth - 1; i >= 0; i--) {
+            def operator = (i % 2 == 0) ? top : (top == AND ? OR : AND)
+            def operands = [eq("${first}${i}", '1'), eq("${second}${i}", '1'), node]
+            node = operator == AND ? new AndNode(operands) : new OrNode(operands)
+        }
+        node
+    }
+
+    static cmp(op, sel, String... args) { new ComparisonNode(op, sel, args as List) }
+}
@@ -57,6 +57,29 @@ abstract class LogicalNodeTest extends Specification {
         then: "node's children remains unchanged"
             node.children == [child1, child2]
     }
+
+    def 'provide read-only access to children without copying'() {
+        given:
+            def child1 = new ComparisonNode(EQUAL, 'foo', ['bar'])
+            def child2 = new AndNode([])
+            def node = newNode([child1, child2])
+        expect:
+            node.childCount() == 2
+            node.child(0).is(child1)
+            node.child(1).is(child2)
+            node.children() == [child1, child2]
+            node.children().is(node.children())
+
+        when:
+            node.children() << child1
+        then:
+            thrown UnsupportedOperationException
+
+        when:
+            node.child(2)
+        then:
+            thrown IndexOutOfBoundsException
+    }
 }
 
 class AndNodeTest extends LogicalNodeTest {
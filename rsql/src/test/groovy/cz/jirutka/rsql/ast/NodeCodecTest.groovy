@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import cz.jirutka.rsql.ComparisonOperator
+import cz.jirutka.rsql.UnknownOperatorException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
+import static cz.jirutka.rsql.RSQLOperators.*
+
+@Unroll
+class NodeCodecTest extends Specification {
+
+    static final NODES = [
+        eq('name', 'Kill Bill'),
+        new ComparisonNode(IN, 'genres', ['sci-fi', 'action', 'sci-fi']),
+        and(eq('a', '1'), new ComparisonNode(GREATER_THAN, 'b', ['2'])),
+        or(and(eq('a', '1'), eq('b', '2')), eq('c', '3'), and(eq('a', '1'), or(eq('d', 'a'), eq('e', 'b')))),
+        new AndNode([]),
+        or(new OrNode([]), eq('x', 'y')),
+        new ComparisonNode(NOT_IN, 'n', ['0', '-0', '007', '-42', '9223372036854775807', '-9223372036854775808',
+                                         '999999999999999999', '-999999999999999999', '1e3', '+1', '-', '']),
+        and(eq('název', 'Žluťoučký kůň 🐎'), eq('a', 'název'))
+    ]
+
+    def codec = new NodeCodec()
+
+
+    def 'encode and decode losslessly: #node'() {
+        expect:
+            codec.decode(codec.encode(node)) == node
+        where:
+            node << NODES
+    }
+
+    def 'encode and decode using buffer at its position'() {
+        setup:
+            def buffer = ByteBuffer.allocate(1024)
+            buffer.put(42 as byte)
+        when:
+            NODES.each { codec.encode(it, buffer) }
+            buffer.flip().get()
+        then:
+            NODES.collect { codec.decode(buffer) } == NODES
+            ! buffer.hasRemaining()
+    }
+
+    def 'encode and decode using streams'() {
+        setup:
+            def output = new ByteArrayOutputStream()
+        when:
+            NODES.each { codec.encode(it, output) }
+            def input = new ByteArrayInputStream(output.toByteArray())
+        then:
+            NODES.collect { codec.decode(input) } == NODES
+            input.read() == -1
+    }
+
+    def 'encode large list of numbers much smaller than text'() {
+        setup:
+            def node = new ComparisonNode(IN, 'id', (1..10000).collect { (1000000 + it * 7919) as String })
+        when:
+            def bytes = codec.encode(node)
+        then:
+            codec.decode(bytes) == node
+            bytes.length < node.toString().length() / 2
+    }
+
+    def 'store repeated strings only once'() {
+        expect:
+            codec.encode(and(eq('selector', 'argument'), eq('selector', 'argument'))).length <
+                codec.encode(and(eq('selector', 'argument'), eq('selector2', 'argument2'))).length - 16
+    }
+
+    def 'resolve operators using the factory'() {
+        setup:
+            def allOp = new ComparisonOperator('=all=', true)
+            def equalOp = new ComparisonOperator('==', '=eq=')
+            def codec = new NodeCodec(new NodesFactory([allOp, equalOp] as Set))
+        when:
+            def node = codec.decode(codec.encode(and(new ComparisonNode(allOp, 'a', ['1', '2']), eq('b', '1'))))
+        then:
+            node.children()[0].operator.is(allOp)
+            node.children()[1].operator.is(equalOp)
+    }
+
+    def 'throw exception when decoding unsupported operator'() {
+        setup:
+            def bytes = codec.encode(new ComparisonNode(new ComparisonOperator('=all=', true), 'a', ['1']))
+        when:
+            codec.decode(bytes)
+        then:
+            thrown UnknownOperatorException
+    }
+
+    def 'intern decoded nodes with interner'() {
+        setup:
+            def codec = new NodeCodec(new NodesFactory(defaultOperators()).withInterner(new NodeInterner()))
+            def bytes = codec.encode(and(eq('a', '1'), eq('b', '2')))
+        expect:
+            codec.decode(bytes).is(codec.decode(bytes))
+    }
+
+    def 'throw exception when decoding malformed input: #description'() {
+        when:
+            codec.decode(bytes as byte[])
+        then:
+            thrown IllegalArgumentException
+        where:
+            description       | bytes
+            'empty'           | []
+            'invalid magic'   | [0x51, 1, 0]
+            'unknown version' | [0x52, 2, 0]
+            'truncated'       | new NodeCodec().encode(eq('a', 'b')).toList()[0..-2]
+            'trailing data'   | patchLength(new NodeCodec().encode(eq('a', 'b')).toList() + 0, +1)
+            'unknown type'    | [0x52, 1, 2, 0, 3]
+            'bad reference'   | [0x52, 1, 5, 0, 6, 0, 2, 0]
+            'huge count'      | [0x52, 1, 4, 0, 0xfc, 0xff, 0x7f]
+    }
+
+    def 'decode and encode deeply nested input without recursion'() {
+        setup:
+            def depth = 200000
+            def leaf = codec.encode(eq('a', 'b')).toList()[4..-1]  // without the header and operators table
+            def body = [0] + [AND_WITH_ONE_CHILD] * depth + leaf
+            def bytes = ([0x52, 1] + varint(body.size()) + body) as byte[]
+        when:
+            def node = codec.decode(bytes)
+        then:
+            def levels = 0
+            while (node instanceof AndNode) {
+                node = node.child(0)
+                levels++
+            }
+            levels == depth
+            node == eq('a', 'b')
+        and:
+            Arrays.equals(codec.encode(codec.decode(bytes)), bytes)
+
+        when: 'truncated'
+            def truncated = ([0x52, 1] + varint(depth + 1) + [0] + [AND_WITH_ONE_CHILD] * depth) as byte[]
+            codec.decode(truncated)
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'do not preallocate children by forged counts'() {
+        setup:
+            def levels = 20000
+            // each AND claims all the remaining bytes as its children, 3-byte header each
+            def body = [0] + (0..<levels).collectMany { i -> varint3((levels - i - 1) * 3 << 2 | 0) }
+            def bytes = ([0x52, 1] + varint(body.size()) + body) as byte[]
+        when:
+            codec.decode(bytes)
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'do not preallocate body of stream by forged length'() {
+        setup:
+            def bytes = ([0x52, 1] + varint(Integer.MAX_VALUE) + [0, 0]) as byte[]
+        when:
+            codec.decode(new ByteArrayInputStream(bytes))
+        then:
+            thrown EOFException
+    }
+
+    def 'throw exception when decoding truncated stream'() {
+        when:
+            codec.decode(new ByteArrayInputStream(codec.encode(eq('a', 'b')).toList()[0..-2] as byte[]))
+        then:
+            thrown EOFException
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static eq(sel, arg) { new ComparisonNode(EQUAL, sel, [arg as String]) }
+
+    static final AND_WITH_ONE_CHILD = 1 << 2
+
+    static varint(int value) {
+        def bytes = []
+        while (value >= 0x80) {
+            bytes << ((value & 0x7f) | 0x80)
+            value >>>= 7
+        }
+        bytes << value
+    }
+
+    static varint3(int value) {
+        [(value & 0x7f) | 0x80, (value >>> 7 & 0x7f) | 0x80, value >>> 14]
+    }
+
+    static patchLength(List bytes, int delta) {
+        bytes[2] += delta
+        bytes
+    }
+}
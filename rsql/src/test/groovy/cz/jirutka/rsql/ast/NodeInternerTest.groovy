@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import spock.lang.Specification
+
+import static cz.jirutka.rsql.LogicalOperator.AND
+import static cz.jirutka.rsql.LogicalOperator.OR
+import static cz.jirutka.rsql.RSQLOperators.*
+
+class NodeInternerTest extends Specification {
+
+    def interner = new NodeInterner()
+
+
+    def 'throw exception when given null node'() {
+        when:
+            interner.intern(null)
+        then:
+            thrown IllegalArgumentException
+    }
+
+    def 'return the same instance for structurally equal comparisons'() {
+        setup:
+            def first = interner.intern(eq('tenant', '42'))
+        expect:
+            interner.intern(eq('tenant', '42')).is(first)
+        and:
+            ! interner.intern(eq('tenant', '43')).is(first)
+            ! interner.intern(new ComparisonNode(NOT_EQUAL, 'tenant', ['42'])).is(first)
+    }
+
+    def 'intern the whole tree from the leafs up'() {
+        setup:
+            def first = interner.intern(new AndNode([eq('deleted', 'false'), new OrNode([eq('a', '1'), eq('b', '2')])]))
+        when:
+            def second = interner.intern(new AndNode([eq('deleted', 'false'), new OrNode([eq('a', '1'), eq('b', '2')])]))
+        then:
+            second.is(first)
+        when:
+            def other = interner.intern(new OrNode([eq('deleted', 'false'), new OrNode([eq('a', '1'), eq('b', '2')])]))
+        then:
+            other == new OrNode(first.children)
+            ! other.is(first)
+            other.children[0].is(first.children[0])
+            other.children[1].is(first.children[1])
+    }
+
+    def 'keep the order of children significant'() {
+        setup:
+            def first = interner.intern(new AndNode([eq('a', '1'), eq('b', '2')]))
+        expect:
+            ! interner.intern(new AndNode([eq('b', '2'), eq('a', '1')])).is(first)
+    }
+
+    def 'share subtrees of the nodes created by the factory'() {
+        setup:
+            def factory = new NodesFactory([EQUAL] as Set).withInterner(interner)
+        when:
+            def first = factory.createLogicalNode(AND, [
+                    factory.createComparisonNode('==', 'deleted', ['false']),
+                    factory.createComparisonNode('==', 'a', ['1']) ])
+            def second = factory.createLogicalNode(OR, [
+                    factory.createComparisonNode('==', 'deleted', ['false']),
+                    factory.createComparisonNode('==', 'a', ['1']) ])
+            def third = factory.createLogicalNode(AND, second.children)
+        then:
+            second.children[0].is(first.children[0])
+            third.is(first)
+        and:
+            factory.interner.is(interner)
+            interner.size() == 4
+    }
+
+    def 'discard nodes that are not referenced anymore'() {
+        setup:
+            def kept = interner.intern(eq('kept', '1'))
+            (1..1000).each { interner.intern(eq('tmp', it as String)) }
+        when:
+            def attempts = 0
+            while (interner.size() > 1 && attempts++ < 50) {
+                System.gc()
+                Thread.sleep(20)
+            }
+        then:
+            interner.size() == 1
+            interner.intern(eq('kept', '1')).is(kept)
+    }
+
+
+    //////// Helpers ////////
+
+    static eq(String sel, String arg) {
+        new ComparisonNode(EQUAL, sel, [arg])
+    }
+}
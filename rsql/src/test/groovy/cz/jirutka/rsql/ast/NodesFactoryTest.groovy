@@ -71,4 +71,20 @@ class NodesFactoryTest extends Specification {
         then:
             thrown UnknownOperatorException
     }
+
+    def 'find supported operator by its token'() {
+        expect:
+            factory.findComparisonOperator(opToken) == expected
+        where:
+            opToken | expected
+            '=='    | EQUAL
+            '>'     | GREATER_THAN
+    }
+
+    def 'throw UnknownOperatorException when finding unsupported operator token'() {
+        when:
+            factory.findComparisonOperator('=lt=')
+        then:
+            thrown UnknownOperatorException
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.ast.QueryFingerprinter.Option.*
+
+@Unroll
+class QueryFingerprinterTest extends Specification {
+
+    def fingerprinter = new QueryFingerprinter()
+
+
+    def 'have the same fingerprint for queries of the same shape: #first and #second'() {
+        expect:
+            fingerprinter.fingerprint(first) == fingerprinter.fingerprint(second)
+            fingerprinter.fingerprint(first).hashCode() == fingerprinter.fingerprint(second).hashCode()
+        where:
+            first                                                 | second
+            and(cmp(GREATER_THAN, 'age', '30'), eq('name', 'Bob')) | and(cmp(GREATER_THAN, 'age', '41'), eq('name', 'Al'))
+            cmp(IN, 'id', '1', '2', '3')                          | cmp(IN, 'id', '7', '8', '9')
+            or(eq('a', '1'), and(eq('b', 'x'), eq('c', 'y')))     | or(eq('a', '2'), and(eq('b', 'y'), eq('c', 'x')))
+            cmp(new cz.jirutka.rsql.ComparisonOperator('=gt=', '>'), 'a', '1') | cmp(GREATER_THAN, 'a', '2')
+    }
+
+    def 'have different fingerprint for queries of different shape: #first and #second'() {
+        expect:
+            fingerprinter.fingerprint(first) != fingerprinter.fingerprint(second)
+        where:
+            first                            | second
+            eq('age', '1')                   | eq('agf', '1')
+            eq('age', '1')                   | cmp(NOT_EQUAL, 'age', '1')
+            cmp(IN, 'id', '1', '2')          | cmp(IN, 'id', '1', '2', '3')
+            and(eq('a', '1'), eq('b', '2'))  | or(eq('a', '1'), eq('b', '2'))
+            and(eq('a', '1'), eq('b', '2'))  | and(eq('b', '1'), eq('a', '2'))
+            and(eq('a', '1'), eq('b', '2'))  | and(and(eq('a', '1')), eq('b', '2'))
+            and(eq('a', '1'))                | eq('a', '1')
+            eq('ab', '1')                    | and(eq('a', '1'), eq('b', '1'))
+            new AndNode([])                  | new OrNode([])
+    }
+
+    def 'extract parameters in order of the tree'() {
+        when:
+            def fingerprint = fingerprinter.fingerprint(or(eq('a', '1'), and(cmp(IN, 'b', 'x', 'y'), eq('c', '2'))))
+        then:
+            fingerprint.parameters == ['1', 'x', 'y', '2']
+    }
+
+    def 'ignore order of children with IGNORE_ORDER'() {
+        setup:
+            def fingerprinter = fingerprinter.withOption(IGNORE_ORDER, true)
+            def first = fingerprinter.fingerprint(and(eq('a', '1'), or(eq('b', '2'), cmp(IN, 'c', '3', '4')), eq('d', '5')))
+            def second = fingerprinter.fingerprint(and(eq('d', '6'), eq('a', '7'), or(cmp(IN, 'c', '8', '9'), eq('b', '10'))))
+        expect:
+            first == second
+            first.parameters == second.parameters.collect { ['6': '5', '7': '1', '8': '3', '9': '4', '10': '2'][it] }
+        and:
+            first != fingerprinter.fingerprint(or(eq('a', '1'), or(eq('b', '2'), cmp(IN, 'c', '3', '4')), eq('d', '5')))
+    }
+
+    def 'ignore order of many children with IGNORE_ORDER'() {
+        setup:
+            def fingerprinter = fingerprinter.withOption(IGNORE_ORDER, true)
+            def children = (1..100).collect { eq("s${it}", "${it}") }
+            def random = new Random(42)
+            def shuffled = children.collect { it }
+            Collections.shuffle(shuffled, random)
+        when:
+            def first = fingerprinter.fingerprint(new OrNode(children))
+            def second = fingerprinter.fingerprint(new OrNode(shuffled))
+        then:
+            first == second
+            first.parameters == second.parameters
+            first.parameters as Set == (1..100).collect { "${it}" as String } as Set
+    }
+
+    def 'bucket number of arguments of multi-value operators with BUCKET_ARGUMENT_COUNTS'() {
+        setup:
+            def fingerprinter = fingerprinter.withOption(BUCKET_ARGUMENT_COUNTS, true)
+            def fingerprints = (1..9).collect { n -> fingerprinter.fingerprint(cmp(IN, 'id', *(1..n).collect { "${it}" })) }
+        expect:
+            fingerprints.unique(false).size() == 5  // 1, 2, 3-4, 5-8, 9
+            fingerprints[4] == fingerprints[7]
+            fingerprints[4] != fingerprints[3]
+            fingerprints[8].parameters.size() == 9
+    }
+
+    def 'compute the same fingerprint across JVMs and versions'() {
+        expect:
+            fingerprinter.fingerprint(and(eq('a', '1'), cmp(IN, 'b', 'x', 'y'))).toString() ==~ /[0-9a-f]{32}/
+            fingerprinter.fingerprint(eq('name', 'Bob')).toString() == fingerprinter.fingerprint(eq('name', 'Al')).toString()
+            fingerprinter.fingerprint(eq('name', 'Bob')).toString() == 'cf77933c104832211876e59da3671749'
+    }
+
+    def 'throw exception when given null'() {
+        when:
+            fingerprinter.fingerprint(null)
+        then:
+            thrown IllegalArgumentException
+        when:
+            fingerprinter.withOption(null, true)
+        then:
+            thrown IllegalArgumentException
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static eq(sel, arg) { new ComparisonNode(EQUAL, sel as String, [arg as String]) }
+    static cmp(op, sel, String... args) { new ComparisonNode(op, sel, args as List) }
+}
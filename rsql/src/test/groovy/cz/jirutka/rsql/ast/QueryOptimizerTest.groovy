@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2013-2014 Jakub Jirutka <jakub@jirutka.cz>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package cz.jirutka.rsql.ast
+
+import cz.jirutka.rsql.ComparisonOperator
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static cz.jirutka.rsql.RSQLOperators.*
+import static cz.jirutka.rsql.ast.QueryOptimizer.ALWAYS_FALSE
+import static cz.jirutka.rsql.ast.QueryOptimizer.ALWAYS_TRUE
+import static cz.jirutka.rsql.ast.QueryOptimizer.Rule.*
+
+@Unroll
+class QueryOptimizerTest extends Specification {
+
+    def optimizer = new QueryOptimizer()
+
+    def detecting = optimizer.withRule(DETECT_CONTRADICTIONS, true)
+
+
+    def 'flatten nested nodes: #input'() {
+        expect:
+            optimizer.optimize(input) == expected
+        where:
+            input                                                || expected
+            or(cmp('a', '1'), or(cmp('b', '2'), cmp('c', '3')))   || or(cmp('a', '1'), cmp('b', '2'), cmp('c', '3'))
+            and(cmp('a', '1'), and(and(cmp('b', '2'))))           || and(cmp('a', '1'), cmp('b', '2'))
+            and(or(cmp('a', '1')))                                || cmp('a', '1')
+            or(and(cmp('a', '1'), cmp('b', '2')), cmp('c', '3'))  || or(and(cmp('a', '1'), cmp('b', '2')), cmp('c', '3'))
+    }
+
+    def 'remove duplicate children: #input'() {
+        expect:
+            optimizer.optimize(input) == expected
+        where:
+            input                                                  || expected
+            and(cmp('a', '1'), cmp('b', '2'), cmp('a', '1'))        || and(cmp('a', '1'), cmp('b', '2'))
+            or(and(cmp('a', '1'), cmp('b', '2')), and(cmp('a', '1'), cmp('b', '2'))) || and(cmp('a', '1'), cmp('b', '2'))
+    }
+
+    def 'merge equalities into =in= and inequalities into =out=: #input'() {
+        expect:
+            optimizer.optimize(input) == expected
+        where:
+            input                                                         || expected
+            or(cmp('a', '1'), cmp('a', '2'), cmp('a', '3'))                || cmp(IN, 'a', '1', '2', '3')
+            or(cmp('a', '1'), cmp('b', '1'), cmp(IN, 'a', '2', '1'))       || or(cmp(IN, 'a', '1', '2'), cmp('b', '1'))
+            and(cmp(NOT_EQUAL, 'a', '1'), cmp(NOT_IN, 'a', '2', '3'))      || cmp(NOT_IN, 'a', '1', '2', '3')
+            and(cmp('a', '1'), cmp('a', '1'))                              || cmp('a', '1')
+    }
+
+    def 'do not merge comparisons with wildcard or on different selectors: #input'() {
+        expect:
+            optimizer.optimize(input).is(input)
+        where:
+            input << [
+                or(cmp('a', 'x*'), cmp('a', 'y')),
+                or(cmp('a', '50%'), cmp('a', '60')),
+                or(cmp('a', '1'), cmp('b', '2')),
+                and(cmp('a', '1'), cmp('b', '2')),
+                or(cmp(NOT_EQUAL, 'a', '1'), cmp(NOT_EQUAL, 'a', '2'))
+            ]
+    }
+
+    def 'collapse overlapping ranges: #input'() {
+        expect:
+            optimizer.optimize(input) == expected
+        where:
+            input                                                            || expected
+            and(cmp(GREATER_THAN, 'x', '5'), cmp(GREATER_THAN, 'x', '7'))     || cmp(GREATER_THAN, 'x', '7')
+            and(cmp(GREATER_THAN, 'x', '5'), cmp(GREATER_THAN_OR_EQUAL, 'x', '5')) || cmp(GREATER_THAN, 'x', '5')
+            or(cmp(GREATER_THAN, 'x', '5'), cmp(GREATER_THAN_OR_EQUAL, 'x', '5'))  || cmp(GREATER_THAN_OR_EQUAL, 'x', '5')
+            or(cmp(LESS_THAN, 'x', '5'), cmp(LESS_THAN, 'x', '7'))            || cmp(LESS_THAN, 'x', '7')
+            and(cmp(LESS_THAN, 'x', '5'), cmp(LESS_THAN_OR_EQUAL, 'x', '3'), cmp(GREATER_THAN, 'x', '1')) || and(cmp(LESS_THAN_OR_EQUAL, 'x', '3'), cmp(GREATER_THAN, 'x', '1'))
+    }
+
+    def 'do not collapse ranges that compare differently as numbers and strings: #input'() {
+        expect:
+            optimizer.optimize(input).is(input)
+        where:
+            input << [
+                and(cmp(LESS_THAN, 'x', '9'), cmp(LESS_THAN, 'x', '10')),
+                and(cmp(GREATER_THAN, 'x', 'a'), cmp(GREATER_THAN, 'x', 'b')),
+                and(cmp(GREATER_THAN, 'x', '1'), cmp(GREATER_THAN, 'x', '1.0'))
+            ]
+    }
+
+    def 'detect contradiction: #input'() {
+        expect:
+            detecting.optimize(input).is(ALWAYS_FALSE)
+            ! optimizer.optimize(input).is(ALWAYS_FALSE)
+        where:
+            input << [
+                and(cmp('x', '1'), cmp('x', '2')),
+                and(cmp('x', 'a'), cmp(NOT_EQUAL, 'x', 'a')),
+                and(cmp(IN, 'x', '1', '2'), cmp(NOT_IN, 'x', '2', '1')),
+                and(cmp(IN, 'x', '1', '2'), cmp(IN, 'x', '3', '4')),
+                and(cmp(GREATER_THAN, 'x', '5'), cmp(LESS_THAN, 'x', '3')),
+                and(cmp(GREATER_THAN, 'x', '5'), cmp(LESS_THAN_OR_EQUAL, 'x', '5')),
+                and(cmp('x', '3'), cmp(GREATER_THAN, 'x', '5')),
+                and(cmp('y', '1'), or(cmp('z', '1'), and(cmp('x', '1'), cmp('x', '2'))), cmp('x', '1'), cmp('x', '2'))
+            ]
+    }
+
+    def 'do not detect contradiction when it may be satisfiable: #input'() {
+        expect:
+            ! detecting.optimize(input).is(ALWAYS_FALSE)
+        where:
+            input << [
+                and(cmp('x', 'a'), cmp('x', 'A')),
+                and(cmp('x', '1'), cmp('x', '1.0')),
+                and(cmp('x', '1'), cmp(NOT_EQUAL, 'x', '1.0')),
+                and(cmp('x', 'a*'), cmp('x', 'b')),
+                and(cmp(GREATER_THAN_OR_EQUAL, 'x', '5'), cmp(LESS_THAN_OR_EQUAL, 'x', '5')),
+                and(cmp(IN, 'x', '1', '2'), cmp(NOT_EQUAL, 'x', '1')),
+                and(cmp('x', '1'), cmp('y', '2'))
+            ]
+    }
+
+    def 'propagate always false and always true: #input'() {
+        expect:
+            detecting.optimize(input) == expected
+        where:
+            input                                                     || expected
+            or(and(cmp('x', '1'), cmp('x', '2')), cmp('y', '1'))       || cmp('y', '1')
+            or(and(cmp('x', '1'), cmp('x', '2')), and(cmp('x', '1'), cmp('x', '3'))) || ALWAYS_FALSE
+            and(ALWAYS_TRUE, cmp('y', '1'))                            || cmp('y', '1')
+            or(ALWAYS_TRUE, cmp('y', '1'))                             || ALWAYS_TRUE
+            and(or(), cmp('y', '1'))                                   || ALWAYS_FALSE
+    }
+
+    def 'apply rule #rule only when enabled'() {
+        setup:
+            def enabled = optimizer.withRule(rule, true)
+            def disabled = optimizer.withRule(rule, false)
+        expect:
+            ! disabled.isEnabled(rule)
+            enabled.isEnabled(rule)
+            optimizer.isEnabled(rule) == (rule != DETECT_CONTRADICTIONS)
+        and:
+            enabled.optimize(input) != input
+            disabled.optimize(input).is(input)
+        where:
+            rule                  | input
+            FLATTEN               | or(cmp('a', '1'), or(cmp('b', '2'), cmp('c', '3')))
+            REMOVE_DUPLICATES     | and(cmp('a', '1'), cmp('b', '2'), cmp('a', '1'))
+            MERGE_IN              | or(cmp('a', '1'), cmp('a', '2'))
+            COLLAPSE_RANGES       | and(cmp(GREATER_THAN, 'x', '5'), cmp(GREATER_THAN, 'x', '7'))
+            DETECT_CONTRADICTIONS | and(cmp('x', '1'), cmp('x', '2'))
+    }
+
+    def 'represent always false and always true by explicit non-query strings'() {
+        expect:
+            ALWAYS_FALSE.toString() == '<false>'
+            ALWAYS_TRUE.toString() == '<true>'
+    }
+
+    def 'leave comparisons with custom operator untouched'() {
+        setup:
+            def custom = new ComparisonOperator('=all=', true)
+            def input = or(cmp(custom, 'a', '1'), cmp(custom, 'a', '2'))
+        expect:
+            optimizer.optimize(input).is(input)
+    }
+
+    def 'return the same instance when nothing can be optimized'() {
+        setup:
+            def input = and(cmp('a', '1'), or(cmp('b', '2'), cmp('c', '3')))
+        expect:
+            optimizer.optimize(input).is(input)
+            optimizer.optimize(cmp('a', '1')) == cmp('a', '1')
+    }
+
+    def 'throw exception when given null'() {
+        when:
+            optimizer.optimize(null)
+        then:
+            thrown IllegalArgumentException
+        when:
+            optimizer.withRule(null, true)
+        then:
+            thrown IllegalArgumentException
+    }
+
+
+    //////// Helpers ////////
+
+    static and(Node... nodes) { new AndNode(nodes as List) }
+    static or(Node... nodes) { new OrNode(nodes as List) }
+    static cmp(String sel, String arg) { new ComparisonNode(EQUAL, sel, [arg]) }
+    static cmp(ComparisonOperator op, String sel, String... args) { new ComparisonNode(op, sel, args as List) }
+}